@@ -0,0 +1,246 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.certificate.validation.CAList;
+import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
+import es.accv.arangi.util.ArangiUtil;
+
+/**
+ * Registro de la lista de certificados de CA de una familia de certificados (ciudadano,
+ * sello, DNIe...). La lista se construye una sola vez, la primera vez que se necesita, y
+ * se comparte entre todas las instancias de la familia. De este modo los constructores
+ * no tienen que volver a cargar y normalizar los certificados de CA ni a parsear el
+ * fichero de validacin XML.<br><br>
+ *
+ * La lista compartida no debe modificarse. Si cambian los certificados de CA o los
+ * ficheros de validacin se puede llamar a {@link #reload()} o a {@link #reloadAll()}:
+ * la nueva lista se construye aparte y sustituye a la anterior de forma atmica, por
+ * lo que los hilos que estn construyendo certificados no se bloquean y siempre ven una
+ * lista completa.<br><br>
+ * 
+ * Al construir la lista tambin se calculan, una sola vez por cada certificado de CA,
+ * los SKI de las CAs de test. As los certificados pueden saber si son de test
+ * consultando {@link #isTestIssuer(String)} al construirse.
+ */
+public abstract class CAListRegistry {
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(CAListRegistry.class);
+
+	/*
+	 * Registros dados de alta, para poder recargarlos todos a la vez
+	 */
+	private static List<CAListRegistry> lRegistries = new CopyOnWriteArrayList<CAListRegistry>();
+
+	/*
+	 * Nombre de la familia de certificados
+	 */
+	private String family;
+
+	/*
+	 * Lista de certificados de CA compartida y SKI de las CAs de test. Se sustituyen
+	 * siempre juntos.
+	 */
+	private volatile State state;
+
+	/**
+	 * Constructor: da de alta el registro para que pueda ser recargado mediante
+	 * {@link #reloadAll()}.
+	 *
+	 * @param family Nombre de la familia de certificados
+	 */
+	protected CAListRegistry (String family) {
+		this.family = family;
+		lRegistries.add(this);
+	}
+
+	/**
+	 * Construye una nueva lista de certificados de CA para la familia.
+	 *
+	 * @return Lista de certificados de CA
+	 * @throws CertificateCANotFoundException No se ha encontrado alguno de los certificados de
+	 * 	las CA o no se ha podido parsear el fichero de validacin
+	 */
+	protected abstract CAList build () throws CertificateCANotFoundException;
+
+	/**
+	 * Obtiene los certificados de las CAs de test de la familia. Por defecto la
+	 * familia no tiene CAs de test.
+	 *
+	 * @return Certificados de las CAs de test
+	 * @throws CertificateCANotFoundException No se ha encontrado alguno de los certificados
+	 */
+	protected List<X509Certificate> getTestCACertificates () throws CertificateCANotFoundException {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Obtiene la lista de certificados de CA compartida por la familia. La primera
+	 * llamada la construye.
+	 *
+	 * @return Lista de certificados de CA
+	 * @throws CertificateCANotFoundException No se ha encontrado alguno de los certificados de
+	 * 	las CA o no se ha podido parsear el fichero de validacin
+	 */
+	public CAList getCAList () throws CertificateCANotFoundException {
+		return getState().caList;
+	}
+
+	/**
+	 * Indica si un certificado emitido por la CA con el SKI indicado es de test.
+	 *
+	 * @param issuerKeyIdentifier SKI de la CA emisora (AKI del certificado)
+	 * @return Cierto si la CA es una de las CAs de test de la familia
+	 * @throws CertificateCANotFoundException No se ha encontrado alguno de los certificados de
+	 * 	las CA o no se ha podido parsear el fichero de validacin
+	 */
+	public boolean isTestIssuer (String issuerKeyIdentifier) throws CertificateCANotFoundException {
+		return issuerKeyIdentifier != null && getState().testIssuers.contains(issuerKeyIdentifier);
+	}
+
+	/**
+	 * Vuelve a construir la lista de certificados de CA y la sustituye de forma atmica.
+	 * Si la construccin falla se mantiene la lista anterior.
+	 *
+	 * @throws CertificateCANotFoundException No se ha encontrado alguno de los certificados de
+	 * 	las CA o no se ha podido parsear el fichero de validacin
+	 */
+	public synchronized void reload () throws CertificateCANotFoundException {
+		logger.debug ("[CAListRegistry.reload]::Recargando la lista de CAs de " + family);
+		state = buildState();
+	}
+
+	/**
+	 * Obtiene el nombre de la familia de certificados
+	 *
+	 * @return Nombre de la familia
+	 */
+	public String getFamily() {
+		return family;
+	}
+
+	/**
+	 * Recarga las listas de certificados de CA de todas las familias que ya se han
+	 * utilizado. Las que todava no se han construido no se construyen ahora: se 
+	 * construirn con los recursos actualizados la primera vez que se necesiten. Antes se vaca la cach de recursos de {@link ArangiUtil ArangiUtil}
+	 * para que los certificados y ficheros de validacin se vuelvan a leer. Tambin
+	 * se vaca la cach de {@link CertificateFactory CertificateFactory}, ya que sus
+	 * certificados apuntan a las listas anteriores.
+	 *
+	 * @throws CertificateCANotFoundException Alguna de las listas no ha podido ser
+	 * 	construida. Las listas que no se han podido construir mantienen su valor anterior.
+	 */
+	public static void reloadAll () throws CertificateCANotFoundException {
+		logger.debug ("[CAListRegistry.reloadAll]::Entrada");
+
+		ArangiUtil.clearCache();
+
+		CertificateCANotFoundException exception = null;
+		for (CAListRegistry registry : lRegistries) {
+			try {
+				registry.reloadIfUsed();
+			} catch (CertificateCANotFoundException e) {
+				logger.info ("[CAListRegistry.reloadAll]::No ha sido posible recargar la lista de CAs de " + registry.getFamily(), e);
+				exception = e;
+			}
+		}
+		
+		CertificateCache cache = CertificateFactory.getCache();
+		if (cache != null) {
+			cache.clear();
+		}
+
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Vuelve a construir la lista si ya se ha construido alguna vez
+	 */
+	private synchronized void reloadIfUsed () throws CertificateCANotFoundException {
+		if (state != null) {
+			reload();
+		}
+	}
+
+	/*
+	 * Obtiene el estado, construyndolo la primera vez
+	 */
+	private State getState () throws CertificateCANotFoundException {
+		State result = state;
+		if (result == null) {
+			synchronized (this) {
+				result = state;
+				if (result == null) {
+					logger.debug ("[CAListRegistry.getState]::Construyendo la lista de CAs de " + family);
+					result = buildState();
+					state = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Construye la lista y calcula los SKI de las CAs de test
+	 */
+	private State buildState () throws CertificateCANotFoundException {
+		CAList caList = build();
+		Set<String> testIssuers = new HashSet<String>();
+		for (X509Certificate certificate : getTestCACertificates()) {
+			String ski = Certificate.getSubjectKeyIdentifier(certificate);
+			if (ski != null) {
+				testIssuers.add(ski);
+			}
+		}
+		return new State(caList, Collections.unmodifiableSet(testIssuers));
+	}
+
+	/*
+	 * Lista de CAs y SKI de las CAs de test de una misma construccin
+	 */
+	private static class State {
+		CAList caList;
+		Set<String> testIssuers;
+
+		State (CAList caList, Set<String> testIssuers) {
+			this.caList = caList;
+			this.testIssuers = testIssuers;
+		}
+	}
+
+}
@@ -24,10 +24,15 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
 
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.certificate.validation.ValidateCertificate;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
+import es.accv.arangi.base.exception.certificate.CertificateFieldException;
 import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
 
 /**
@@ -37,6 +42,16 @@ import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
  */
 public abstract class CertificadoACCV extends ValidateCertificate {
 	
+	/*
+	 * Datos decodificados del certificado. Se construyen la primera vez que se necesitan.
+	 */
+	private volatile CertificateProfile profile;
+	
+	/*
+	 * Caractersticas deducidas de las polticas (ver {@link PolicyFlags})
+	 */
+	private int policyFlags;
+	
 	/**
 	 * Constructor con un certificado X509Certificate
 	 * 
@@ -49,6 +64,7 @@ public abstract class CertificadoACCV extends ValidateCertificate {
 	 */
 	public CertificadoACCV(X509Certificate certificate, CAList caList) throws CertificateCANotFoundException, NormalizeCertificateException {
 		super(certificate, caList);
+		policyFlags = computePolicyFlags();
 	}
 	
 	/**
@@ -64,6 +80,7 @@ public abstract class CertificadoACCV extends ValidateCertificate {
 	 */
 	public CertificadoACCV(File fileCertificate, CAList caList) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
 		super(fileCertificate, caList);
+		policyFlags = computePolicyFlags();
 	}
 	
 	/**
@@ -78,6 +95,7 @@ public abstract class CertificadoACCV extends ValidateCertificate {
 	 */
 	public CertificadoACCV(InputStream isCertificate, CAList caList) throws CertificateCANotFoundException, NormalizeCertificateException {
 		super(isCertificate, caList);
+		policyFlags = computePolicyFlags();
 	}
 	
 	/**
@@ -92,6 +110,7 @@ public abstract class CertificadoACCV extends ValidateCertificate {
 	 */
 	public CertificadoACCV(byte[] contenidoCertificado, CAList caList) throws CertificateCANotFoundException, NormalizeCertificateException {
 		super(contenidoCertificado, caList);
+		policyFlags = computePolicyFlags();
 	}
 	
 	/**
@@ -136,4 +155,154 @@ public abstract class CertificadoACCV extends ValidateCertificate {
 	 */
 	public abstract boolean isInSoftwareDevice ();
 
+	/**
+	 * Indica si el certificado tiene una caracterstica que se deduce de sus polticas.
+	 * Las caractersticas se calculan al construir el certificado, por lo que este
+	 * mtodo no vuelve a recorrer las polticas.
+	 * 
+	 * @param flag Caracterstica o combinacin de caractersticas de {@link PolicyFlags}
+	 * @return Cierto si el certificado tiene todas las caractersticas indicadas
+	 */
+	public boolean hasPolicyFlag (int flag) {
+		return (policyFlags & flag) == flag;
+	}
+	
+	/**
+	 * Obtiene las caractersticas que se deducen de las polticas del certificado
+	 * 
+	 * @return Mscara de bits con las caractersticas de {@link PolicyFlags}
+	 */
+	public int getPolicyFlags () {
+		return policyFlags;
+	}
+	
+	/**
+	 * Obtiene qu caractersticas corresponden a cada poltica base de la familia
+	 * de certificados. Por defecto ninguna.
+	 * 
+	 * @return Caractersticas por poltica base o nulo si la familia no tiene
+	 */
+	protected PolicyFlags getPolicyFlagDefinitions () {
+		return null;
+	}
+	
+	/**
+	 * Obtiene la disposicin de los campos del SAN de la familia de certificados.
+	 * Por defecto ninguna.
+	 * 
+	 * @return Disposicin de los campos del SAN o nulo si la familia no tiene
+	 */
+	protected SanLayout getSanLayout () {
+		return null;
+	}
+	
+	/**
+	 * Obtiene los campos del SAN segn la disposicin de la familia de certificados,
+	 * decodificados una sola vez junto con el resto de datos del certificado.
+	 * 
+	 * @return Campos del SAN o nulo si la familia no tiene disposicin
+	 * @throws CertificateFieldException No se ha podido decodificar el SAN
+	 */
+	protected SanLayout.Fields getSanFields () throws CertificateFieldException {
+		return getProfile().getSanFields();
+	}
+	
+	/**
+	 * Obtiene los datos decodificados del certificado (sujeto, nombre alternativo y
+	 * polticas). Se decodifican la primera vez que se llama a este mtodo o a alguno
+	 * de los que obtienen campos del certificado.
+	 * 
+	 * @return Datos decodificados del certificado
+	 */
+	public CertificateProfile getProfile () {
+		CertificateProfile result = profile;
+		if (result == null) {
+			//-- Si dos hilos lo construyen a la vez ambos obtienen lo mismo
+			List sanElements = null;
+			CertificateFieldException sanException = null;
+			try {
+				sanElements = super.getSubjectAlternativeName();
+			} catch (CertificateFieldException e) {
+				sanException = e;
+			}
+			X500Name subject = null;
+			try {
+				subject = toX509CertificateHolder().getSubject();
+			} catch (RuntimeException e) {
+				//-- Sin ndice del sujeto se usarn los mtodos de Certificate
+			}
+			result = new CertificateProfile(getSubjectDN(), subject, sanElements, sanException, super.getPolicyOIDs(), getSanLayout());
+			profile = result;
+		}
+		return result;
+	}
+	
+	/*
+	 * Establece los datos decodificados del certificado si an no se han obtenido.
+	 * Lo utiliza CertificateSnapshot para no volver a decodificarlos.
+	 */
+	void restoreProfile (CertificateProfile restored) {
+		if (profile == null) {
+			profile = restored;
+		}
+	}
+	
+	/**
+	 * Obtiene el primer valor de un elemento del sujeto a partir del sujeto ya decodificado.
+	 */
+	public String getElementSubject(ASN1ObjectIdentifier oid) {
+		CertificateProfile current = getProfile();
+		if (!current.hasSubject()) {
+			return super.getElementSubject(oid);
+		}
+		return current.getSubjectElement(oid);
+	}
+	
+	/**
+	 * Obtiene los valores de un elemento del sujeto a partir del sujeto ya decodificado.
+	 */
+	public String[] getElementsSubject(ASN1ObjectIdentifier oid) {
+		CertificateProfile current = getProfile();
+		if (!current.hasSubject()) {
+			return super.getElementsSubject(oid);
+		}
+		return current.getSubjectElements(oid);
+	}
+	
+	/**
+	 * Obtiene los elementos del nombre alternativo del sujeto. La lista no es modificable.
+	 */
+	public List getSubjectAlternativeName() throws CertificateFieldException {
+		return getProfile().getSubjectAlternativeName();
+	}
+	
+	public String getSubjectAlternativeNameElement(String oid) throws CertificateFieldException {
+		return getProfile().getSubjectAlternativeNameElement(oid);
+	}
+	
+	public String[] getSubjectAlternativeNameElements(String oid) throws CertificateFieldException {
+		return getProfile().getSubjectAlternativeNameElements(oid);
+	}
+	
+	/**
+	 * Obtiene los OIDs de las polticas del certificado. La lista no es modificable.
+	 */
+	public List<String> getPolicyOIDs() {
+		return getProfile().getPolicyOIDs();
+	}
+
+	//-- Mtodos privados
+	
+	/*
+	 * Calcula las caractersticas que se deducen de las polticas
+	 */
+	private int computePolicyFlags () {
+		PolicyFlags definitions = getPolicyFlagDefinitions();
+		if (definitions == null) {
+			return 0;
+		}
+		return definitions.match(super.getPolicyOIDs());
+	}
+
+
 }
@@ -25,12 +25,10 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
 import es.accv.arangi.base.exception.certificate.CertificateFieldException;
@@ -55,14 +53,21 @@ public class CertificadoAplicacion extends CertificadoACCV {
 	static Logger logger = Logger.getLogger(CertificadoAplicacion.class);
 	
 	/*
-	 * Lista de SKI de los certificados de CA de explotacin
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
 	 */
-	private static HashSet setExplotationCACertificates = new HashSet();
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoAplicacion") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoAplicacion.getCAList();
+		}
+		protected List getTestCACertificates() throws CertificateCANotFoundException {
+			return getCAListTest();
+		}
+	};
 	
 	/*
-	 * Lista de SKI de los certificados de CA de test
+	 * Indica si el certificado ha sido emitido por una CA de test
 	 */
-	private static HashSet setTestCACertificates = new HashSet();
+	private boolean testCertificate;
 	
 	/**
 	 * Constructor con un certificado X509Certificate
@@ -75,7 +80,8 @@ public class CertificadoAplicacion extends CertificadoACCV {
 	 * 	puede ser analizada
 	 */
 	public CertificadoAplicacion(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -90,7 +96,8 @@ public class CertificadoAplicacion extends CertificadoACCV {
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoAplicacion(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -104,7 +111,8 @@ public class CertificadoAplicacion extends CertificadoACCV {
 	 * 	puede ser analizada
 	 */
 	public CertificadoAplicacion(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -118,7 +126,8 @@ public class CertificadoAplicacion extends CertificadoACCV {
 	 * 	puede ser analizada
 	 */
 	public CertificadoAplicacion(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	//-- Mtodos pblicos
@@ -130,7 +139,7 @@ public class CertificadoAplicacion extends CertificadoACCV {
 	 */
 	public boolean isTestCertificate () {
 		logger.debug("[CertificadoCiudadano.isTestCertificate]::Entrada");
-		return setTestCACertificates.contains(getIssuerKeyIdentifier());
+		return testCertificate;
 	}
 	
 	/**
@@ -324,20 +333,16 @@ public class CertificadoAplicacion extends CertificadoACCV {
 		//-- Aadir los certificados de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA2");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOT_CA");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		//-- Nueva CA
 		certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA120-SHA256");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVRAIZ1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -352,19 +357,15 @@ public class CertificadoAplicacion extends CertificadoACCV {
 		//-- Aadir los certificados de test y de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/TEST_SUBCA_WINDOWS3");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/TEST_ROOT_EJBCA");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVCATEST120");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOTEJB4TEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -376,18 +377,11 @@ public class CertificadoAplicacion extends CertificadoACCV {
 	 */
 	private String [] getNombreCompleto () {
 		
-		String nombreCompleto;
-		try {
-			nombreCompleto = getSubjectAlternativeNameElement(OID_ID_AT_COMMONNAME);
-		} catch (CertificateFieldException e) {
+		String[] nombreCompleto = getProfile().getFullName();
+		if (nombreCompleto == null) {
 			logger.info ("[CertificadoAplicacion.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
-		}
-		if (nombreCompleto == null || nombreCompleto.length() == 0) {
-			logger.info ("[CertificadoAplicacion.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
 		}
-		return nombreCompleto.split("\\|");
+		return nombreCompleto;
 
 	}
 
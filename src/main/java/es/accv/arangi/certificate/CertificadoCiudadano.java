@@ -25,14 +25,12 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.asn1.x509.X509Name;
 
-import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
 import es.accv.arangi.base.exception.certificate.CertificateFieldException;
@@ -82,6 +80,14 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 * Base del OID de la poltica de certificados de ciudadano en la nube
 	 */
 	public static final String POLICY_IN_CLOUD = "1.3.6.1.4.1.8149.3.23";
+	
+	/*
+	 * Caractersticas que corresponden a cada poltica base
+	 */
+	private static final PolicyFlags POLICY_FLAGS = new PolicyFlags()
+		.add(POLICY_IN_PKCS11_DEVICE, PolicyFlags.PKCS11_DEVICE)
+		.add(POLICY_IN_SOFTWARE_DEVICE, PolicyFlags.SOFTWARE_DEVICE)
+		.add(POLICY_IN_CLOUD, PolicyFlags.CLOUD);
 
 	/*
 	 * Logger de la clas
@@ -89,14 +95,21 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	static Logger logger = Logger.getLogger(CertificadoCiudadano.class);
 	
 	/*
-	 * Lista de SKI de los certificados de CA de explotacin
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
 	 */
-	private static HashSet setExplotationCACertificates = new HashSet();
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoCiudadano") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoCiudadano.getCAList();
+		}
+		protected List getTestCACertificates() throws CertificateCANotFoundException {
+			return getCAListTest();
+		}
+	};
 	
 	/*
-	 * Lista de SKI de los certificados de CA de test
+	 * Indica si el certificado ha sido emitido por una CA de test
 	 */
-	private static HashSet setTestCACertificates = new HashSet();
+	private boolean testCertificate;
 	
 	/**
 	 * Constructor con un certificado X509Certificate
@@ -109,7 +122,8 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 * 	puede ser analizada
 	 */
 	public CertificadoCiudadano(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -124,7 +138,8 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoCiudadano(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -138,7 +153,8 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 * 	puede ser analizada
 	 */
 	public CertificadoCiudadano(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -152,7 +168,8 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 * 	puede ser analizada
 	 */
 	public CertificadoCiudadano(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	//-- Mtodos pblicos
@@ -164,7 +181,7 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 */
 	public boolean isTestCertificate () {
 		logger.debug("[CertificadoCiudadano.isTestCertificate]::Entrada");
-		return setTestCACertificates.contains(getIssuerKeyIdentifier());
+		return testCertificate;
 	}
 	
 	/**
@@ -281,14 +298,7 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 */
 	public boolean isInPkcs11Device () {
 		logger.debug ("[CertificadoCiudadano.isInPkcs11Device]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_PKCS11_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.PKCS11_DEVICE);
 	}
 	
 	/**
@@ -298,14 +308,7 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 */
 	public boolean isInSoftwareDevice () {
 		logger.debug ("[CertificadoCiudadano.isInSoftwareDevice]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.SOFTWARE_DEVICE);
 	}
 	
 	/**
@@ -315,14 +318,7 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 */
 	public boolean isInCloud () {
 		logger.debug ("[CertificadoCiudadano.isInCloud]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_CLOUD)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.CLOUD);
 	}
 	
 	/**
@@ -365,6 +361,13 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 
 	//-- Mtodos protected
 	
+	/**
+	 * Caractersticas que corresponden a cada poltica base de esta clase
+	 */
+	protected PolicyFlags getPolicyFlagDefinitions () {
+		return POLICY_FLAGS;
+	}
+	
 	/**
 	 * Usado por la clase CertificateFactory para dar de alta la clase en la lista
 	 * de tipos de certificados.
@@ -390,24 +393,19 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 		//-- Aadir los certificados de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA2");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/CAGVA");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOT_CA");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		//-- Nueva CA
 		certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA120-SHA256");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVRAIZ1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -422,23 +420,18 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 		//-- Aadir los certificados de test
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/TEST_SUBCA_WINDOWS3");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/TEST_ROOT_EJBCA");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/TEST_CATEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVCATEST120");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOTEJB4TEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -450,18 +443,11 @@ public class CertificadoCiudadano extends CertificadoPersona  {
 	 */
 	private String [] getNombreCompleto () {
 		
-		String nombreCompleto;
-		try {
-			nombreCompleto = getSubjectAlternativeNameElement(OID_ID_AT_COMMONNAME);
-		} catch (CertificateFieldException e) {
-			logger.info ("[CertificadoCiudadano.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
-		}
-		if (nombreCompleto == null || nombreCompleto.length() == 0) {
+		String[] nombreCompleto = getProfile().getFullName();
+		if (nombreCompleto == null) {
 			logger.info ("[CertificadoCiudadano.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
 		}
-		return nombreCompleto.split("\\|");
+		return nombreCompleto;
 
 	}
 	
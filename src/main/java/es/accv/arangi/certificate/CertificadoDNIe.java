@@ -79,6 +79,15 @@ public class CertificadoDNIe extends CertificadoPersona {
 	 */
 	static Logger logger = Logger.getLogger(CertificadoDNIe.class);
 	
+	/*
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
+	 */
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoDNIe") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoDNIe.getCAList();
+		}
+	};
+	
 	/**
 	 * Constructor con un certificado X509Certificate
 	 * 
@@ -90,7 +99,7 @@ public class CertificadoDNIe extends CertificadoPersona {
 	 * 	puede ser analizada
 	 */
 	public CertificadoDNIe(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
 	}
 	
 	/**
@@ -105,7 +114,7 @@ public class CertificadoDNIe extends CertificadoPersona {
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoDNIe(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
 	}
 	
 	/**
@@ -119,7 +128,7 @@ public class CertificadoDNIe extends CertificadoPersona {
 	 * 	puede ser analizada
 	 */
 	public CertificadoDNIe(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
 	}
 	
 	/**
@@ -133,7 +142,7 @@ public class CertificadoDNIe extends CertificadoPersona {
 	 * 	puede ser analizada
 	 */
 	public CertificadoDNIe(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
 	}
 	
 	//-- Mtodos pblicos
@@ -350,18 +359,11 @@ public class CertificadoDNIe extends CertificadoPersona {
 	 */
 	private String [] getNombreCompleto () {
 		
-		String nombreCompleto;
-		try {
-			nombreCompleto = getSubjectAlternativeNameElement(OID_ID_AT_COMMONNAME);
-		} catch (CertificateFieldException e) {
-			logger.info ("[CertificadoDNIe.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
-		}
-		if (nombreCompleto == null || nombreCompleto.length() == 0) {
+		String[] nombreCompleto = getProfile().getFullName();
+		if (nombreCompleto == null) {
 			logger.info ("[CertificadoDNIe.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
 		}
-		return nombreCompleto.split("\\|");
+		return nombreCompleto;
 
 	}
 
@@ -25,13 +25,11 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.x509.X509Name;
 
-import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
 import es.accv.arangi.base.exception.certificate.CertificateFieldException;
@@ -56,6 +54,23 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 */
 	static Logger logger = Logger.getLogger(CertificadoEmpleadoPublico.class);
 	
+	/*
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
+	 */
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoEmpleadoPublico") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoEmpleadoPublico.getCAList();
+		}
+		protected List getTestCACertificates() throws CertificateCANotFoundException {
+			return getCAListTest();
+		}
+	};
+	
+	/*
+	 * Indica si el certificado ha sido emitido por una CA de test
+	 */
+	private boolean testCertificate;
+	
 	/**
 	 * Base del OID de la poltica de certificados de ep en dispositivo seguro
 	 */
@@ -71,6 +86,14 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 */
 	public static final String POLICY_IN_CLOUD = "1.3.6.1.4.1.8149.3.24";
 	
+	/*
+	 * Caractersticas que corresponden a cada poltica base
+	 */
+	private static final PolicyFlags POLICY_FLAGS = new PolicyFlags()
+		.add(POLICY_IN_PKCS11_DEVICE, PolicyFlags.PKCS11_DEVICE)
+		.add(POLICY_IN_SOFTWARE_DEVICE, PolicyFlags.SOFTWARE_DEVICE)
+		.add(POLICY_IN_CLOUD, PolicyFlags.CLOUD);
+	
 	/**
 	 * OID base de los campos del SAN para la versin 1 de la poltica
 	 */
@@ -116,21 +139,20 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 */
 	public static final String SUFIJO_OID_SAN_NRP = "5"; 
 	
+	/*
+	 * Disposicin de los campos del SAN: la versin ms reciente de la poltica
+	 * que contiene un campo es la que da su valor
+	 */
+	private static final SanLayout SAN_LAYOUT = new SanLayout(
+			new String[] { OID_SAN_VERSION_4, OID_SAN_VERSION_3, OID_SAN_VERSION_2, OID_SAN_VERSION_1 },
+			new String[] { SUFIJO_OID_SAN_CARGO, SUFIJO_OID_SAN_CIF_ENTIDAD, SUFIJO_OID_SAN_NOMBRE_ENTIDAD, 
+					SUFIJO_OID_SAN_UNIDAD, SUFIJO_OID_SAN_NRP });
+	
 	/**
 	 * Alias del keystore donde se guarda el certificado
 	 */
 	public static final String ALIAS_PKCS11 = "EPN1";
 
-	/*
-	 * Lista de SKI de los certificados de CA de explotacin
-	 */
-	private static HashSet setExplotationCACertificates = new HashSet();
-	
-	/*
-	 * Lista de SKI de los certificados de CA de test
-	 */
-	private static HashSet setTestCACertificates = new HashSet();
-	
 	/**
 	 * Constructor con un certificado X509Certificate
 	 * 
@@ -142,7 +164,8 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 * 	puede ser analizada
 	 */
 	public CertificadoEmpleadoPublico(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -157,7 +180,8 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoEmpleadoPublico(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -171,7 +195,8 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 * 	puede ser analizada
 	 */
 	public CertificadoEmpleadoPublico(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -185,7 +210,8 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 * 	puede ser analizada
 	 */
 	public CertificadoEmpleadoPublico(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	//-- Mtodos pblicos
@@ -197,7 +223,7 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 */
 	public boolean isTestCertificate () {
 		logger.debug("[CertificadoEmpleadoPublico.isTestCertificate]::Entrada");
-		return setTestCACertificates.contains(getIssuerKeyIdentifier());
+		return testCertificate;
 	}
 	
 	/**
@@ -297,18 +323,7 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 		logger.debug ("[CertificadoEmpleadoPublico.getCargo]::Entrada");
 		
 		try {
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_CARGO) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_CARGO);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_CARGO) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_CARGO);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_CARGO) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_CARGO);
-			} 
-
-			return getSubjectAlternativeNameElement(OID_SAN_VERSION_1 + "." + SUFIJO_OID_SAN_CARGO);
-			 
+			return getSanFields().getValue(SUFIJO_OID_SAN_CARGO);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoEmpleadoPublico.getCargo]::No se puede obtener el cargo del empleado pblico", e);
 			return null;
@@ -333,18 +348,7 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 		logger.debug ("[CertificadoEmpleadoPublico.getNRP]::Entrada");
 		
 		try {
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_NRP) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_NRP);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_NRP) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_NRP);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_NRP) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_NRP);
-			} 
-
-			return getSubjectAlternativeNameElement(OID_SAN_VERSION_1 + "." + SUFIJO_OID_SAN_NRP);
-			 
+			return getSanFields().getValue(SUFIJO_OID_SAN_NRP);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoEmpleadoPublico.getNRP]::No se puede obtener el nrp/nip del empleado pblico", e);
 			return null;
@@ -361,17 +365,7 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 		logger.debug ("[CertificadoEmpleadoPublico.getCIFEntidad]::Entrada");
 		
 		try {
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_CIF_ENTIDAD) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_CIF_ENTIDAD);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_CIF_ENTIDAD) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_CIF_ENTIDAD);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_CIF_ENTIDAD) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_CIF_ENTIDAD);
-			} 
-
-			return getSubjectAlternativeNameElement(OID_SAN_VERSION_1 + "." + SUFIJO_OID_SAN_CIF_ENTIDAD);
+			return getSanFields().getValue(SUFIJO_OID_SAN_CIF_ENTIDAD);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoEmpleadoPublico.getCargo]::No se puede obtener el nombre de la entidad suscriptora", e);
 			return null;
@@ -388,23 +382,34 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 		logger.debug ("[CertificadoEmpleadoPublico.getNombreEntidad]::Entrada");
 		
 		try {
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_NOMBRE_ENTIDAD) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_NOMBRE_ENTIDAD);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_NOMBRE_ENTIDAD) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_NOMBRE_ENTIDAD);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_NOMBRE_ENTIDAD) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_NOMBRE_ENTIDAD);
-			} 
-
-			return getSubjectAlternativeNameElement(OID_SAN_VERSION_1 + "." + SUFIJO_OID_SAN_NOMBRE_ENTIDAD);
+			return getSanFields().getValue(SUFIJO_OID_SAN_NOMBRE_ENTIDAD);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoEmpleadoPublico.getCargo]::No se puede obtener el nombre de la entidad suscriptora", e);
 			return null;
 		}
 	}
 	
+	/**
+	 * Obtiene el OID base de los campos del SAN del certificado, que indica la versin
+	 * de la poltica con la que se emiti (de {@link #OID_SAN_VERSION_1} a 
+	 * {@link #OID_SAN_VERSION_4}). Si hay campos de varias versiones se devuelve la
+	 * ms reciente.
+	 * 
+	 * @return OID base de los campos del SAN o nulo si el SAN no contiene campos
+	 * 	de empleado pblico
+	 */
+	public String getSanVersion() {
+		
+		logger.debug ("[CertificadoEmpleadoPublico.getSanVersion]::Entrada");
+		
+		try {
+			return getSanFields().getBase();
+		} catch (CertificateFieldException e) {
+			logger.info ("[CertificadoEmpleadoPublico.getSanVersion]::No se puede obtener la versin del SAN", e);
+			return null;
+		}
+	}
+	
 	/**
 	 * Devuelve la Unidad, dentro de la Administracin, en la que est incluida el suscriptor
 	 * del certificado.
@@ -416,17 +421,7 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 		logger.debug ("[CertificadoEmpleadoPublico.getOrganizationalUnit]::Entrada");
 
 	    try {
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_UNIDAD) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_4 + "." + SUFIJO_OID_SAN_UNIDAD);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_UNIDAD) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_3 + "." + SUFIJO_OID_SAN_UNIDAD);
-			} 
-			if (getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_UNIDAD) != null) {
-				return getSubjectAlternativeNameElement(OID_SAN_VERSION_2 + "." + SUFIJO_OID_SAN_UNIDAD);
-			} 
-
-			return getSubjectAlternativeNameElement(OID_SAN_VERSION_1 + "." + SUFIJO_OID_SAN_UNIDAD);
+			return getSanFields().getValue(SUFIJO_OID_SAN_UNIDAD);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoEmpleadoPublico.getCargo]::No se puede obtener la unidad del empleado pblico", e);
 			return null;
@@ -440,14 +435,7 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 */
 	public boolean isInPkcs11Device () {
 		logger.debug ("[CertificadoEmpleadoPublico.isInPkcs11Device]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_PKCS11_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.PKCS11_DEVICE);
 	}
 	
 	/**
@@ -457,14 +445,7 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 */
 	public boolean isInSoftwareDevice () {
 		logger.debug ("[CertificadoEmpleadoPublico.isInSoftwareDevice]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.SOFTWARE_DEVICE);
 	}
 	
 	/**
@@ -474,14 +455,7 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 */
 	public boolean isInCloud () {
 		logger.debug ("[CertificadoEmpleadoPublico.isInCloud]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_CLOUD)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.CLOUD);
 	}
 	
 	/**
@@ -542,6 +516,20 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 
 	//-- Mtodos protected
 	
+	/**
+	 * Caractersticas que corresponden a cada poltica base de esta clase
+	 */
+	protected PolicyFlags getPolicyFlagDefinitions () {
+		return POLICY_FLAGS;
+	}
+	
+	/**
+	 * Disposicin de los campos del SAN de esta clase
+	 */
+	protected SanLayout getSanLayout () {
+		return SAN_LAYOUT;
+	}
+	
 	/**
 	 * Usado por la clase CertificateFactory para dar de alta la clase en la lista
 	 * de tipos de certificados.
@@ -567,20 +555,16 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 		//-- Aadir los certificados de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA2");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOT_CA");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		//-- Nueva CA
 		certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA120-SHA256");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVRAIZ1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -595,19 +579,15 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 		//-- Aadir los certificados de test y de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/TEST_SUBCA_WINDOWS3");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/TEST_ROOT_EJBCA");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVCATEST120");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOTEJB4TEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -619,18 +599,11 @@ public class CertificadoEmpleadoPublico extends CertificadoPersona implements Ce
 	 */
 	private String [] getNombreCompleto () {
 		
-		String nombreCompleto;
-		try {
-			nombreCompleto = getSubjectAlternativeNameElement(OID_ID_AT_COMMONNAME);
-		} catch (CertificateFieldException e) {
+		String[] nombreCompleto = getProfile().getFullName();
+		if (nombreCompleto == null) {
 			logger.info ("[CertificadoEmpleadoPublico.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
-		}
-		if (nombreCompleto == null || nombreCompleto.length() == 0) {
-			logger.info ("[CertificadoEmpleadoPublico.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
 		}
-		return nombreCompleto.split("\\|");
+		return nombreCompleto;
 
 	}
 
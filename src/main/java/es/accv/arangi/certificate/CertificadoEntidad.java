@@ -24,17 +24,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
-import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.asn1.x509.X509Name;
 
-import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
 import es.accv.arangi.base.exception.certificate.CertificateFieldException;
@@ -63,6 +59,28 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 */
 	static Logger logger = Logger.getLogger(CertificadoEntidad.class);
 	
+	/*
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
+	 */
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoEntidad") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoEntidad.getCAList();
+		}
+		protected List getTestCACertificates() throws CertificateCANotFoundException {
+			return getCAListTest();
+		}
+	};
+	
+	/*
+	 * Indica si el certificado ha sido emitido por una CA de test
+	 */
+	private boolean testCertificate;
+	
+	/*
+	 * Informacin de representacin ya interpretada (ver getRepresentationData)
+	 */
+	private volatile Object representationData;
+	
 	/**
 	 * Alias del keystore donde se guarda el certificado
 	 */
@@ -77,17 +95,14 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 * Base del OID de la poltica de certificados de ep en dispositivo software
 	 */
 	public static final String POLICY_IN_SOFTWARE_DEVICE = "1.3.6.1.4.1.8149.3.22";
-
-	/*
-	 * Lista de SKI de los certificados de CA de explotacin
-	 */
-	private static HashSet setExplotationCACertificates = new HashSet();
 	
 	/*
-	 * Lista de SKI de los certificados de CA de test
+	 * Caractersticas que corresponden a cada poltica base
 	 */
-	private static HashSet setTestCACertificates = new HashSet();
-	
+	private static final PolicyFlags POLICY_FLAGS = new PolicyFlags()
+		.add(POLICY_IN_PKCS11_DEVICE, PolicyFlags.PKCS11_DEVICE)
+		.add(POLICY_IN_SOFTWARE_DEVICE, PolicyFlags.SOFTWARE_DEVICE);
+
 	/**
 	 * Constructor con un certificado X509Certificate
 	 * 
@@ -99,7 +114,8 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 * 	puede ser analizada
 	 */
 	public CertificadoEntidad(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -114,7 +130,8 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoEntidad(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -128,7 +145,8 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 * 	puede ser analizada
 	 */
 	public CertificadoEntidad(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -142,7 +160,8 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 * 	puede ser analizada
 	 */
 	public CertificadoEntidad(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	//-- Mtodos pblicos
@@ -154,7 +173,7 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 */
 	public boolean isTestCertificate () {
 		logger.debug("[CertificadoCiudadano.isTestCertificate]::Entrada");
-		return setTestCACertificates.contains(getIssuerKeyIdentifier());
+		return testCertificate;
 	}
 	
 	/**
@@ -235,7 +254,7 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 * @return Tira de texto con la informacin de representacin
 	 */
 	public String getRepresentationDataString() {
-		return getElementSubject(new ASN1ObjectIdentifier("2.5.4.13"));
+		return getElementSubject(CertificateProfile.OID_DESCRIPTION);
 	}
 	
 	/**
@@ -249,61 +268,18 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 * @return En caso de que exista el campo se devolver un objeto que puede ser
 	 * 	de las siguientes clases: DatosRepresentacionRegistro, DatosRepresentacionRegistroNotarial,
 	 * 	DatosRepresentacionBoletinOficial o DatosRepresentacionDesconocido. Si el
-	 * 	campo no existe se devolver null.
+	 * 	campo no existe se devolver null. El objeto se obtiene una sola vez y se
+	 * 	devuelve el mismo en cada llamada, por lo que no debe modificarse.
 	 */
 	public Object getRepresentationData() {
-		String descripcion = getRepresentationDataString();
-		logger.debug ("[CertificadoEntidad.getRepresentationData]::Descripcion: " + descripcion);
-		if (descripcion == null) {
-			return null;
-		}
-		
-		String[] elementos = descripcion.split("/");
-		if (descripcion.startsWith("R:")) {
-			DatosRepresentacionRegistro datos = new DatosRepresentacionRegistro();
-			datos.setRegistro(elementos[0].substring(elementos[0].indexOf(":") + 1));
-			datos.setHoja(elementos[1]);
-			datos.setTomo(elementos[2]);
-			datos.setSeccion(elementos[3]);
-			datos.setLibro(elementos[4]);
-			datos.setFolio(elementos[5]);
-			if (!elementos[6].trim().equals("")) {
-				try {
-					datos.setFecha(ArangiUtil.SIMPLE_DATE_FORMAT.parse(elementos[6]));
-				} catch (ParseException e) {
-					logger.info("No se puede parsear la fecha '" + elementos[6] + "");
-				}
-			}
-			datos.setInscripcion(elementos[7]);
-			return datos;
-		} else if (descripcion.startsWith("N:")) {
-			DatosRepresentacionRegistroNotarial datos = new DatosRepresentacionRegistroNotarial();
-			datos.setNotario(elementos[0].substring(elementos[0].indexOf(":") + 1));
-			datos.setNumeroProtocolo(elementos[1]);
-			if (!elementos[2].trim().equals("")) {
-				try {
-					datos.setFechaOtorgamiento(ArangiUtil.SIMPLE_DATE_FORMAT.parse(elementos[2]));
-				} catch (ParseException e) {
-					logger.info("No se puede parsear la fecha '" + elementos[6] + "");
-				}
-			}
-			return datos;
-		} else if (descripcion.startsWith("B:")) {
-			DatosRepresentacionBoletinOficial datos = new DatosRepresentacionBoletinOficial();
-			datos.setBoletin(elementos[0].substring(elementos[0].indexOf(":") + 1));
-			if (!elementos[1].trim().equals("")) {
-				try {
-					datos.setFecha(ArangiUtil.SIMPLE_DATE_FORMAT.parse(elementos[1]));
-				} catch (ParseException e) {
-					logger.info("No se puede parsear la fecha '" + elementos[6] + "");
-				}
-			}
-			datos.setNumeroResolucion(elementos[2]);
-			return datos;
-		} else {
-			DatosRepresentacionDesconocido datos = new DatosRepresentacionDesconocido(descripcion);
-			return datos;
+		Object result = representationData;
+		if (result == null) {
+			String descripcion = getRepresentationDataString();
+			logger.debug ("[CertificadoEntidad.getRepresentationData]::Descripcion: " + descripcion);
+			result = RepresentationDataParser.parse(descripcion);
+			representationData = result;
 		}
+		return result;
 	}
 	
 	/**
@@ -328,7 +304,7 @@ public class CertificadoEntidad extends CertificadoACCV{
 		
 		logger.debug ("[CertificadoEntidad.getCIFETSI]::Entrada");
 		
-		return getElementSubject(new ASN1ObjectIdentifier("2.5.4.97"));
+		return getElementSubject(CertificateProfile.OID_ORGANIZATION_IDENTIFIER);
 	}
 	
 	/**
@@ -359,14 +335,7 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 */
 	public boolean isInPkcs11Device () {
 		logger.debug ("[CertificadoEmpleadoPublico.isInPkcs11Device]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_PKCS11_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.PKCS11_DEVICE);
 	}
 	
 	/**
@@ -376,14 +345,7 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 */
 	public boolean isInSoftwareDevice () {
 		logger.debug ("[CertificadoEmpleadoPublico.isInSoftwareDevice]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.SOFTWARE_DEVICE);
 	}
 	
 	@Override
@@ -436,6 +398,13 @@ public class CertificadoEntidad extends CertificadoACCV{
 
 	//-- Mtodos protected
 	
+	/**
+	 * Caractersticas que corresponden a cada poltica base de esta clase
+	 */
+	protected PolicyFlags getPolicyFlagDefinitions () {
+		return POLICY_FLAGS;
+	}
+	
 	/**
 	 * Usado por la clase CertificateFactory para dar de alta la clase en la lista
 	 * de tipos de certificados.
@@ -460,20 +429,16 @@ public class CertificadoEntidad extends CertificadoACCV{
 		//-- Aadir los certificados de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOT_CA");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		//-- Nueva CA
 		certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA110-SHA256");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVRAIZ1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -488,19 +453,15 @@ public class CertificadoEntidad extends CertificadoACCV{
 		//-- Aadir los certificados de test y de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/TEST_SUBCA_WINDOWS3");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/TEST_ROOT_EJBCA");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVCATEST110");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOTEJB4TEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -512,18 +473,12 @@ public class CertificadoEntidad extends CertificadoACCV{
 	 */
 	private String [] getNombreCompleto () {
 		
-		String nombreCompleto;
-		try {
-			nombreCompleto = getSubjectAlternativeNameElement(OID_ID_AT_COMMONNAME);
-		} catch (CertificateFieldException e) {
-			logger.info ("[CertificadoEntidad.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return new String [] {"","",""};
-		}
-		if (nombreCompleto == null || nombreCompleto.length() == 0) {
+		String[] nombreCompleto = getProfile().getFullName();
+		if (nombreCompleto == null) {
 			logger.info ("[CertificadoEntidad.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
 			return new String [] {"","",""};
 		}
-		return nombreCompleto.split("\\|");
+		return nombreCompleto;
 
 	}
 
@@ -25,13 +25,11 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.x509.X509Name;
 
-import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
 import es.accv.arangi.base.exception.certificate.CertificateFieldException;
@@ -56,6 +54,23 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 */
 	static Logger logger = Logger.getLogger(CertificadoPertenenciaEmpresa.class);
 	
+	/*
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
+	 */
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoPertenenciaEmpresa") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoPertenenciaEmpresa.getCAList();
+		}
+		protected List getTestCACertificates() throws CertificateCANotFoundException {
+			return getCAListTest();
+		}
+	};
+	
+	/*
+	 * Indica si el certificado ha sido emitido por una CA de test
+	 */
+	private boolean testCertificate;
+	
 	/**
 	 * Base del OID de la poltica de certificados de pe en dispositivo seguro
 	 */
@@ -70,6 +85,14 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 * Base del OID de la poltica de certificados de pe en la nube
 	 */
 	public static final String POLICY_IN_CLOUD = "1.3.6.1.4.1.8149.3.26";
+	
+	/*
+	 * Caractersticas que corresponden a cada poltica base
+	 */
+	private static final PolicyFlags POLICY_FLAGS = new PolicyFlags()
+		.add(POLICY_IN_PKCS11_DEVICE, PolicyFlags.PKCS11_DEVICE)
+		.add(POLICY_IN_SOFTWARE_DEVICE, PolicyFlags.SOFTWARE_DEVICE)
+		.add(POLICY_IN_CLOUD, PolicyFlags.CLOUD);
 
 	/**
 	 * OID del campo con el cargo del empleado de empresa
@@ -96,21 +119,25 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 */
 	public static final String OID_NUMERO_EMPLEADO_EMPRESA	= "1.3.6.1.4.1.8149.4.2.5"; 
 	
+	/*
+	 * Disposicin de los campos del SAN (OID base y sufijos de los OIDs anteriores)
+	 */
+	private static final String OID_SAN_EMPLEADO_EMPRESA = "1.3.6.1.4.1.8149.4.2";
+	private static final String SUFIJO_OID_SAN_CARGO = "11";
+	private static final String SUFIJO_OID_SAN_CIF_ENTIDAD = "3";
+	private static final String SUFIJO_OID_SAN_NOMBRE_ENTIDAD = "2";
+	private static final String SUFIJO_OID_SAN_UNIDAD = "10";
+	private static final String SUFIJO_OID_SAN_NUMERO_EMPLEADO = "5";
+	private static final SanLayout SAN_LAYOUT = new SanLayout(
+			new String[] { OID_SAN_EMPLEADO_EMPRESA },
+			new String[] { SUFIJO_OID_SAN_CARGO, SUFIJO_OID_SAN_CIF_ENTIDAD, SUFIJO_OID_SAN_NOMBRE_ENTIDAD, 
+					SUFIJO_OID_SAN_UNIDAD, SUFIJO_OID_SAN_NUMERO_EMPLEADO });
+	
 	/**
 	 * Alias del keystore donde se guarda el certificado
 	 */
 	public static final String ALIAS_PKCS11 = "EMP1";
 
-	/*
-	 * Lista de SKI de los certificados de CA de explotacin
-	 */
-	private static HashSet setExplotationCACertificates = new HashSet();
-	
-	/*
-	 * Lista de SKI de los certificados de CA de test
-	 */
-	private static HashSet setTestCACertificates = new HashSet();
-	
 	/**
 	 * Constructor con un certificado X509Certificate
 	 * 
@@ -122,7 +149,8 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 * 	puede ser analizada
 	 */
 	public CertificadoPertenenciaEmpresa(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -137,7 +165,8 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoPertenenciaEmpresa(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -151,7 +180,8 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 * 	puede ser analizada
 	 */
 	public CertificadoPertenenciaEmpresa(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -165,7 +195,8 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 * 	puede ser analizada
 	 */
 	public CertificadoPertenenciaEmpresa(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	//-- Mtodos de empresas
@@ -177,7 +208,7 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 */
 	public boolean isTestCertificate () {
 		logger.debug("[CertificadoPertenenciaEmpresa.isTestCertificate]::Entrada");
-		return setTestCACertificates.contains(getIssuerKeyIdentifier());
+		return testCertificate;
 	}
 	
 	/**
@@ -277,7 +308,7 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 		logger.debug ("[CertificadoPertenenciaEmpresa.getCargo]::Entrada");
 		
 		try {
-			return getSubjectAlternativeNameElement(OID_CARGO_EMPLEADO_EMPRESA);
+			return getSanFields().getValue(SUFIJO_OID_SAN_CARGO);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoPertenenciaEmpresa.getCargo]::No se puede obtener el cargo del empleado de empresa", e);
 			return null;
@@ -302,7 +333,7 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 		logger.debug ("[CertificadoPertenenciaEmpresa.getIDNumber]::Entrada");
 		
 		try {
-			return getSubjectAlternativeNameElement(OID_NUMERO_EMPLEADO_EMPRESA);
+			return getSanFields().getValue(SUFIJO_OID_SAN_NUMERO_EMPLEADO);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoPertenenciaEmpresa.getIDNumber]::No se puede obtener el nmero de identificacin del empleado de empresa", e);
 			return null;
@@ -319,7 +350,7 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 		logger.debug ("[CertificadoPertenenciaEmpresa.getCIFEntidad]::Entrada");
 		
 		try {
-			return getSubjectAlternativeNameElement(OID_CIF_ENTIDAD);
+			return getSanFields().getValue(SUFIJO_OID_SAN_CIF_ENTIDAD);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoPertenenciaEmpresa.getCargo]::No se puede obtener el cif de la entidad suscriptora", e);
 			return null;
@@ -336,7 +367,7 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 		logger.debug ("[CertificadoPertenenciaEmpresa.getNombreEntidad]::Entrada");
 		
 		try {
-			return getSubjectAlternativeNameElement(OID_NOMBRE_ENTIDAD);
+			return getSanFields().getValue(SUFIJO_OID_SAN_NOMBRE_ENTIDAD);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoPertenenciaEmpresa.getCargo]::No se puede obtener el nombre de la entidad suscriptora", e);
 			return null;
@@ -354,7 +385,7 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 		logger.debug ("[CertificadoPertenenciaEmpresa.getOrganizationalUnit]::Entrada");
 
 	    try {
-			return getSubjectAlternativeNameElement(OID_UNIDAD_EMPLEADO_EMPRESA);
+			return getSanFields().getValue(SUFIJO_OID_SAN_UNIDAD);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoPertenenciaEmpresa.getCargo]::No se puede obtener la unidad del empleado de empresa", e);
 			return null;
@@ -368,14 +399,7 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 */
 	public boolean isInPkcs11Device () {
 		logger.debug ("[CertificadoPertenenciaEmpresa.isInPkcs11Device]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_PKCS11_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.PKCS11_DEVICE);
 	}
 	
 	/**
@@ -385,14 +409,7 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 */
 	public boolean isInSoftwareDevice () {
 		logger.debug ("[CertificadoPertenenciaEmpresa.isInSoftwareDevice]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.SOFTWARE_DEVICE);
 	}
 	
 	/**
@@ -402,14 +419,7 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 */
 	public boolean isInCloud () {
 		logger.debug ("[CertificadoPertenenciaEmpresa.isInCloud]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_CLOUD)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.CLOUD);
 	}
 	
 	/**
@@ -470,6 +480,20 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 
 	//-- Mtodos protected
 	
+	/**
+	 * Caractersticas que corresponden a cada poltica base de esta clase
+	 */
+	protected PolicyFlags getPolicyFlagDefinitions () {
+		return POLICY_FLAGS;
+	}
+	
+	/**
+	 * Disposicin de los campos del SAN de esta clase
+	 */
+	protected SanLayout getSanLayout () {
+		return SAN_LAYOUT;
+	}
+	
 	/**
 	 * Usado por la clase CertificateFactory para dar de alta la clase en la lista
 	 * de tipos de certificados.
@@ -495,20 +519,16 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 		//-- Aadir los certificados de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA2");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOT_CA");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		//-- Nueva CA
 		certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA120-SHA256");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVRAIZ1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -523,19 +543,15 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 		//-- Aadir los certificados de test y de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/TEST_SUBCA_WINDOWS3");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/TEST_ROOT_EJBCA");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVCATEST120");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOTEJB4TEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -547,18 +563,11 @@ public class CertificadoPertenenciaEmpresa extends CertificadoPersona implements
 	 */
 	private String [] getNombreCompleto () {
 		
-		String nombreCompleto;
-		try {
-			nombreCompleto = getSubjectAlternativeNameElement(OID_ID_AT_COMMONNAME);
-		} catch (CertificateFieldException e) {
+		String[] nombreCompleto = getProfile().getFullName();
+		if (nombreCompleto == null) {
 			logger.info ("[CertificadoPertenenciaEmpresa.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
-		}
-		if (nombreCompleto == null || nombreCompleto.length() == 0) {
-			logger.info ("[CertificadoPertenenciaEmpresa.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
 		}
-		return nombreCompleto.split("\\|");
+		return nombreCompleto;
 
 	}
 
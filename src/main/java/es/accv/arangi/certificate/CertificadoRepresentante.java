@@ -24,17 +24,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
-import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.asn1.x509.X509Name;
 
-import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
 import es.accv.arangi.base.exception.certificate.CertificateFieldException;
@@ -63,6 +59,28 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 */
 	static Logger logger = Logger.getLogger(CertificadoRepresentante.class);
 	
+	/*
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
+	 */
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoRepresentante") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoRepresentante.getCAList();
+		}
+		protected List getTestCACertificates() throws CertificateCANotFoundException {
+			return getCAListTest();
+		}
+	};
+	
+	/*
+	 * Indica si el certificado ha sido emitido por una CA de test
+	 */
+	private boolean testCertificate;
+	
+	/*
+	 * Informacin de representacin ya interpretada (ver getRepresentationData)
+	 */
+	private volatile Object representationData;
+	
 	/**
 	 * Alias del keystore donde se guarda el certificado
 	 */
@@ -87,17 +105,16 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 * Base del OID de la poltica de certificados de ep en dispositivo software
 	 */
 	public static final String POLICY_WITHOUT_IN_SOFTWARE_DEVICE = "1.3.6.1.4.1.8149.3.32";
-
-	/*
-	 * Lista de SKI de los certificados de CA de explotacin
-	 */
-	private static HashSet setExplotationCACertificates = new HashSet();
 	
 	/*
-	 * Lista de SKI de los certificados de CA de test
+	 * Caractersticas que corresponden a cada poltica base
 	 */
-	private static HashSet setTestCACertificates = new HashSet();
-	
+	private static final PolicyFlags POLICY_FLAGS = new PolicyFlags()
+		.add(POLICY_WITH_IN_PKCS11_DEVICE, PolicyFlags.PKCS11_DEVICE | PolicyFlags.WITH_LEGAL_PERSONALITY)
+		.add(POLICY_WITH_IN_SOFTWARE_DEVICE, PolicyFlags.SOFTWARE_DEVICE | PolicyFlags.WITH_LEGAL_PERSONALITY)
+		.add(POLICY_WITHOUT_IN_PKCS11_DEVICE, PolicyFlags.PKCS11_DEVICE | PolicyFlags.WITHOUT_LEGAL_PERSONALITY)
+		.add(POLICY_WITHOUT_IN_SOFTWARE_DEVICE, PolicyFlags.SOFTWARE_DEVICE | PolicyFlags.WITHOUT_LEGAL_PERSONALITY);
+
 	/**
 	 * Constructor con un certificado X509Certificate
 	 * 
@@ -109,7 +126,8 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 * 	puede ser analizada
 	 */
 	public CertificadoRepresentante(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -124,7 +142,8 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoRepresentante(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -138,7 +157,8 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 * 	puede ser analizada
 	 */
 	public CertificadoRepresentante(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -152,7 +172,8 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 * 	puede ser analizada
 	 */
 	public CertificadoRepresentante(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	//-- Mtodos pblicos
@@ -164,7 +185,7 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 */
 	public boolean isTestCertificate () {
 		logger.debug("[CertificadoCiudadano.isTestCertificate]::Entrada");
-		return setTestCACertificates.contains(getIssuerKeyIdentifier());
+		return testCertificate;
 	}
 	
 	/**
@@ -240,7 +261,7 @@ public class CertificadoRepresentante extends CertificadoPersona{
 		
 		logger.debug ("[CertificadoRepresentante.getCIF]::Entrada");
 		
-		return getElementSubject(new ASN1ObjectIdentifier("2.5.4.97")).replace("VATES-", "");
+		return getElementSubject(CertificateProfile.OID_ORGANIZATION_IDENTIFIER).replace("VATES-", "");
 	}
 	
 	/**
@@ -253,7 +274,7 @@ public class CertificadoRepresentante extends CertificadoPersona{
 		
 		logger.debug ("[CertificadoRepresentante.getEntityCIFETSI]::Entrada");
 		
-		return getElementSubject(new ASN1ObjectIdentifier("2.5.4.97"));
+		return getElementSubject(CertificateProfile.OID_ORGANIZATION_IDENTIFIER);
 	}
 	
 	/**
@@ -275,7 +296,7 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 * @return Tira de texto con la informacin de representacin
 	 */
 	public String getRepresentationDataString() {
-		return getElementSubject(new ASN1ObjectIdentifier("2.5.4.13"));
+		return getElementSubject(CertificateProfile.OID_DESCRIPTION);
 	}
 	
 	/**
@@ -289,61 +310,18 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 * @return En caso de que exista el campo se devolver un objeto que puede ser
 	 * 	de las siguientes clases: DatosRepresentacionRegistro, DatosRepresentacionRegistroNotarial,
 	 * 	DatosRepresentacionBoletinOficial o DatosRepresentacionDesconocido. Si el
-	 * 	campo no existe se devolver null.
+	 * 	campo no existe se devolver null. El objeto se obtiene una sola vez y se
+	 * 	devuelve el mismo en cada llamada, por lo que no debe modificarse.
 	 */
 	public Object getRepresentationData() {
-		String descripcion = getRepresentationDataString();
-		logger.debug ("[CertificadoEntidad.getRepresentationData]::Descripcion: " + descripcion);
-		if (descripcion == null) {
-			return null;
-		}
-		
-		String[] elementos = descripcion.split("/");
-		if (descripcion.startsWith("R:")) {
-			DatosRepresentacionRegistro datos = new DatosRepresentacionRegistro();
-			datos.setRegistro(elementos[0].substring(elementos[0].indexOf(":") + 1));
-			datos.setHoja(elementos[1]);
-			datos.setTomo(elementos[2]);
-			datos.setSeccion(elementos[3]);
-			datos.setLibro(elementos[4]);
-			datos.setFolio(elementos[5]);
-			if (!elementos[6].trim().equals("")) {
-				try {
-					datos.setFecha(ArangiUtil.SIMPLE_DATE_FORMAT.parse(elementos[6]));
-				} catch (ParseException e) {
-					logger.info("No se puede parsear la fecha '" + elementos[6] + "");
-				}
-			}
-			datos.setInscripcion(elementos[7]);
-			return datos;
-		} else if (descripcion.startsWith("N:")) {
-			DatosRepresentacionRegistroNotarial datos = new DatosRepresentacionRegistroNotarial();
-			datos.setNotario(elementos[0].substring(elementos[0].indexOf(":") + 1));
-			datos.setNumeroProtocolo(elementos[1]);
-			if (!elementos[2].trim().equals("")) {
-				try {
-					datos.setFechaOtorgamiento(ArangiUtil.SIMPLE_DATE_FORMAT.parse(elementos[2]));
-				} catch (ParseException e) {
-					logger.info("No se puede parsear la fecha '" + elementos[6] + "");
-				}
-			}
-			return datos;
-		} else if (descripcion.startsWith("B:")) {
-			DatosRepresentacionBoletinOficial datos = new DatosRepresentacionBoletinOficial();
-			datos.setBoletin(elementos[0].substring(elementos[0].indexOf(":") + 1));
-			if (!elementos[1].trim().equals("")) {
-				try {
-					datos.setFecha(ArangiUtil.SIMPLE_DATE_FORMAT.parse(elementos[1]));
-				} catch (ParseException e) {
-					logger.info("No se puede parsear la fecha '" + elementos[6] + "");
-				}
-			}
-			datos.setNumeroResolucion(elementos[2]);
-			return datos;
-		} else {
-			DatosRepresentacionDesconocido datos = new DatosRepresentacionDesconocido(descripcion);
-			return datos;
+		Object result = representationData;
+		if (result == null) {
+			String descripcion = getRepresentationDataString();
+			logger.debug ("[CertificadoRepresentante.getRepresentationData]::Descripcion: " + descripcion);
+			result = RepresentationDataParser.parse(descripcion);
+			representationData = result;
 		}
+		return result;
 	}
 	
 	/**
@@ -374,15 +352,7 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 */
 	public boolean isInPkcs11Device () {
 		logger.debug ("[CertificadoRepresentante.isInPkcs11Device]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_WITH_IN_PKCS11_DEVICE) ||
-					policyOID.startsWith(POLICY_WITHOUT_IN_PKCS11_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.PKCS11_DEVICE);
 	}
 	
 	/**
@@ -392,15 +362,7 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 */
 	public boolean isInSoftwareDevice () {
 		logger.debug ("[CertificadoRepresentante.isInSoftwareDevice]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_WITH_IN_SOFTWARE_DEVICE) ||
-					policyOID.startsWith(POLICY_WITHOUT_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.SOFTWARE_DEVICE);
 	}
 	
 	/**
@@ -410,15 +372,7 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 */
 	public boolean isWithLegalPersonality () {
 		logger.debug ("[CertificadoRepresentante.isWithLegalPersonality]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_WITH_IN_PKCS11_DEVICE) ||
-					policyOID.startsWith(POLICY_WITH_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.WITH_LEGAL_PERSONALITY);
 	}
 	
 	/**
@@ -428,15 +382,7 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 */
 	public boolean isWithoutLegalPersonality () {
 		logger.debug ("[CertificadoRepresentante.isWithoutLegalPersonality]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_WITHOUT_IN_PKCS11_DEVICE) ||
-					policyOID.startsWith(POLICY_WITHOUT_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.WITHOUT_LEGAL_PERSONALITY);
 	}
 	
 	
@@ -490,6 +436,13 @@ public class CertificadoRepresentante extends CertificadoPersona{
 
 	//-- Mtodos protected
 	
+	/**
+	 * Caractersticas que corresponden a cada poltica base de esta clase
+	 */
+	protected PolicyFlags getPolicyFlagDefinitions () {
+		return POLICY_FLAGS;
+	}
+	
 	/**
 	 * Usado por la clase CertificateFactory para dar de alta la clase en la lista
 	 * de tipos de certificados.
@@ -516,11 +469,9 @@ public class CertificadoRepresentante extends CertificadoPersona{
 		//-- Aadir los certificados de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA120-SHA256");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVRAIZ1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -535,11 +486,9 @@ public class CertificadoRepresentante extends CertificadoPersona{
 		//-- Aadir los certificados de test y de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCVCATEST120");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOTEJB4TEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -551,18 +500,11 @@ public class CertificadoRepresentante extends CertificadoPersona{
 	 */
 	private String [] getNombreCompleto () {
 		
-		String nombreCompleto;
-		try {
-			nombreCompleto = getSubjectAlternativeNameElement(OID_ID_AT_COMMONNAME);
-		} catch (CertificateFieldException e) {
+		String[] nombreCompleto = getProfile().getFullName();
+		if (nombreCompleto == null) {
 			logger.info ("[CertificadoRepresentante.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
-		}
-		if (nombreCompleto == null || nombreCompleto.length() == 0) {
-			logger.info ("[CertificadoRepresentante.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
 		}
-		return nombreCompleto.split("\\|");
+		return nombreCompleto;
 
 	}
 
@@ -25,15 +25,12 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.x509.GeneralName;
 import org.bouncycastle.asn1.x509.X509Name;
 
-import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
 import es.accv.arangi.base.exception.certificate.CertificateFieldException;
@@ -64,6 +61,13 @@ public class CertificadoSede extends CertificadoACCV {
 	 * Base del OID de la poltica de certificados de sede en dispositivo software
 	 */
 	public static final String POLICY_IN_SOFTWARE_DEVICE = "1.3.6.1.4.1.8149.3.15";
+	
+	/*
+	 * Caractersticas que corresponden a cada poltica base
+	 */
+	private static final PolicyFlags POLICY_FLAGS = new PolicyFlags()
+		.add(POLICY_IN_PKCS11_DEVICE, PolicyFlags.PKCS11_DEVICE)
+		.add(POLICY_IN_SOFTWARE_DEVICE, PolicyFlags.SOFTWARE_DEVICE);
 
 	/*
 	 * Logger de la clase
@@ -71,14 +75,21 @@ public class CertificadoSede extends CertificadoACCV {
 	static Logger logger = Logger.getLogger(CertificadoSede.class);
 	
 	/*
-	 * Lista de SKI de los certificados de CA de explotacin
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
 	 */
-	private static HashSet setExplotationCACertificates = new HashSet();
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoSede") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoSede.getCAList();
+		}
+		protected List getTestCACertificates() throws CertificateCANotFoundException {
+			return getCAListTest();
+		}
+	};
 	
 	/*
-	 * Lista de SKI de los certificados de CA de test
+	 * Indica si el certificado ha sido emitido por una CA de test
 	 */
-	private static HashSet setTestCACertificates = new HashSet();
+	private boolean testCertificate;
 	
 	/**
 	 * Constructor con un certificado X509Certificate
@@ -91,7 +102,8 @@ public class CertificadoSede extends CertificadoACCV {
 	 * 	puede ser analizada
 	 */
 	public CertificadoSede(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -106,7 +118,8 @@ public class CertificadoSede extends CertificadoACCV {
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoSede(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -120,7 +133,8 @@ public class CertificadoSede extends CertificadoACCV {
 	 * 	puede ser analizada
 	 */
 	public CertificadoSede(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -134,7 +148,8 @@ public class CertificadoSede extends CertificadoACCV {
 	 * 	puede ser analizada
 	 */
 	public CertificadoSede(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	//-- Mtodos pblicos
@@ -146,7 +161,7 @@ public class CertificadoSede extends CertificadoACCV {
 	 */
 	public boolean isTestCertificate () {
 		logger.debug("[CertificadoSede.isTestCertificate]::Entrada");
-		return setTestCACertificates.contains(getIssuerKeyIdentifier());
+		return testCertificate;
 	}
 	
 	/**
@@ -291,7 +306,7 @@ public class CertificadoSede extends CertificadoACCV {
 		
 		logger.debug ("[CertificadoSede.getEntityNIFETSI]::Entrada");
 		
-		return getElementSubject(new ASN1ObjectIdentifier("2.5.4.97"));
+		return getElementSubject(CertificateProfile.OID_ORGANIZATION_IDENTIFIER);
 	}
 	
 	/**
@@ -303,7 +318,7 @@ public class CertificadoSede extends CertificadoACCV {
 		
 		logger.debug ("[CertificadoSede.getJurisdictionCountry]::Entrada");
 		
-		return getElementSubject(new ASN1ObjectIdentifier("1.3.6.1.4.1.311.60.2.1.3"));
+		return getElementSubject(CertificateProfile.OID_JURISDICTION_COUNTRY);
 	}
 	
 	/**
@@ -315,7 +330,7 @@ public class CertificadoSede extends CertificadoACCV {
 		
 		logger.debug ("[CertificadoSede.getBusinessCategory]::Entrada");
 		
-		return getElementSubject(new ASN1ObjectIdentifier("2.5.4.15"));
+		return getElementSubject(CertificateProfile.OID_BUSINESS_CATEGORY);
 	}
 	
 	/**
@@ -369,14 +384,7 @@ public class CertificadoSede extends CertificadoACCV {
 	 */
 	public boolean isInPkcs11Device () {
 		logger.debug ("[CertificadoSede.isInPkcs11Device]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_PKCS11_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.PKCS11_DEVICE);
 	}
 	
 	/**
@@ -386,14 +394,7 @@ public class CertificadoSede extends CertificadoACCV {
 	 */
 	public boolean isInSoftwareDevice () {
 		logger.debug ("[CertificadoSede.isInSoftwareDevice]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.SOFTWARE_DEVICE);
 	}
 	
 	/**
@@ -446,6 +447,13 @@ public class CertificadoSede extends CertificadoACCV {
 	
 	//-- Mtodos protected
 	
+	/**
+	 * Caractersticas que corresponden a cada poltica base de esta clase
+	 */
+	protected PolicyFlags getPolicyFlagDefinitions () {
+		return POLICY_FLAGS;
+	}
+	
 	/**
 	 * Usado por la clase CertificateFactory para dar de alta la clase en la lista
 	 * de tipos de certificados.
@@ -470,20 +478,16 @@ public class CertificadoSede extends CertificadoACCV {
 		//-- Aadir los certificados de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA2");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOT_CA");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		//-- Nueva CA
 		certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA120-SHA256");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVRAIZ1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -498,19 +502,15 @@ public class CertificadoSede extends CertificadoACCV {
 		//-- Aadir los certificados de test y de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/TEST_SUBCA_WINDOWS3");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/TEST_ROOT_EJBCA");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVCATEST120");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOTEJB4TEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -522,18 +522,11 @@ public class CertificadoSede extends CertificadoACCV {
 	 */
 	private String [] getNombreCompleto () {
 		
-		String nombreCompleto;
-		try {
-			nombreCompleto = getSubjectAlternativeNameElement(OID_ID_AT_COMMONNAME);
-		} catch (CertificateFieldException e) {
-			logger.info ("[CertificadoSede.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
-		}
-		if (nombreCompleto == null || nombreCompleto.length() == 0) {
+		String[] nombreCompleto = getProfile().getFullName();
+		if (nombreCompleto == null) {
 			logger.info ("[CertificadoSede.getNombreCompleto]::No ha sido posible obtener el nombre completo del ciudadano");
-			return null;
 		}
-		return nombreCompleto.split("\\|");
+		return nombreCompleto;
 
 	}
 
@@ -25,13 +25,11 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.x500.style.BCStyle;
 
-import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
 import es.accv.arangi.base.exception.certificate.CertificateFieldException;
@@ -62,6 +60,13 @@ public class CertificadoSello extends CertificadoACCV {
 	 * Base del OID de la poltica de certificados de sello en dispositivo software
 	 */
 	public static final String POLICY_IN_SOFTWARE_DEVICE = "1.3.6.1.4.1.8149.3.17";
+	
+	/*
+	 * Caractersticas que corresponden a cada poltica base
+	 */
+	private static final PolicyFlags POLICY_FLAGS = new PolicyFlags()
+		.add(POLICY_IN_PKCS11_DEVICE, PolicyFlags.PKCS11_DEVICE)
+		.add(POLICY_IN_SOFTWARE_DEVICE, PolicyFlags.SOFTWARE_DEVICE);
 
 	/**
 	 * OID base de los campos del SAN para HW
@@ -73,20 +78,39 @@ public class CertificadoSello extends CertificadoACCV {
 	 */
 	private static final String OID_SW_SAN = "2.16.724.1.3.5.6.2";
 
+	/*
+	 * Disposicin de los campos del SAN: sufijos de los datos del responsable
+	 */
+	private static final String SUFIJO_OID_SAN_NIF_RESPONSABLE = "4";
+	private static final String SUFIJO_OID_SAN_NOMBRE_RESPONSABLE = "6";
+	private static final String SUFIJO_OID_SAN_APELLIDO1_RESPONSABLE = "7";
+	private static final String SUFIJO_OID_SAN_APELLIDO2_RESPONSABLE = "8";
+	private static final SanLayout SAN_LAYOUT = new SanLayout(
+			new String[] { OID_HW_SAN, OID_SW_SAN },
+			new String[] { SUFIJO_OID_SAN_NIF_RESPONSABLE, SUFIJO_OID_SAN_NOMBRE_RESPONSABLE, 
+					SUFIJO_OID_SAN_APELLIDO1_RESPONSABLE, SUFIJO_OID_SAN_APELLIDO2_RESPONSABLE });
+
 	/*
 	 * Logger de la clase
 	 */
 	static Logger logger = Logger.getLogger(CertificadoSello.class);
 	
 	/*
-	 * Lista de SKI de los certificados de CA de explotacin
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
 	 */
-	private static HashSet setExplotationCACertificates = new HashSet();
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoSello") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoSello.getCAList();
+		}
+		protected List getTestCACertificates() throws CertificateCANotFoundException {
+			return getCAListTest();
+		}
+	};
 	
 	/*
-	 * Lista de SKI de los certificados de CA de test
+	 * Indica si el certificado ha sido emitido por una CA de test
 	 */
-	private static HashSet setTestCACertificates = new HashSet();
+	private boolean testCertificate;
 	
 	/**
 	 * Constructor con un certificado X509Certificate
@@ -99,7 +123,8 @@ public class CertificadoSello extends CertificadoACCV {
 	 * 	puede ser analizada
 	 */
 	public CertificadoSello(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -114,7 +139,8 @@ public class CertificadoSello extends CertificadoACCV {
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoSello(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -128,7 +154,8 @@ public class CertificadoSello extends CertificadoACCV {
 	 * 	puede ser analizada
 	 */
 	public CertificadoSello(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -142,7 +169,8 @@ public class CertificadoSello extends CertificadoACCV {
 	 * 	puede ser analizada
 	 */
 	public CertificadoSello(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	//-- Mtodos pblicos
@@ -154,7 +182,7 @@ public class CertificadoSello extends CertificadoACCV {
 	 */
 	public boolean isTestCertificate () {
 		logger.debug("[CertificadoCiudadano.isTestCertificate]::Entrada");
-		return setTestCACertificates.contains(getIssuerKeyIdentifier());
+		return testCertificate;
 	}
 	
 	/**
@@ -205,11 +233,7 @@ public class CertificadoSello extends CertificadoACCV {
 		logger.debug ("[CertificadoSello.getPersonInChargeNIF]::Entrada");
 		
 		try {
-			if (isInPkcs11Device()) {
-				return getSubjectAlternativeNameElement(OID_HW_SAN + ".4");
-			} else {
-				return getSubjectAlternativeNameElement(OID_SW_SAN + ".4");
-			}
+			return getSanFields().getValue(isInPkcs11Device() ? OID_HW_SAN : OID_SW_SAN, SUFIJO_OID_SAN_NIF_RESPONSABLE);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoSello.getPersonInChargeNIF]::No se puede obtener el nombre del representante", e);
 			return null;
@@ -226,11 +250,7 @@ public class CertificadoSello extends CertificadoACCV {
 		logger.debug ("[CertificadoSello.getPersonInChargeName]::Entrada");
 		
 		try {
-			if (isInPkcs11Device()) {
-				return getSubjectAlternativeNameElement(OID_HW_SAN + ".6");
-			} else {
-				return getSubjectAlternativeNameElement(OID_SW_SAN + ".6");
-			}
+			return getSanFields().getValue(isInPkcs11Device() ? OID_HW_SAN : OID_SW_SAN, SUFIJO_OID_SAN_NOMBRE_RESPONSABLE);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoSello.getPersonInChargeName]::No se puede obtener el nombre del representante", e);
 			return null;
@@ -247,11 +267,7 @@ public class CertificadoSello extends CertificadoACCV {
 		logger.debug ("[CertificadoSello.getPersonInChargeFirstSurname]::Entrada");
 		
 		try {
-			if (isInPkcs11Device()) {
-				return getSubjectAlternativeNameElement(OID_HW_SAN + ".7");
-			} else {
-				return getSubjectAlternativeNameElement(OID_SW_SAN + ".7");
-			}
+			return getSanFields().getValue(isInPkcs11Device() ? OID_HW_SAN : OID_SW_SAN, SUFIJO_OID_SAN_APELLIDO1_RESPONSABLE);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoSello.getPersonInChargeFirstSurname]::No se puede obtener el primer apellido del representante", e);
 			return null;
@@ -268,11 +284,7 @@ public class CertificadoSello extends CertificadoACCV {
 		logger.debug ("[CertificadoSello.getPersonInChargeSecondSurname]::Entrada");
 		
 		try {
-			if (isInPkcs11Device()) {
-				return getSubjectAlternativeNameElement(OID_HW_SAN + ".8");
-			} else {
-				return getSubjectAlternativeNameElement(OID_SW_SAN + ".8");
-			}
+			return getSanFields().getValue(isInPkcs11Device() ? OID_HW_SAN : OID_SW_SAN, SUFIJO_OID_SAN_APELLIDO2_RESPONSABLE);
 		} catch (CertificateFieldException e) {
 			logger.info ("[CertificadoSello.getPersonInChargeSecondSurname]::No se puede obtener el segundo apellido del representante", e);
 			return null;
@@ -320,14 +332,7 @@ public class CertificadoSello extends CertificadoACCV {
 	 */
 	public boolean isInPkcs11Device () {
 		logger.debug ("[CertificadoSello.isInPkcs11Device]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_PKCS11_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.PKCS11_DEVICE);
 	}
 	
 	/**
@@ -337,14 +342,7 @@ public class CertificadoSello extends CertificadoACCV {
 	 */
 	public boolean isInSoftwareDevice () {
 		logger.debug ("[CertificadoSello.isInSoftwareDevice]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.SOFTWARE_DEVICE);
 	}
 	
 	@Override
@@ -397,6 +395,20 @@ public class CertificadoSello extends CertificadoACCV {
 
 	//-- Mtodos protected
 	
+	/**
+	 * Caractersticas que corresponden a cada poltica base de esta clase
+	 */
+	protected PolicyFlags getPolicyFlagDefinitions () {
+		return POLICY_FLAGS;
+	}
+	
+	/**
+	 * Disposicin de los campos del SAN de esta clase
+	 */
+	protected SanLayout getSanLayout () {
+		return SAN_LAYOUT;
+	}
+	
 	/**
 	 * Usado por la clase CertificateFactory para dar de alta la clase en la lista
 	 * de tipos de certificados.
@@ -421,20 +433,16 @@ public class CertificadoSello extends CertificadoACCV {
 		//-- Aadir los certificados de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA2");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOT_CA");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		//-- Nueva CA
 		certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA120-SHA256");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVRAIZ1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -449,19 +457,15 @@ public class CertificadoSello extends CertificadoACCV {
 		//-- Aadir los certificados de test y de explotacin
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/TEST_SUBCA_WINDOWS3");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/TEST_ROOT_EJBCA");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVCATEST120");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOTEJB4TEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -25,12 +25,10 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
 import es.accv.arangi.base.exception.certificate.CertificateFieldException;
@@ -55,6 +53,23 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 */
 	static Logger logger = Logger.getLogger(CertificadoSeudonimo.class);
 	
+	/*
+	 * Lista de certificados de CA compartida por todos los certificados de esta clase
+	 */
+	private static CAListRegistry caListRegistry = new CAListRegistry("CertificadoSeudonimo") {
+		protected CAList build() throws CertificateCANotFoundException {
+			return CertificadoSeudonimo.getCAList();
+		}
+		protected List getTestCACertificates() throws CertificateCANotFoundException {
+			return getCAListTest();
+		}
+	};
+	
+	/*
+	 * Indica si el certificado ha sido emitido por una CA de test
+	 */
+	private boolean testCertificate;
+	
 	/**
 	 * Base del OID de la poltica de certificados de seudnimo en dispositivo seguro
 	 */
@@ -69,6 +84,14 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 * Base del OID de la poltica de certificados de seudnimo en la nube
 	 */
 	public static final String POLICY_IN_CLOUD = "1.3.6.1.4.1.8149.3.28";
+	
+	/*
+	 * Caractersticas que corresponden a cada poltica base
+	 */
+	private static final PolicyFlags POLICY_FLAGS = new PolicyFlags()
+		.add(POLICY_IN_PKCS11_DEVICE, PolicyFlags.PKCS11_DEVICE)
+		.add(POLICY_IN_SOFTWARE_DEVICE, PolicyFlags.SOFTWARE_DEVICE)
+		.add(POLICY_IN_CLOUD, PolicyFlags.CLOUD);
 
 	/**
 	 * OID del campo con el cargo del empleado pblico: versin 1 de la poltica
@@ -125,16 +148,6 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 */
 	public static final String ALIAS_PKCS11 = "SEUD";
 
-	/*
-	 * Lista de SKI de los certificados de CA de explotacin
-	 */
-	private static HashSet setExplotationCACertificates = new HashSet();
-	
-	/*
-	 * Lista de SKI de los certificados de CA de test
-	 */
-	private static HashSet setTestCACertificates = new HashSet();
-	
 	/**
 	 * Constructor con un certificado X509Certificate
 	 * 
@@ -146,7 +159,8 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 * 	puede ser analizada
 	 */
 	public CertificadoSeudonimo(X509Certificate certificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(certificate, getCAList());
+		super(certificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -161,7 +175,8 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 * @throws FileNotFoundException El fichero no existe
 	 */
 	public CertificadoSeudonimo(File fileCertificate) throws CertificateCANotFoundException, NormalizeCertificateException, FileNotFoundException {
-		super(fileCertificate, getCAList());
+		super(fileCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -175,7 +190,8 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 * 	puede ser analizada
 	 */
 	public CertificadoSeudonimo(InputStream isCertificate) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(isCertificate, getCAList());
+		super(isCertificate, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	/**
@@ -189,7 +205,8 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 * 	puede ser analizada
 	 */
 	public CertificadoSeudonimo(byte[] contenidoCertificado) throws CertificateCANotFoundException, NormalizeCertificateException {
-		super(contenidoCertificado, getCAList());
+		super(contenidoCertificado, caListRegistry.getCAList());
+		testCertificate = caListRegistry.isTestIssuer(getIssuerKeyIdentifier());
 	}
 	
 	//-- Mtodos pblicos
@@ -201,7 +218,7 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 */
 	public boolean isTestCertificate () {
 		logger.debug("[CertificadoSeudonimo.isTestCertificate]::Entrada");
-		return setTestCACertificates.contains(getIssuerKeyIdentifier());
+		return testCertificate;
 	}
 	
 	/**
@@ -356,14 +373,7 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 */
 	public boolean isInPkcs11Device () {
 		logger.debug ("[CertificadoSeudonimo.isInPkcs11Device]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_PKCS11_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.PKCS11_DEVICE);
 	}
 	
 	/**
@@ -373,14 +383,7 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 */
 	public boolean isInSoftwareDevice () {
 		logger.debug ("[CertificadoSeudonimo.isInSoftwareDevice]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_SOFTWARE_DEVICE)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.SOFTWARE_DEVICE);
 	}
 	
 	/**
@@ -390,14 +393,7 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 	 */
 	public boolean isInCloud () {
 		logger.debug ("[CertificadoSeudonimo.isInCloud]::Entrada");
-		
-		for (String policyOID : getPolicyOIDs()) {
-			if (policyOID.startsWith(POLICY_IN_CLOUD)) {
-				return true;
-			}
-		}
-		
-		return false;
+		return hasPolicyFlag(PolicyFlags.CLOUD);
 	}
 	
 	/**
@@ -458,6 +454,13 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 
 	//-- Mtodos protected
 	
+	/**
+	 * Caractersticas que corresponden a cada poltica base de esta clase
+	 */
+	protected PolicyFlags getPolicyFlagDefinitions () {
+		return POLICY_FLAGS;
+	}
+	
 	/**
 	 * Usado por la clase CertificateFactory para dar de alta la clase en la lista
 	 * de tipos de certificados.
@@ -483,11 +486,9 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 		//-- Nueva CA
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCV-CA130-SHA256");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ACCVRAIZ1");
-		setExplotationCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -501,11 +502,9 @@ public class CertificadoSeudonimo extends CertificadoACCV implements Certificado
 		
 		List lCACertificates = new ArrayList ();
 		X509Certificate certificate = ArangiUtil.loadCertificate("certificate/ACCVCATEST130");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		certificate = ArangiUtil.loadCertificate("certificate/ROOTEJB4TEST");
-		setTestCACertificates.add(Certificate.getSubjectKeyIdentifier(certificate));
 		lCACertificates.add(certificate);
 		
 		return lCACertificates;
@@ -0,0 +1,187 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Trata en paralelo los certificados que devuelve un iterador. Los certificados se
+ * leen por bloques, cada bloque se reparte entre los hilos y sus resultados se 
+ * entregan a {@link #onResult(Object)} en el mismo orden que la entrada y siempre
+ * desde el hilo que llam a {@link #process(Iterator)}. La memoria utilizada depende
+ * del tamao del bloque, no del de la entrada.<br><br>
+ * 
+ * Es la base de {@link CertificateFactory#getInstances(Iterator, int, CertificateInstanceListener)
+ * CertificateFactory.getInstances} y de la extraccin masiva de campos.
+ *
+ * @param <T> Tipo del resultado de cada certificado
+ */
+public abstract class CertificateBlockProcessor<T> {
+
+	/*
+	 * Logger de la clase
+	 */
+	private static Logger logger = Logger.getLogger(CertificateBlockProcessor.class);
+
+	/*
+	 * Nmero de certificados por debajo del cual una tarea no se divide
+	 */
+	static final int TASK_THRESHOLD = 16;
+
+	/*
+	 * Nmero de hilos
+	 */
+	private int parallelism;
+
+	/*
+	 * Nmero de certificados por bloque
+	 */
+	private int blockSize;
+
+	/**
+	 * Constructor
+	 *
+	 * @param parallelism Nmero de hilos que tratarn los certificados
+	 * @param blockSize Nmero de certificados que se leen de la entrada cada vez
+	 */
+	protected CertificateBlockProcessor (int parallelism, int blockSize) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException ("El nmero de hilos ha de ser mayor que cero");
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException ("El tamao de bloque ha de ser mayor que cero");
+		}
+		this.parallelism = parallelism;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Trata todos los certificados del iterador. Las excepciones del iterador y de
+	 * {@link #onResult(Object)} detienen el tratamiento y se lanzan tal cual.
+	 *
+	 * @param certificates Iterador sobre certificados en formato X.509v3
+	 * @return Nmero de certificados tratados
+	 */
+	public long process (Iterator<byte[]> certificates) {
+		logger.debug ("[CertificateBlockProcessor.process]::Entrada::" + parallelism + "::" + blockSize);
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			byte[][] block = new byte[blockSize][];
+			long index = 0;
+			while (certificates.hasNext()) {
+				//-- Leer un bloque
+				int size = 0;
+				while (size < block.length && certificates.hasNext()) {
+					block[size++] = certificates.next();
+				}
+
+				//-- Tratarlo en paralelo
+				Object[] results = new Object[size];
+				pool.invoke(new BlockTask(block, results, index, 0, size));
+
+				//-- Entregar los resultados en orden
+				for (int i = 0; i < size; i++) {
+					block[i] = null;
+					onResult(getResult(results, i));
+				}
+				index += size;
+			}
+
+			logger.debug ("[CertificateBlockProcessor.process]::Tratados " + index + " certificados");
+			return index;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Trata un certificado. Se llama desde los hilos del tratamiento, por lo que ha
+	 * de poder ejecutarse de forma concurrente, y no debe lanzar excepciones: los 
+	 * errores de cada certificado han de formar parte de su resultado.
+	 *
+	 * @param index Posicin del certificado en la entrada (empezando por 0)
+	 * @param certificate Certificado en formato X.509v3
+	 * @return Resultado del certificado
+	 */
+	protected abstract T process (long index, byte[] certificate);
+
+	/**
+	 * Recibe el resultado de un certificado, en el mismo orden que la entrada y
+	 * desde el hilo que llam a {@link #process(Iterator)}.
+	 *
+	 * @param result Resultado
+	 */
+	protected abstract void onResult (T result);
+
+	//-- Mtodos privados
+
+	/*
+	 * Obtiene un resultado del bloque. Todos los elementos se han obtenido con process.
+	 */
+	@SuppressWarnings("unchecked")
+	private T getResult (Object[] results, int i) {
+		return (T) results[i];
+	}
+
+	//-- Clases privadas
+
+	/*
+	 * Tarea que trata una parte de un bloque de certificados, dividindose en dos
+	 * mientras sea grande
+	 */
+	private class BlockTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		byte[][] block;
+		Object[] results;
+		long blockIndex;
+		int start;
+		int end;
+
+		BlockTask(byte[][] block, Object[] results, long blockIndex, int start, int end) {
+			this.block = block;
+			this.results = results;
+			this.blockIndex = blockIndex;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (end - start > TASK_THRESHOLD) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new BlockTask(block, results, blockIndex, start, middle),
+						new BlockTask(block, results, blockIndex, middle, end));
+				return;
+			}
+
+			for (int i = start; i < end; i++) {
+				results[i] = process(blockIndex + i, block[i]);
+			}
+		}
+	}
+
+}
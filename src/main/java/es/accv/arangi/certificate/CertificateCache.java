@@ -0,0 +1,416 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import es.accv.arangi.base.certificate.validation.ValidateCertificate;
+import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
+import es.accv.arangi.base.util.Util;
+
+/**
+ * Cach de certificados obtenidos mediante {@link CertificateFactory CertificateFactory}.
+ * Las entradas se indexan por el SHA-256 del certificado codificado en DER, por lo que un
+ * certificado que ya se ha tratado se devuelve sin volver a parsearlo, buscar su
+ * cadena de confianza ni instanciar su clase.<br><br>
+ *
+ * La cach est limitada por nmero de entradas y por peso (suma de los tamaos en
+ * bytes de los certificados codificados). Cuando se supera alguno de los lmites se
+ * eliminan las entradas usadas hace ms tiempo hasta quedar un 10% por debajo de l,
+ * de modo que las eliminaciones se agrupan en lugar de producirse en cada insercin.<br><br>
+ *
+ * Las bsquedas no se bloquean entre s ni con las inserciones: cada entrada guarda el
+ * momento de su ltimo uso y slo la eliminacin, que hace un nico hilo cada vez,
+ * ordena las entradas. Por ello el orden de uso es aproximado y, mientras se eliminan
+ * entradas, la cach puede superar brevemente sus lmites.<br><br>
+ *
+ * Por defecto la factora no utiliza ninguna cach. Para activarla:<br><br>
+ *
+ * <code>
+ * 	CertificateFactory.setCache(new CertificateCache(10000, 50 * 1024 * 1024));
+ * </code><br><br>
+ *
+ * Los objetos devueltos se comparten entre todos los que obtengan el mismo certificado,
+ * por lo que no deben modificarse.
+ */
+public class CertificateCache {
+
+	/**
+	 * Algoritmo de hash con el que se indexan los certificados
+	 */
+	public static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(CertificateCache.class);
+
+	/*
+	 * Orden de eliminacin: primero las entradas usadas hace ms tiempo
+	 */
+	private static final Comparator<EvictionCandidate> LEAST_RECENTLY_USED = new Comparator<EvictionCandidate>() {
+		public int compare(EvictionCandidate c1, EvictionCandidate c2) {
+			return Long.compare(c1.lastAccess, c2.lastAccess);
+		}
+	};
+
+	/*
+	 * Nmero mximo de entradas
+	 */
+	private int maxEntries;
+
+	/*
+	 * Peso mximo (suma de los tamaos de los certificados)
+	 */
+	private long maxWeight;
+
+	/*
+	 * Peso actual
+	 */
+	private AtomicLong weight = new AtomicLong();
+
+	/*
+	 * Contadores para las estadsticas
+	 */
+	private AtomicLong hitCount = new AtomicLong();
+	private AtomicLong missCount = new AtomicLong();
+	private AtomicLong evictionCount = new AtomicLong();
+
+	/*
+	 * Entradas
+	 */
+	private ConcurrentHashMap<String, CacheEntry> hmEntries = new ConcurrentHashMap<String, CacheEntry>();
+
+	/*
+	 * Cerrojo que asegura que slo un hilo elimina entradas
+	 */
+	private ReentrantLock evictionLock = new ReentrantLock();
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxEntries Nmero mximo de certificados en la cach
+	 * @param maxWeight Suma mxima de los tamaos en bytes de los certificados en la cach
+	 */
+	public CertificateCache (int maxEntries, long maxWeight) {
+		if (maxEntries <= 0 || maxWeight <= 0) {
+			throw new IllegalArgumentException ("Los lmites de la cach han de ser mayores que cero");
+		}
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * Calcula la huella con la que se indexa un certificado codificado. Para que
+	 * un mismo certificado tenga siempre la misma huella se ha de pasar en DER
+	 * (ver {@link #isDER(byte[])}).
+	 *
+	 * @param encoded Certificado codificado en DER
+	 * @return Huella del certificado
+	 */
+	public static String fingerprint (byte[] encoded) {
+		try {
+			return Util.toHexadecimal(MessageDigest.getInstance(FINGERPRINT_ALGORITHM).digest(encoded));
+		} catch (NoSuchAlgorithmException e) {
+			//-- No se dar: todas las JVM implementan SHA-256
+			throw new IllegalStateException (FINGERPRINT_ALGORITHM + " no est disponible", e);
+		}
+	}
+
+	/**
+	 * Indica si un certificado codificado est en DER, es decir, si es una
+	 * SEQUENCE ASN.1 con la longitud en su forma mnima y que ocupa exactamente
+	 * todos los bytes, y no un certificado PEM u otra codificacin. Las huellas
+	 * de la cach se calculan siempre sobre el DER.
+	 *
+	 * @param encoded Certificado codificado
+	 * @return Cierto si el certificado est en DER
+	 */
+	public static boolean isDER (byte[] encoded) {
+		if (encoded == null || encoded.length < 2 || encoded[0] != 0x30) {
+			return false;
+		}
+
+		//-- Forma corta: la longitud est en el segundo byte
+		int first = encoded[1] & 0xFF;
+		if (first < 0x80) {
+			return encoded.length == 2 + first;
+		}
+
+		//-- Forma larga: el segundo byte indica cuntos bytes ocupa la longitud. La
+		//-- longitud indefinida (0x80) no es DER, y en DER la longitud no puede llevar
+		//-- ceros a la izquierda ni usar la forma larga para valores menores que 128
+		int lengthOctets = first & 0x7F;
+		if (lengthOctets == 0 || lengthOctets > 4 || encoded.length < 2 + lengthOctets || encoded[2] == 0) {
+			return false;
+		}
+		long length = 0;
+		for (int i = 0; i < lengthOctets; i++) {
+			length = (length << 8) | (encoded[2 + i] & 0xFF);
+		}
+		return length >= 0x80 && encoded.length == 2 + lengthOctets + length;
+	}
+
+	/**
+	 * Obtiene un certificado de la cach
+	 *
+	 * @param fingerprint Huella del certificado
+	 * @return Certificado o nulo si no est en la cach
+	 */
+	public ValidateCertificate get (String fingerprint) {
+		CacheEntry entry = hmEntries.get(fingerprint);
+		if (entry == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		entry.lastAccess = System.nanoTime();
+		hitCount.incrementAndGet();
+		return entry.certificate;
+	}
+
+	/**
+	 * Aade un certificado a la cach, eliminando las entradas ms antiguas si
+	 * es necesario
+	 *
+	 * @param fingerprint Huella del certificado
+	 * @param certificate Certificado
+	 * @param size Tamao en bytes del certificado codificado
+	 */
+	public void put (String fingerprint, ValidateCertificate certificate, int size) {
+		if (size > maxWeight) {
+			logger.debug ("[CertificateCache.put]::El certificado es mayor que el peso mximo de la cach");
+			return;
+		}
+
+		CacheEntry previous = hmEntries.put(fingerprint, new CacheEntry(certificate, size));
+		weight.addAndGet(previous == null ? size : size - previous.size);
+
+		//-- Si otro hilo est eliminando entradas no se espera: al acabar vuelve a
+		//-- comprobar los lmites, por lo que tambin tiene en cuenta esta entrada
+		while (isOverLimits() && evictionLock.tryLock()) {
+			try {
+				evict();
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Guarda los certificados de la ACCV de la cach en un fichero de instantnea
+	 * (ver {@link CertificateSnapshot CertificateSnapshot}), para que otros procesos
+	 * puedan cargarlos con {@link #load(File)}.
+	 *
+	 * @param file Fichero de instantnea
+	 * @return Nmero de certificados guardados
+	 * @throws IOException Error de escritura
+	 */
+	public int save (File file) throws IOException {
+		List<ValidateCertificate> certificates = new ArrayList<ValidateCertificate>();
+		for (CacheEntry entry : hmEntries.values()) {
+			certificates.add(entry.certificate);
+		}
+		return CertificateSnapshot.writeFile(file, certificates);
+	}
+
+	/**
+	 * Aade a la cach los certificados de un fichero de instantnea escrito con
+	 * {@link #save(File)}. Si se ha establecido la clave de {@link CertificateSnapshot#setIntegrityKey(byte[])}
+	 * no se vuelven a obtener mediante la factora; sin clave se obtienen de nuevo a
+	 * partir de su DER (ver {@link CertificateSnapshot CertificateSnapshot}). No modifica
+	 * las estadsticas.
+	 *
+	 * @param file Fichero de instantnea
+	 * @return Nmero de certificados aadidos
+	 * @throws IOException Error de lectura o el fichero no es una instantnea
+	 */
+	public int load (File file) throws IOException {
+		int count = 0;
+		for (CertificadoACCV certificate : CertificateSnapshot.readFile(file)) {
+			byte[] der;
+			try {
+				der = certificate.toDER();
+			} catch (NormalizeCertificateException e) {
+				logger.info("[CertificateCache.load]::No se puede obtener el DER de un certificado de la instantnea", e);
+				continue;
+			}
+			put(fingerprint(der), certificate, der.length);
+			count++;
+		}
+		logger.debug ("[CertificateCache.load]::Cargados " + count + " certificados de " + file);
+		return count;
+	}
+
+	/**
+	 * Elimina todas las entradas de la cach. No modifica las estadsticas.
+	 */
+	public void clear () {
+		for (Entry<String, CacheEntry> entry : hmEntries.entrySet()) {
+			remove(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * @return Nmero de certificados en la cach
+	 */
+	public int size () {
+		return hmEntries.size();
+	}
+
+	/**
+	 * @return Suma de los tamaos de los certificados en la cach
+	 */
+	public long getWeight () {
+		return weight.get();
+	}
+
+	/**
+	 * @return Nmero de veces que se ha encontrado un certificado en la cach
+	 */
+	public long getHitCount () {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return Nmero de veces que no se ha encontrado un certificado en la cach
+	 */
+	public long getMissCount () {
+		return missCount.get();
+	}
+
+	/**
+	 * @return Nmero de entradas eliminadas por superar los lmites de la cach
+	 */
+	public long getEvictionCount () {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @return Proporcin de bsquedas que han encontrado el certificado (entre 0 y 1)
+	 */
+	public double getHitRate () {
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Pone a cero las estadsticas
+	 */
+	public void resetStatistics () {
+		hitCount.set(0);
+		missCount.set(0);
+		evictionCount.set(0);
+	}
+
+	public String toString () {
+		return "CertificateCache [entries=" + hmEntries.size() + "/" + maxEntries + ", weight=" + weight.get() + "/" + maxWeight +
+			", hits=" + hitCount.get() + ", misses=" + missCount.get() + ", evictions=" + evictionCount.get() + "]";
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Indica si la cach supera alguno de sus lmites
+	 */
+	private boolean isOverLimits () {
+		return hmEntries.size() > maxEntries || weight.get() > maxWeight;
+	}
+
+	/*
+	 * Elimina las entradas usadas hace ms tiempo hasta quedar un 10% por debajo
+	 * de los lmites. Se llama con el cerrojo de eliminacin cogido.
+	 */
+	private void evict () {
+		//-- Se copia el momento de uso de cada entrada para que no cambie mientras se ordena
+		List<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>(hmEntries.size());
+		for (Entry<String, CacheEntry> entry : hmEntries.entrySet()) {
+			candidates.add(new EvictionCandidate(entry.getKey(), entry.getValue()));
+		}
+		Collections.sort(candidates, LEAST_RECENTLY_USED);
+
+		int targetEntries = maxEntries - maxEntries / 10;
+		long targetWeight = maxWeight - maxWeight / 10;
+		for (EvictionCandidate candidate : candidates) {
+			if (hmEntries.size() <= targetEntries && weight.get() <= targetWeight) {
+				break;
+			}
+			if (remove(candidate.fingerprint, candidate.entry)) {
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	/*
+	 * Elimina una entrada si sigue en la cach y descuenta su peso
+	 */
+	private boolean remove (String fingerprint, CacheEntry entry) {
+		if (hmEntries.remove(fingerprint, entry)) {
+			weight.addAndGet(-entry.size);
+			return true;
+		}
+		return false;
+	}
+
+	//-- Clases privadas
+
+	/*
+	 * Entrada de la cach
+	 */
+	private static class CacheEntry {
+		ValidateCertificate certificate;
+		int size;
+		volatile long lastAccess = System.nanoTime();
+
+		CacheEntry (ValidateCertificate certificate, int size) {
+			this.certificate = certificate;
+			this.size = size;
+		}
+	}
+
+	/*
+	 * Entrada candidata a eliminarse, con el momento de su ltimo uso
+	 */
+	private static class EvictionCandidate {
+		String fingerprint;
+		CacheEntry entry;
+		long lastAccess;
+
+		EvictionCandidate (String fingerprint, CacheEntry entry) {
+			this.fingerprint = fingerprint;
+			this.entry = entry;
+			this.lastAccess = entry.lastAccess;
+		}
+	}
+}
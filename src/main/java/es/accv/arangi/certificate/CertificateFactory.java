@@ -24,8 +24,16 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
@@ -104,11 +112,53 @@ public class CertificateFactory {
 	 * Logger de la clase
 	 */
 	static Logger logger = Logger.getLogger(CertificateFactory.class);
+	
+	/*
+	 * Nmero de certificados que se leen de la entrada cada vez en getInstances. Limita
+	 * la memoria utilizada cuando se tratan grandes cantidades de certificados.
+	 */
+	private static final int BULK_BLOCK_SIZE = 1024;
 
 	/*
-	 * Lista que contiene todos los certificados registrados
+	 * Lista que contiene todos los certificados registrados, en orden de registro
+	 */
+	private static List<CertificateElement> lCertificateTypes = new ArrayList<CertificateElement> ();
+	
+	/*
+	 * rbol de polticas construido a partir de lCertificateTypes. Se sustituye
+	 * entero cada vez que se registra un tipo de certificado.
+	 */
+	private static volatile PolicyTrie<CertificateElement> certificateTypesTrie = new PolicyTrie<CertificateElement> ();
+	
+	/*
+	 * rbol de polticas de los certificados que no existen en Arang, construido a
+	 * partir del fichero de propiedades EXTRA_CERTIFICATES_PROPERTIES_PATH. Es nulo
+	 * mientras no se haya ledo el fichero.
+	 */
+	private static volatile PolicyTrie<CertificateElement> extraCertificateTypesTrie;
+	
+	/*
+	 * Cach de certificados ya instanciados (nula si no se utiliza cach)
+	 */
+	private static volatile CertificateCache cache;
+	
+	/*
+	 * Ordena los elementos por orden de registro
 	 */
-	private static List lCertificateTypes = new ArrayList ();
+	private static final Comparator<CertificateElement> REGISTRATION_ORDER = new Comparator<CertificateElement>() {
+		public int compare(CertificateElement e1, CertificateElement e2) {
+			return e1.getOrder() - e2.getOrder();
+		}
+	};
+	
+	/*
+	 * Ordena los elementos de la poltica ms concreta a la ms genrica
+	 */
+	private static final Comparator<CertificateElement> MOST_SPECIFIC_FIRST = new Comparator<CertificateElement>() {
+		public int compare(CertificateElement e1, CertificateElement e2) {
+			return e2.getPolicy().length() - e1.getPolicy().length();
+		}
+	};
 	
 	// Carga la lista de certificados y tipos
 	static {
@@ -147,24 +197,40 @@ public class CertificateFactory {
 	}
 	
 	/**
-	 * Mtodo al que llamarn los distintos certificados para registrarse
+	 * Mtodo al que llamarn los distintos certificados para registrarse. El constructor
+	 * de la clase se resuelve en este momento, por lo que la clase ha de tener un 
+	 * constructor pblico con un parmetro de tipo X509Certificate.
 	 * 
 	 * @param policies Polticas de los certificados
-	 * @param certificateClass Clase del certificado (ha de ser una subclase de es.accv.arangi.base.certificate.Certificate)
+	 * @param certificateClass Clase del certificado (ha de ser una subclase de es.accv.arangi.base.certificate.validation.ValidateCertificate)
 	 */
-	public static void addCertificateTypes (String [] policies, Class certificateClass) {
+	public static synchronized void addCertificateTypes (String [] policies, Class certificateClass) {
 		logger.debug ("[CertificateFactory.addCertificateType]::Registrando polticas " + policies + " para la clase " + certificateClass);
 		
 		//-- La clase debe ser hija de ValidateCertificate
-		if (certificateClass.isAssignableFrom(ValidateCertificate.class)) {
-			logger.info ("[CertificateFactory.addCertificateType]::La clase " + certificateClass + " no es una subclase de es.accv.arangi.base.certificate.Certificate");
+		if (!ValidateCertificate.class.isAssignableFrom(certificateClass)) {
+			logger.info ("[CertificateFactory.addCertificateType]::La clase " + certificateClass + " no es una subclase de es.accv.arangi.base.certificate.validation.ValidateCertificate");
 			return;
 		}
 		
-		//-- Aadir elementos a la lista
+		//-- Resolver el constructor
+		MethodHandle constructor;
+		try {
+			constructor = getConstructor(certificateClass, X509Certificate.class);
+		} catch (Exception e) {
+			logger.info ("[CertificateFactory.addCertificateType]::La clase " + certificateClass + " no tiene un constructor pblico con un parmetro X509Certificate", e);
+			return;
+		}
+		
+		//-- Aadir elementos a la lista y reconstruir el rbol de polticas
 		for (int i = 0; i < policies.length; i++) {
-			lCertificateTypes.add(new CertificateFactory().new CertificateElement (policies[i], certificateClass));
+			lCertificateTypes.add(new CertificateElement (policies[i], certificateClass, constructor, lCertificateTypes.size()));
+		}
+		PolicyTrie<CertificateElement> trie = new PolicyTrie<CertificateElement>();
+		for (CertificateElement element : lCertificateTypes) {
+			trie.put(element.getPolicy(), element);
 		}
+		certificateTypesTrie = trie;
 	}
 	
 	/**
@@ -197,6 +263,15 @@ public class CertificateFactory {
 	 * 	proveedor criptogrfico de Arangi
 	 */
 	public static ValidateCertificate getInstance (InputStream isCertificate) throws NormalizeCertificateException {
+		//-- Si hay cach hay que leer el contenido para calcular su huella
+		if (cache != null) {
+			try {
+				return getInstance(Util.readStream(isCertificate));
+			} catch (IOException e) {
+				throw new NormalizeCertificateException ("No se puede leer el certificado", e);
+			}
+		}
+		
 		//-- obtener un certificate
 		Certificate certificate = new Certificate (isCertificate);
 		
@@ -215,11 +290,35 @@ public class CertificateFactory {
 	 * 	proveedor criptogrfico de Arangi
 	 */
 	public static ValidateCertificate getInstance (byte[] bCertificate) throws NormalizeCertificateException {
+		//-- Buscar en la cach. La huella se calcula siempre sobre el DER, para que
+		//-- las formas PEM y DER de un mismo certificado compartan la entrada
+		CertificateCache cache = CertificateFactory.cache;
+		Certificate certificate = null;
+		byte[] der = bCertificate;
+		String fingerprint = null;
+		if (cache != null) {
+			if (!CertificateCache.isDER(bCertificate)) {
+				certificate = new Certificate (bCertificate);
+				der = certificate.toDER();
+			}
+			fingerprint = CertificateCache.fingerprint(der);
+			ValidateCertificate validateCertificate = cache.get(fingerprint);
+			if (validateCertificate != null) {
+				return validateCertificate;
+			}
+		}
+		
 		//-- obtener un certificate
-		Certificate certificate = new Certificate (bCertificate);
+		if (certificate == null) {
+			certificate = new Certificate (bCertificate);
+		}
 		
 		//-- Llamar a getInstance
-		return getInstance(certificate);
+		ValidateCertificate validateCertificate = getInstance(certificate);
+		if (cache != null && validateCertificate != null) {
+			cache.put(fingerprint, validateCertificate, der.length);
+		}
+		return validateCertificate;
 	}
 	
 	/**
@@ -233,6 +332,15 @@ public class CertificateFactory {
 	 * 	proveedor criptogrfico de Arangi
 	 */
 	public static ValidateCertificate getInstance (X509Certificate x509Certificate) throws NormalizeCertificateException {
+		//-- Si hay cach se busca por el contenido del certificado
+		if (cache != null) {
+			try {
+				return getInstance(x509Certificate.getEncoded());
+			} catch (CertificateEncodingException e) {
+				throw new NormalizeCertificateException ("No se puede codificar el certificado", e);
+			}
+		}
+		
 		//-- Obtener la poltica del certificado
 		Certificate certificate = new Certificate (x509Certificate);
 		
@@ -257,21 +365,37 @@ public class CertificateFactory {
 			return null;
 		}
 		
-		//-- Iterar sobre la lista
-		for (Iterator iterator = lCertificateTypes.iterator(); iterator.hasNext();) {
-			CertificateFactory.CertificateElement element = (CertificateFactory.CertificateElement) iterator.next();
-			for (String policy : policies) {
-				if (policy.startsWith(element.getPolicy())) {
-					logger.debug ("[CertificateFactory.getInstance]::Obtenido un certificado para la poltica " + policy);
-					try {
-						return (ValidateCertificate) element.getCertificateClass().getConstructor(new Class[] { X509Certificate.class }).newInstance(new Object[] { certificate.toX509Certificate() });
-					} catch (Exception e) {
-						logger.info("[CertificateFactory.getInstance]::Error obteniendo una instancia de la clase " + element.getCertificateClass(), e);
-					} 
+		//-- Buscar en el rbol las clases registradas para las polticas
+		PolicyTrie<CertificateElement> trie = certificateTypesTrie;
+		List<CertificateElement> candidates = null;
+		for (String policy : policies) {
+			List<CertificateElement> matches = trie.match(policy);
+			if (!matches.isEmpty()) {
+				if (candidates == null) {
+					candidates = matches;
+				} else {
+					candidates = new ArrayList<CertificateElement>(candidates);
+					candidates.addAll(matches);
 				}
 			}
 		}
 		
+		//-- Probar en orden de registro
+		if (candidates != null) {
+			if (candidates.size() > 1) {
+				candidates = new ArrayList<CertificateElement>(candidates);
+				Collections.sort(candidates, REGISTRATION_ORDER);
+			}
+			for (CertificateElement element : candidates) {
+				logger.debug ("[CertificateFactory.getInstance]::Obtenido un certificado para la poltica " + element.getPolicy());
+				try {
+					return (ValidateCertificate) newInstance(element.getConstructor(), certificate.toX509Certificate());
+				} catch (Exception e) {
+					logger.info("[CertificateFactory.getInstance]::Error obteniendo una instancia de la clase " + element.getCertificateClass(), e);
+				} 
+			}
+		}
+		
 		logger.debug("[CertificateFactory.getInstance]::No se ha podido instanciar ninguna clase para las polticas " + policies);
 		return null;
 		
@@ -395,59 +519,221 @@ public class CertificateFactory {
 			return null;
 		}
 		
-		//-- Mediante introspeccin intentar obtener un objeto certificado de un tipo
-		//-- concreto. Para ello se busca un fichero de propiedades que relaciona el
-		//-- OID de la poltica con la clase que tratar ese tipo de ficheros.
+		//-- Intentar obtener un objeto certificado de un tipo concreto. Para ello se
+		//-- utilizan las clases asociadas a las polticas en el fichero de propiedades
+		//-- EXTRA_CERTIFICATES_PROPERTIES_PATH, que se lee slo la primera vez.
+		List<String> policies = certificate.getPolicyOIDs();
+		logger.debug("[CertificateFactory.getInstance]::Los OIDs de la poltica del certificado es: " + policies);
+		PolicyTrie<CertificateElement> trie = getExtraCertificateTypes();
+		List<CertificateElement> candidates = new ArrayList<CertificateElement>();
+		for (String policy : policies) {
+			candidates.addAll(trie.match(policy));
+		}
+		Collections.sort(candidates, MOST_SPECIFIC_FIRST);
+		for (CertificateElement element : candidates) {
+			try {
+				return (ValidateCertificate) newInstance(element.getConstructor(), validateCertificate);
+			} catch (Exception e) {
+				logger.info("[CertificateFactory.getInstance]::No ha sido posible inicializar un objeto de la clase " + element.getCertificateClass(), e);
+			} 
+			logger.debug("[CertificateFactory.getInstance]::El certificado pasado tiene una clase externa que puede tratarlo pero no puede ser instanciada");
+		}
+		
+		logger.debug ("[CertificateFactory.getInstance]::El certificado pasado no pertenece a los tratados por Arang pero si a una de las CAs de CAList");
+		return validateCertificate;
+		
+	}
+	
+	/**
+	 * Obtiene las instancias de un conjunto de certificados, tratndolos en paralelo
+	 * con tantos hilos como procesadores tenga la mquina. Equivale a llamar a 
+	 * {@link #getInstance(byte[])} para cada uno de ellos.
+	 * 
+	 * @param certificates Certificados en formato X.509v3
+	 * @return Resultados en el mismo orden que los certificados de entrada
+	 */
+	public static List<CertificateInstanceResult> getInstances (Collection<byte[]> certificates) {
+		return getInstances(certificates, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Obtiene las instancias de un conjunto de certificados, tratndolos en paralelo.
+	 * Equivale a llamar a {@link #getInstance(byte[])} para cada uno de ellos.
+	 * 
+	 * @param certificates Certificados en formato X.509v3
+	 * @param parallelism Nmero de hilos que tratarn los certificados
+	 * @return Resultados en el mismo orden que los certificados de entrada
+	 */
+	public static List<CertificateInstanceResult> getInstances (Collection<byte[]> certificates, int parallelism) {
+		final List<CertificateInstanceResult> results = new ArrayList<CertificateInstanceResult>(certificates.size());
+		getInstances(certificates.iterator(), parallelism, new CertificateInstanceListener() {
+			public void onResult(CertificateInstanceResult result) {
+				results.add(result);
+			}
+		});
+		return results;
+	}
+	
+	/**
+	 * Obtiene las instancias de los certificados que devuelve un iterador, tratndolos
+	 * en paralelo, y las entrega a un receptor en el mismo orden que la entrada. Los 
+	 * certificados se leen por bloques, por lo que nunca estn en memoria todos a la vez: 
+	 * es el mtodo adecuado para tratar volcados de certificados muy grandes.
+	 * 
+	 * @param certificates Iterador sobre certificados en formato X.509v3
+	 * @param parallelism Nmero de hilos que tratarn los certificados
+	 * @param listener Receptor de los resultados
+	 */
+	public static void getInstances (Iterator<byte[]> certificates, int parallelism, final CertificateInstanceListener listener) {
+		logger.debug ("[CertificateFactory.getInstances]::Entrada::" + parallelism);
+		
+		if (parallelism < 1) {
+			throw new IllegalArgumentException ("El nmero de hilos ha de ser mayor que cero");
+		}
+		
+		int blockSize = Math.max(BULK_BLOCK_SIZE, parallelism * CertificateBlockProcessor.TASK_THRESHOLD);
+		new CertificateBlockProcessor<CertificateInstanceResult>(parallelism, blockSize) {
+			protected CertificateInstanceResult process(long index, byte[] certificate) {
+				try {
+					return new CertificateInstanceResult(index, getInstance(certificate), null);
+				} catch (Exception e) {
+					logger.debug("[CertificateFactory.getInstances]::Error tratando el certificado " + index, e);
+					return new CertificateInstanceResult(index, null, e);
+				}
+			}
+			
+			protected void onResult(CertificateInstanceResult result) {
+				listener.onResult(result);
+			}
+		}.process(certificates);
+	}
+	
+	/**
+	 * Establece la cach que utilizarn los mtodos getInstance que reciben un array
+	 * de bytes, un stream o un X509Certificate. Por defecto no se utiliza cach.
+	 * 
+	 * @param certificateCache Cach o nulo para no utilizar cach
+	 */
+	public static void setCache (CertificateCache certificateCache) {
+		cache = certificateCache;
+	}
+	
+	/**
+	 * Obtiene la cach que utiliza la factora, por ejemplo para consultar sus
+	 * estadsticas.
+	 * 
+	 * @return Cach o nulo si no se utiliza cach
+	 */
+	public static CertificateCache getCache () {
+		return cache;
+	}
+	
+	/**
+	 * Vuelve a leer el fichero de propiedades con la informacin de certificados
+	 * que no existen en Arang ({@link #EXTRA_CERTIFICATES_PROPERTIES_PATH}). El
+	 * fichero se lee la primera vez que se necesita, por lo que slo es necesario
+	 * llamar a este mtodo si cambia el fichero o las clases que contiene.
+	 */
+	public static synchronized void reloadExtraCertificateTypes () {
+		logger.debug ("[CertificateFactory.reloadExtraCertificateTypes]::Entrada");
+		
+		PolicyTrie<CertificateElement> trie = new PolicyTrie<CertificateElement>();
+		
 		Properties properties = null;
-		try {
-			InputStream is = new CertificateFactory().getClass().getClassLoader().getResourceAsStream(EXTRA_CERTIFICATES_PROPERTIES_PATH);
-			if (is != null) {
+		InputStream is = CertificateFactory.class.getClassLoader().getResourceAsStream(EXTRA_CERTIFICATES_PROPERTIES_PATH);
+		if (is != null) {
+			try {
 				properties = new Properties ();
 				properties.load(is);
-			} 
-		} catch (IOException e) {
-			// No existe el fichero.
-			logger.debug("[CertificateFactory.getInstance]::No existe o no se puede leer el fichero de propiedades en " + EXTRA_CERTIFICATES_PROPERTIES_PATH);
+			} catch (IOException e) {
+				logger.debug("[CertificateFactory.reloadExtraCertificateTypes]::No se puede leer el fichero de propiedades en " + EXTRA_CERTIFICATES_PROPERTIES_PATH);
+				properties = null;
+			} finally {
+				try { is.close(); } catch (IOException e) {}
+			}
+		} else {
+			logger.debug("[CertificateFactory.reloadExtraCertificateTypes]::No existe el fichero de propiedades en " + EXTRA_CERTIFICATES_PROPERTIES_PATH);
 		}
 		
+		//-- Cargar las clases y resolver sus constructores
 		if (properties != null) {
-			List<String> policies = certificate.getPolicyOIDs();
-			logger.debug("[CertificateFactory.getInstance]::Los OIDs de la poltica del certificado es: " + policies);
-			if (!policies.isEmpty()) {
-				for (Iterator<Entry<Object, Object>> iterator = properties.entrySet().iterator(); iterator.hasNext();) {
-					Entry<Object, Object> entry = iterator.next();
-					for(String policy : policies) {
-						if (policy.startsWith((String)entry.getKey())) {
-							String className = (String)entry.getValue();
-							try {
-								validateCertificate = (ValidateCertificate) Class.forName(className).getConstructor(new Class[] { CertificadoDesconocido.class }).newInstance(new Object[] { validateCertificate });
-							} catch (Exception e) {
-								logger.info("[CertificateFactory.getInstance]::No ha sido posible inicializar un objeto de la clase " + className, e);
-							} 
-							logger.debug("[CertificateFactory.getInstance]::El certificado pasado tiene una clase externa que puede tratarlo pero no puede ser instanciada");
-						}
-					}
-				}
+			for (Iterator<Entry<Object, Object>> iterator = properties.entrySet().iterator(); iterator.hasNext();) {
+				Entry<Object, Object> entry = iterator.next();
+				String policy = ((String) entry.getKey()).trim();
+				String className = ((String) entry.getValue()).trim();
+				try {
+					Class certificateClass = Class.forName(className);
+					trie.put(policy, new CertificateElement(policy, certificateClass, getConstructor(certificateClass, CertificadoDesconocido.class), 0));
+				} catch (Exception e) {
+					logger.info("[CertificateFactory.reloadExtraCertificateTypes]::No ha sido posible cargar la clase " + className + 
+							" o no tiene un constructor pblico con un parmetro CertificadoDesconocido", e);
+				} 
 			}
 		}
 		
-		logger.debug ("[CertificateFactory.getInstance]::El certificado pasado no pertenece a los tratados por Arang pero si a una de las CAs de CAList");
-		return validateCertificate;
-		
+		extraCertificateTypesTrie = trie;
+	}
+	
+	//-- Mtodos privados
+	
+	/*
+	 * Obtiene el rbol de polticas de los certificados que no existen en Arang,
+	 * leyendo el fichero de propiedades si an no se ha hecho.
+	 */
+	private static PolicyTrie<CertificateElement> getExtraCertificateTypes () {
+		PolicyTrie<CertificateElement> trie = extraCertificateTypesTrie;
+		if (trie == null) {
+			synchronized (CertificateFactory.class) {
+				if (extraCertificateTypesTrie == null) {
+					reloadExtraCertificateTypes();
+				}
+				trie = extraCertificateTypesTrie;
+			}
+		}
+		return trie;
+	}
+	
+	/*
+	 * Obtiene el constructor de la clase con un nico parmetro del tipo indicado,
+	 * adaptado para que devuelva Object y reciba Object.
+	 */
+	private static MethodHandle getConstructor (Class certificateClass, Class parameterClass) throws NoSuchMethodException, IllegalAccessException {
+		return MethodHandles.publicLookup()
+				.findConstructor(certificateClass, MethodType.methodType(void.class, parameterClass))
+				.asType(MethodType.methodType(Object.class, Object.class));
+	}
+	
+	/*
+	 * Llama a un constructor obtenido mediante getConstructor
+	 */
+	private static Object newInstance (MethodHandle constructor, Object parameter) throws Exception {
+		try {
+			return constructor.invokeExact(parameter);
+		} catch (Exception e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new UndeclaredThrowableException(t);
+		}
 	}
 	
 	/*
 	 * Clase que representa cada elemento de la lista de certificados
 	 */
-	private class CertificateElement {
+	private static class CertificateElement {
 		
 		String policy;
 		Class certificateClass;
+		MethodHandle constructor;
+		int order;
 		
-		public CertificateElement(String policy, Class certificateClass) {
+		public CertificateElement(String policy, Class certificateClass, MethodHandle constructor, int order) {
 			super();
 			this.policy = policy;
 			this.certificateClass = certificateClass;
+			this.constructor = constructor;
+			this.order = order;
 		}
 
 		public String getPolicy() {
@@ -465,6 +751,14 @@ public class CertificateFactory {
 		public void setCertificateClass(Class certificateClass) {
 			this.certificateClass = certificateClass;
 		}
+
+		public MethodHandle getConstructor() {
+			return constructor;
+		}
+
+		public int getOrder() {
+			return order;
+		}
 		
 		
 	}
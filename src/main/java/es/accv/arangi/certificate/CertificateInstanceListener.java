@@ -0,0 +1,40 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+/**
+ * Receptor de los resultados de
+ * {@link CertificateFactory#getInstances(java.util.Iterator, int, CertificateInstanceListener) CertificateFactory.getInstances}.
+ * Permite tratar grandes cantidades de certificados sin mantener todos los resultados
+ * en memoria.
+ */
+public interface CertificateInstanceListener {
+
+	/**
+	 * Recibe el resultado de un certificado. Los resultados llegan en el mismo orden
+	 * que los certificados de la entrada y siempre desde el hilo que llam a
+	 * getInstances.
+	 *
+	 * @param result Resultado
+	 */
+	public void onResult (CertificateInstanceResult result);
+
+}
@@ -0,0 +1,92 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import es.accv.arangi.base.certificate.validation.ValidateCertificate;
+
+/**
+ * Resultado de obtener la instancia de uno de los certificados pasados a
+ * {@link CertificateFactory#getInstances(java.util.Collection) CertificateFactory.getInstances}.
+ * Contiene la posicin del certificado en la entrada y, o bien la instancia obtenida
+ * (que puede ser nula si el certificado no es de ninguno de los tipos tratados por
+ * Arang), o bien la excepcin que se produjo al tratarlo.
+ */
+public class CertificateInstanceResult {
+
+	/*
+	 * Posicin del certificado en la entrada
+	 */
+	private long index;
+
+	/*
+	 * Instancia obtenida
+	 */
+	private ValidateCertificate certificate;
+
+	/*
+	 * Error producido
+	 */
+	private Exception exception;
+
+	/**
+	 * Constructor
+	 *
+	 * @param index Posicin del certificado en la entrada
+	 * @param certificate Instancia obtenida
+	 * @param exception Error producido
+	 */
+	public CertificateInstanceResult(long index, ValidateCertificate certificate, Exception exception) {
+		super();
+		this.index = index;
+		this.certificate = certificate;
+		this.exception = exception;
+	}
+
+	/**
+	 * @return Posicin del certificado en la entrada (empezando por 0)
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return Instancia del certificado o nulo si se produjo un error o el certificado
+	 * 	no es de ninguno de los tipos tratados por Arang
+	 */
+	public ValidateCertificate getCertificate() {
+		return certificate;
+	}
+
+	/**
+	 * @return Error producido al tratar el certificado o nulo si no hubo error
+	 */
+	public Exception getException() {
+		return exception;
+	}
+
+	/**
+	 * @return Cierto si el certificado se ha tratado sin errores
+	 */
+	public boolean isOk() {
+		return exception == null;
+	}
+
+}
@@ -0,0 +1,332 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.AttributeTypeAndValue;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.exception.certificate.CertificateFieldException;
+import es.accv.arangi.base.util.AlternativeNameElement;
+
+/**
+ * Datos de un certificado de la ACCV ya decodificados: sujeto, nombre alternativo
+ * del sujeto (SAN) y polticas. Cada {@link CertificadoACCV CertificadoACCV} lo
+ * construye la primera vez que se necesita y todos sus mtodos de obtencin de
+ * campos lo leen, por lo que el sujeto, el SAN y las polticas se decodifican una
+ * sola vez por certificado.<br><br>
+ *
+ * El objeto no se modifica una vez construido y puede ser ledo desde varios hilos.
+ * Los elementos del SAN se comparten, por lo que no deben modificarse.
+ */
+public final class CertificateProfile {
+
+	/**
+	 * OID del identificador de la organizacin (organizationIdentifier)
+	 */
+	public static final ASN1ObjectIdentifier OID_ORGANIZATION_IDENTIFIER = new ASN1ObjectIdentifier("2.5.4.97").intern();
+
+	/**
+	 * OID de la descripcin (description)
+	 */
+	public static final ASN1ObjectIdentifier OID_DESCRIPTION = new ASN1ObjectIdentifier("2.5.4.13").intern();
+
+	/**
+	 * OID de la categora de negocio (businessCategory)
+	 */
+	public static final ASN1ObjectIdentifier OID_BUSINESS_CATEGORY = new ASN1ObjectIdentifier("2.5.4.15").intern();
+
+	/**
+	 * OID del pas de jurisdiccin (jurisdictionOfIncorporationCountryName)
+	 */
+	public static final ASN1ObjectIdentifier OID_JURISDICTION_COUNTRY = new ASN1ObjectIdentifier("1.3.6.1.4.1.311.60.2.1.3").intern();
+
+	/*
+	 * DN del sujeto
+	 */
+	private String subjectDN;
+
+	/*
+	 * Valores de los elementos del sujeto, por OID. Nulo si no se pudo obtener el sujeto.
+	 */
+	private Map<ASN1ObjectIdentifier, String[]> hmSubjectValues;
+
+	/*
+	 * Elementos del SAN, o la excepcin que se obtuvo al decodificarlo
+	 */
+	private List sanElements;
+	private CertificateFieldException sanException;
+
+	/*
+	 * Valores de los elementos del SAN de tipo nombre de directorio, por OID
+	 */
+	private Map<String, String[]> hmSanValues;
+
+	/*
+	 * Campos del SAN segn la disposicin de la familia del certificado
+	 */
+	private SanLayout.Fields sanFields;
+
+	/*
+	 * Nombre completo del SAN (nombre, primer apellido, segundo apellido)
+	 */
+	private String[] fullName;
+
+	/*
+	 * OIDs de las polticas
+	 */
+	private List<String> policyOIDs;
+
+	/*
+	 * Constructor: decodifica el sujeto y el SAN en una sola pasada
+	 */
+	CertificateProfile (String subjectDN, X500Name subject, List sanElements, CertificateFieldException sanException, List<String> policyOIDs, SanLayout sanLayout) {
+		this(subjectDN, subject == null ? null : indexSubject(subject), sanElements, sanException, policyOIDs, sanLayout);
+	}
+
+	/*
+	 * Constructor con el sujeto ya indexado (ver CertificateSnapshot)
+	 */
+	CertificateProfile (String subjectDN, Map<ASN1ObjectIdentifier, String[]> subjectValues, List sanElements, CertificateFieldException sanException, List<String> policyOIDs, SanLayout sanLayout) {
+		this.subjectDN = subjectDN;
+		this.hmSubjectValues = subjectValues;
+		this.sanException = sanException;
+		this.policyOIDs = policyOIDs == null ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<String>(policyOIDs));
+
+		Map<String, List<String>> hmValues = new HashMap<String, List<String>>();
+		if (sanElements != null) {
+			for (Object element : sanElements) {
+				Object value = ((AlternativeNameElement) element).getValue();
+				if (value instanceof Map) {
+					for (Object entry : ((Map) value).entrySet()) {
+						String oid = (String) ((Map.Entry) entry).getKey();
+						List<String> lValues = hmValues.get(oid);
+						if (lValues == null) {
+							lValues = new ArrayList<String>(1);
+							hmValues.put(oid, lValues);
+						}
+						lValues.add((String) ((Map.Entry) entry).getValue());
+					}
+				}
+			}
+			this.sanElements = Collections.unmodifiableList(new ArrayList(sanElements));
+			if (sanLayout != null) {
+				this.sanFields = sanLayout.decode(sanElements);
+			}
+		}
+
+		this.hmSanValues = new HashMap<String, String[]>();
+		for (Map.Entry<String, List<String>> entry : hmValues.entrySet()) {
+			hmSanValues.put(entry.getKey(), entry.getValue().toArray(new String[0]));
+		}
+
+		String[] values = hmSanValues.get(Certificate.OID_ID_AT_COMMONNAME);
+		if (values != null && values.length > 0 && values[0] != null && values[0].length() > 0) {
+			this.fullName = values[0].split("\\|");
+		}
+	}
+
+	/**
+	 * @return DN del sujeto
+	 */
+	public String getSubjectDN() {
+		return subjectDN;
+	}
+
+	/**
+	 * Indica si se ha podido decodificar el sujeto. Si no es as los mtodos
+	 * {@link #getSubjectElement(ASN1ObjectIdentifier)} y {@link #getSubjectElements(ASN1ObjectIdentifier)}
+	 * no deben usarse.
+	 *
+	 * @return Cierto si el sujeto est decodificado
+	 */
+	public boolean hasSubject() {
+		return hmSubjectValues != null;
+	}
+
+	/**
+	 * Obtiene el primer valor de un elemento del sujeto. Equivale a
+	 * {@link Certificate#getElementSubject(ASN1ObjectIdentifier)} sin recorrer
+	 * de nuevo el sujeto.
+	 *
+	 * @param oid OID del elemento
+	 * @return Valor del elemento o nulo si no existe
+	 */
+	public String getSubjectElement(ASN1ObjectIdentifier oid) {
+		String[] values = hmSubjectValues.get(oid);
+		return values == null ? null : values[0];
+	}
+
+	/**
+	 * Obtiene los valores de un elemento del sujeto. Equivale a
+	 * {@link Certificate#getElementsSubject(ASN1ObjectIdentifier)} sin recorrer
+	 * de nuevo el sujeto.
+	 *
+	 * @param oid OID del elemento
+	 * @return Valores del elemento o nulo si no existe
+	 */
+	public String[] getSubjectElements(ASN1ObjectIdentifier oid) {
+		String[] values = hmSubjectValues.get(oid);
+		return values == null ? null : values.clone();
+	}
+
+	/**
+	 * Obtiene los elementos del nombre alternativo del sujeto
+	 *
+	 * @return Lista de {@link AlternativeNameElement AlternativeNameElement} (no modificable)
+	 * @throws CertificateFieldException No se ha podido decodificar el SAN
+	 */
+	public List getSubjectAlternativeName() throws CertificateFieldException {
+		if (sanException != null) {
+			throw sanException;
+		}
+		return sanElements;
+	}
+
+	/**
+	 * Obtiene los valores de un elemento del nombre alternativo del sujeto
+	 *
+	 * @param oid OID del elemento
+	 * @return Valores del elemento (array vaco si no existe)
+	 * @throws CertificateFieldException No se ha podido decodificar el SAN
+	 */
+	public String[] getSubjectAlternativeNameElements(String oid) throws CertificateFieldException {
+		if (sanException != null) {
+			throw sanException;
+		}
+		String[] values = hmSanValues.get(oid);
+		return values == null ? new String[0] : values.clone();
+	}
+
+	/**
+	 * Obtiene el primer valor de un elemento del nombre alternativo del sujeto
+	 *
+	 * @param oid OID del elemento
+	 * @return Valor del elemento o nulo si no existe
+	 * @throws CertificateFieldException No se ha podido decodificar el SAN
+	 */
+	public String getSubjectAlternativeNameElement(String oid) throws CertificateFieldException {
+		if (sanException != null) {
+			throw sanException;
+		}
+		String[] values = hmSanValues.get(oid);
+		return values == null || values.length == 0 ? null : values[0];
+	}
+
+	/**
+	 * Obtiene los campos del SAN segn la disposicin de la familia del certificado
+	 * (ver {@link CertificadoACCV#getSanLayout()})
+	 *
+	 * @return Campos del SAN o nulo si la familia no tiene disposicin
+	 * @throws CertificateFieldException No se ha podido decodificar el SAN
+	 */
+	public SanLayout.Fields getSanFields() throws CertificateFieldException {
+		if (sanException != null) {
+			throw sanException;
+		}
+		return sanFields;
+	}
+
+	/**
+	 * Obtiene el nombre completo que hay en el SAN como entrada del LDAP, separado
+	 * en nombre, primer apellido y segundo apellido (si lo tiene).
+	 *
+	 * @return Partes del nombre completo o nulo si el SAN no lo contiene
+	 */
+	public String[] getFullName() {
+		return fullName == null ? null : fullName.clone();
+	}
+
+	/**
+	 * @return OIDs de las polticas del certificado (lista no modificable)
+	 */
+	public List<String> getPolicyOIDs() {
+		return policyOIDs;
+	}
+
+	/*
+	 * Valores de los elementos del sujeto por OID, para CertificateSnapshot. Nulo si
+	 * no se pudo obtener el sujeto.
+	 */
+	Map<ASN1ObjectIdentifier, String[]> getSubjectValues() {
+		return hmSubjectValues;
+	}
+
+	/*
+	 * Indica si se pudo decodificar el SAN, para CertificateSnapshot
+	 */
+	boolean hasSubjectAlternativeName() {
+		return sanException == null;
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Indexa el sujeto por OID. Igual que en Certificate, un RDN multivaluado
+	 * aporta el valor de su primer elemento a cada uno de sus OIDs.
+	 */
+	private static Map<ASN1ObjectIdentifier, String[]> indexSubject (X500Name subject) {
+		Map<ASN1ObjectIdentifier, List<String>> hmValues = new HashMap<ASN1ObjectIdentifier, List<String>>();
+		for (RDN rdn : subject.getRDNs()) {
+			String value = rdn.getFirst().getValue().toString();
+			AttributeTypeAndValue[] typesAndValues = rdn.getTypesAndValues();
+			for (int i = 0; i < typesAndValues.length; i++) {
+				ASN1ObjectIdentifier oid = typesAndValues[i].getType();
+				if (rdn.isMultiValued() && containsType(typesAndValues, i, oid)) {
+					continue;
+				}
+				List<String> lValues = hmValues.get(oid);
+				if (lValues == null) {
+					lValues = new ArrayList<String>(1);
+					hmValues.put(oid, lValues);
+				}
+				lValues.add(value);
+			}
+		}
+
+		Map<ASN1ObjectIdentifier, String[]> result = new HashMap<ASN1ObjectIdentifier, String[]>();
+		for (Map.Entry<ASN1ObjectIdentifier, List<String>> entry : hmValues.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().toArray(new String[0]));
+		}
+		return result;
+	}
+
+	/*
+	 * Indica si el OID aparece antes de la posicin indicada en el RDN
+	 */
+	private static boolean containsType (AttributeTypeAndValue[] typesAndValues, int end, ASN1ObjectIdentifier oid) {
+		for (int i = 0; i < end; i++) {
+			if (typesAndValues[i].getType().equals(oid)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
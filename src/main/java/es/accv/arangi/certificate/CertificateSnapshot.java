@@ -0,0 +1,626 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.certificate.validation.ValidateCertificate;
+import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
+import es.accv.arangi.base.util.AlternativeNameElement;
+import es.accv.arangi.base.util.Util;
+
+/**
+ * Serializacin binaria compacta de los certificados de la ACCV ({@link CertificadoACCV
+ * CertificadoACCV}) para compartirlos entre procesos: por ejemplo, para que los
+ * procesos de un grupo de servidores carguen su cach a partir de una instantnea
+ * comn en lugar de volver a obtener cada certificado mediante
+ * {@link CertificateFactory CertificateFactory}.<br><br>
+ *
+ * Cada registro contiene el certificado en DER, la clase de Arang que le corresponde,
+ * la huella (SHA-256) del certificado de su emisor y los datos ya decodificados de su
+ * {@link CertificateProfile CertificateProfile} (sujeto, SAN y polticas). Si el emisor
+ * del certificado ya no es el mismo (por ejemplo porque han cambiado las listas de CAs)
+ * el registro no se puede leer.<br><br>
+ *
+ * La clase y los datos decodificados slo se usan tal cual si el registro est firmado
+ * con la clave HMAC de {@link #setIntegrityKey(byte[])}, compartida por los procesos que
+ * escriben y leen las instantneas: en ese caso se instancia directamente la clase, sin
+ * buscarla por las polticas, y el certificado no vuelve a decodificar el sujeto, el SAN
+ * ni las polticas. Si hay clave y la firma no es correcta el registro no se puede leer.
+ * Sin clave, la clase se vuelve a obtener a partir del DER mediante {@link CertificateFactory
+ * CertificateFactory} (y el registro no se puede leer si no coincide) y los datos
+ * decodificados se descartan, por lo que un registro alterado nunca cambia los datos del
+ * certificado. Es decir, sin clave leer un registro cuesta lo mismo que obtener el
+ * certificado de nuevo: la clave es imprescindible para que la instantnea acelere
+ * el arranque.<br><br>
+ *
+ * Los registros pueden escribirse en cualquier DataOutput, en un array de bytes (para
+ * guardarlos en un almacn clave-valor o en memoria fuera del heap) o en un fichero
+ * de instantnea: ver {@link CertificateCache#save(File)} y {@link CertificateCache#load(File)}.
+ */
+public final class CertificateSnapshot {
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(CertificateSnapshot.class);
+
+	/**
+	 * Versin del formato de los registros
+	 */
+	public static final int FORMAT_VERSION = 2;
+
+	/*
+	 * Nmero mgico de los ficheros de instantnea ("ARSN")
+	 */
+	private static final int MAGIC = 0x4152534E;
+
+	/*
+	 * Tipos de valor de un elemento del SAN
+	 */
+	private static final byte SAN_NULL = 0;
+	private static final byte SAN_STRING = 1;
+	private static final byte SAN_MAP = 2;
+
+	/*
+	 * Algoritmo de firma de los registros
+	 */
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	/*
+	 * Tamaos mximos que se aceptan al leer: registro, texto y nmero de elementos
+	 * de una lista
+	 */
+	private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+	private static final int MAX_STRING_LENGTH = 64 * 1024;
+	private static final int MAX_ELEMENTS = 4096;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/*
+	 * Clave de firma de los registros (nula si no se firman)
+	 */
+	private static volatile SecretKeySpec integrityKey;
+
+	/*
+	 * Constructores de las clases de certificado, por nombre de clase
+	 */
+	private static Map<String, Constructor<?>> hmConstructors = new ConcurrentHashMap<String, Constructor<?>>();
+
+	/*
+	 * Constructor privado: slo mtodos estticos
+	 */
+	private CertificateSnapshot () {
+	}
+
+	/**
+	 * Establece la clave HMAC-SHA256 con la que se firman los registros al escribirlos
+	 * y se comprueban al leerlos. Ha de ser la misma en todos los procesos que comparten
+	 * las instantneas. Con valor nulo los registros no se firman y al leerlos se descartan
+	 * la clase y los datos decodificados, por lo que la lectura no ahorra ningn trabajo.
+	 *
+	 * @param key Clave (al menos 16 bytes) o nulo
+	 */
+	public static void setIntegrityKey (byte[] key) {
+		if (key != null && key.length < 16) {
+			throw new IllegalArgumentException ("La clave ha de tener al menos 16 bytes");
+		}
+		integrityKey = key == null ? null : new SecretKeySpec(key.clone(), MAC_ALGORITHM);
+	}
+
+	/**
+	 * Serializa un certificado en un array de bytes
+	 *
+	 * @param certificate Certificado
+	 * @return Registro serializado
+	 * @throws IOException No se puede obtener el DER del certificado
+	 */
+	public static byte[] toBytes (CertificadoACCV certificate) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(4096);
+		DataOutputStream out = new DataOutputStream(baos);
+		write(out, certificate);
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Obtiene un certificado a partir de un registro serializado con {@link #toBytes(CertificadoACCV)}
+	 *
+	 * @param record Registro serializado
+	 * @return Certificado
+	 * @throws IOException El registro no es vlido o el emisor del certificado ha cambiado
+	 */
+	public static CertificadoACCV fromBytes (byte[] record) throws IOException {
+		return read(new DataInputStream(new ByteArrayInputStream(record)));
+	}
+
+	/**
+	 * Escribe un certificado: el registro y, si hay {@link #setIntegrityKey(byte[]) clave},
+	 * su firma
+	 *
+	 * @param out Destino
+	 * @param certificate Certificado
+	 * @throws IOException Error de escritura, no se puede obtener el DER del certificado
+	 * 	o no se encuentra su emisor
+	 */
+	public static void write (DataOutput out, CertificadoACCV certificate) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(4096);
+		DataOutputStream body = new DataOutputStream(baos);
+		writeBody(body, certificate);
+		body.flush();
+		byte[] record = baos.toByteArray();
+
+		SecretKeySpec key = integrityKey;
+		byte[] mac = key == null ? new byte[0] : mac(key, record);
+		out.writeInt(record.length);
+		out.write(record);
+		out.writeShort(mac.length);
+		out.write(mac);
+	}
+
+	/**
+	 * Lee un certificado escrito con {@link #write(DataOutput, CertificadoACCV)}
+	 *
+	 * @param in Origen
+	 * @return Certificado
+	 * @throws IOException Error de lectura, el registro no es vlido, su firma no es
+	 * 	correcta o el emisor del certificado ha cambiado
+	 */
+	public static CertificadoACCV read (DataInput in) throws IOException {
+		byte[] record = new byte[checkLength(in.readInt(), MAX_RECORD_LENGTH)];
+		in.readFully(record);
+		byte[] mac = new byte[in.readUnsignedShort()];
+		in.readFully(mac);
+
+		SecretKeySpec key = integrityKey;
+		boolean trusted = false;
+		if (key != null) {
+			if (!MessageDigest.isEqual(mac, mac(key, record))) {
+				throw new IOException ("La firma del registro no es correcta");
+			}
+			trusted = true;
+		}
+
+		try {
+			return readBody(new DataInputStream(new ByteArrayInputStream(record)), trusted);
+		} catch (RuntimeException e) {
+			//-- Datos no vlidos (p.ej. un OID mal formado)
+			throw new IOException ("El registro no es vlido", e);
+		}
+	}
+
+	/**
+	 * Escribe un fichero de instantnea con los certificados de la ACCV de la lista.
+	 * El resto de certificados se ignoran. El fichero se escribe primero en un fichero
+	 * temporal propio del mismo directorio y se mueve al final de forma atmica, por lo
+	 * que quien lo lea nunca ver un fichero a medio escribir, aunque varios procesos lo
+	 * escriban a la vez.
+	 *
+	 * @param file Fichero
+	 * @param certificates Certificados
+	 * @return Nmero de certificados escritos
+	 * @throws IOException Error de escritura
+	 */
+	public static int writeFile (File file, Collection<? extends ValidateCertificate> certificates) throws IOException {
+		logger.debug ("[CertificateSnapshot.writeFile]::Entrada::" + file);
+
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		int count = 0;
+		boolean moved = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+			try {
+				out.writeInt(MAGIC);
+				for (ValidateCertificate certificate : certificates) {
+					if (certificate instanceof CertificadoACCV) {
+						byte[] record;
+						try {
+							record = toBytes((CertificadoACCV) certificate);
+						} catch (IOException e) {
+							logger.info("[CertificateSnapshot.writeFile]::Se ignora un certificado que no se puede serializar: " + e.getMessage());
+							continue;
+						}
+						out.writeInt(record.length);
+						out.write(record);
+						count++;
+					}
+				}
+				out.writeInt(-1);
+				out.flush();
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		} finally {
+			if (!moved && !tmp.delete()) {
+				logger.debug ("[CertificateSnapshot.writeFile]::No se ha podido borrar " + tmp);
+			}
+		}
+
+		logger.debug ("[CertificateSnapshot.writeFile]::Escritos " + count + " certificados");
+		return count;
+	}
+
+	/**
+	 * Lee un fichero de instantnea. Los certificados que no se pueden leer (por
+	 * ejemplo porque su emisor ha cambiado) se ignoran.
+	 *
+	 * @param file Fichero
+	 * @return Certificados ledos
+	 * @throws IOException Error de lectura o el fichero no es una instantnea
+	 */
+	public static List<CertificadoACCV> readFile (File file) throws IOException {
+		logger.debug ("[CertificateSnapshot.readFile]::Entrada::" + file);
+
+		List<CertificadoACCV> result = new ArrayList<CertificadoACCV>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException ("El fichero " + file + " no es una instantnea de certificados");
+			}
+			int length;
+			while ((length = in.readInt()) >= 0) {
+				//-- Cada registro va precedido de su longitud para poder saltarlo si no es vlido
+				if (length > MAX_RECORD_LENGTH + 1024) {
+					throw new IOException ("La instantnea " + file + " no es vlida: registro de " + length + " bytes");
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				try {
+					result.add(fromBytes(record));
+				} catch (IOException e) {
+					logger.info("[CertificateSnapshot.readFile]::Se ignora un certificado de la instantnea: " + e.getMessage());
+				}
+			}
+		} catch (EOFException e) {
+			throw new IOException ("La instantnea " + file + " est truncada", e);
+		} finally {
+			in.close();
+		}
+
+		logger.debug ("[CertificateSnapshot.readFile]::Ledos " + result.size() + " certificados");
+		return result;
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Escribe los datos del certificado
+	 */
+	private static void writeBody (DataOutput out, CertificadoACCV certificate) throws IOException {
+		byte[] der;
+		try {
+			der = certificate.toDER();
+		} catch (NormalizeCertificateException e) {
+			throw new IOException ("No se puede obtener el DER del certificado", e);
+		}
+
+		out.writeByte(FORMAT_VERSION);
+		out.writeUTF(certificate.getClass().getName());
+		out.writeInt(der.length);
+		out.write(der);
+		String issuerFingerprint = getIssuerFingerprint(certificate);
+		if (issuerFingerprint == null) {
+			throw new IOException ("No se encuentra el emisor del certificado");
+		}
+		writeString(out, issuerFingerprint);
+
+		//-- Datos decodificados
+		CertificateProfile profile = certificate.getProfile();
+		if (!profile.hasSubject() || !profile.hasSubjectAlternativeName()) {
+			//-- Se volvern a obtener al leer el certificado
+			out.writeBoolean(false);
+			return;
+		}
+		out.writeBoolean(true);
+		writeString(out, profile.getSubjectDN());
+
+		Map<ASN1ObjectIdentifier, String[]> subjectValues = profile.getSubjectValues();
+		out.writeInt(subjectValues.size());
+		for (Map.Entry<ASN1ObjectIdentifier, String[]> entry : subjectValues.entrySet()) {
+			writeString(out, entry.getKey().getId());
+			writeStrings(out, entry.getValue());
+		}
+
+		List sanElements;
+		try {
+			sanElements = profile.getSubjectAlternativeName();
+		} catch (Exception e) {
+			//-- No se dar: se ha comprobado que el SAN est decodificado
+			throw new IOException ("No se puede obtener el SAN del certificado", e);
+		}
+		out.writeInt(sanElements == null ? -1 : sanElements.size());
+		if (sanElements != null) {
+			for (Object element : sanElements) {
+				writeSanElement(out, (AlternativeNameElement) element);
+			}
+		}
+
+		writeStrings(out, profile.getPolicyOIDs().toArray(new String[0]));
+	}
+
+	/*
+	 * Lee los datos del certificado. Si el registro no est firmado la clase se
+	 * obtiene del DER y los datos decodificados se descartan.
+	 */
+	private static CertificadoACCV readBody (DataInput in, boolean trusted) throws IOException {
+		int version = in.readUnsignedByte();
+		if (version != FORMAT_VERSION) {
+			throw new IOException ("Versin de registro no soportada: " + version);
+		}
+		String className = in.readUTF();
+		byte[] der = new byte[checkLength(in.readInt(), MAX_RECORD_LENGTH)];
+		in.readFully(der);
+		String issuerFingerprint = readString(in);
+		if (issuerFingerprint == null) {
+			throw new IOException ("El registro no tiene la huella del emisor");
+		}
+
+		CertificadoACCV certificate = trusted ? newInstance(className, der) : classify(className, der);
+		if (!issuerFingerprint.equals(getIssuerFingerprint(certificate))) {
+			throw new IOException ("El emisor del certificado ya no es el mismo que cuando se serializ");
+		}
+
+		if (!trusted || !in.readBoolean()) {
+			return certificate;
+		}
+
+		//-- Datos decodificados
+		String subjectDN = readString(in);
+		int numSubjectValues = checkLength(in.readInt(), MAX_ELEMENTS);
+		Map<ASN1ObjectIdentifier, String[]> subjectValues = new HashMap<ASN1ObjectIdentifier, String[]>();
+		for (int i = 0; i < numSubjectValues; i++) {
+			ASN1ObjectIdentifier oid = new ASN1ObjectIdentifier(readString(in)).intern();
+			subjectValues.put(oid, readStrings(in));
+		}
+
+		int numSanElements = in.readInt();
+		List<AlternativeNameElement> sanElements = null;
+		if (numSanElements != -1) {
+			checkLength(numSanElements, MAX_ELEMENTS);
+			sanElements = new ArrayList<AlternativeNameElement>(numSanElements);
+			for (int i = 0; i < numSanElements; i++) {
+				sanElements.add(readSanElement(in));
+			}
+		}
+
+		List<String> policyOIDs = new ArrayList<String>();
+		for (String policy : readStrings(in)) {
+			policyOIDs.add(policy);
+		}
+
+		certificate.restoreProfile(new CertificateProfile(subjectDN, subjectValues, sanElements, null, policyOIDs, certificate.getSanLayout()));
+		return certificate;
+	}
+
+	/*
+	 * Obtiene la firma de un registro
+	 */
+	private static byte[] mac (SecretKeySpec key, byte[] record) throws IOException {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(key);
+			return mac.doFinal(record);
+		} catch (GeneralSecurityException e) {
+			//-- No se dar: todas las JVM implementan HmacSHA256
+			throw new IOException ("No se puede firmar el registro", e);
+		}
+	}
+
+	/*
+	 * Comprueba una longitud leda
+	 */
+	private static int checkLength (int length, int max) throws IOException {
+		if (length < 0 || length > max) {
+			throw new IOException ("Longitud no vlida en el registro: " + length);
+		}
+		return length;
+	}
+
+	/*
+	 * Instancia la clase del certificado
+	 */
+	private static CertificadoACCV newInstance (String className, byte[] der) throws IOException {
+		Constructor<?> constructor = hmConstructors.get(className);
+		if (constructor == null) {
+			try {
+				Class<?> certificateClass = Class.forName(className);
+				if (!CertificadoACCV.class.isAssignableFrom(certificateClass)) {
+					throw new IOException ("La clase " + className + " no es un certificado de la ACCV");
+				}
+				constructor = certificateClass.getConstructor(X509Certificate.class);
+			} catch (ClassNotFoundException e) {
+				throw new IOException ("No existe la clase " + className, e);
+			} catch (NoSuchMethodException e) {
+				throw new IOException ("La clase " + className + " no tiene un constructor con un X509Certificate", e);
+			}
+			hmConstructors.put(className, constructor);
+		}
+
+		try {
+			return (CertificadoACCV) constructor.newInstance(Util.getCertificate(der));
+		} catch (InvocationTargetException e) {
+			throw new IOException ("No se puede instanciar el certificado como " + className, e.getCause());
+		} catch (Exception e) {
+			throw new IOException ("No se puede instanciar el certificado como " + className, e);
+		}
+	}
+
+	/*
+	 * Obtiene la instancia del certificado mediante la factora, comprobando que
+	 * es de la clase indicada en el registro
+	 */
+	private static CertificadoACCV classify (String className, byte[] der) throws IOException {
+		ValidateCertificate instance;
+		try {
+			instance = CertificateFactory.getInstance(new Certificate(der));
+		} catch (NormalizeCertificateException e) {
+			throw new IOException ("El registro no contiene un certificado vlido", e);
+		}
+		if (instance == null || !instance.getClass().getName().equals(className)) {
+			throw new IOException ("El certificado no es de la clase " + className + " sino " + 
+					(instance == null ? "de ninguna de Arang" : "de la clase " + instance.getClass().getName()));
+		}
+		return (CertificadoACCV) instance;
+	}
+
+	/*
+	 * Obtiene la huella del certificado del emisor o nulo si no lo tiene
+	 */
+	private static String getIssuerFingerprint (CertificadoACCV certificate) throws IOException {
+		ValidateCertificate issuer = certificate.getIssuerCertificate();
+		if (issuer == null) {
+			return null;
+		}
+		try {
+			return CertificateCache.fingerprint(issuer.toDER());
+		} catch (NormalizeCertificateException e) {
+			throw new IOException ("No se puede obtener el DER del emisor", e);
+		}
+	}
+
+	/*
+	 * Escribe un elemento del SAN
+	 */
+	private static void writeSanElement (DataOutput out, AlternativeNameElement element) throws IOException {
+		out.writeInt(element.getType());
+		Object value = element.getValue();
+		if (value == null) {
+			out.writeByte(SAN_NULL);
+		} else if (value instanceof Map) {
+			out.writeByte(SAN_MAP);
+			out.writeInt(((Map) value).size());
+			for (Object entry : ((Map) value).entrySet()) {
+				writeString(out, (String) ((Map.Entry) entry).getKey());
+				writeString(out, (String) ((Map.Entry) entry).getValue());
+			}
+		} else {
+			out.writeByte(SAN_STRING);
+			writeString(out, value.toString());
+		}
+	}
+
+	/*
+	 * Lee un elemento del SAN
+	 */
+	private static AlternativeNameElement readSanElement (DataInput in) throws IOException {
+		int type = in.readInt();
+		byte kind = in.readByte();
+		switch (kind) {
+		case SAN_NULL:
+			return new AlternativeNameElement(type, null);
+		case SAN_MAP:
+			int size = checkLength(in.readInt(), MAX_ELEMENTS);
+			Map<String, String> map = new LinkedHashMap<String, String>();
+			for (int i = 0; i < size; i++) {
+				map.put(readString(in), readString(in));
+			}
+			return new AlternativeNameElement(type, map);
+		case SAN_STRING:
+			return new AlternativeNameElement(type, readString(in));
+		default:
+			throw new IOException ("Tipo de elemento del SAN no vlido: " + kind);
+		}
+	}
+
+	/*
+	 * Escribe un texto en UTF-8 precedido de su longitud (-1 si es nulo)
+	 */
+	private static void writeString (DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/*
+	 * Lee un texto escrito con writeString
+	 */
+	private static String readString (DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[checkLength(length, MAX_STRING_LENGTH)];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/*
+	 * Escribe un array de textos
+	 */
+	private static void writeStrings (DataOutput out, String[] values) throws IOException {
+		out.writeInt(values.length);
+		for (String value : values) {
+			writeString(out, value);
+		}
+	}
+
+	/*
+	 * Lee un array de textos escrito con writeStrings
+	 */
+	private static String[] readStrings (DataInput in) throws IOException {
+		String[] values = new String[checkLength(in.readInt(), MAX_ELEMENTS)];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = readString(in);
+		}
+		return values;
+	}
+
+}
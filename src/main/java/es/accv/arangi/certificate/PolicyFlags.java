@@ -0,0 +1,99 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import java.util.List;
+
+/**
+ * Caractersticas de un certificado que se deducen de sus polticas (dispositivo
+ * en el que se encuentra, personalidad jurdica...). Cada familia de certificados
+ * indica qu caractersticas corresponden a cada una de sus polticas base y
+ * {@link CertificadoACCV CertificadoACCV} las calcula una sola vez al construir
+ * el certificado, como una mscara de bits que se consulta con
+ * {@link CertificadoACCV#hasPolicyFlag(int)}.<br><br>
+ *
+ * Una poltica base corresponde a todas las polticas que la tienen como prefijo
+ * (por arcos del OID).
+ */
+public final class PolicyFlags {
+
+	/**
+	 * El certificado se encuentra en un dispositivo PKCS#11
+	 */
+	public static final int PKCS11_DEVICE = 1;
+
+	/**
+	 * El certificado se encuentra en un dispositivo software (PKCS#12)
+	 */
+	public static final int SOFTWARE_DEVICE = 1 << 1;
+
+	/**
+	 * El certificado se encuentra en la nube
+	 */
+	public static final int CLOUD = 1 << 2;
+
+	/**
+	 * El certificado se emiti para una entidad con personalidad jurdica
+	 */
+	public static final int WITH_LEGAL_PERSONALITY = 1 << 3;
+
+	/**
+	 * El certificado se emiti para una entidad sin personalidad jurdica
+	 */
+	public static final int WITHOUT_LEGAL_PERSONALITY = 1 << 4;
+
+	/*
+	 * Caractersticas por poltica base
+	 */
+	private PolicyTrie<Integer> trie = new PolicyTrie<Integer>();
+
+	/**
+	 * Asocia caractersticas a una poltica base. Slo debe llamarse mientras se
+	 * construye el objeto, antes de usarlo.
+	 *
+	 * @param basePolicy OID de la poltica base
+	 * @param flags Caractersticas (combinacin de las constantes de esta clase)
+	 * @return El propio objeto, para encadenar llamadas
+	 */
+	public PolicyFlags add (String basePolicy, int flags) {
+		trie.put(basePolicy, Integer.valueOf(flags));
+		return this;
+	}
+
+	/**
+	 * Obtiene las caractersticas que corresponden a una lista de polticas
+	 *
+	 * @param policyOIDs OIDs de las polticas de un certificado
+	 * @return Mscara con las caractersticas
+	 */
+	public int match (List<String> policyOIDs) {
+		int flags = 0;
+		if (policyOIDs != null) {
+			for (String policyOID : policyOIDs) {
+				for (Integer value : trie.match(policyOID)) {
+					flags |= value.intValue();
+				}
+			}
+		}
+		return flags;
+	}
+
+}
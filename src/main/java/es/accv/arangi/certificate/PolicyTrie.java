@@ -0,0 +1,105 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * rbol de OIDs de polticas, indexado por los arcos del OID. Permite obtener
+ * todos los valores registrados para una poltica base que sea prefijo (por arcos)
+ * de la poltica de un certificado recorriendo el rbol una sola vez, en lugar de
+ * comparar la poltica con todas las polticas registradas.<br><br>
+ *
+ * El rbol no se modifica una vez construido, por lo que puede ser ledo desde
+ * varios hilos a la vez. Para aadir polticas hay que construir un rbol nuevo.
+ */
+class PolicyTrie<T> {
+
+	/*
+	 * Nodo raz
+	 */
+	private Node<T> root = new Node<T>();
+
+	/**
+	 * Asocia un valor a una poltica base
+	 *
+	 * @param policy OID de la poltica base
+	 * @param value Valor
+	 */
+	void put (String policy, T value) {
+		Node<T> node = root;
+		for (String arc : policy.split("\\.")) {
+			Node<T> child = node.children.get(arc);
+			if (child == null) {
+				child = new Node<T>();
+				node.children.put(arc, child);
+			}
+			node = child;
+		}
+		node.values.add(value);
+	}
+
+	/**
+	 * Obtiene los valores de todas las polticas base que son prefijo de la
+	 * poltica pasada, de la ms genrica a la ms concreta.
+	 *
+	 * @param policy OID de la poltica de un certificado
+	 * @return Valores asociados (lista vaca si no hay ninguno)
+	 */
+	List<T> match (String policy) {
+		List<T> result = null;
+		Node<T> node = root;
+		int start = 0;
+		while (node != null && start <= policy.length()) {
+			int end = policy.indexOf('.', start);
+			if (end == -1) {
+				end = policy.length();
+			}
+			node = node.children.get(policy.substring(start, end));
+			if (node != null && !node.values.isEmpty()) {
+				if (result == null) {
+					result = new ArrayList<T>(node.values);
+				} else {
+					result.addAll(node.values);
+				}
+			}
+			start = end + 1;
+		}
+
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return result;
+	}
+
+	/*
+	 * Nodo del rbol: un arco del OID
+	 */
+	private static class Node<T> {
+		Map<String, Node<T>> children = new HashMap<String, Node<T>>();
+		List<T> values = new ArrayList<T>(1);
+	}
+
+}
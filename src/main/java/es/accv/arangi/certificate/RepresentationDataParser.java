@@ -0,0 +1,156 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+
+import es.accv.arangi.certificate.field.DatosRepresentacionBoletinOficial;
+import es.accv.arangi.certificate.field.DatosRepresentacionDesconocido;
+import es.accv.arangi.certificate.field.DatosRepresentacionRegistro;
+import es.accv.arangi.certificate.field.DatosRepresentacionRegistroNotarial;
+import es.accv.arangi.util.ArangiUtil;
+
+/**
+ * Interpreta la informacin de representacin que los certificados cualificados
+ * de entidad y de representante llevan en el campo descripcin del sujeto. El
+ * texto tiene la forma <code>T:campo1/campo2/...</code>, donde T indica el tipo:
+ * R (registro), N (registro notarial) o B (boletn oficial).<br><br>
+ *
+ * Los campos se localizan recorriendo el texto una sola vez, sin expresiones
+ * regulares. Si el texto no tiene un tipo conocido o le faltan campos se devuelve
+ * como {@link DatosRepresentacionDesconocido DatosRepresentacionDesconocido}.
+ */
+final class RepresentationDataParser {
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(RepresentationDataParser.class);
+
+	/*
+	 * Nmero de campos de cada tipo
+	 */
+	private static final int CAMPOS_REGISTRO = 8;
+	private static final int CAMPOS_REGISTRO_NOTARIAL = 3;
+	private static final int CAMPOS_BOLETIN_OFICIAL = 3;
+
+	/*
+	 * Constructor privado: slo mtodos estticos
+	 */
+	private RepresentationDataParser () {
+	}
+
+	/**
+	 * Interpreta la informacin de representacin
+	 *
+	 * @param descripcion Texto del campo descripcin del sujeto
+	 * @return Objeto de la clase DatosRepresentacionRegistro, DatosRepresentacionRegistroNotarial,
+	 * 	DatosRepresentacionBoletinOficial o DatosRepresentacionDesconocido, o nulo si
+	 * 	la descripcin es nula
+	 */
+	static Object parse (String descripcion) {
+		if (descripcion == null) {
+			return null;
+		}
+
+		if (descripcion.startsWith("R:")) {
+			String[] elementos = split(descripcion, CAMPOS_REGISTRO);
+			if (elementos != null) {
+				DatosRepresentacionRegistro datos = new DatosRepresentacionRegistro();
+				datos.setRegistro(elementos[0]);
+				datos.setHoja(elementos[1]);
+				datos.setTomo(elementos[2]);
+				datos.setSeccion(elementos[3]);
+				datos.setLibro(elementos[4]);
+				datos.setFolio(elementos[5]);
+				datos.setFecha(parseDate(elementos[6]));
+				datos.setInscripcion(elementos[7]);
+				return datos;
+			}
+		} else if (descripcion.startsWith("N:")) {
+			String[] elementos = split(descripcion, CAMPOS_REGISTRO_NOTARIAL);
+			if (elementos != null) {
+				DatosRepresentacionRegistroNotarial datos = new DatosRepresentacionRegistroNotarial();
+				datos.setNotario(elementos[0]);
+				datos.setNumeroProtocolo(elementos[1]);
+				datos.setFechaOtorgamiento(parseDate(elementos[2]));
+				return datos;
+			}
+		} else if (descripcion.startsWith("B:")) {
+			String[] elementos = split(descripcion, CAMPOS_BOLETIN_OFICIAL);
+			if (elementos != null) {
+				DatosRepresentacionBoletinOficial datos = new DatosRepresentacionBoletinOficial();
+				datos.setBoletin(elementos[0]);
+				datos.setFecha(parseDate(elementos[1]));
+				datos.setNumeroResolucion(elementos[2]);
+				return datos;
+			}
+		}
+
+		return new DatosRepresentacionDesconocido(descripcion);
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Obtiene los campos separados por '/' que siguen al tipo ("T:"). Los campos
+	 * que haya tras el ltimo esperado se ignoran. Devuelve nulo si faltan campos.
+	 */
+	private static String[] split (String descripcion, int numCampos) {
+		String[] elementos = new String[numCampos];
+		int inicio = 2;
+		for (int i = 0; i < numCampos; i++) {
+			if (inicio > descripcion.length()) {
+				logger.info("[RepresentationDataParser.split]::Faltan campos en la informacin de representacin: " + descripcion);
+				return null;
+			}
+			int fin = descripcion.indexOf('/', inicio);
+			if (fin < 0) {
+				fin = descripcion.length();
+			}
+			elementos[i] = descripcion.substring(inicio, fin);
+			inicio = fin + 1;
+		}
+		return elementos;
+	}
+
+	/*
+	 * Obtiene una fecha en el formato de ArangiUtil.SIMPLE_DATE_FORMAT. Devuelve nulo
+	 * si el campo est vaco o no se puede interpretar.
+	 */
+	private static Date parseDate (String fecha) {
+		if (fecha.trim().length() == 0) {
+			return null;
+		}
+		try {
+			//-- SimpleDateFormat no se puede compartir entre hilos
+			return ((SimpleDateFormat) ArangiUtil.SIMPLE_DATE_FORMAT.clone()).parse(fecha);
+		} catch (ParseException e) {
+			logger.info("No se puede parsear la fecha '" + fecha + "'");
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.accv.arangi.base.util.AlternativeNameElement;
+
+/**
+ * Disposicin de los campos del nombre alternativo del sujeto (SAN) de una familia
+ * de certificados: cada campo tiene un OID formado por un OID base y un sufijo, y
+ * una familia puede tener varios OIDs base (uno por versin de la poltica o por
+ * tipo de dispositivo).<br><br>
+ *
+ * El SAN se recorre una sola vez y se obtiene un objeto {@link Fields Fields} con
+ * los valores de todos los campos para todas las bases. Cada {@link CertificadoACCV
+ * CertificadoACCV} lo construye junto con su {@link CertificateProfile CertificateProfile}
+ * a partir de lo que devuelve {@link CertificadoACCV#getSanLayout()}.<br><br>
+ *
+ * El objeto no se modifica una vez construido y puede compartirse entre hilos.
+ */
+public final class SanLayout {
+
+	/*
+	 * OIDs base, en orden de preferencia
+	 */
+	private String[] bases;
+
+	/*
+	 * Posicin de cada OID base y de cada sufijo
+	 */
+	private Map<String, Integer> hmBases = new HashMap<String, Integer>();
+	private Map<String, Integer> hmSuffixes = new HashMap<String, Integer>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param bases OIDs base, en orden de preferencia (la primera base que contenga
+	 * 	un campo es la que da su valor)
+	 * @param suffixes Sufijos de los campos
+	 */
+	public SanLayout (String[] bases, String[] suffixes) {
+		this.bases = bases.clone();
+		for (int i = 0; i < bases.length; i++) {
+			hmBases.put(bases[i], Integer.valueOf(i));
+		}
+		for (int i = 0; i < suffixes.length; i++) {
+			hmSuffixes.put(suffixes[i], Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * Decodifica los campos de esta disposicin recorriendo una sola vez los
+	 * elementos del SAN
+	 *
+	 * @param sanElements Lista de {@link AlternativeNameElement AlternativeNameElement}
+	 * @return Valores de los campos
+	 */
+	public Fields decode (List sanElements) {
+		String[][] values = new String[bases.length][hmSuffixes.size()];
+		int base = -1;
+
+		if (sanElements != null) {
+			for (Object element : sanElements) {
+				Object value = ((AlternativeNameElement) element).getValue();
+				if (!(value instanceof Map)) {
+					continue;
+				}
+				for (Object entry : ((Map) value).entrySet()) {
+					String oid = (String) ((Map.Entry) entry).getKey();
+					int pos = oid.lastIndexOf('.');
+					if (pos < 0) {
+						continue;
+					}
+					Integer baseIndex = hmBases.get(oid.substring(0, pos));
+					Integer suffixIndex = baseIndex == null ? null : hmSuffixes.get(oid.substring(pos + 1));
+					if (suffixIndex == null) {
+						continue;
+					}
+
+					//-- Como en el SAN, el primer valor de cada OID es el que cuenta
+					if (values[baseIndex.intValue()][suffixIndex.intValue()] == null) {
+						values[baseIndex.intValue()][suffixIndex.intValue()] = (String) ((Map.Entry) entry).getValue();
+					}
+					if (base < 0 || baseIndex.intValue() < base) {
+						base = baseIndex.intValue();
+					}
+				}
+			}
+		}
+
+		return new Fields(base, values);
+	}
+
+	/**
+	 * Valores de los campos del SAN de un certificado segn una {@link SanLayout SanLayout}
+	 */
+	public final class Fields {
+
+		/*
+		 * Posicin de la base preferida que aparece en el SAN (-1 si no aparece ninguna)
+		 */
+		private int base;
+
+		/*
+		 * Valores por base y sufijo
+		 */
+		private String[][] values;
+
+		/*
+		 * Constructor
+		 */
+		private Fields (int base, String[][] values) {
+			this.base = base;
+			this.values = values;
+		}
+
+		/**
+		 * Obtiene el OID base preferido de entre los que aparecen en el SAN. En las
+		 * familias que tienen una base por versin de la poltica indica la versin.
+		 *
+		 * @return OID base o nulo si el SAN no contiene ningn campo de esta disposicin
+		 */
+		public String getBase () {
+			return base < 0 ? null : bases[base];
+		}
+
+		/**
+		 * Obtiene el valor de un campo de la primera base, en orden de preferencia,
+		 * que lo contiene
+		 *
+		 * @param suffix Sufijo del campo
+		 * @return Valor del campo o nulo si no existe en ninguna base
+		 */
+		public String getValue (String suffix) {
+			Integer suffixIndex = hmSuffixes.get(suffix);
+			if (suffixIndex == null) {
+				return null;
+			}
+			for (int i = 0; i < values.length; i++) {
+				if (values[i][suffixIndex.intValue()] != null) {
+					return values[i][suffixIndex.intValue()];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Obtiene el valor de un campo en una base concreta
+		 *
+		 * @param base OID base
+		 * @param suffix Sufijo del campo
+		 * @return Valor del campo o nulo si no existe en esa base
+		 */
+		public String getValue (String base, String suffix) {
+			Integer baseIndex = hmBases.get(base);
+			Integer suffixIndex = hmSuffixes.get(suffix);
+			if (baseIndex == null || suffixIndex == null) {
+				return null;
+			}
+			return values[baseIndex.intValue()][suffixIndex.intValue()];
+		}
+
+	}
+
+}
@@ -34,8 +34,8 @@ import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
 import es.accv.arangi.base.exception.certificate.validation.ServiceException;
 import es.accv.arangi.base.exception.certificate.validation.ServiceNotFoundException;
 import es.accv.arangi.base.util.Util;
+import es.accv.arangi.certificate.validation.AFirma6Transport;
 import es.gob.afirma.afirma5ServiceInvoker.Afirma5ServiceInvokerContent;
-import es.gob.afirma.afirma5ServiceInvoker.Afirma5ServiceInvokerFacade;
 import es.gob.afirma.transformers.TransformersConstants;
 import es.gob.afirma.transformers.TransformersException;
 import es.gob.afirma.transformers.TransformersFacade;
@@ -57,30 +57,20 @@ public class AFirma6CertificateDataService implements CertificateDataService {
 	 */
 	Logger logger = Logger.getLogger(AFirma6CertificateDataService.class);
 	
-	/*
-	 * URL de acceso a los servicios web de &#64;Firma
-	 */
-	private String url;
-	
 	/*
 	 * Identificador de la aplicacin en &#64;Firma
 	 */
 	private String idAplicacion;
 	
 	/*
-	 * Usuario 
-	 */
-	private String user;
-	
-	/*
-	 * Contrasea
+	 * Acceso a &#64;Firma, compartido por todas las llamadas
 	 */
-	private String password;
+	private volatile AFirma6Transport transport;
 	
 	/*
-	 * Fichero de acceso a almacn de claves (WSS4J)
+	 * Tiempo mximo de espera de las llamadas (milisegundos)
 	 */
-	private String configuracionWSS4J;
+	private int callTimeout = AFirma6Transport.DEFAULT_CALL_TIMEOUT;
 	
 	//-- Constructores	
 	
@@ -131,9 +121,6 @@ public class AFirma6CertificateDataService implements CertificateDataService {
 	 */
 	public void initialize (String url, String idAplicacion, String user, String password, String configuracionWSS4J) {
 		this.idAplicacion = idAplicacion;
-		this.user = user;
-		this.password = password;
-		this.configuracionWSS4J = configuracionWSS4J;
 		
 		if (url.indexOf("//") > -1) {
 			url = url.substring(url.indexOf("//") + 2);
@@ -141,7 +128,29 @@ public class AFirma6CertificateDataService implements CertificateDataService {
 				url = url.substring(0, url.indexOf("/"));
 			}
 		}
-		this.url = url;
+		this.transport = new AFirma6Transport(url, idAplicacion, user, password, configuracionWSS4J);
+	}
+
+	/**
+	 * Obtiene el tiempo mximo de espera de las llamadas a &#64;Firma
+	 * 
+	 * @return Tiempo mximo de espera (milisegundos)
+	 */
+	public int getCallTimeout() {
+		return callTimeout;
+	}
+
+	/**
+	 * Establece el tiempo mximo de espera de las llamadas a &#64;Firma. Por defecto
+	 * {@link AFirma6Transport#DEFAULT_CALL_TIMEOUT}.
+	 * 
+	 * @param callTimeout Tiempo mximo de espera (milisegundos)
+	 */
+	public void setCallTimeout(int callTimeout) {
+		if (callTimeout <= 0) {
+			throw new IllegalArgumentException ("El tiempo mximo de espera ha de ser mayor que cero");
+		}
+		this.callTimeout = callTimeout;
 	}
 
 	/**
@@ -159,9 +168,6 @@ public class AFirma6CertificateDataService implements CertificateDataService {
 			ServiceException {
 		logger.debug("[AFirmaCertificateValidationService.validate]::Entrada::" + Arrays.asList(new Object[] { certificate, extraParams }));
 		
-		//-- Pasar los parmetros a un properties
-		ArangiServiceContent serviceContent = new ArangiServiceContent(url, user, password, configuracionWSS4J);
-		
 		Map<String, Object> inParams = new HashMap<String, Object>();
 
 		inParams.put(DSSTagsRequest.CLAIMED_IDENTITY, this.idAplicacion);
@@ -183,7 +189,7 @@ public class AFirma6CertificateDataService implements CertificateDataService {
 		}
 		String xmlOutput;
 		try {
-			xmlOutput = Afirma5ServiceInvokerFacade.getInstance().invokeService(xmlInput, GeneralConstants.DSS_AFIRMA_VERIFY_CERTIFICATE_REQUEST, GeneralConstants.DSS_AFIRMA_VERIFY_METHOD, this.idAplicacion, serviceContent);
+			xmlOutput = transport.invoke(xmlInput, GeneralConstants.DSS_AFIRMA_VERIFY_CERTIFICATE_REQUEST, GeneralConstants.DSS_AFIRMA_VERIFY_METHOD, callTimeout);
 		} catch (Exception e) {
 			logger.info("No se puede obtener la respuesta de @Firma", e);
 			throw new ServiceNotFoundException("No se puede obtener la respuesta de @Firma", e);
@@ -215,7 +221,11 @@ public class AFirma6CertificateDataService implements CertificateDataService {
 	/**
 	 * Clase que requiere ACCVIntegra para obtener los parmetros con los que se realizar
 	 * la llamada.
+	 * 
+	 * @deprecated Las llamadas se realizan mediante {@link AFirma6Transport AFirma6Transport},
+	 * 	que se crea una sola vez por servicio
 	 */
+	@Deprecated
 	public class ArangiServiceContent implements Afirma5ServiceInvokerContent {
 		
 		Properties afirmaProperties;
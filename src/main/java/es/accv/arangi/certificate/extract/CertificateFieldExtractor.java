@@ -0,0 +1,164 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.extract;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.log4j.Logger;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.certificate.CertificateBlockProcessor;
+import es.accv.arangi.certificate.CertificateFactory;
+
+/**
+ * Extrae los campos de grandes volmenes de certificados (NIF, nombre, CIF de la
+ * entidad, caractersticas de las polticas, validez, emisor...) y los escribe
+ * en un {@link FieldWriter FieldWriter}: CSV ({@link CsvFieldWriter CsvFieldWriter})
+ * o binario por columnas ({@link ColumnarFieldWriter ColumnarFieldWriter}).<br><br>
+ *
+ * Los certificados se leen por bloques de un {@link CertificateSource CertificateSource}
+ * (o de cualquier iterador) mediante un {@link CertificateBlockProcessor CertificateBlockProcessor},
+ * igual que en {@link CertificateFactory#getInstances(Iterator, int, es.accv.arangi.certificate.CertificateInstanceListener)
+ * CertificateFactory.getInstances}: cada bloque se trata en paralelo obteniendo su instancia
+ * con {@link CertificateFactory#getInstance(Certificate) CertificateFactory.getInstance}
+ * y sus campos, y los campos se escriben en el mismo orden que la entrada. La memoria utilizada
+ * depende del tamao del bloque, no del de la entrada.<br><br>
+ *
+ * Los certificados que no son de ninguno de los tipos tratados por Arang se escriben
+ * slo con los campos comunes; los que no se pueden leer, como una fila con el error.<br><br>
+ *
+ * Ejemplo:<br><br>
+ * <code>
+ * CertificateSource source = CertificateSource.directory(new File("/certificados"));<br>
+ * FieldWriter writer = new CsvFieldWriter(new FileOutputStream("/tmp/campos.csv"));<br>
+ * try {<br>
+ * &nbsp;&nbsp;new CertificateFieldExtractor().extract(source, writer);<br>
+ * } finally {<br>
+ * &nbsp;&nbsp;writer.close();<br>
+ * &nbsp;&nbsp;source.close();<br>
+ * }
+ * </code>
+ */
+public class CertificateFieldExtractor {
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(CertificateFieldExtractor.class);
+
+	/**
+	 * Nmero de certificados que se leen de la entrada cada vez por defecto
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+	/*
+	 * Nmero de hilos
+	 */
+	private int parallelism;
+
+	/*
+	 * Nmero de certificados por bloque
+	 */
+	private int blockSize;
+
+	/**
+	 * Constructor: utiliza tantos hilos como procesadores tenga la mquina y el
+	 * tamao de bloque por defecto
+	 */
+	public CertificateFieldExtractor () {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param parallelism Nmero de hilos que tratarn los certificados
+	 * @param blockSize Nmero de certificados que se leen de la entrada cada vez
+	 */
+	public CertificateFieldExtractor (int parallelism, int blockSize) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException ("El nmero de hilos ha de ser mayor que cero");
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException ("El tamao de bloque ha de ser mayor que cero");
+		}
+		this.parallelism = parallelism;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Extrae los campos de los certificados y los escribe. No cierra ni el origen
+	 * ni el destino.
+	 *
+	 * @param certificates Iterador sobre certificados en formato X.509v3
+	 * @param writer Destino de los campos
+	 * @return Nmero de certificados tratados
+	 * @throws IOException Error leyendo los certificados de un {@link CertificateSource
+	 * 	CertificateSource} o escribiendo los campos
+	 */
+	public long extract (Iterator<byte[]> certificates, final FieldWriter writer) throws IOException {
+		logger.debug ("[CertificateFieldExtractor.extract]::Entrada::" + parallelism + "::" + blockSize);
+
+		CertificateBlockProcessor<CertificateFields> processor = new CertificateBlockProcessor<CertificateFields>(parallelism, blockSize) {
+			protected CertificateFields process(long index, byte[] certificate) {
+				return extract(index, certificate);
+			}
+
+			protected void onResult(CertificateFields fields) {
+				try {
+					writer.write(fields);
+				} catch (IOException e) {
+					throw new IllegalStateException ("No se pueden escribir los campos del certificado " + fields.getIndex(), e);
+				}
+			}
+		};
+
+		try {
+			long count = processor.process(certificates);
+			logger.debug ("[CertificateFieldExtractor.extract]::Tratados " + count + " certificados");
+			return count;
+		} catch (IllegalStateException e) {
+			//-- Error de lectura de un CertificateSource o de escritura de los campos
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Obtiene los campos de un certificado
+	 */
+	private static CertificateFields extract (long index, byte[] bCertificate) {
+		try {
+			Certificate certificate = new Certificate(bCertificate);
+			Certificate instance = CertificateFactory.getInstance(certificate);
+			return CertificateFields.extract(index, instance != null ? instance : certificate);
+		} catch (Exception e) {
+			logger.debug("[CertificateFieldExtractor.extract]::Error tratando el certificado " + index, e);
+			return new CertificateFields(index, e.getClass().getName() + ": " + e.getMessage());
+		}
+	}
+
+}
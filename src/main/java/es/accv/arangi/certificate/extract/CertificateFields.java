@@ -0,0 +1,264 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.extract;
+
+import java.util.Date;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.certificate.CertificadoACCV;
+import es.accv.arangi.certificate.CertificadoAplicacion;
+import es.accv.arangi.certificate.CertificadoEmpleado;
+import es.accv.arangi.certificate.CertificadoEntidad;
+import es.accv.arangi.certificate.CertificadoPersona;
+import es.accv.arangi.certificate.CertificadoRepresentante;
+import es.accv.arangi.certificate.CertificadoSede;
+import es.accv.arangi.certificate.CertificadoSello;
+import es.accv.arangi.certificate.CertificadoSeudonimo;
+
+/**
+ * Campos de un certificado obtenidos por {@link CertificateFieldExtractor CertificateFieldExtractor}.
+ * Es una fila de la salida: los campos que no tienen sentido para el tipo de
+ * certificado, o que no se han podido obtener, son nulos.
+ */
+public class CertificateFields {
+
+	/**
+	 * Nombres de las columnas, en el orden en que se escriben
+	 */
+	public static final String[] COLUMNS = new String[] { "index", "type", "serialNumber", "nif", "name",
+		"surnames", "entityCIF", "entityName", "policyFlags", "notBefore", "notAfter", "issuer", "error" };
+
+	/**
+	 * Posiciones de las columnas en {@link #COLUMNS}
+	 */
+	public static final int COLUMN_INDEX = 0;
+	public static final int COLUMN_TYPE = 1;
+	public static final int COLUMN_SERIAL_NUMBER = 2;
+	public static final int COLUMN_NIF = 3;
+	public static final int COLUMN_NAME = 4;
+	public static final int COLUMN_SURNAMES = 5;
+	public static final int COLUMN_ENTITY_CIF = 6;
+	public static final int COLUMN_ENTITY_NAME = 7;
+	public static final int COLUMN_POLICY_FLAGS = 8;
+	public static final int COLUMN_NOT_BEFORE = 9;
+	public static final int COLUMN_NOT_AFTER = 10;
+	public static final int COLUMN_ISSUER = 11;
+	public static final int COLUMN_ERROR = 12;
+
+	/*
+	 * Posicin del certificado en la entrada
+	 */
+	private long index;
+
+	/*
+	 * Tipo de certificado (nombre de la clase de Arang) o nulo si no es de ningn tipo conocido
+	 */
+	private String type;
+
+	/*
+	 * Campos
+	 */
+	private String serialNumber;
+	private String nif;
+	private String name;
+	private String surnames;
+	private String entityCIF;
+	private String entityName;
+	private int policyFlags;
+	private Date notBefore;
+	private Date notAfter;
+	private String issuer;
+
+	/*
+	 * Error producido al tratar el certificado
+	 */
+	private String error;
+
+	/**
+	 * Constructor de una fila de error
+	 *
+	 * @param index Posicin del certificado en la entrada
+	 * @param error Descripcin del error
+	 */
+	public CertificateFields (long index, String error) {
+		this.index = index;
+		this.error = error;
+	}
+
+	/**
+	 * Obtiene los campos de un certificado. Si alguno de los mtodos del certificado
+	 * falla se guardan los campos obtenidos hasta ese momento junto con el error.
+	 *
+	 * @param index Posicin del certificado en la entrada
+	 * @param certificate Certificado
+	 * @return Campos del certificado
+	 */
+	public static CertificateFields extract (long index, Certificate certificate) {
+		CertificateFields fields = new CertificateFields(index, null);
+		fields.type = certificate instanceof CertificadoACCV ? certificate.getClass().getSimpleName() : null;
+		try {
+			fields.serialNumber = certificate.getSerialNumber();
+			fields.notBefore = certificate.getValidityPeriodBeginning();
+			fields.notAfter = certificate.getValidityPeriodEnd();
+			fields.issuer = certificate.getIssuerDN();
+
+			if (certificate instanceof CertificadoACCV) {
+				fields.policyFlags = ((CertificadoACCV) certificate).getPolicyFlags();
+			}
+
+			if (certificate instanceof CertificadoPersona) {
+				CertificadoPersona persona = (CertificadoPersona) certificate;
+				fields.nif = persona.getNIF();
+				fields.name = persona.getName();
+				fields.surnames = persona.getSurnames();
+			} else if (certificate instanceof CertificadoEntidad) {
+				CertificadoEntidad entidad = (CertificadoEntidad) certificate;
+				fields.nif = entidad.getAgentNIF();
+				fields.name = entidad.getAgentName();
+				fields.surnames = entidad.getAgentSurnames();
+				fields.entityCIF = entidad.getCIF();
+				fields.entityName = entidad.getName();
+			} else if (certificate instanceof CertificadoSello) {
+				CertificadoSello sello = (CertificadoSello) certificate;
+				fields.name = sello.getName();
+				fields.entityCIF = sello.getEntityNIF();
+				fields.entityName = sello.getEntityName();
+			} else if (certificate instanceof CertificadoSede) {
+				CertificadoSede sede = (CertificadoSede) certificate;
+				fields.name = sede.getName();
+				fields.entityCIF = sede.getEntityNIF();
+				fields.entityName = sede.getEntityName();
+			} else if (certificate instanceof CertificadoAplicacion) {
+				fields.name = ((CertificadoAplicacion) certificate).getName();
+			} else if (certificate instanceof CertificadoSeudonimo) {
+				fields.name = ((CertificadoSeudonimo) certificate).getPseudonym();
+			}
+
+			if (certificate instanceof CertificadoEmpleado) {
+				CertificadoEmpleado empleado = (CertificadoEmpleado) certificate;
+				fields.entityCIF = empleado.getEntityCIF();
+				fields.entityName = empleado.getEntityName();
+			} else if (certificate instanceof CertificadoRepresentante) {
+				CertificadoRepresentante representante = (CertificadoRepresentante) certificate;
+				fields.entityCIF = representante.getEntityCIF();
+				fields.entityName = representante.getEntityName();
+			}
+		} catch (RuntimeException e) {
+			fields.error = e.getClass().getName() + ": " + e.getMessage();
+		}
+		return fields;
+	}
+
+	/**
+	 * @return Posicin del certificado en la entrada (empezando por 0)
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return Tipo de certificado (nombre simple de la clase de Arang) o nulo si no
+	 * 	es de ninguno de los tipos tratados por Arang
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @return Nmero de serie
+	 */
+	public String getSerialNumber() {
+		return serialNumber;
+	}
+
+	/**
+	 * @return NIF de la persona titular (o del representante en los de entidad)
+	 */
+	public String getNif() {
+		return nif;
+	}
+
+	/**
+	 * @return Nombre del titular
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Apellidos del titular
+	 */
+	public String getSurnames() {
+		return surnames;
+	}
+
+	/**
+	 * @return CIF de la entidad
+	 */
+	public String getEntityCIF() {
+		return entityCIF;
+	}
+
+	/**
+	 * @return Nombre de la entidad
+	 */
+	public String getEntityName() {
+		return entityName;
+	}
+
+	/**
+	 * @return Caractersticas deducidas de las polticas (ver
+	 * 	{@link es.accv.arangi.certificate.PolicyFlags PolicyFlags})
+	 */
+	public int getPolicyFlags() {
+		return policyFlags;
+	}
+
+	/**
+	 * @return Inicio del periodo de validez
+	 */
+	public Date getNotBefore() {
+		return notBefore;
+	}
+
+	/**
+	 * @return Fin del periodo de validez
+	 */
+	public Date getNotAfter() {
+		return notAfter;
+	}
+
+	/**
+	 * @return DN del emisor
+	 */
+	public String getIssuer() {
+		return issuer;
+	}
+
+	/**
+	 * @return Descripcin del error producido al tratar el certificado o nulo si
+	 * 	no hubo error
+	 */
+	public String getError() {
+		return error;
+	}
+
+}
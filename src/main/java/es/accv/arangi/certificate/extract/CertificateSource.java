@@ -0,0 +1,389 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.extract;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+
+import es.accv.arangi.base.util.Util;
+
+/**
+ * Origen de certificados en formato DER para {@link CertificateFieldExtractor CertificateFieldExtractor}
+ * o para {@link es.accv.arangi.certificate.CertificateFactory#getInstances(Iterator, int, es.accv.arangi.certificate.CertificateInstanceListener)
+ * CertificateFactory.getInstances}. Los certificados se leen a medida que se piden,
+ * por lo que nunca estn todos en memoria (salvo en un almacn de claves, que se
+ * carga entero).<br><br>
+ *
+ * Si se produce un error de lectura los mtodos del iterador lanzan una
+ * IllegalStateException cuya causa es la IOException original.
+ */
+public abstract class CertificateSource implements Iterator<byte[]>, Closeable {
+
+	/*
+	 * Cabeceras PEM de certificado
+	 */
+	private static final String PEM_BEGIN = "-----BEGIN ";
+	private static final String PEM_END = "-----END ";
+	private static final String PEM_CERTIFICATE = "CERTIFICATE-----";
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/*
+	 * Primer byte de un certificado DER (SEQUENCE)
+	 */
+	private static final byte DER_SEQUENCE = 0x30;
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(CertificateSource.class);
+
+	/*
+	 * Siguiente certificado ya ledo
+	 */
+	private byte[] next;
+
+	/*
+	 * Indica si se ha llegado al final
+	 */
+	private boolean finished;
+
+	/**
+	 * Obtiene un origen que lee los certificados de un fichero o stream PEM con
+	 * uno o varios certificados (-----BEGIN CERTIFICATE----- ... -----END CERTIFICATE-----).
+	 * El texto que haya fuera de los bloques de certificado se ignora.
+	 *
+	 * @param isPem Stream de lectura al PEM. Se cierra al cerrar el origen.
+	 * @return Origen de certificados
+	 */
+	public static CertificateSource pem (InputStream isPem) {
+		return new PemSource(isPem);
+	}
+
+	/**
+	 * Obtiene un origen que lee los certificados de los ficheros de un directorio
+	 * (sin entrar en subdirectorios). Cada fichero ha de contener un certificado en
+	 * DER o uno o varios en PEM. Un fichero que no se puede leer, o que no es DER
+	 * y no contiene ningn bloque PEM de certificado, se devuelve tal cual (vaco si
+	 * no se ha podido leer), de modo que al tratarlo se obtenga el error.
+	 *
+	 * @param directory Directorio
+	 * @return Origen de certificados
+	 * @throws IOException No se puede leer el directorio
+	 */
+	public static CertificateSource directory (File directory) throws IOException {
+		return new DirectorySource(directory);
+	}
+
+	/**
+	 * Obtiene un origen que lee los certificados de un fichero PEM o de un fichero
+	 * con certificados DER concatenados proyectndolo en memoria, sin copiar el
+	 * fichero al heap (ver {@link MappedCertificateReader MappedCertificateReader}).
+	 * Es el origen adecuado para volcados de varios gigas. Cada certificado se copia
+	 * una nica vez, al array de su tamao exacto que devuelve el iterador.
+	 *
+	 * @param file Fichero PEM o DER
+	 * @return Origen de certificados
+	 * @throws IOException No se puede abrir el fichero
+	 */
+	public static CertificateSource mapped (File file) throws IOException {
+		return new MappedSource(new MappedCertificateReader(file));
+	}
+
+	/**
+	 * Obtiene un origen que lee los certificados de un almacn de claves ya cargado
+	 *
+	 * @param keyStore Almacn de claves
+	 * @return Origen de certificados
+	 * @throws IOException No se pueden obtener los alias del almacn
+	 */
+	public static CertificateSource keyStore (KeyStore keyStore) throws IOException {
+		return new KeyStoreSource(keyStore);
+	}
+
+	/**
+	 * Obtiene un origen que lee los certificados de un fichero de almacn de claves
+	 * (JKS, PKCS#12...)
+	 *
+	 * @param file Fichero del almacn
+	 * @param type Tipo del almacn (por ejemplo "JKS")
+	 * @param password Contrasea del almacn (puede ser nula)
+	 * @return Origen de certificados
+	 * @throws IOException No se puede leer el almacn
+	 */
+	public static CertificateSource keyStore (File file, String type, String password) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			KeyStore keyStore = KeyStore.getInstance(type);
+			keyStore.load(is, password == null ? null : password.toCharArray());
+			return new KeyStoreSource(keyStore);
+		} catch (GeneralSecurityException e) {
+			throw new IOException ("No se puede cargar el almacn " + file, e);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Lee el siguiente certificado
+	 *
+	 * @return Certificado en DER o nulo si no hay ms
+	 * @throws IOException Error de lectura
+	 */
+	protected abstract byte[] readNext () throws IOException;
+
+	public boolean hasNext() {
+		if (next == null && !finished) {
+			try {
+				next = readNext();
+			} catch (IOException e) {
+				throw new IllegalStateException ("No se puede leer el siguiente certificado", e);
+			}
+			finished = next == null;
+		}
+		return next != null;
+	}
+
+	public byte[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		byte[] result = next;
+		next = null;
+		return result;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Libera los recursos del origen. Por defecto no hace nada.
+	 */
+	public void close() throws IOException {
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Lee el siguiente bloque de certificado de un PEM
+	 */
+	private static byte[] readPemBlock (BufferedReader reader, StringBuilder base64) throws IOException {
+		String line;
+		boolean inside = false;
+		base64.setLength(0);
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (!inside) {
+				inside = line.startsWith(PEM_BEGIN) && line.endsWith(PEM_CERTIFICATE);
+			} else if (line.startsWith(PEM_END)) {
+				return Util.decodeBase64(base64.toString());
+			} else if (line.indexOf(':') < 0) {
+				//-- Las cabeceras RFC 1421 (Proc-Type...) no forman parte del contenido
+				base64.append(line);
+			}
+		}
+		if (inside) {
+			throw new IOException ("Bloque PEM sin final");
+		}
+		return null;
+	}
+
+	/*
+	 * Origen PEM
+	 */
+	private static class PemSource extends CertificateSource {
+
+		BufferedReader reader;
+		StringBuilder base64 = new StringBuilder(2048);
+
+		PemSource (InputStream isPem) {
+			this.reader = new BufferedReader(new InputStreamReader(isPem, US_ASCII));
+		}
+
+		protected byte[] readNext() throws IOException {
+			return readPemBlock(reader, base64);
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	/*
+	 * Origen de un directorio
+	 */
+	private static class DirectorySource extends CertificateSource {
+
+		DirectoryStream<Path> stream;
+		Iterator<Path> files;
+
+		/*
+		 * Fichero PEM del que se estn leyendo los bloques
+		 */
+		Path pemFile;
+		BufferedReader pemReader;
+		StringBuilder base64 = new StringBuilder(2048);
+
+		DirectorySource (File directory) throws IOException {
+			this.stream = Files.newDirectoryStream(directory.toPath());
+			this.files = stream.iterator();
+		}
+
+		protected byte[] readNext() throws IOException {
+			//-- Siguiente bloque del fichero PEM actual
+			if (pemReader != null) {
+				byte[] block = nextPemBlock();
+				if (block != null) {
+					return block;
+				}
+			}
+
+			while (files.hasNext()) {
+				Path file = files.next();
+				if (!Files.isRegularFile(file)) {
+					continue;
+				}
+				byte[] content;
+				try {
+					content = Files.readAllBytes(file);
+				} catch (IOException e) {
+					logger.info("[CertificateSource.readNext]::No se puede leer el fichero " + file, e);
+					return new byte[0];
+				}
+				if (content.length == 0 || content[0] == DER_SEQUENCE) {
+					return content;
+				}
+
+				//-- PEM con uno o varios certificados
+				pemFile = file;
+				pemReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), US_ASCII));
+				byte[] block = nextPemBlock();
+				if (block == null) {
+					logger.info("[CertificateSource.readNext]::El fichero " + file + " no es DER ni contiene certificados PEM");
+					return content;
+				}
+				return block;
+			}
+			return null;
+		}
+
+		/*
+		 * Lee el siguiente bloque del fichero PEM actual. Al llegar al final deja de
+		 * leer el fichero. Un bloque sin final se devuelve vaco.
+		 */
+		private byte[] nextPemBlock () {
+			byte[] block;
+			try {
+				block = readPemBlock(pemReader, base64);
+			} catch (IOException e) {
+				logger.info("[CertificateSource.readNext]::Error leyendo el fichero " + pemFile + ": " + e.getMessage());
+				block = new byte[0];
+				pemReader = null;
+			}
+			if (block == null) {
+				pemReader = null;
+			}
+			return block;
+		}
+
+		public void close() throws IOException {
+			stream.close();
+		}
+	}
+
+	/*
+	 * Origen de un fichero proyectado en memoria
+	 */
+	private static class MappedSource extends CertificateSource {
+
+		MappedCertificateReader reader;
+
+		MappedSource (MappedCertificateReader reader) {
+			this.reader = reader;
+		}
+
+		protected byte[] readNext() throws IOException {
+			ByteBuffer slice = reader.nextSlice();
+			if (slice == null) {
+				return null;
+			}
+			byte[] content = new byte[slice.remaining()];
+			slice.get(content);
+			return content;
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	/*
+	 * Origen de un almacn de claves
+	 */
+	private static class KeyStoreSource extends CertificateSource {
+
+		KeyStore keyStore;
+		Enumeration<String> aliases;
+
+		KeyStoreSource (KeyStore keyStore) throws IOException {
+			this.keyStore = keyStore;
+			try {
+				this.aliases = keyStore.aliases();
+			} catch (KeyStoreException e) {
+				throw new IOException ("No se pueden obtener los alias del almacn", e);
+			}
+		}
+
+		protected byte[] readNext() throws IOException {
+			try {
+				while (aliases.hasMoreElements()) {
+					java.security.cert.Certificate certificate = keyStore.getCertificate(aliases.nextElement());
+					if (certificate != null) {
+						return certificate.getEncoded();
+					}
+				}
+			} catch (GeneralSecurityException e) {
+				throw new IOException ("No se puede obtener un certificado del almacn", e);
+			}
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,248 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.extract;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+/**
+ * Escribe los campos de los certificados en un formato binario por columnas. Las
+ * filas se agrupan en bloques de tamao fijo y dentro de cada bloque se escribe
+ * cada columna seguida, de modo que quien lo lea puede saltarse las columnas que
+ * no necesite. Slo se mantiene en memoria un bloque.<br><br>
+ *
+ * Formato (enteros en big-endian, como DataOutputStream):
+ * <ul>
+ * 	<li>Cabecera: nmero mgico ("ARCF"), versin, nmero de columnas y, por cada
+ * 	columna, su nombre (UTF modificado) y su tipo en un byte: {@link #TYPE_LONG},
+ * 	{@link #TYPE_INT}, {@link #TYPE_STRING} o {@link #TYPE_DATE}.</li>
+ * 	<li>Bloques: nmero de filas y, por cada columna, el tamao en bytes de sus
+ * 	datos seguido de los datos. Las columnas long e int son arrays de valores; las
+ * 	de fecha, arrays de milisegundos con Long.MIN_VALUE para los nulos; las de texto,
+ * 	un array con la longitud en bytes de cada valor (-1 para los nulos) seguido de
+ * 	los valores en UTF-8.</li>
+ * 	<li>Final: un bloque de 0 filas y el nmero total de filas (long).</li>
+ * </ul>
+ */
+public class ColumnarFieldWriter implements FieldWriter {
+
+	/**
+	 * Tipo de columna: entero largo
+	 */
+	public static final byte TYPE_LONG = 1;
+
+	/**
+	 * Tipo de columna: entero
+	 */
+	public static final byte TYPE_INT = 2;
+
+	/**
+	 * Tipo de columna: texto
+	 */
+	public static final byte TYPE_STRING = 3;
+
+	/**
+	 * Tipo de columna: fecha
+	 */
+	public static final byte TYPE_DATE = 4;
+
+	/**
+	 * Nmero de filas por bloque por defecto
+	 */
+	public static final int DEFAULT_BLOCK_ROWS = 8192;
+
+	/*
+	 * Nmero mgico ("ARCF") y versin del formato
+	 */
+	private static final int MAGIC = 0x41524346;
+	private static final int FORMAT_VERSION = 1;
+
+	/*
+	 * Tipo de cada una de las columnas de CertificateFields.COLUMNS
+	 */
+	private static final byte[] COLUMN_TYPES = new byte[] { TYPE_LONG, TYPE_STRING, TYPE_STRING, TYPE_STRING,
+		TYPE_STRING, TYPE_STRING, TYPE_STRING, TYPE_STRING, TYPE_INT, TYPE_DATE, TYPE_DATE, TYPE_STRING, TYPE_STRING };
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/*
+	 * Destino
+	 */
+	private DataOutputStream out;
+
+	/*
+	 * Filas del bloque actual
+	 */
+	private CertificateFields[] rows;
+	private int size;
+
+	/*
+	 * Nmero total de filas escritas
+	 */
+	private long total;
+
+	/*
+	 * Buffer donde se codifica cada columna antes de escribirla
+	 */
+	private ByteArrayOutputStream columnBuffer = new ByteArrayOutputStream(64 * 1024);
+	private DataOutputStream column = new DataOutputStream(columnBuffer);
+
+	/**
+	 * Constructor con el tamao de bloque por defecto. Escribe la cabecera.
+	 *
+	 * @param out Stream de escritura. Se cierra al cerrar este objeto.
+	 * @throws IOException Error de escritura
+	 */
+	public ColumnarFieldWriter (OutputStream out) throws IOException {
+		this(out, DEFAULT_BLOCK_ROWS);
+	}
+
+	/**
+	 * Constructor. Escribe la cabecera.
+	 *
+	 * @param out Stream de escritura. Se cierra al cerrar este objeto.
+	 * @param blockRows Nmero de filas por bloque
+	 * @throws IOException Error de escritura
+	 */
+	public ColumnarFieldWriter (OutputStream out, int blockRows) throws IOException {
+		if (blockRows < 1) {
+			throw new IllegalArgumentException ("El nmero de filas por bloque ha de ser mayor que cero");
+		}
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+		this.rows = new CertificateFields[blockRows];
+
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(FORMAT_VERSION);
+		this.out.writeInt(CertificateFields.COLUMNS.length);
+		for (int i = 0; i < CertificateFields.COLUMNS.length; i++) {
+			this.out.writeUTF(CertificateFields.COLUMNS[i]);
+			this.out.writeByte(COLUMN_TYPES[i]);
+		}
+	}
+
+	public void write(CertificateFields fields) throws IOException {
+		rows[size++] = fields;
+		if (size == rows.length) {
+			flushBlock();
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			flushBlock();
+			out.writeInt(0);
+			out.writeLong(total);
+			out.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Escribe el bloque actual columna a columna
+	 */
+	private void flushBlock () throws IOException {
+		if (size == 0) {
+			return;
+		}
+
+		out.writeInt(size);
+		for (int c = 0; c < COLUMN_TYPES.length; c++) {
+			columnBuffer.reset();
+			switch (COLUMN_TYPES[c]) {
+			case TYPE_LONG:
+				for (int i = 0; i < size; i++) {
+					column.writeLong(rows[i].getIndex());
+				}
+				break;
+			case TYPE_INT:
+				for (int i = 0; i < size; i++) {
+					column.writeInt(rows[i].getPolicyFlags());
+				}
+				break;
+			case TYPE_DATE:
+				for (int i = 0; i < size; i++) {
+					Date date = getDate(rows[i], c);
+					column.writeLong(date == null ? Long.MIN_VALUE : date.getTime());
+				}
+				break;
+			default:
+				byte[][] values = new byte[size][];
+				for (int i = 0; i < size; i++) {
+					String value = getString(rows[i], c);
+					values[i] = value == null ? null : value.getBytes(UTF_8);
+					column.writeInt(value == null ? -1 : values[i].length);
+				}
+				for (int i = 0; i < size; i++) {
+					if (values[i] != null) {
+						column.write(values[i]);
+					}
+				}
+			}
+			column.flush();
+			out.writeInt(columnBuffer.size());
+			columnBuffer.writeTo(out);
+		}
+
+		total += size;
+		for (int i = 0; i < size; i++) {
+			rows[i] = null;
+		}
+		size = 0;
+	}
+
+	/*
+	 * Obtiene el valor de una columna de fecha
+	 */
+	private static Date getDate (CertificateFields fields, int column) {
+		switch (column) {
+		case CertificateFields.COLUMN_NOT_BEFORE: return fields.getNotBefore();
+		case CertificateFields.COLUMN_NOT_AFTER: return fields.getNotAfter();
+		default: throw new IllegalStateException ("La columna " + CertificateFields.COLUMNS[column] + " no es de fecha");
+		}
+	}
+
+	/*
+	 * Obtiene el valor de una columna de texto
+	 */
+	private static String getString (CertificateFields fields, int column) {
+		switch (column) {
+		case CertificateFields.COLUMN_TYPE: return fields.getType();
+		case CertificateFields.COLUMN_SERIAL_NUMBER: return fields.getSerialNumber();
+		case CertificateFields.COLUMN_NIF: return fields.getNif();
+		case CertificateFields.COLUMN_NAME: return fields.getName();
+		case CertificateFields.COLUMN_SURNAMES: return fields.getSurnames();
+		case CertificateFields.COLUMN_ENTITY_CIF: return fields.getEntityCIF();
+		case CertificateFields.COLUMN_ENTITY_NAME: return fields.getEntityName();
+		case CertificateFields.COLUMN_ISSUER: return fields.getIssuer();
+		case CertificateFields.COLUMN_ERROR: return fields.getError();
+		default: throw new IllegalStateException ("La columna " + CertificateFields.COLUMNS[column] + " no es de texto");
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.extract;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Escribe los campos de los certificados en formato CSV (RFC 4180), con una fila
+ * de cabecera con los nombres de {@link CertificateFields#COLUMNS}. El texto se
+ * codifica en UTF-8 y las fechas en ISO 8601 (UTC).
+ */
+public class CsvFieldWriter implements FieldWriter {
+
+	/*
+	 * Destino
+	 */
+	private Writer writer;
+
+	/*
+	 * Formato de las fechas. Slo se usa desde el hilo que escribe.
+	 */
+	private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+	/**
+	 * Constructor. Escribe la cabecera.
+	 *
+	 * @param out Stream de escritura. Se cierra al cerrar este objeto.
+	 * @throws IOException Error de escritura
+	 */
+	public CsvFieldWriter (OutputStream out) throws IOException {
+		this.writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")), 64 * 1024);
+		this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		for (int i = 0; i < CertificateFields.COLUMNS.length; i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+			writer.write(CertificateFields.COLUMNS[i]);
+		}
+		writer.write("\r\n");
+	}
+
+	public void write(CertificateFields fields) throws IOException {
+		writer.write(Long.toString(fields.getIndex()));
+		writeField(fields.getType());
+		writeField(fields.getSerialNumber());
+		writeField(fields.getNif());
+		writeField(fields.getName());
+		writeField(fields.getSurnames());
+		writeField(fields.getEntityCIF());
+		writeField(fields.getEntityName());
+		writeField(Integer.toString(fields.getPolicyFlags()));
+		writeField(fields.getNotBefore());
+		writeField(fields.getNotAfter());
+		writeField(fields.getIssuer());
+		writeField(fields.getError());
+		writer.write("\r\n");
+	}
+
+	public void close() throws IOException {
+		writer.close();
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Escribe un campo de fecha
+	 */
+	private void writeField (Date value) throws IOException {
+		writeField(value == null ? null : dateFormat.format(value));
+	}
+
+	/*
+	 * Escribe un campo de texto, entre comillas si lo necesita. Los nulos se
+	 * escriben como campos vacos.
+	 */
+	private void writeField (String value) throws IOException {
+		writer.write(',');
+		if (value == null) {
+			return;
+		}
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+		}
+		if (!quote) {
+			writer.write(value);
+			return;
+		}
+		writer.write('"');
+		int start = 0;
+		int pos;
+		while ((pos = value.indexOf('"', start)) > -1) {
+			writer.write(value, start, pos - start + 1);
+			writer.write('"');
+			start = pos + 1;
+		}
+		writer.write(value, start, value.length() - start);
+		writer.write('"');
+	}
+
+}
@@ -0,0 +1,48 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.extract;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destino de los campos obtenidos por {@link CertificateFieldExtractor CertificateFieldExtractor}.
+ * Recibe las filas de una en una y en el orden de la entrada, siempre desde el mismo
+ * hilo, por lo que las implementaciones no necesitan ser seguras entre hilos.
+ */
+public interface FieldWriter extends Closeable {
+
+	/**
+	 * Escribe los campos de un certificado
+	 *
+	 * @param fields Campos del certificado
+	 * @throws IOException Error de escritura
+	 */
+	public void write (CertificateFields fields) throws IOException;
+
+	/**
+	 * Escribe lo que quede pendiente y cierra el destino
+	 *
+	 * @throws IOException Error de escritura
+	 */
+	public void close () throws IOException;
+
+}
@@ -0,0 +1,454 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.extract;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
+
+/**
+ * Lee los certificados de un fichero PEM o de un fichero con certificados DER
+ * concatenados proyectndolo en memoria (memory-mapped), de modo que el fichero
+ * no se copia al heap y puede ocupar varios gigas.<br><br>
+ *
+ * En los ficheros DER los lmites de cada certificado se obtienen de la cabecera
+ * de longitud de su SEQUENCE y cada certificado se devuelve como un trozo (slice)
+ * de solo lectura de la proyeccin, sin copiarlo. En los ficheros PEM cada bloque
+ * se decodifica directamente desde la proyeccin a un array del tamao exacto del
+ * certificado.<br><br>
+ *
+ * El fichero se proyecta por ventanas de {@link #DEFAULT_WINDOW_SIZE} bytes, por lo
+ * que no hay lmite de tamao. Los trozos devueltos siguen siendo vlidos tras
+ * cerrar el lector; la memoria proyectada se libera cuando dejan de usarse.<br><br>
+ *
+ * Para tratar los certificados con {@link CertificateFieldExtractor CertificateFieldExtractor}
+ * o {@link es.accv.arangi.certificate.CertificateFactory#getInstances(java.util.Iterator, int, es.accv.arangi.certificate.CertificateInstanceListener)
+ * CertificateFactory.getInstances} se puede usar {@link CertificateSource#mapped(File)}.
+ * Esta clase no es thread-safe.
+ */
+public class MappedCertificateReader implements Closeable {
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(MappedCertificateReader.class);
+
+	/**
+	 * Tamao por defecto de la ventana de proyeccin (256 MB)
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+	/*
+	 * Etiqueta DER de SEQUENCE
+	 */
+	private static final int DER_SEQUENCE = 0x30;
+
+	/*
+	 * Cabeceras PEM de certificado
+	 */
+	private static final byte[] PEM_BEGIN = "-----BEGIN ".getBytes();
+	private static final byte[] PEM_CERTIFICATE = "CERTIFICATE-----".getBytes();
+	private static final byte[] PEM_END = "-----END ".getBytes();
+
+	/*
+	 * Valor de cada carcter base64 (-1 si no lo es)
+	 */
+	private static final byte[] BASE64_VALUES = new byte[128];
+	static {
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < BASE64_VALUES.length; i++) {
+			BASE64_VALUES[i] = -1;
+		}
+		for (int i = 0; i < alphabet.length(); i++) {
+			BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+		}
+	}
+
+	/*
+	 * Fichero proyectado
+	 */
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long fileSize;
+
+	/*
+	 * Ventana actual de la proyeccin
+	 */
+	private int windowSize;
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	/*
+	 * Posicin de lectura en el fichero
+	 */
+	private long position;
+
+	/*
+	 * Indica si el fichero es PEM (si no, DER concatenado)
+	 */
+	private boolean pem;
+
+	/**
+	 * Constructor. El formato (PEM o DER) se deduce del primer byte del fichero
+	 * que no sea un espacio.
+	 *
+	 * @param file Fichero PEM o con certificados DER concatenados
+	 * @throws IOException No se puede abrir el fichero
+	 */
+	public MappedCertificateReader (File file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructor. El formato (PEM o DER) se deduce del primer byte del fichero
+	 * que no sea un espacio.
+	 *
+	 * @param file Fichero PEM o con certificados DER concatenados
+	 * @param windowSize Tamao de la ventana de proyeccin. Ha de ser mayor que el
+	 * 	certificado ms grande del fichero (o que su bloque PEM).
+	 * @throws IOException No se puede abrir el fichero
+	 */
+	public MappedCertificateReader (File file, int windowSize) throws IOException {
+		logger.debug ("[MappedCertificateReader]::Entrada::" + file);
+
+		if (windowSize < 1) {
+			throw new IllegalArgumentException ("El tamao de la ventana ha de ser mayor que cero");
+		}
+		this.windowSize = windowSize;
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.fileSize = channel.size();
+
+		skipWhitespace();
+		pem = position < fileSize && byteAt(position) != DER_SEQUENCE;
+	}
+
+	/**
+	 * Obtiene el siguiente certificado en DER. En los ficheros DER es un trozo de
+	 * la proyeccin del fichero (no se copia); en los PEM, un buffer con el bloque
+	 * ya decodificado.
+	 *
+	 * @return Buffer de solo lectura con el certificado o nulo si no hay ms
+	 * @throws IOException Error de lectura o el fichero no tiene el formato esperado
+	 */
+	public ByteBuffer nextSlice () throws IOException {
+		return pem ? nextPem() : nextDer();
+	}
+
+	/**
+	 * Obtiene el siguiente certificado. El certificado se lee directamente del
+	 * buffer devuelto por {@link #nextSlice()}, sin pasar por un array intermedio.
+	 * Para obtener su instancia se puede usar
+	 * {@link es.accv.arangi.certificate.CertificateFactory#getInstance(Certificate)
+	 * CertificateFactory.getInstance}.
+	 *
+	 * @return Certificado o nulo si no hay ms
+	 * @throws IOException Error de lectura o el fichero no tiene el formato esperado
+	 * @throws NormalizeCertificateException El contenido no es un certificado vlido
+	 */
+	public Certificate nextCertificate () throws IOException, NormalizeCertificateException {
+		ByteBuffer slice = nextSlice();
+		return slice == null ? null : new Certificate(new ByteBufferInputStream(slice));
+	}
+
+	/**
+	 * Cierra el fichero
+	 */
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Obtiene el siguiente certificado de un fichero DER a partir de la cabecera
+	 * de longitud de su SEQUENCE
+	 */
+	private ByteBuffer nextDer () throws IOException {
+		skipWhitespace();
+		if (position >= fileSize) {
+			return null;
+		}
+
+		long start = position;
+		if (byteAt(start) != DER_SEQUENCE) {
+			throw new IOException ("No hay un certificado DER en la posicin " + start);
+		}
+		if (start + 2 > fileSize) {
+			throw new IOException ("Certificado DER truncado en la posicin " + start);
+		}
+		int first = byteAt(start + 1);
+		long length;
+		int header;
+		if (first < 0x80) {
+			length = first;
+			header = 2;
+		} else {
+			int numBytes = first & 0x7f;
+			if (numBytes == 0 || numBytes > 4) {
+				throw new IOException ("Longitud DER no vlida en la posicin " + start);
+			}
+			header = 2 + numBytes;
+			if (start + header > fileSize) {
+				throw new IOException ("Certificado DER truncado en la posicin " + start);
+			}
+			length = 0;
+			for (int i = 0; i < numBytes; i++) {
+				length = (length << 8) | byteAt(start + 2 + i);
+			}
+		}
+
+		long total = header + length;
+		if (start + total > fileSize) {
+			throw new IOException ("Certificado DER truncado en la posicin " + start);
+		}
+		position = start + total;
+		return slice(start, total);
+	}
+
+	/*
+	 * Obtiene el siguiente bloque de certificado de un fichero PEM, decodificndolo
+	 * desde la proyeccin
+	 */
+	private ByteBuffer nextPem () throws IOException {
+		//-- Buscar el inicio de un bloque de certificado
+		long begin;
+		while (true) {
+			begin = indexOf(PEM_BEGIN, position);
+			if (begin < 0) {
+				position = fileSize;
+				return null;
+			}
+			position = begin + PEM_BEGIN.length;
+			if (startsWith(PEM_CERTIFICATE, position)) {
+				position += PEM_CERTIFICATE.length;
+				break;
+			}
+		}
+
+		//-- Buscar el final
+		long end = indexOf(PEM_END, position);
+		if (end < 0) {
+			throw new IOException ("Bloque PEM sin final en la posicin " + begin);
+		}
+		if (end - position > windowSize) {
+			throw new IOException ("El bloque PEM de la posicin " + begin + " es mayor que la ventana de proyeccin");
+		}
+		ByteBuffer body = slice(position, end - position);
+		position = end + PEM_END.length;
+
+		return ByteBuffer.wrap(decodeBase64(body)).asReadOnlyBuffer();
+	}
+
+	/*
+	 * Decodifica el base64 de un bloque PEM. Las lneas con ':' son cabeceras
+	 * RFC 1421 y no forman parte del contenido.
+	 */
+	private static byte[] decodeBase64 (ByteBuffer body) throws IOException {
+		//-- Primera pasada: validar y contar los caracteres base64
+		int chars = 0;
+		int padding = 0;
+		for (int start = 0; start < body.limit(); start = lineEnd(body, start) + 1) {
+			int end = lineEnd(body, start);
+			if (isHeader(body, start, end)) {
+				continue;
+			}
+			for (int i = start; i < end; i++) {
+				int c = body.get(i);
+				if (c == '=') {
+					padding++;
+				} else if (c >= 0 && BASE64_VALUES[c] >= 0 && padding == 0) {
+					chars++;
+				} else if (c != '\r' && c != ' ' && c != '\t') {
+					throw new IOException ("Carcter no vlido en el bloque PEM: " + (char) c);
+				}
+			}
+		}
+		if ((chars + padding) % 4 != 0 || padding > 2) {
+			throw new IOException ("Longitud de base64 no vlida en el bloque PEM");
+		}
+
+		//-- Segunda pasada: decodificar
+		byte[] result = new byte[chars * 3 / 4];
+		int pos = 0;
+		int bits = 0;
+		int accumulator = 0;
+		for (int start = 0; start < body.limit(); start = lineEnd(body, start) + 1) {
+			int end = lineEnd(body, start);
+			if (isHeader(body, start, end)) {
+				continue;
+			}
+			for (int i = start; i < end; i++) {
+				int c = body.get(i);
+				if (c >= 0 && BASE64_VALUES[c] >= 0) {
+					accumulator = (accumulator << 6) | BASE64_VALUES[c];
+					bits += 6;
+					if (bits >= 8) {
+						bits -= 8;
+						result[pos++] = (byte) (accumulator >> bits);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Obtiene el final de la lnea que empieza en una posicin
+	 */
+	private static int lineEnd (ByteBuffer body, int start) {
+		int i = start;
+		while (i < body.limit() && body.get(i) != '\n') {
+			i++;
+		}
+		return i;
+	}
+
+	/*
+	 * Indica si una lnea es una cabecera RFC 1421 (Proc-Type...)
+	 */
+	private static boolean isHeader (ByteBuffer body, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (body.get(i) == ':') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Salta los espacios y saltos de lnea
+	 */
+	private void skipWhitespace () throws IOException {
+		while (position < fileSize) {
+			int c = byteAt(position);
+			if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+				return;
+			}
+			position++;
+		}
+	}
+
+	/*
+	 * Busca una secuencia de bytes a partir de una posicin
+	 */
+	private long indexOf (byte[] pattern, long from) throws IOException {
+		for (long i = from; i + pattern.length <= fileSize; i++) {
+			if (byteAt(i) == (pattern[0] & 0xff) && startsWith(pattern, i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Indica si en una posicin empieza una secuencia de bytes
+	 */
+	private boolean startsWith (byte[] pattern, long at) throws IOException {
+		if (at + pattern.length > fileSize) {
+			return false;
+		}
+		for (int i = 0; i < pattern.length; i++) {
+			if (byteAt(at + i) != (pattern[i] & 0xff)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Obtiene un byte del fichero (sin signo)
+	 */
+	private int byteAt (long at) throws IOException {
+		ensureMapped(at, 1);
+		return window.get((int) (at - windowStart)) & 0xff;
+	}
+
+	/*
+	 * Obtiene un trozo de solo lectura de la proyeccin
+	 */
+	private ByteBuffer slice (long start, long length) throws IOException {
+		if (length > windowSize) {
+			throw new IOException ("El certificado de la posicin " + start + " es mayor que la ventana de proyeccin");
+		}
+		ensureMapped(start, (int) length);
+		ByteBuffer slice = window.duplicate();
+		slice.position((int) (start - windowStart));
+		slice.limit((int) (start - windowStart + length));
+		return slice.slice().asReadOnlyBuffer();
+	}
+
+	/*
+	 * Proyecta una nueva ventana si la actual no contiene el rango pedido
+	 */
+	private void ensureMapped (long start, int length) throws IOException {
+		if (window != null && start >= windowStart && start + length <= windowStart + window.limit()) {
+			return;
+		}
+		long size = Math.min(windowSize, fileSize - start);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		windowStart = start;
+	}
+
+	/*
+	 * Stream de lectura sobre un buffer
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		ByteBuffer buffer;
+
+		ByteBufferInputStream (ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+}
@@ -20,11 +20,26 @@
  */
 package es.accv.arangi.certificate.validation;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.ASN1EncodableVector;
@@ -50,7 +65,6 @@ import es.accv.arangi.base.exception.certificate.validation.ServiceNotFoundExcep
 import es.accv.arangi.base.util.Util;
 import es.accv.arangi.base.util.validation.ValidationResult;
 import es.gob.afirma.afirma5ServiceInvoker.Afirma5ServiceInvokerContent;
-import es.gob.afirma.afirma5ServiceInvoker.Afirma5ServiceInvokerFacade;
 import es.gob.afirma.transformers.TransformersConstants;
 import es.gob.afirma.transformers.TransformersException;
 import es.gob.afirma.transformers.TransformersFacade;
@@ -90,15 +104,56 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 	private static final int AFIRMA_CLASIFICACION_REPRESENTANTE_CPJ	= 11;
 	private static final int AFIRMA_CLASIFICACION_REPRESENTANTE_SPJ	= 12;
 
+	/**
+	 * Tiempo mximo de espera por defecto de las llamadas a &#64;Firma (milisegundos)
+	 */
+	public static final int DEFAULT_CALL_TIMEOUT = AFirma6Transport.DEFAULT_CALL_TIMEOUT;
+	
+	/**
+	 * Nmero mximo de hilos por defecto para las validaciones asncronas
+	 */
+	public static final int DEFAULT_ASYNC_THREADS = 16;
+	
+	/**
+	 * Nmero mximo por defecto de validaciones asncronas en curso (en espera o
+	 * ejecutndose)
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+	
+	/**
+	 * Nmero mximo por defecto de certificados de cada lote enviado a &#64;Firma
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	
+	/**
+	 * Intervalo por defecto entre las consultas del estado de un lote (milisegundos)
+	 */
+	public static final long DEFAULT_BATCH_POLL_INTERVAL = 1000;
+	
+	/**
+	 * Plazo mximo por defecto para obtener el resultado de una validacin por lotes 
+	 * (milisegundos)
+	 */
+	public static final long DEFAULT_BATCH_TIMEOUT = 300000;
+	
 	/*
-	 * Logger de la clase
+	 * Nodo de la respuesta OCSP en la respuesta de la validacin de un certificado
+	 * y en la de un lote
 	 */
-	Logger logger = Logger.getLogger(AFirma6CertificateValidationService.class);
+	private static final String SINGLE_OCSP_VALUE = "OCSPValue";
+	private static final String BATCH_OCSP_VALUE = "vr:OCSPValue";
 	
 	/*
-	 * URL de acceso a los servicios web de &#64;Firma
+	 * Ruta de la respuesta de cada certificado en la respuesta de un lote y de su
+	 * atributo RequestID
 	 */
-	private String url;
+	private static final String BATCH_RESPONSE_PREFIX = "afxp:Responses/dss:VerifyResponse/";
+	private static final String BATCH_RESPONSE_REQUEST_ID = "afxp:Responses/dss:VerifyResponse@RequestID";
+	
+	/*
+	 * Logger de la clase
+	 */
+	Logger logger = Logger.getLogger(AFirma6CertificateValidationService.class);
 	
 	/*
 	 * Identificador de la aplicacin en &#64;Firma
@@ -106,19 +161,35 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 	private String idAplicacion;
 	
 	/*
-	 * Usuario 
+	 * Acceso a &#64;Firma, compartido por todas las llamadas
+	 */
+	private volatile AFirma6Transport transport;
+	
+	/*
+	 * Tiempo mximo de espera de las llamadas (milisegundos)
 	 */
-	private String user;
+	private int callTimeout = DEFAULT_CALL_TIMEOUT;
 	
 	/*
-	 * Contrasea
+	 * Ejecutor de las validaciones asncronas. Se crea la primera vez que se necesita
+	 * si no se ha establecido uno.
 	 */
-	private String password;
+	private ExecutorService asyncExecutor;
+	private boolean ownAsyncExecutor;
+	private int asyncThreads = DEFAULT_ASYNC_THREADS;
 	
 	/*
-	 * Fichero de acceso a almacn de claves (WSS4J)
+	 * Lmite de validaciones asncronas en curso
 	 */
-	private String configuracionWSS4J;
+	private volatile Semaphore inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+	private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+	
+	/*
+	 * Configuracin de la validacin por lotes
+	 */
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long batchPollInterval = DEFAULT_BATCH_POLL_INTERVAL;
+	private long batchTimeout = DEFAULT_BATCH_TIMEOUT;
 	
 	//-- Constructores	
 	
@@ -180,9 +251,6 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 	 */
 	public void initialize (String url, String idAplicacion, String user, String password, String configuracionWSS4J) {
 		this.idAplicacion = idAplicacion;
-		this.user = user;
-		this.password = password;
-		this.configuracionWSS4J = configuracionWSS4J;
 		
 		if (url.indexOf("//") > -1) {
 			url = url.substring(url.indexOf("//") + 2);
@@ -190,7 +258,7 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 				url = url.substring(0, url.indexOf("/"));
 			}
 		}
-		this.url = url;
+		this.transport = new AFirma6Transport(url, idAplicacion, user, password, configuracionWSS4J);
 	}
 
 	/**
@@ -206,20 +274,308 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 	 */
 	public CertificateValidationServiceResult validate(Certificate certificate, 
 			Map<String, Object> extraParams) throws ServiceNotFoundException, ServiceException {
+		return validate(certificate, extraParams, callTimeout);
+	}
+	
+	/**
+	 * Valida un certificado de forma asncrona, sin bloquear el hilo que llama. La
+	 * validacin se realiza en un ejecutor con un nmero limitado de hilos (ver
+	 * {@link #setAsyncThreads(int)} y {@link #setAsyncExecutor(ExecutorService)}) y
+	 * con el tiempo mximo de espera de {@link #getCallTimeout()}.
+	 * 
+	 * @param certificate Certificado a validar
+	 * @param extraParams Parmetros extra por si fueran necesarios para 
+	 * 	realizar la validacin
+	 * @return Resultado futuro. Si la validacin falla, su mtodo get lanza una
+	 * 	ExecutionException cuya causa es la ServiceNotFoundException o ServiceException
+	 * 	que habra lanzado {@link #validate(Certificate, Map)}.
+	 */
+	public Future<CertificateValidationServiceResult> validateAsync(Certificate certificate, Map<String, Object> extraParams) {
+		return validateAsync(certificate, extraParams, callTimeout, null);
+	}
+	
+	/**
+	 * Valida un certificado de forma asncrona, sin bloquear el hilo que llama, y
+	 * entrega el resultado a un receptor.<br><br>
+	 * 
+	 * El plazo empieza a contar al llamar a este mtodo: si se agota mientras la
+	 * validacin espera un hilo libre no se llega a llamar a &#64;Firma, y si no se
+	 * agota la llamada espera como mucho el tiempo que quede. Si ya hay 
+	 * {@link #getMaxInFlight()} validaciones en curso la validacin falla
+	 * inmediatamente con una ServiceNotFoundException.
+	 * 
+	 * @param certificate Certificado a validar
+	 * @param extraParams Parmetros extra por si fueran necesarios para 
+	 * 	realizar la validacin
+	 * @param timeout Plazo para obtener el resultado (milisegundos)
+	 * @param listener Receptor del resultado o nulo si slo se va a usar el resultado futuro
+	 * @return Resultado futuro. Si la validacin falla, su mtodo get lanza una
+	 * 	ExecutionException cuya causa es la ServiceNotFoundException o ServiceException
+	 * 	que habra lanzado {@link #validate(Certificate, Map)}.
+	 */
+	public Future<CertificateValidationServiceResult> validateAsync(Certificate certificate, Map<String, Object> extraParams, 
+			long timeout, CertificateValidationListener listener) {
 		
-		logger.debug("[AFirmaCertificateValidationService.validate]::Entrada::" + Arrays.asList(new Object[] { certificate, extraParams }));
+		logger.debug("[AFirma6CertificateValidationService.validateAsync]::Entrada::" + Arrays.asList(new Object[] { certificate, extraParams, timeout }));
 		
-		//-- Pasar los parmetros a un properties
-		ArangiServiceContent serviceContent = new ArangiServiceContent(url, user, password, configuracionWSS4J);
+		Permit permit = new Permit(inFlight);
+		ValidationTask task = new ValidationTask(certificate, extraParams, System.currentTimeMillis() + timeout, listener, permit);
+		if (!permit.acquire()) {
+			//-- Fallar sin bloquear: el resultado queda ya disponible
+			task.reject(new ServiceNotFoundException("Hay demasiadas validaciones en curso (" + maxInFlight + ")"));
+			return task;
+		}
+		
+		try {
+			getAsyncExecutor().execute(task);
+		} catch (RejectedExecutionException e) {
+			//-- La tarea no se ejecutar: se libera aqu su plaza
+			permit.release();
+			task.reject(new ServiceNotFoundException("El ejecutor de las validaciones asncronas no admite ms tareas", e));
+		}
+		return task;
+	}
+	
+	/**
+	 * Valida una lista de certificados mediante la validacin por lotes de &#64;Firma,
+	 * enviando muchos certificados en cada peticin en lugar de una peticin por
+	 * certificado.<br><br>
+	 * 
+	 * La validacin por lotes es asncrona: &#64;Firma acepta el lote, devuelve un 
+	 * identificador y hay que consultar su estado hasta que el resultado est listo.
+	 * Los certificados se envan en lotes de {@link #getBatchSize()} como mucho; todos
+	 * los lotes se envan antes de empezar a consultar, para que &#64;Firma los procese
+	 * a la vez, y el estado se consulta cada {@link #getBatchPollInterval()}. Si el 
+	 * resultado no est en {@link #getBatchTimeout()} se lanza una ServiceNotFoundException.<br><br>
+	 * 
+	 * Cada resultado es el mismo que devolvera {@link #validate(Certificate, Map)}
+	 * para el certificado.
+	 * 
+	 * @param certificates Certificados a validar
+	 * @return Resultados de la validacin, en el mismo orden que los certificados
+	 * @throws ServiceNotFoundException El servicio no se encuentra disponible o no ha
+	 * 	devuelto el resultado en el plazo
+	 * @throws ServiceException &#64;Firma no acepta el lote o su respuesta no contiene
+	 * 	el resultado de alguno de los certificados
+	 */
+	public List<CertificateValidationServiceResult> validateAll(List<? extends Certificate> certificates) throws ServiceNotFoundException, ServiceException {
+		
+		logger.debug("[AFirma6CertificateValidationService.validateAll]::Entrada::" + certificates.size() + " certificados");
+		
+		long deadline = System.currentTimeMillis() + batchTimeout;
+		int size = batchSize;
+		
+		//-- Enviar todos los lotes antes de esperar a ninguno
+		List<String> responseIds = new ArrayList<String>();
+		for (int start = 0; start < certificates.size(); start += size) {
+			responseIds.add(submitBatch(certificates, start, Math.min(start + size, certificates.size()), deadline));
+		}
+		
+		//-- Recoger los resultados, situando cada uno por su RequestID
+		CertificateValidationServiceResult[] results = new CertificateValidationServiceResult[certificates.size()];
+		for (int i = 0; i < responseIds.size(); i++) {
+			int start = i * size;
+			int end = Math.min(start + size, certificates.size());
+			for (Map<String, Object> response : waitForBatch(responseIds.get(i), deadline)) {
+				int index;
+				try {
+					index = Integer.parseInt((String) response.get(BATCH_RESPONSE_REQUEST_ID));
+				} catch (NumberFormatException e) {
+					index = -1;
+				}
+				if (index < start || index >= end) {
+					logger.info("[AFirma6CertificateValidationService.validateAll]::El lote " + responseIds.get(i) + 
+							" contiene una respuesta con un RequestID desconocido: " + response.get(BATCH_RESPONSE_REQUEST_ID));
+					continue;
+				}
+				results[index] = getResult(response, BATCH_RESPONSE_PREFIX, BATCH_OCSP_VALUE);
+			}
+			for (int j = start; j < end; j++) {
+				if (results[j] == null) {
+					throw new ServiceException("La respuesta de @Firma al lote " + responseIds.get(i) + 
+							" no contiene el resultado del certificado " + j);
+				}
+			}
+		}
+		
+		return Arrays.asList(results);
+	}
+	
+	/**
+	 * Obtiene el tiempo mximo de espera de las llamadas a &#64;Firma
+	 * 
+	 * @return Tiempo mximo de espera (milisegundos)
+	 */
+	public int getCallTimeout() {
+		return callTimeout;
+	}
+
+	/**
+	 * Establece el tiempo mximo de espera de las llamadas a &#64;Firma. Por defecto
+	 * {@link #DEFAULT_CALL_TIMEOUT}.
+	 * 
+	 * @param callTimeout Tiempo mximo de espera (milisegundos)
+	 */
+	public void setCallTimeout(int callTimeout) {
+		if (callTimeout <= 0) {
+			throw new IllegalArgumentException ("El tiempo mximo de espera ha de ser mayor que cero");
+		}
+		this.callTimeout = callTimeout;
+	}
+	
+	/**
+	 * Establece el nmero de hilos del ejecutor que se crea para las validaciones 
+	 * asncronas. Por defecto {@link #DEFAULT_ASYNC_THREADS}. Ha de llamarse antes de
+	 * la primera validacin asncrona.
+	 * 
+	 * @param asyncThreads Nmero de hilos
+	 */
+	public synchronized void setAsyncThreads(int asyncThreads) {
+		if (asyncThreads <= 0) {
+			throw new IllegalArgumentException ("El nmero de hilos ha de ser mayor que cero");
+		}
+		this.asyncThreads = asyncThreads;
+	}
+	
+	/**
+	 * Establece el ejecutor de las validaciones asncronas, por ejemplo uno de hilos
+	 * virtuales en las JVM que los tengan. Las validaciones siguen limitadas por
+	 * {@link #setMaxInFlight(int)}. El ejecutor no se cierra en {@link #shutdown()}.
+	 * 
+	 * @param asyncExecutor Ejecutor o nulo para usar el que crea el servicio
+	 */
+	public synchronized void setAsyncExecutor(ExecutorService asyncExecutor) {
+		if (ownAsyncExecutor && this.asyncExecutor != null) {
+			this.asyncExecutor.shutdown();
+		}
+		this.asyncExecutor = asyncExecutor;
+		this.ownAsyncExecutor = false;
+	}
+	
+	/**
+	 * Obtiene el nmero mximo de validaciones asncronas en curso
+	 * 
+	 * @return Nmero mximo de validaciones en curso
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Establece el nmero mximo de validaciones asncronas en curso (en espera o 
+	 * ejecutndose). Por defecto {@link #DEFAULT_MAX_IN_FLIGHT}. Las validaciones que
+	 * ya estn en curso no cuentan para el nuevo lmite.
+	 * 
+	 * @param maxInFlight Nmero mximo de validaciones en curso
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException ("El nmero mximo de validaciones en curso ha de ser mayor que cero");
+		}
+		this.inFlight = new Semaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+	}
+	
+	/**
+	 * Obtiene el nmero de validaciones asncronas en curso
+	 * 
+	 * @return Nmero de validaciones en curso
+	 */
+	public int getInFlightCount() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+	
+	/**
+	 * Obtiene el nmero mximo de certificados de cada lote enviado a &#64;Firma en
+	 * {@link #validateAll(List)}
+	 * 
+	 * @return Nmero mximo de certificados por lote
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Establece el nmero mximo de certificados de cada lote enviado a &#64;Firma en
+	 * {@link #validateAll(List)}. Por defecto {@link #DEFAULT_BATCH_SIZE}.
+	 * 
+	 * @param batchSize Nmero mximo de certificados por lote
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException ("El tamao del lote ha de ser mayor que cero");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Obtiene el intervalo entre las consultas del estado de un lote
+	 * 
+	 * @return Intervalo (milisegundos)
+	 */
+	public long getBatchPollInterval() {
+		return batchPollInterval;
+	}
+
+	/**
+	 * Establece el intervalo entre las consultas del estado de un lote. Por defecto
+	 * {@link #DEFAULT_BATCH_POLL_INTERVAL}.
+	 * 
+	 * @param batchPollInterval Intervalo (milisegundos)
+	 */
+	public void setBatchPollInterval(long batchPollInterval) {
+		if (batchPollInterval <= 0) {
+			throw new IllegalArgumentException ("El intervalo entre consultas ha de ser mayor que cero");
+		}
+		this.batchPollInterval = batchPollInterval;
+	}
+
+	/**
+	 * Obtiene el plazo mximo para obtener el resultado de {@link #validateAll(List)}
+	 * 
+	 * @return Plazo (milisegundos)
+	 */
+	public long getBatchTimeout() {
+		return batchTimeout;
+	}
+
+	/**
+	 * Establece el plazo mximo para obtener el resultado de {@link #validateAll(List)},
+	 * contando el envo de los lotes y las consultas de su estado. Por defecto 
+	 * {@link #DEFAULT_BATCH_TIMEOUT}.
+	 * 
+	 * @param batchTimeout Plazo (milisegundos)
+	 */
+	public void setBatchTimeout(long batchTimeout) {
+		if (batchTimeout <= 0) {
+			throw new IllegalArgumentException ("El plazo ha de ser mayor que cero");
+		}
+		this.batchTimeout = batchTimeout;
+	}
+	
+	/**
+	 * Cierra el ejecutor de las validaciones asncronas creado por el servicio. Las
+	 * validaciones en curso terminan normalmente.
+	 */
+	public synchronized void shutdown() {
+		if (ownAsyncExecutor && asyncExecutor != null) {
+			asyncExecutor.shutdown();
+			asyncExecutor = null;
+		}
+	}
+	
+	/*
+	 * Valida un certificado esperando a &#64;Firma como mucho el tiempo indicado
+	 */
+	private CertificateValidationServiceResult validate(Certificate certificate, 
+			Map<String, Object> extraParams, int timeout) throws ServiceNotFoundException, ServiceException {
+		
+		logger.debug("[AFirmaCertificateValidationService.validate]::Entrada::" + Arrays.asList(new Object[] { certificate, extraParams }));
 		
 		Map<String, Object> inParams = new HashMap<String, Object>();
 
 		inParams.put(DSSTagsRequest.CLAIMED_IDENTITY, this.idAplicacion);
-		inParams.put(DSSTagsRequest.INCLUDE_CERTIFICATE, "true");
-		inParams.put(DSSTagsRequest.INCLUDE_REVOCATION, "true");
-		inParams.put(DSSTagsRequest.REPORT_DETAIL_LEVEL, ReportDetailLevel.ALL_DETAILS);
-		inParams.put(DSSTagsRequest.CHECK_CERTIFICATE_STATUS, "true");
-		inParams.put(DSSTagsRequest.RETURN_READABLE_CERT_INFO, "");
+		addVerifyOptions(inParams);
 		try {
 			inParams.put(DSSTagsRequest.X509_CERTIFICATE, Util.encodeBase64(certificate.toDER()));
 		} catch (NormalizeCertificateException e) {
@@ -227,32 +583,88 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 			logger.info ("[AFirmaCertificateValidationService.validate]", e);
 		}
 		
+		Map<String, Object> propertiesResult = call(inParams, GeneralConstants.DSS_AFIRMA_VERIFY_CERTIFICATE_REQUEST, GeneralConstants.DSS_AFIRMA_VERIFY_METHOD, timeout);
+		return getResult(propertiesResult, "", SINGLE_OCSP_VALUE);
+	}
+	
+	/*
+	 * Indica si el certificado es de entidad a partir de la clasificacin de @Firma
+	 */
+	public static boolean isEntidad(int clasificacion) {
+		return clasificacion == AFIRMA_CLASIFICACION_PERSONA_JURIDICA || 
+				clasificacion == AFIRMA_CLASIFICACION_ENTIDAD || 
+				clasificacion == AFIRMA_CLASIFICACION_CUALIFICADO_SELLO || 
+				clasificacion == AFIRMA_CLASIFICACION_REPRESENTANTE_CPJ || 
+				clasificacion == AFIRMA_CLASIFICACION_REPRESENTANTE_SPJ;
+	}
+
+	/*
+	 * Indica si el certificado es persona fsica a partir de la clasificacin de @Firma
+	 */
+	public static boolean isPersonaFisica(int clasificacion) {
+		return clasificacion == AFIRMA_CLASIFICACION_PERSONA_FISICA || 
+				clasificacion == AFIRMA_CLASIFICACION_EMPLEADO_PUBLICO || 
+				clasificacion == AFIRMA_CLASIFICACION_AUTENTICACION || 
+				clasificacion == AFIRMA_CLASIFICACION_REPRESENTANTE_CPJ || 
+				clasificacion == AFIRMA_CLASIFICACION_REPRESENTANTE_SPJ;
+	}
+
+
+	//-- Mtodos privados
+	
+	/*
+	 * Aade a una peticin de validacin las opciones con las que se valida cada
+	 * certificado
+	 */
+	private void addVerifyOptions(Map<String, Object> inParams) {
+		inParams.put(DSSTagsRequest.INCLUDE_CERTIFICATE, "true");
+		inParams.put(DSSTagsRequest.INCLUDE_REVOCATION, "true");
+		inParams.put(DSSTagsRequest.REPORT_DETAIL_LEVEL, ReportDetailLevel.ALL_DETAILS);
+		inParams.put(DSSTagsRequest.CHECK_CERTIFICATE_STATUS, "true");
+		inParams.put(DSSTagsRequest.RETURN_READABLE_CERT_INFO, "");
+	}
+	
+	/*
+	 * Construye la peticin, llama a &#64;Firma y parsea la respuesta
+	 */
+	private Map<String, Object> call(Map<String, Object> inParams, String service, String method, int timeout) throws ServiceNotFoundException, ServiceException {
 		String xmlInput;
 		try {
-			xmlInput = TransformersFacade.getInstance().generateXml(inParams, GeneralConstants.DSS_AFIRMA_VERIFY_CERTIFICATE_REQUEST, GeneralConstants.DSS_AFIRMA_VERIFY_METHOD, TransformersConstants.VERSION_10);
+			xmlInput = TransformersFacade.getInstance().generateXml(inParams, service, method, TransformersConstants.VERSION_10);
 		} catch (TransformersException e) {
 			logger.info("No se puede crear la peticin para @Firma", e);
 			throw new ServiceException("No se puede crear la peticin para @Firma", e);
 		}
 		String xmlOutput;
 		try {
-			xmlOutput = Afirma5ServiceInvokerFacade.getInstance().invokeService(xmlInput, GeneralConstants.DSS_AFIRMA_VERIFY_CERTIFICATE_REQUEST, GeneralConstants.DSS_AFIRMA_VERIFY_METHOD, this.idAplicacion, serviceContent);
+			xmlOutput = transport.invoke(xmlInput, service, method, timeout);
 		} catch (Exception e) {
 			logger.info("No se puede obtener la respuesta de @Firma", e);
 			throw new ServiceNotFoundException("No se puede obtener la respuesta de @Firma", e);
 		}
 		
-		Map<String, Object> propertiesResult;
 		try {
-			propertiesResult = TransformersFacade.getInstance().parseResponse(xmlOutput, GeneralConstants.DSS_AFIRMA_VERIFY_CERTIFICATE_REQUEST, GeneralConstants.DSS_AFIRMA_VERIFY_METHOD, TransformersConstants.VERSION_10);
+			return TransformersFacade.getInstance().parseResponse(xmlOutput, service, method, TransformersConstants.VERSION_10);
 		} catch (TransformersException e) {
 			logger.info("No se puede parsear la respuesta de @Firma", e);
 			throw new ServiceException("No se puede parsear la respuesta de @Firma", e);
 		}
-
+	}
+	
+	/*
+	 * Obtiene el resultado de la validacin de un certificado a partir de la respuesta
+	 * parseada. En la validacin por lotes los valores de cada certificado llevan
+	 * delante la ruta de su VerifyResponse (prefix) y el nodo de la respuesta OCSP 
+	 * tiene otro nombre.
+	 */
+	private CertificateValidationServiceResult getResult(Map<String, Object> propertiesResult, String prefix, String ocspValueNode) throws ServiceException {
+		
 		//validamos si el resultado ha sido satisfactorio
-		String valorResultado = (String) propertiesResult.get(TransformersFacade.getInstance().getParserParameterValue("ResultMayor"));
-		String valorResultadoMenor = (String) propertiesResult.get(TransformersFacade.getInstance().getParserParameterValue("ResultMinor"));
+		String valorResultado = (String) propertiesResult.get(prefix + TransformersFacade.getInstance().getParserParameterValue("ResultMayor"));
+		String valorResultadoMenor = (String) propertiesResult.get(prefix + TransformersFacade.getInstance().getParserParameterValue("ResultMinor"));
+		if (valorResultado == null) {
+			throw new ServiceException("La respuesta de @Firma no contiene el resultado de la validacin");
+		}
 		
 		//-- Comprobar si la respuesta es vlida
 		int resultado = ValidationResult.RESULT_VALID;
@@ -260,17 +672,18 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 		BasicOCSPResp respuestaOCSP = null;
 		int motivoRevocacion = -1;
 		
-		HashMap<String,Object>[] hmCertVal = (HashMap<String,Object>[]) propertiesResult.get("dss:OptionalOutputs/vr:CertificatePathValidity/vr:PathValidityDetail/vr:CertificateValidity");
-		HashMap<String,Object> camposCertificado = (HashMap<String,Object>) propertiesResult.get("dss:OptionalOutputs/afxp:ReadableCertificateInfo");
+		String certificateValidity = prefix + "dss:OptionalOutputs/vr:CertificatePathValidity/vr:PathValidityDetail/vr:CertificateValidity";
+		HashMap<String,Object>[] hmCertVal = (HashMap<String,Object>[]) propertiesResult.get(certificateValidity);
+		HashMap<String,Object> camposCertificado = (HashMap<String,Object>) propertiesResult.get(prefix + "dss:OptionalOutputs/afxp:ReadableCertificateInfo");
 		
 		//-- Obtener la respuesta OCSP
 		if (camposCertificado != null && hmCertVal != null) {
 			String numeroSerie = (String) camposCertificado.get("numeroSerie");
 			String issuer = (String) camposCertificado.get("idEmisor");
 			for (HashMap<String,Object> certVal : hmCertVal) {
-				if (certVal.get("dss:OptionalOutputs/vr:CertificatePathValidity/vr:PathValidityDetail/vr:CertificateValidity/vr:CertificateIdentifier/ds:X509IssuerName").equals(issuer) &&
-						certVal.get("dss:OptionalOutputs/vr:CertificatePathValidity/vr:PathValidityDetail/vr:CertificateValidity/vr:CertificateIdentifier/ds:X509SerialNumber").equals(numeroSerie)) {
-					String ocspResponseB64 = (String) certVal.get("dss:OptionalOutputs/vr:CertificatePathValidity/vr:PathValidityDetail/vr:CertificateValidity/vr:CertificateStatus/vr:RevocationEvidence/vr:OCSPValidity/OCSPValue");
+				if (issuer != null && issuer.equals(certVal.get(certificateValidity + "/vr:CertificateIdentifier/ds:X509IssuerName")) &&
+						numeroSerie != null && numeroSerie.equals(certVal.get(certificateValidity + "/vr:CertificateIdentifier/ds:X509SerialNumber"))) {
+					String ocspResponseB64 = (String) certVal.get(certificateValidity + "/vr:CertificateStatus/vr:RevocationEvidence/vr:OCSPValidity/" + ocspValueNode);
 					if (ocspResponseB64 != null) {
 						try {
 							ASN1InputStream inp = new ASN1InputStream(Util.decodeBase64(ocspResponseB64));
@@ -297,12 +710,12 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 		}
 		
 		if (valorResultado.equals(ResultProcessIds.SUCESS)) {
-			if (valorResultadoMenor.equals(AFIRMA_MINOR_RESULT_CERTIFICATE_REVOKED)) {
+			if (AFIRMA_MINOR_RESULT_CERTIFICATE_REVOKED.equals(valorResultadoMenor)) {
 				resultado = ValidationResult.RESULT_CERTIFICATE_REVOKED;
 			}
 		} else {
-			logger.info("Resultado: " + propertiesResult.get(TransformersFacade.getInstance().getParserParameterValue("ResultMessage")));
-			if (valorResultado.equals(ResultProcessIds.REQUESTER_ERROR) && valorResultadoMenor.equals(AFIRMA_MINOR_RESULT_CERTIFICATE_NOT_SUPPORTED)) {
+			logger.info("Resultado: " + propertiesResult.get(prefix + TransformersFacade.getInstance().getParserParameterValue("ResultMessage")));
+			if (valorResultado.equals(ResultProcessIds.REQUESTER_ERROR) && AFIRMA_MINOR_RESULT_CERTIFICATE_NOT_SUPPORTED.equals(valorResultadoMenor)) {
 				resultado = ValidationResult.RESULT_CERTIFICATE_NOT_BELONGS_TRUSTED_CAS;
 			} else {
 				resultado = ValidationResult.RESULT_INVALID;
@@ -337,10 +750,11 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 		}
 		
 		//-- Certificado (Obtener la clasificacin)
-		if (propertiesResult.get("dss:OptionalOutputs/vr:VerificationReport/vr:IndividualSignatureReport") != null) {
-			Map<String, Object> individualSignatureReport = ((Map<String, Object>[]) propertiesResult.get("dss:OptionalOutputs/vr:VerificationReport/vr:IndividualSignatureReport"))[0];
+		String individualSignatureReportKey = prefix + "dss:OptionalOutputs/vr:VerificationReport/vr:IndividualSignatureReport";
+		if (propertiesResult.get(individualSignatureReportKey) != null) {
+			Map<String, Object> individualSignatureReport = ((Map<String, Object>[]) propertiesResult.get(individualSignatureReportKey))[0];
 			if (individualSignatureReport != null) {
-				Map<String, Object> certificateInfo = (Map<String, Object>) individualSignatureReport.get("dss:OptionalOutputs/vr:VerificationReport/vr:IndividualSignatureReport/vr:Details/afxp:ReadableCertificateInfo");
+				Map<String, Object> certificateInfo = (Map<String, Object>) individualSignatureReport.get(individualSignatureReportKey + "/vr:Details/afxp:ReadableCertificateInfo");
 				if (certificateInfo != null) {
 					try {
 						certResult.setCertificateCategory(Integer.parseInt((String)certificateInfo.get("clasificacion")));
@@ -349,7 +763,7 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 					}
 				}
 			}
-		} else if (camposCertificado.get("clasificacion") != null) {
+		} else if (camposCertificado != null && camposCertificado.get("clasificacion") != null) {
 			try {
 				certResult.setCertificateCategory(Integer.parseInt((String)camposCertificado.get("clasificacion")));
 			} catch (Exception e) {
@@ -361,41 +775,232 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 	}
 	
 	/*
-	 * Indica si el certificado es de entidad a partir de la clasificacin de @Firma
+	 * Enva a &#64;Firma la validacin por lotes de los certificados [start, end) y 
+	 * devuelve el identificador con el que consultar el resultado. Cada peticin del
+	 * lote lleva como RequestID la posicin del certificado en la lista.
 	 */
-	public static boolean isEntidad(int clasificacion) {
-		return clasificacion == AFIRMA_CLASIFICACION_PERSONA_JURIDICA || 
-				clasificacion == AFIRMA_CLASIFICACION_ENTIDAD || 
-				clasificacion == AFIRMA_CLASIFICACION_CUALIFICADO_SELLO || 
-				clasificacion == AFIRMA_CLASIFICACION_REPRESENTANTE_CPJ || 
-				clasificacion == AFIRMA_CLASIFICACION_REPRESENTANTE_SPJ;
+	private String submitBatch(List<? extends Certificate> certificates, int start, int end, long deadline) throws ServiceNotFoundException, ServiceException {
+		Map<String, Object>[] verifyRequests = new Map[end - start];
+		for (int i = start; i < end; i++) {
+			Map<String, Object> verifyRequest = new HashMap<String, Object>();
+			verifyRequest.put(DSSTagsRequest.VERIFY_REQUEST_ATTR_REQUEST_ID, String.valueOf(i));
+			verifyRequest.put(DSSTagsRequest.CLAIMED_IDENTITY, this.idAplicacion);
+			addVerifyOptions(verifyRequest);
+			try {
+				verifyRequest.put(DSSTagsRequest.X509_CERTIFICATE, Util.encodeBase64(certificates.get(i).toDER()));
+			} catch (NormalizeCertificateException e) {
+				//-- El certificado ya se normaliz al entrar, no se dar el error
+				logger.info ("[AFirma6CertificateValidationService.validateAll]", e);
+			}
+			verifyRequests[i - start] = verifyRequest;
+		}
+		
+		Map<String, Object> inParams = new HashMap<String, Object>();
+		inParams.put(DSSTagsRequest.CLAIMED_IDENTITY, this.idAplicacion);
+		inParams.put(DSSTagsRequest.BATCH_REQUEST_ATTR_TYPE, DSSTagsRequest.BATCH_VERIFY_CERT_TYPE);
+		inParams.put(DSSTagsRequest.VERIFY_REQUEST, verifyRequests);
+		
+		Map<String, Object> propertiesResult = call(inParams, GeneralConstants.DSS_BATCH_VERIFY_CERTIFICATE_REQUEST, 
+				GeneralConstants.DSS_AFIRMA_VERIFY_CERTIFICATES_METHOD, remainingTimeout(deadline));
+		
+		//-- Si acepta el lote, @Firma responde que est pendiente y devuelve el identificador
+		String valorResultado = (String) propertiesResult.get(TransformersFacade.getInstance().getParserParameterValue("ResultMayor"));
+		String responseId = (String) propertiesResult.get(TransformersFacade.getInstance().getParserParameterValue("ResultProcessId"));
+		if (!ResultProcessIds.PENDING.equals(valorResultado) || responseId == null) {
+			throw new ServiceException("@Firma no ha aceptado la validacin por lotes: " + valorResultado + " - " + 
+					propertiesResult.get(TransformersFacade.getInstance().getParserParameterValue("ResultMessage")));
+		}
+		logger.debug("[AFirma6CertificateValidationService.validateAll]::Lote enviado::" + responseId + "::" + (end - start) + " certificados");
+		return responseId;
 	}
-
+	
 	/*
-	 * Indica si el certificado es persona fsica a partir de la clasificacin de @Firma
+	 * Consulta a &#64;Firma el estado de un lote cada batchPollInterval hasta que
+	 * deja de estar pendiente y devuelve las respuestas de sus certificados
 	 */
-	public static boolean isPersonaFisica(int clasificacion) {
-		return clasificacion == AFIRMA_CLASIFICACION_PERSONA_FISICA || 
-				clasificacion == AFIRMA_CLASIFICACION_EMPLEADO_PUBLICO || 
-				clasificacion == AFIRMA_CLASIFICACION_AUTENTICACION || 
-				clasificacion == AFIRMA_CLASIFICACION_REPRESENTANTE_CPJ || 
-				clasificacion == AFIRMA_CLASIFICACION_REPRESENTANTE_SPJ;
+	private Map<String, Object>[] waitForBatch(String responseId, long deadline) throws ServiceNotFoundException, ServiceException {
+		Map<String, Object> inParams = new HashMap<String, Object>();
+		inParams.put(DSSTagsRequest.CLAIMED_IDENTITY, this.idAplicacion);
+		inParams.put(DSSTagsRequest.ASYNC_RESPONSE_ID, responseId);
+		
+		while (true) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new ServiceNotFoundException("Se ha agotado el plazo esperando el resultado del lote " + responseId + " de @Firma");
+			}
+			try {
+				Thread.sleep(Math.min(batchPollInterval, remaining));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceNotFoundException("Se ha interrumpido la espera del resultado del lote " + responseId + " de @Firma", e);
+			}
+			
+			Map<String, Object> propertiesResult = call(inParams, GeneralConstants.DSS_ASYNC_REQUEST_STATUS, 
+					GeneralConstants.DSS_ASYNC_REQUEST_STATUS_METHOD, remainingTimeout(deadline));
+			String valorResultado = (String) propertiesResult.get(TransformersFacade.getInstance().getParserParameterValue("ResultMayor"));
+			if (ResultProcessIds.PENDING.equals(valorResultado)) {
+				continue;
+			}
+			
+			Map<String, Object>[] responses = (Map<String, Object>[]) propertiesResult.get(TransformersFacade.getInstance().getParserParameterValue("VerifyResponse"));
+			if (responses == null) {
+				throw new ServiceException("@Firma no ha devuelto el resultado del lote " + responseId + ": " + valorResultado + " - " + 
+						propertiesResult.get(TransformersFacade.getInstance().getParserParameterValue("ResultMessage")));
+			}
+			return responses;
+		}
+	}
+	
+	/*
+	 * Tiempo mximo de espera de una llamada: el configurado, sin pasar del plazo
+	 */
+	private int remainingTimeout(long deadline) throws ServiceNotFoundException {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) {
+			throw new ServiceNotFoundException("Se ha agotado el plazo antes de llamar a @Firma");
+		}
+		return (int) Math.min(remaining, callTimeout);
+	}
+	
+	/*
+	 * Obtiene el ejecutor de las validaciones asncronas, crendolo si es necesario
+	 */
+	private synchronized ExecutorService getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS, 
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "arangi-afirma6-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			asyncExecutor = executor;
+			ownAsyncExecutor = true;
+		}
+		return asyncExecutor;
 	}
-
-
 	
 	//-- Clases privadas
 	
+	/*
+	 * Plaza de una validacin entre las validaciones en curso. Se libera una sola
+	 * vez, aunque se llame varias veces a release.
+	 */
+	private static class Permit {
+		
+		Semaphore permits;
+		AtomicBoolean held = new AtomicBoolean();
+		
+		Permit(Semaphore permits) {
+			this.permits = permits;
+		}
+		
+		boolean acquire() {
+			if (!permits.tryAcquire()) {
+				return false;
+			}
+			held.set(true);
+			return true;
+		}
+		
+		void release() {
+			if (held.compareAndSet(true, false)) {
+				permits.release();
+			}
+		}
+	}
+	
+	/*
+	 * Validacin asncrona: resultado futuro que avisa al receptor. La plaza entre
+	 * las validaciones en curso se libera cuando termina la llamada a @Firma (antes
+	 * de publicar el resultado), o al pasar por el ejecutor si se cancel antes de
+	 * empezar: cancelarla mientras se ejecuta no libera la plaza hasta que la 
+	 * llamada termina.
+	 */
+	private class ValidationTask extends FutureTask<CertificateValidationServiceResult> {
+		
+		CertificateValidationListener listener;
+		Permit permit;
+		
+		ValidationTask(final Certificate certificate, final Map<String, Object> extraParams, final long deadline, 
+				CertificateValidationListener listener, final Permit permit) {
+			super(new Callable<CertificateValidationServiceResult>() {
+				public CertificateValidationServiceResult call() throws Exception {
+					try {
+						long remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0) {
+							throw new ServiceNotFoundException("Se ha agotado el plazo antes de llamar a @Firma");
+						}
+						return validate(certificate, extraParams, (int) Math.min(remaining, Integer.MAX_VALUE));
+					} finally {
+						permit.release();
+					}
+				}
+			});
+			this.listener = listener;
+			this.permit = permit;
+		}
+		
+		/*
+		 * Termina la tarea con un error sin llegar a ejecutarla
+		 */
+		void reject(Exception exception) {
+			setException(exception);
+		}
+		
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				//-- Si se cancel antes de empezar la llamada no se ha liberado la plaza
+				permit.release();
+			}
+		}
+		
+		protected void done() {
+			if (listener == null || isCancelled()) {
+				return;
+			}
+			try {
+				CertificateValidationServiceResult result;
+				try {
+					result = get();
+				} catch (ExecutionException e) {
+					listener.onError(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+					return;
+				}
+				listener.onResult(result);
+			} catch (InterruptedException e) {
+				//-- No se dar: la tarea ya ha terminado
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				logger.info("[AFirma6CertificateValidationService.validateAsync]::Error en el receptor del resultado", e);
+			}
+		}
+	}
+	
 	/**
 	 * Clase que requiere ACCVIntegra para obtener los parmetros con los que se realizar
 	 * la llamada.
+	 * 
+	 * @deprecated Las llamadas se realizan mediante {@link AFirma6Transport AFirma6Transport},
+	 * 	que se crea una sola vez por servicio
 	 */
+	@Deprecated
 	public class ArangiServiceContent implements Afirma5ServiceInvokerContent {
 		
 		Properties afirmaProperties;
 		
 		public ArangiServiceContent(String url, String user, String password,
 				String configuracionWSS4J) {
+			this(url, user, password, configuracionWSS4J, DEFAULT_CALL_TIMEOUT);
+		}
+		
+		public ArangiServiceContent(String url, String user, String password,
+				String configuracionWSS4J, int callTimeout) {
 			afirmaProperties = new Properties();
 			afirmaProperties.put("com.certificatesCache.use","true");
 			afirmaProperties.put("com.certificatesCache.entries","2");
@@ -403,7 +1008,7 @@ public class AFirma6CertificateValidationService implements CertificateValidatio
 			afirmaProperties.put("secureMode", configuracionWSS4J==null?"false":"true");
 			afirmaProperties.put("endPoint", url);
 			afirmaProperties.put("servicePath", "afirmaws/services");
-			afirmaProperties.put("callTimeout", "20000");
+			afirmaProperties.put("callTimeout", String.valueOf(callTimeout));
 			if (configuracionWSS4J!=null) {
 				afirmaProperties.put("authorizationMethod", "BinarySecurityToken");
 				afirmaProperties.put("authorizationMethod.signaturePropFile", configuracionWSS4J);
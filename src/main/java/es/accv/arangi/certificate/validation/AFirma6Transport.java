@@ -0,0 +1,220 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.validation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+import es.gob.afirma.afirma5ServiceInvoker.Afirma5ServiceInvokerContent;
+import es.gob.afirma.afirma5ServiceInvoker.Afirma5ServiceInvokerException;
+import es.gob.afirma.afirma5ServiceInvoker.Afirma5ServiceInvokerFacade;
+
+/**
+ * Acceso a los servicios web de &#64;Firma6 que se crea una vez por servicio
+ * (validacin, obtencin de datos...) y se reutiliza en todas sus llamadas.<br><br>
+ *
+ * La configuracin de la llamada (punto de acceso, mtodo de autenticacin...) se
+ * construye en el constructor y no cambia, por lo que ACCVIntegra no la vuelve a
+ * cargar en cada llamada. Si la autenticacin es mediante certificado, el fichero
+ * de configuracin WSS4J se lee tambin una sola vez y se pasan a ACCVIntegra los
+ * datos del almacn ya resueltos, en lugar de que busque y lea el fichero en cada
+ * peticin. En cada llamada slo se aade el tiempo mximo de espera, sin copiar ni
+ * modificar la configuracin, as que el objeto puede usarse desde varios hilos.<br><br>
+ *
+ * ACCVIntegra crea la conexin HTTP de cada llamada, por lo que no es posible
+ * mantener las conexiones abiertas entre llamadas desde aqu. En HTTPS las sesiones
+ * TLS s se reutilizan, ya que las guarda la JVM.
+ */
+public class AFirma6Transport implements Afirma5ServiceInvokerContent {
+
+	/**
+	 * Tiempo mximo de espera por defecto de las llamadas (milisegundos)
+	 */
+	public static final int DEFAULT_CALL_TIMEOUT = 20000;
+
+	/*
+	 * Ruta de los servicios web en el servidor de &#64;Firma
+	 */
+	private static final String SERVICE_PATH = "afirmaws/services";
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(AFirma6Transport.class);
+
+	/*
+	 * Configuracin de las llamadas
+	 */
+	private Properties properties;
+
+	/*
+	 * Fecha de modificacin que se da a ACCVIntegra. Guarda una nica configuracin
+	 * para toda la JVM y la recarga cuando cambia la fecha, as que se obtiene del
+	 * contenido de la configuracin: los transportes con la misma configuracin
+	 * comparten fecha y pasar de uno a otro no obliga a recargarla.
+	 */
+	private long lastModified;
+
+	/**
+	 * Constructor
+	 *
+	 * @param endPoint Servidor de &#64;Firma (host y, opcionalmente, puerto)
+	 * @param idAplicacion ID de la aplicacin en &#64;Firma
+	 * @param user Nombre de usuario para el caso en que se deba realizar la
+	 * 	llamada securizada mediante usuario y contrasea.
+	 * @param password Contrasea para el caso en que se deba realizar la
+	 * 	llamada securizada mediante usuario y contrasea.
+	 * @param configuracionWSS4J Fichero del classpath que contiene la informacin de
+	 * 	acceso al certificado que firmar las peticiones que se envan a &#64;Firma
+	 */
+	public AFirma6Transport (String endPoint, String idAplicacion, String user, String password, String configuracionWSS4J) {
+		properties = new Properties();
+		properties.put("com.certificatesCache.use","true");
+		properties.put("com.certificatesCache.entries","2");
+		properties.put("com.certificatesCache.lifeTime","120");
+		properties.put("secureMode", configuracionWSS4J==null?"false":"true");
+		properties.put("endPoint", endPoint);
+		properties.put("servicePath", SERVICE_PATH);
+		properties.put("callTimeout", String.valueOf(DEFAULT_CALL_TIMEOUT));
+		if (idAplicacion != null) {
+			properties.put("applicationName", idAplicacion);
+		}
+		if (configuracionWSS4J!=null) {
+			properties.put("authorizationMethod", "BinarySecurityToken");
+			loadSignatureProperties(configuracionWSS4J);
+		} else if (user != null && password != null) {
+			properties.put("authorizationMethod", "UsernameToken");
+			properties.put("authorizationMethod.user", user);
+			properties.put("authorizationMethod.password", password);
+		} else {
+			properties.put("authorizationMethod", "none");
+		}
+		properties.put("response.validate", "false");
+		properties.put("response.certificateAlias", "DefaultFirma");
+
+		lastModified = getContentStamp(properties);
+	}
+
+	/**
+	 * Realiza una llamada a un servicio de &#64;Firma
+	 *
+	 * @param xmlInput Peticin
+	 * @param service Nombre del servicio
+	 * @param method Mtodo del servicio
+	 * @param callTimeout Tiempo mximo de espera de la respuesta (milisegundos)
+	 * @return Respuesta de &#64;Firma
+	 * @throws Afirma5ServiceInvokerException No se ha podido realizar la llamada
+	 */
+	public String invoke (String xmlInput, String service, String method, int callTimeout) throws Afirma5ServiceInvokerException {
+		//-- La configuracin queda como valores por defecto: no se copia ni se modifica
+		Properties callProperties = new Properties(properties);
+		callProperties.put("callTimeout", String.valueOf(callTimeout));
+		return Afirma5ServiceInvokerFacade.getInstance().invokeService(xmlInput, service, method, callProperties, this);
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public Properties getProperties() throws Exception {
+		//-- ACCVIntegra modifica la configuracin que obtiene
+		return (Properties) properties.clone();
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Lee la configuracin WSS4J y guarda los datos del almacn de claves. Si no se
+	 * puede leer se deja que sea ACCVIntegra quien lo intente en cada llamada y
+	 * devuelva el error.
+	 */
+	private void loadSignatureProperties (String configuracionWSS4J) {
+		InputStream is = AFirma6Transport.class.getClassLoader().getResourceAsStream(configuracionWSS4J);
+		if (is == null) {
+			logger.info("[AFirma6Transport]::No existe el fichero '" + configuracionWSS4J + "' en el classpath");
+			properties.put("authorizationMethod.signaturePropFile", configuracionWSS4J);
+			return;
+		}
+
+		Properties wss4j = new Properties();
+		try {
+			wss4j.load(is);
+		} catch (IOException e) {
+			logger.info("[AFirma6Transport]::No se puede cargar el fichero '" + configuracionWSS4J + "'", e);
+			properties.put("authorizationMethod.signaturePropFile", configuracionWSS4J);
+			return;
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+				logger.debug("[AFirma6Transport]::No se puede cerrar el fichero '" + configuracionWSS4J + "'", e);
+			}
+		}
+
+		putIfNotNull("authorizationMethod.userKeystore", wss4j.getProperty("org.apache.ws.security.crypto.merlin.file"));
+		putIfNotNull("authorizationMethod.userKeystorePassword", wss4j.getProperty("org.apache.ws.security.crypto.merlin.keystore.password"));
+		putIfNotNull("authorizationMethod.userKeystoreType", wss4j.getProperty("org.apache.ws.security.crypto.merlin.keystore.type"));
+		putIfNotNull("authorizationMethod.user", wss4j.getProperty("org.apache.ws.security.crypto.merlin.keystore.alias"));
+		putIfNotNull("authorizationMethod.password", wss4j.getProperty("org.apache.ws.security.crypto.merlin.alias.password"));
+	}
+
+	/*
+	 * Aade un valor a la configuracin si no es nulo
+	 */
+	private void putIfNotNull (String key, String value) {
+		if (value != null) {
+			properties.put(key, value);
+		}
+	}
+
+	/*
+	 * Obtiene un valor que slo depende del contenido de la configuracin: los
+	 * primeros bytes del SHA-256 de sus entradas, ordenadas por clave
+	 */
+	private static long getContentStamp (Properties properties) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (Object key : new TreeSet<Object>(properties.keySet())) {
+				digest.update((key + "=" + properties.get(key) + "\n").getBytes("UTF-8"));
+			}
+			byte[] hash = digest.digest();
+			long stamp = 0;
+			for (int i = 0; i < 8; i++) {
+				stamp = (stamp << 8) | (hash[i] & 0xFF);
+			}
+			return stamp & Long.MAX_VALUE;
+		} catch (NoSuchAlgorithmException e) {
+			//-- No se dar: todas las JVM implementan SHA-256
+			throw new IllegalStateException("No se puede calcular el SHA-256 de la configuracin", e);
+		} catch (UnsupportedEncodingException e) {
+			//-- No se dar: todas las JVM implementan UTF-8
+			throw new IllegalStateException("No se puede codificar la configuracin", e);
+		}
+	}
+
+}
@@ -22,7 +22,6 @@ package es.accv.arangi.certificate.validation;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
@@ -31,13 +30,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
-
 import org.apache.log4j.Logger;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Enumerated;
@@ -46,10 +38,6 @@ import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERSequence;
 import org.bouncycastle.asn1.DERTaggedObject;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 
 import es.accv.arangi.base.certificate.Certificate;
 import es.accv.arangi.base.certificate.validation.OCSPResponse;
@@ -262,46 +250,37 @@ public class AFirmaCertificateValidationService implements CertificateValidation
 		int motivoRevocacion = -1;
 		OCSPResponse respuestaOCSP = null;
 		
-		//-- Comprobar si es mensaje de error
-		if (respuesta.indexOf("codigoError") > -1) {
-			//-- Comprobar si es porque no se trata el certificado (COD_066) o no se trata para
-			//-- el ID de aplicacin (COD_063) o el tipo de certificado se encuentra deshabilitado(COD_064)
-			if (respuesta.indexOf("COD_066") > -1 || respuesta.indexOf("COD_063") > -1 || respuesta.indexOf("COD_064") > -1) {
-				logger.debug("[AFirmaCertificateValidationService.validate]::El certificado es desconocido");
-				resultado = ValidationResult.RESULT_CERTIFICATE_UNKNOWN;
-				return new CertificateValidationServiceResult(resultado, campos);
-			} else {
-				logger.info("[AFirmaCertificateValidationService.validate]::La respuesta de @Firma es de&#64;Firma");
-				throw new ServiceException(respuesta.substring(respuesta.indexOf("codigoError&gt;") + 15, respuesta.indexOf("&lt;/codigoError")) + " - " +
-						respuesta.substring(respuesta.indexOf("descripcion&gt;") + 15, respuesta.indexOf("&lt;/descripcion")));
+		//-- Leer la respuesta
+		AFirmaResponseParser response;
+		try {
+			response = AFirmaResponseParser.parse(respuesta);
+		} catch (Exception e) {
+			//-- Si es un mensaje de error que no se puede leer se obtienen el cdigo y la
+			//-- descripcin del texto de la respuesta, para no perder el error de @Firma
+			if (respuesta.indexOf("codigoError") > -1) {
+				logger.info("[AFirmaCertificateValidationService.validate]::No se puede leer el XML de la respuesta de error", e);
+				return getErrorResult(getErrorElement(respuesta, "codigoError"), getErrorElement(respuesta, "descripcion"));
 			}
+			logger.info("[AFirmaCertificateValidationService.validate]::Error leyendo el XML de respuesta", e);
+			throw new ServiceException("Error leyendo el XML de respuesta", e);
+		}
+		
+		//-- Comprobar si es mensaje de error
+		if (response.getErrorCode() != null) {
+			return getErrorResult(response.getErrorCode(), response.getErrorDescription());
 		}
 		
 		//-- Mensaje OK, extraer la informacin
 		logger.debug("[AFirmaCertificateValidationService.validate]::La respuesta de @Firma no es de error");
-		String xml = respuesta.substring(respuesta.indexOf("&lt;?xml"), respuesta.indexOf("</ValidarCertificadoReturn>"));
-		xml = xml.replaceAll("\\&lt;", "<").replaceAll("\\&gt;", ">");
-		
-		Document doc;
-		XPath xpath;
-		try {
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			dbf.setNamespaceAware(true);
-			DocumentBuilder builder = dbf.newDocumentBuilder();
-			doc = builder.parse(new InputSource(new StringReader(xml)));
-			XPathFactory factory = XPathFactory.newInstance();
-			xpath = factory.newXPath();
-		} catch (Exception e) {
-			logger.info("[AFirmaCertificateValidationService.validate]::Error obteniendo el documento DOM o el XPath", e);
-			throw new ServiceException("Error obteniendo el documento DOM o el XPath", e);
-		}
 
 		//-- Obtener el resultado
 		try {
 			logger.debug("[AFirmaCertificateValidationService.validate]::Obteniendo el resultado");
-			XPathExpression expr = xpath.compile("//*[local-name()='ResultadoProcesamiento']/*[local-name()='ResultadoValidacion']/*[local-name()='resultado']");
-			Node resultNode = (Node) expr.evaluate (doc, XPathConstants.NODE);
-			int aFirmaResultado = Integer.parseInt(resultNode.getTextContent());
+			if (response.getResult() == null) {
+				throw new ServiceException(response.hasPayload() ? "La respuesta no contiene el resultado de la validacin" : 
+					"La respuesta no contiene el elemento ValidarCertificadoReturn");
+			}
+			int aFirmaResultado = Integer.parseInt(response.getResult().trim());
 			switch (aFirmaResultado) {
 				case AFIRMA_RESULT_OK:
 					resultado = ValidationResult.RESULT_VALID;
@@ -314,13 +293,10 @@ public class AFirmaCertificateValidationService implements CertificateValidation
 					break;
 				case AFIRMA_RESULT_REVOKED:
 					resultado = ValidationResult.RESULT_CERTIFICATE_REVOKED;
-					expr = xpath.compile("//*[local-name()='InfoMetodoVerificacion']/*[local-name()='fechaRevocacion']");
-					resultNode = (Node) expr.evaluate (doc, XPathConstants.NODE);
-					String sFecha = resultNode.getTextContent().substring(0,10) + " " + resultNode.getTextContent().substring(15,23);
-					fechaRevocacion = AFIRMA_DATE_FORMAT.parse(sFecha);
-					expr = xpath.compile("//*[local-name()='InfoMetodoVerificacion']/*[local-name()='motivo']");
-					resultNode = (Node) expr.evaluate (doc, XPathConstants.NODE);
-					motivoRevocacion = Integer.parseInt(resultNode.getTextContent());
+					String fecha = response.getRevocationDate();
+					String sFecha = fecha.substring(0,10) + " " + fecha.substring(15,23);
+					fechaRevocacion = ((SimpleDateFormat) AFIRMA_DATE_FORMAT.clone()).parse(sFecha);
+					motivoRevocacion = Integer.parseInt(response.getRevocationReason().trim());
 					break;
 				case AFIRMA_RESULT_ERROR:
 					resultado = ValidationResult.RESULT_CERTIFICATE_CANNOT_BE_VALIDATED;
@@ -333,40 +309,26 @@ public class AFirmaCertificateValidationService implements CertificateValidation
 		}
 		
 		//-- Obtener los campos
-		try {
-			XPathExpression expr = xpath.compile("//*[local-name()='ResultadoProcesamiento']/*[local-name()='InfoCertificado']/*[local-name()='Campo']");
-			NodeList fieldNodes = (NodeList) expr.evaluate (doc, XPathConstants.NODESET);
-			for (int i=0;i<fieldNodes.getLength();i++) {
-				Node fieldNode = fieldNodes.item(i);
-				String nombre = fieldNode.getChildNodes().item(0).getTextContent();
-				String valor = fieldNode.getChildNodes().item(1).getTextContent();
-				campos.put(nombre, valor);
-			}
-			logger.debug("[AFirmaCertificateValidationService.validate]::Se han obtenido " + campos.size() + " campos");
-
-		} catch (Exception e) {
-			logger.info("[AFirmaCertificateValidationService.validate]::Error obteniendo los campos del XML de respuesta", e);
-		}
+		campos = response.getFields();
+		logger.debug("[AFirmaCertificateValidationService.validate]::Se han obtenido " + campos.size() + " campos");
 		
 		//-- Obtener la respuesta OCSP
-		try {
-			XPathExpression expr = xpath.compile("//*[local-name()='ResultadoProcesamiento']/*[local-name()='ResultadoValidacion']/*[local-name()='ValidacionEstado']/*[local-name()='InfoMetodoVerificacion']/*[local-name()='tokenOCSP']");
-			Node node = (Node) expr.evaluate (doc, XPathConstants.NODE);
-			if (node != null) {
-				logger.debug("[AFirmaCertificateValidationService.validate]::Existe la respuesta OCSP dentro de la respuesta de @Firma");
+		String tokenOCSP = response.getOcspToken();
+		if (tokenOCSP != null) {
+			logger.debug("[AFirmaCertificateValidationService.validate]::Existe la respuesta OCSP dentro de la respuesta de @Firma");
+			try {
 				try {
-					respuestaOCSP = new OCSPResponse(Util.decodeBase64(node.getTextContent()));
+					respuestaOCSP = new OCSPResponse(Util.decodeBase64(tokenOCSP));
 				} catch (Exception e) {
 					//-- Tal vez est devolviendo el basicOcspResponse
-					ASN1Sequence responseBytes = new DERSequence(new ASN1Encodable[] { new ASN1ObjectIdentifier("1.3.6.1.5.5.7.48.1.1"), new DEROctetString(Util.decodeBase64(node.getTextContent())) });
+					ASN1Sequence responseBytes = new DERSequence(new ASN1Encodable[] { new ASN1ObjectIdentifier("1.3.6.1.5.5.7.48.1.1"), new DEROctetString(Util.decodeBase64(tokenOCSP)) });
 					DERTaggedObject taggedObject = new DERTaggedObject(true, 0, responseBytes);
 					ASN1Sequence sequence = new DERSequence(new ASN1Encodable[] { new ASN1Enumerated(0), taggedObject });
 					respuestaOCSP = new OCSPResponse(sequence.getEncoded());
 				}
+			} catch (Exception e) {
+				logger.info("[AFirmaCertificateValidationService.validate]::Error obteniendo la respuesta OCSP", e);
 			}
-
-		} catch (Exception e) {
-			logger.info("[AFirmaCertificateValidationService.validate]::Error obteniendo la respuesta OCSP", e);
 		}
 
 		//-- Devolver resultado
@@ -410,5 +372,46 @@ public class AFirmaCertificateValidationService implements CertificateValidation
 		}
 	}
 
+	//-- Mtodos privados
+	
+	/*
+	 * Trata una respuesta de error de @Firma: si es porque no se trata el certificado 
+	 * (COD_066) o no se trata para el ID de aplicacin (COD_063) o el tipo de certificado
+	 * se encuentra deshabilitado (COD_064) el certificado es desconocido. En otro caso 
+	 * lanza una excepcin con el cdigo y la descripcin del error.
+	 */
+	private CertificateValidationServiceResult getErrorResult (String codigoError, String descripcion) throws ServiceException {
+		if (codigoError.indexOf("COD_066") > -1 || codigoError.indexOf("COD_063") > -1 || codigoError.indexOf("COD_064") > -1) {
+			logger.debug("[AFirmaCertificateValidationService.getErrorResult]::El certificado es desconocido");
+			return new CertificateValidationServiceResult(ValidationResult.RESULT_CERTIFICATE_UNKNOWN, new HashMap<String, Object>());
+		}
+		logger.info("[AFirmaCertificateValidationService.getErrorResult]::La respuesta de @Firma es de error");
+		throw new ServiceException(codigoError + " - " + descripcion);
+	}
+	
+	/*
+	 * Obtiene del texto de la respuesta el contenido de un elemento del XML de error,
+	 * que puede venir escapado dentro de la respuesta SOAP o sin escapar. Devuelve una 
+	 * cadena vaca si no lo encuentra.
+	 */
+	private static String getErrorElement (StringBuffer respuesta, String element) {
+		int start = respuesta.indexOf(element + "&gt;");
+		if (start > -1) {
+			start += element.length() + 4;
+		} else {
+			start = respuesta.indexOf(element + ">");
+			if (start == -1) {
+				return "";
+			}
+			start += element.length() + 1;
+		}
+		
+		int end = respuesta.indexOf("&lt;", start);
+		int endRaw = respuesta.indexOf("<", start);
+		if (end == -1 || (endRaw > -1 && endRaw < end)) {
+			end = endRaw;
+		}
+		return end == -1 ? "" : respuesta.substring(start, end).trim();
+	}
 
 }
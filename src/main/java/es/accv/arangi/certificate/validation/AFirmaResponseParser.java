@@ -0,0 +1,385 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.validation;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Lee la respuesta del servicio ValidarCertificado de &#64;Firma. La respuesta SOAP
+ * lleva el XML del resultado escapado como texto del elemento ValidarCertificadoReturn:
+ * el texto se va pasando, ya desescapado por el parser de la respuesta, a un segundo
+ * parser que lee el XML del resultado. Ambos son StAX y se recorren una sola vez, sin
+ * construir el XML del resultado como cadena ni como DOM.<br><br>
+ *
+ * Slo se guardan los valores que usa {@link AFirmaCertificateValidationService
+ * AFirmaCertificateValidationService}, tal cual aparecen en el XML: es el servicio
+ * quien los interpreta. Como con las expresiones XPath a las que sustituye, de cada
+ * valor se guarda la primera aparicin.
+ */
+final class AFirmaResponseParser {
+
+	/*
+	 * Elemento de la respuesta SOAP que contiene el XML del resultado
+	 */
+	private static final String RETURN_ELEMENT = "ValidarCertificadoReturn";
+
+	/*
+	 * Rutas (nombres locales) de los elementos que se leen. Igual que en las
+	 * expresiones XPath //a/b/c, el primer elemento puede estar a cualquier profundidad.
+	 */
+	private static final String[] PATH_RESULT = new String[] { "ResultadoProcesamiento", "ResultadoValidacion", "resultado" };
+	private static final String[] PATH_REVOCATION_DATE = new String[] { "InfoMetodoVerificacion", "fechaRevocacion" };
+	private static final String[] PATH_REVOCATION_REASON = new String[] { "InfoMetodoVerificacion", "motivo" };
+	private static final String[] PATH_FIELD = new String[] { "ResultadoProcesamiento", "InfoCertificado", "Campo" };
+	private static final String[] PATH_OCSP = new String[] { "ResultadoProcesamiento", "ResultadoValidacion", "ValidacionEstado", "InfoMetodoVerificacion", "tokenOCSP" };
+	private static final String[] PATH_ERROR_CODE = new String[] { "codigoError" };
+	private static final String[] PATH_ERROR_DESCRIPTION = new String[] { "descripcion" };
+
+	/*
+	 * Factora de parsers. Una vez configurada puede compartirse entre hilos.
+	 */
+	private static final XMLInputFactory inputFactory;
+	static {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/*
+	 * Valores ledos
+	 */
+	private boolean payload;
+	private String result;
+	private String revocationDate;
+	private String revocationReason;
+	private String ocspToken;
+	private String errorCode;
+	private String errorDescription;
+	private Map<String, Object> fields = new HashMap<String, Object>();
+
+	/*
+	 * Elementos abiertos
+	 */
+	private String[] path = new String[16];
+	private int depth;
+
+	/*
+	 * Constructor privado: se obtiene con parse
+	 */
+	private AFirmaResponseParser () {
+	}
+
+	/**
+	 * Lee una respuesta del servicio ValidarCertificado
+	 *
+	 * @param response Respuesta SOAP
+	 * @return Valores de la respuesta
+	 * @throws XMLStreamException La respuesta o el XML del resultado no estn bien formados
+	 */
+	static AFirmaResponseParser parse (StringBuffer response) throws XMLStreamException {
+		AFirmaResponseParser parser = new AFirmaResponseParser();
+
+		XMLStreamReader soap = inputFactory.createXMLStreamReader(new StringBufferReader(response));
+		try {
+			while (soap.hasNext()) {
+				if (soap.next() == XMLStreamConstants.START_ELEMENT && RETURN_ELEMENT.equals(soap.getLocalName())) {
+					parser.payload = true;
+					XMLStreamReader payload = inputFactory.createXMLStreamReader(new ElementTextReader(soap));
+					try {
+						parser.read(payload);
+					} finally {
+						payload.close();
+					}
+					break;
+				}
+			}
+		} finally {
+			soap.close();
+		}
+
+		return parser;
+	}
+
+	/**
+	 * @return Cierto si la respuesta contiene el XML del resultado
+	 */
+	boolean hasPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return Cdigo de resultado de la validacin o nulo si no aparece
+	 */
+	String getResult() {
+		return result;
+	}
+
+	/**
+	 * @return Fecha de revocacin, en el formato de &#64;Firma, o nulo si no aparece
+	 */
+	String getRevocationDate() {
+		return revocationDate;
+	}
+
+	/**
+	 * @return Motivo de revocacin o nulo si no aparece
+	 */
+	String getRevocationReason() {
+		return revocationReason;
+	}
+
+	/**
+	 * @return Respuesta OCSP en base64 o nulo si no aparece
+	 */
+	String getOcspToken() {
+		return ocspToken;
+	}
+
+	/**
+	 * @return Cdigo de error o nulo si la respuesta no es de error
+	 */
+	String getErrorCode() {
+		return errorCode;
+	}
+
+	/**
+	 * @return Descripcin del error o nulo si no aparece
+	 */
+	String getErrorDescription() {
+		return errorDescription;
+	}
+
+	/**
+	 * @return Campos del certificado (nombre - valor)
+	 */
+	Map<String, Object> getFields() {
+		return fields;
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Recorre el XML del resultado guardando los valores
+	 */
+	private void read (XMLStreamReader reader) throws XMLStreamException {
+		int fieldDepth = -1;
+		String fieldName = null;
+		String fieldValue = null;
+		int fieldChildren = 0;
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				push(reader.getLocalName());
+
+				if (fieldDepth > -1 && depth == fieldDepth + 1) {
+					//-- Hijos de un campo: el primero es el nombre y el segundo el valor
+					String text = readText(reader);
+					if (fieldChildren == 0) {
+						fieldName = text;
+					} else if (fieldChildren == 1) {
+						fieldValue = text;
+					}
+					fieldChildren++;
+				} else if (result == null && matches(PATH_RESULT)) {
+					result = readText(reader);
+				} else if (revocationDate == null && matches(PATH_REVOCATION_DATE)) {
+					revocationDate = readText(reader);
+				} else if (revocationReason == null && matches(PATH_REVOCATION_REASON)) {
+					revocationReason = readText(reader);
+				} else if (ocspToken == null && matches(PATH_OCSP)) {
+					ocspToken = readText(reader);
+				} else if (errorCode == null && matches(PATH_ERROR_CODE)) {
+					errorCode = readText(reader);
+				} else if (errorDescription == null && matches(PATH_ERROR_DESCRIPTION)) {
+					errorDescription = readText(reader);
+				} else if (fieldDepth == -1 && matches(PATH_FIELD)) {
+					fieldDepth = depth;
+					fieldName = null;
+					fieldValue = null;
+					fieldChildren = 0;
+					continue;
+				} else {
+					continue;
+				}
+
+				//-- readText ha consumido el final del elemento
+				depth--;
+
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				if (depth == fieldDepth) {
+					if (fieldName != null) {
+						fields.put(fieldName, fieldValue);
+					}
+					fieldDepth = -1;
+				}
+				depth--;
+			}
+		}
+	}
+
+	/*
+	 * Obtiene el texto de un elemento y de sus descendientes (como getTextContent
+	 * en DOM). Termina posicionado en el final del elemento.
+	 */
+	private static String readText (XMLStreamReader reader) throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		int level = 1;
+		while (level > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				level++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				level--;
+			} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+					event == XMLStreamConstants.SPACE) {
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			}
+		}
+		return text.toString();
+	}
+
+	/*
+	 * Aade un elemento a la ruta de elementos abiertos
+	 */
+	private void push (String localName) {
+		if (depth == path.length) {
+			String[] newPath = new String[path.length * 2];
+			System.arraycopy(path, 0, newPath, 0, depth);
+			path = newPath;
+		}
+		path[depth++] = localName;
+	}
+
+	/*
+	 * Indica si la ruta de elementos abiertos termina con la indicada
+	 */
+	private boolean matches (String[] expected) {
+		if (depth < expected.length) {
+			return false;
+		}
+		for (int i = 0; i < expected.length; i++) {
+			if (!expected[expected.length - 1 - i].equals(path[depth - 1 - i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//-- Clases privadas
+
+	/*
+	 * Lectura de un StringBuffer sin copiarlo a una cadena
+	 */
+	private static class StringBufferReader extends Reader {
+
+		StringBuffer buffer;
+		int position;
+
+		StringBufferReader (StringBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int read(char[] cbuf, int off, int len) {
+			if (position >= buffer.length()) {
+				return -1;
+			}
+			int count = Math.min(len, buffer.length() - position);
+			buffer.getChars(position, position + count, cbuf, off);
+			position += count;
+			return count;
+		}
+
+		public void close() {
+		}
+	}
+
+	/*
+	 * Lectura del texto de un elemento a medida que lo va entregando el parser,
+	 * ya desescapado. Se salta el espacio en blanco inicial para que el XML empiece
+	 * por su declaracin.
+	 */
+	private static class ElementTextReader extends Reader {
+
+		XMLStreamReader reader;
+		char[] chars;
+		int start;
+		int end;
+		boolean started;
+		boolean finished;
+
+		ElementTextReader (XMLStreamReader reader) {
+			this.reader = reader;
+		}
+
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			while (start >= end) {
+				if (finished) {
+					return -1;
+				}
+				nextText();
+			}
+			int count = Math.min(len, end - start);
+			System.arraycopy(chars, start, cbuf, off, count);
+			start += count;
+			return count;
+		}
+
+		public void close() {
+		}
+
+		/*
+		 * Avanza hasta el siguiente fragmento de texto o hasta el final del elemento
+		 */
+		private void nextText () throws IOException {
+			try {
+				int event = reader.next();
+				if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT) {
+					finished = true;
+				} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+						event == XMLStreamConstants.SPACE) {
+					//-- El array es del parser: slo es vlido hasta la siguiente llamada a next
+					chars = reader.getTextCharacters();
+					start = reader.getTextStart();
+					end = start + reader.getTextLength();
+					if (!started) {
+						while (start < end && Character.isWhitespace(chars[start])) {
+							start++;
+						}
+						started = start < end;
+					}
+				}
+			} catch (XMLStreamException e) {
+				throw new IOException ("Error leyendo el XML del resultado", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,434 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.validation;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.certificate.validation.CertificateValidationService;
+import es.accv.arangi.base.certificate.validation.CertificateValidationServiceResult;
+import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
+import es.accv.arangi.base.exception.certificate.validation.ServiceException;
+import es.accv.arangi.base.exception.certificate.validation.ServiceNotFoundException;
+import es.accv.arangi.base.util.validation.ValidationResult;
+import es.accv.arangi.certificate.CertificateCache;
+
+/**
+ * Servicio de validacin que guarda en cach los resultados de otro servicio (por
+ * ejemplo {@link AFirma6CertificateValidationService AFirma6CertificateValidationService}),
+ * de modo que validar de nuevo el mismo certificado no vuelve a llamar al servicio.
+ * Los resultados se indexan por la huella SHA-256 del certificado.<br><br>
+ *
+ * Cada resultado se guarda un tiempo que depende de su tipo:
+ * <ul>
+ * 	<li>Vlido: hasta el nextUpdate de la respuesta OCSP del certificado, si la
+ * 	tiene, sin pasar de la caducidad del certificado y como mucho el tiempo mximo 
+ * 	indicado en el constructor.</li>
+ * 	<li>Revocado: no caduca (una revocacin no tiene vuelta atrs), salvo que el
+ * 	motivo sea una suspensin (certificateHold), que se guarda como un vlido.</li>
+ * 	<li>Cualquier otro resultado: {@link #setNegativeTimeToLive(long) poco tiempo}.</li>
+ * 	<li>Errores del servicio (ServiceNotFoundException, ServiceException): 
+ * 	{@link #setErrorTimeToLive(long) todava menos}, para no saturar un servicio
+ * 	que est fallando sin dejar de reintentar pronto.</li>
+ * </ul>
+ * 
+ * La cach est limitada por nmero de entradas; cuando se supera se eliminan las
+ * usadas hace ms tiempo. Las validaciones con parmetros extra no se guardan en
+ * cach, porque el resultado puede depender de ellos.<br><br>
+ * 
+ * Los resultados devueltos se comparten entre todos los que validen el mismo 
+ * certificado, por lo que no deben modificarse.
+ */
+public class CachingCertificateValidationService implements CertificateValidationService {
+
+	/**
+	 * Tiempo por defecto que se guardan los resultados que no son ni vlidos ni
+	 * revocados (milisegundos)
+	 */
+	public static final long DEFAULT_NEGATIVE_TTL = 60 * 1000L;
+	
+	/**
+	 * Tiempo por defecto que se guardan los errores del servicio (milisegundos)
+	 */
+	public static final long DEFAULT_ERROR_TTL = 5 * 1000L;
+	
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(CachingCertificateValidationService.class);
+	
+	/*
+	 * Servicio que realiza las validaciones
+	 */
+	private CertificateValidationService service;
+	
+	/*
+	 * Nmero mximo de entradas
+	 */
+	private int maxEntries;
+	
+	/*
+	 * Tiempos de vida (milisegundos)
+	 */
+	private long maxTimeToLive;
+	private volatile long negativeTimeToLive = DEFAULT_NEGATIVE_TTL;
+	private volatile long errorTimeToLive = DEFAULT_ERROR_TTL;
+	
+	/*
+	 * Contadores para las estadsticas
+	 */
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private long expirationCount;
+	
+	/*
+	 * Entradas, en orden de acceso
+	 */
+	private LinkedHashMap<String, CacheEntry> hmEntries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param service Servicio que realiza las validaciones
+	 * @param maxEntries Nmero mximo de resultados en la cach
+	 * @param maxTimeToLive Tiempo mximo que se guarda un resultado vlido (milisegundos)
+	 */
+	public CachingCertificateValidationService (CertificateValidationService service, int maxEntries, long maxTimeToLive) {
+		if (maxEntries <= 0 || maxTimeToLive <= 0) {
+			throw new IllegalArgumentException ("Los lmites de la cach han de ser mayores que cero");
+		}
+		this.service = service;
+		this.maxEntries = maxEntries;
+		this.maxTimeToLive = maxTimeToLive;
+	}
+	
+	/**
+	 * Valida un certificado. Si el resultado est en la cach y no ha caducado se
+	 * devuelve sin llamar al servicio.
+	 * 
+	 * @param certificate Certificado a validar
+	 * @param extraParams Parmetros extra. Si no est vaco no se usa la cach.
+	 * @return Resultado de la validacin
+	 * @throws ServiceNotFoundException El servicio no se encuentra disponible
+	 * @throws ServiceException La llamada al servicio devuelve un error
+	 */
+	public CertificateValidationServiceResult validate(Certificate certificate, Map<String, Object> extraParams) 
+			throws ServiceNotFoundException, ServiceException {
+		
+		if (extraParams != null && !extraParams.isEmpty()) {
+			return service.validate(certificate, extraParams);
+		}
+		
+		String fingerprint;
+		try {
+			fingerprint = CertificateCache.fingerprint(certificate.toDER());
+		} catch (NormalizeCertificateException e) {
+			//-- El certificado ya se normaliz al entrar, no se dar el error
+			logger.info ("[CachingCertificateValidationService.validate]", e);
+			return service.validate(certificate, extraParams);
+		}
+		
+		CacheEntry entry = get(fingerprint);
+		if (entry != null) {
+			return entry.getResult();
+		}
+		
+		CertificateValidationServiceResult result;
+		try {
+			result = service.validate(certificate, extraParams);
+		} catch (ServiceNotFoundException e) {
+			put(fingerprint, new CacheEntry(null, e, errorTimeToLive));
+			throw e;
+		} catch (ServiceException e) {
+			put(fingerprint, new CacheEntry(null, e, errorTimeToLive));
+			throw e;
+		}
+		put(fingerprint, new CacheEntry(result, null, getTimeToLive(certificate, result)));
+		return result;
+	}
+	
+	/**
+	 * Elimina de la cach el resultado de un certificado
+	 * 
+	 * @param certificate Certificado
+	 */
+	public void invalidate (Certificate certificate) {
+		try {
+			String fingerprint = CertificateCache.fingerprint(certificate.toDER());
+			synchronized (this) {
+				hmEntries.remove(fingerprint);
+			}
+		} catch (NormalizeCertificateException e) {
+			logger.info ("[CachingCertificateValidationService.invalidate]", e);
+		}
+	}
+	
+	/**
+	 * Elimina todas las entradas de la cach. No modifica las estadsticas.
+	 */
+	public synchronized void clear () {
+		hmEntries.clear();
+	}
+	
+	/**
+	 * Establece el tiempo que se guardan los resultados que no son ni vlidos ni
+	 * revocados. Por defecto {@link #DEFAULT_NEGATIVE_TTL}.
+	 * 
+	 * @param negativeTimeToLive Tiempo (milisegundos). Con 0 no se guardan.
+	 */
+	public void setNegativeTimeToLive (long negativeTimeToLive) {
+		this.negativeTimeToLive = negativeTimeToLive;
+	}
+	
+	/**
+	 * Establece el tiempo que se guardan los errores del servicio. Por defecto
+	 * {@link #DEFAULT_ERROR_TTL}.
+	 * 
+	 * @param errorTimeToLive Tiempo (milisegundos). Con 0 no se guardan.
+	 */
+	public void setErrorTimeToLive (long errorTimeToLive) {
+		this.errorTimeToLive = errorTimeToLive;
+	}
+	
+	/**
+	 * @return Nmero de resultados en la cach (incluidos los caducados que an
+	 * 	no se han eliminado)
+	 */
+	public synchronized int size () {
+		return hmEntries.size();
+	}
+	
+	/**
+	 * @return Nmero de veces que se ha encontrado un resultado en la cach
+	 */
+	public synchronized long getHitCount () {
+		return hitCount;
+	}
+
+	/**
+	 * @return Nmero de veces que no se ha encontrado un resultado en la cach
+	 * 	(o estaba caducado)
+	 */
+	public synchronized long getMissCount () {
+		return missCount;
+	}
+
+	/**
+	 * @return Nmero de entradas eliminadas por superar el lmite de la cach
+	 */
+	public synchronized long getEvictionCount () {
+		return evictionCount;
+	}
+
+	/**
+	 * @return Nmero de entradas eliminadas por haber caducado
+	 */
+	public synchronized long getExpirationCount () {
+		return expirationCount;
+	}
+
+	/**
+	 * @return Proporcin de validaciones que han encontrado el resultado (entre 0 y 1)
+	 */
+	public synchronized double getHitRate () {
+		long total = hitCount + missCount;
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	/**
+	 * Pone a cero las estadsticas
+	 */
+	public synchronized void resetStatistics () {
+		hitCount = 0;
+		missCount = 0;
+		evictionCount = 0;
+		expirationCount = 0;
+	}
+
+	public synchronized String toString () {
+		return "CachingCertificateValidationService [entries=" + hmEntries.size() + "/" + maxEntries + ", hits=" + hitCount + 
+			", misses=" + missCount + ", evictions=" + evictionCount + ", expirations=" + expirationCount + "]";
+	}
+
+	//-- Mtodos privados
+	
+	/*
+	 * Obtiene una entrada que no haya caducado
+	 */
+	private synchronized CacheEntry get (String fingerprint) {
+		CacheEntry entry = hmEntries.get(fingerprint);
+		if (entry != null && entry.expiration <= System.currentTimeMillis()) {
+			hmEntries.remove(fingerprint);
+			expirationCount++;
+			entry = null;
+		}
+		if (entry == null) {
+			missCount++;
+		} else {
+			hitCount++;
+		}
+		return entry;
+	}
+	
+	/*
+	 * Aade una entrada, eliminando las ms antiguas si es necesario
+	 */
+	private synchronized void put (String fingerprint, CacheEntry entry) {
+		if (entry.expiration <= System.currentTimeMillis()) {
+			return;
+		}
+		hmEntries.put(fingerprint, entry);
+		for (Iterator<Entry<String, CacheEntry>> iterator = hmEntries.entrySet().iterator();
+				iterator.hasNext() && hmEntries.size() > maxEntries;) {
+			iterator.next();
+			iterator.remove();
+			evictionCount++;
+		}
+	}
+	
+	/*
+	 * Obtiene el tiempo que se guarda un resultado
+	 */
+	private long getTimeToLive (Certificate certificate, CertificateValidationServiceResult result) {
+		SingleResp response = getSingleResponse(certificate, result);
+		switch (result.getResult()) {
+		case ValidationResult.RESULT_CERTIFICATE_REVOKED:
+			if (isOnHold(result, response)) {
+				//-- Una suspensin puede levantarse: se guarda como un resultado vlido
+				return getValidTimeToLive(certificate, response);
+			}
+			return Long.MAX_VALUE;
+		case ValidationResult.RESULT_VALID:
+			return getValidTimeToLive(certificate, response);
+		default:
+			return negativeTimeToLive;
+		}
+	}
+	
+	/*
+	 * Tiempo que se guarda un resultado vlido: hasta el nextUpdate de la respuesta
+	 * OCSP y la caducidad del certificado, y como mucho el tiempo mximo
+	 */
+	private long getValidTimeToLive (Certificate certificate, SingleResp response) {
+		long now = System.currentTimeMillis();
+		long timeToLive = maxTimeToLive;
+		if (response != null && response.getNextUpdate() != null) {
+			timeToLive = Math.min(timeToLive, response.getNextUpdate().getTime() - now);
+		}
+		Date validityPeriodEnd = certificate.getValidityPeriodEnd();
+		if (validityPeriodEnd != null) {
+			timeToLive = Math.min(timeToLive, validityPeriodEnd.getTime() - now);
+		}
+		return timeToLive;
+	}
+	
+	/*
+	 * Indica si la revocacin es una suspensin (certificateHold)
+	 */
+	private static boolean isOnHold (CertificateValidationServiceResult result, SingleResp response) {
+		if (result.getRevocationReason() == CRLReason.certificateHold) {
+			return true;
+		}
+		if (response != null && response.getCertStatus() instanceof RevokedStatus) {
+			RevokedStatus status = (RevokedStatus) response.getCertStatus();
+			return status.hasRevocationReason() && status.getRevocationReason() == CRLReason.certificateHold;
+		}
+		return false;
+	}
+	
+	/*
+	 * Obtiene la respuesta OCSP del resultado que corresponde al certificado (mismo 
+	 * nmero de serie y mismo hash del nombre del emisor), o nulo si no la tiene
+	 */
+	private static SingleResp getSingleResponse (Certificate certificate, CertificateValidationServiceResult result) {
+		if (result.getOcspResponse() == null) {
+			return null;
+		}
+		try {
+			BasicOCSPResp basicResponse = result.getOcspResponse().getBasicOCSPResponse();
+			SingleResp[] responses = basicResponse == null ? null : basicResponse.getResponses();
+			if (responses == null) {
+				return null;
+			}
+			byte[] issuerName = certificate.toX509CertificateHolder().getIssuer().getEncoded();
+			DigestCalculatorProvider digestProvider = new JcaDigestCalculatorProviderBuilder().build();
+			for (SingleResp response : responses) {
+				CertificateID id = response.getCertID();
+				if (!id.getSerialNumber().equals(certificate.getSerialNumberBigInteger())) {
+					continue;
+				}
+				DigestCalculator digest = digestProvider.get(new AlgorithmIdentifier(id.getHashAlgOID()));
+				digest.getOutputStream().write(issuerName);
+				if (Arrays.equals(digest.getDigest(), id.getIssuerNameHash())) {
+					return response;
+				}
+			}
+			logger.info("[CachingCertificateValidationService.getSingleResponse]::La respuesta OCSP no contiene el certificado " + certificate.getSerialNumber());
+			return null;
+		} catch (Exception e) {
+			logger.info("[CachingCertificateValidationService.getSingleResponse]::No se puede leer la respuesta OCSP", e);
+			return null;
+		}
+	}
+	
+	/*
+	 * Entrada de la cach: un resultado o un error
+	 */
+	private static class CacheEntry {
+		CertificateValidationServiceResult result;
+		Exception exception;
+		long expiration;
+		
+		CacheEntry (CertificateValidationServiceResult result, Exception exception, long timeToLive) {
+			this.result = result;
+			this.exception = exception;
+			long now = System.currentTimeMillis();
+			this.expiration = timeToLive > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeToLive;
+		}
+		
+		CertificateValidationServiceResult getResult () throws ServiceNotFoundException, ServiceException {
+			if (exception instanceof ServiceNotFoundException) {
+				throw (ServiceNotFoundException) exception;
+			}
+			if (exception instanceof ServiceException) {
+				throw (ServiceException) exception;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.validation;
+
+import es.accv.arangi.base.certificate.validation.CertificateValidationServiceResult;
+
+/**
+ * Receptor del resultado de una validacin asncrona (ver
+ * {@link AFirma6CertificateValidationService#validateAsync(es.accv.arangi.base.certificate.Certificate, java.util.Map, long, CertificateValidationListener)
+ * AFirma6CertificateValidationService.validateAsync}). Se llama desde el hilo que
+ * ha realizado la validacin, por lo que no debe bloquearse.
+ */
+public interface CertificateValidationListener {
+
+	/**
+	 * Recibe el resultado de la validacin
+	 *
+	 * @param result Resultado
+	 */
+	public void onResult (CertificateValidationServiceResult result);
+
+	/**
+	 * Recibe el error producido al validar: normalmente una ServiceNotFoundException
+	 * (el servicio no est disponible, no ha respondido a tiempo o hay demasiadas
+	 * validaciones en curso) o una ServiceException (la llamada devuelve un error).
+	 *
+	 * @param exception Error
+	 */
+	public void onError (Exception exception);
+
+}
@@ -0,0 +1,239 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.validation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.certificate.validation.CertificateValidationService;
+import es.accv.arangi.base.certificate.validation.CertificateValidationServiceResult;
+import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
+import es.accv.arangi.base.exception.certificate.validation.ServiceException;
+import es.accv.arangi.base.exception.certificate.validation.ServiceNotFoundException;
+import es.accv.arangi.certificate.CertificateCache;
+
+/**
+ * Servicio de validacin que agrupa las validaciones simultneas de un mismo
+ * certificado: si mientras se est validando un certificado llegan otras peticiones
+ * para el mismo certificado y los mismos parmetros, no se vuelve a llamar al
+ * servicio sino que todas esperan a la llamada en curso y obtienen su resultado (o
+ * su error).<br><br>
+ * 
+ * Slo agrupa las peticiones simultneas: en cuanto la llamada termina, la siguiente
+ * peticin vuelve a llamar al servicio. Para reutilizar los resultados durante ms
+ * tiempo se puede combinar con {@link CachingCertificateValidationService 
+ * CachingCertificateValidationService}, colocando ste por fuera:<br><br>
+ * 
+ * <code>
+ * new CachingCertificateValidationService(new CoalescingCertificateValidationService(servicio), 10000, 3600000)
+ * </code><br><br>
+ * 
+ * El nmero de peticiones que se han ahorrado se puede consultar con 
+ * {@link #getDuplicateCount()}. Los resultados se comparten entre todas las peticiones
+ * agrupadas, por lo que no deben modificarse.
+ */
+public class CoalescingCertificateValidationService implements CertificateValidationService {
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(CoalescingCertificateValidationService.class);
+	
+	/*
+	 * Servicio que realiza las validaciones
+	 */
+	private CertificateValidationService service;
+	
+	/*
+	 * Llamadas en curso
+	 */
+	private ConcurrentMap<RequestKey, Call> hmCalls = new ConcurrentHashMap<RequestKey, Call>();
+	
+	/*
+	 * Contadores para las estadsticas
+	 */
+	private AtomicLong requestCount = new AtomicLong();
+	private AtomicLong duplicateCount = new AtomicLong();
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param service Servicio que realiza las validaciones
+	 */
+	public CoalescingCertificateValidationService (CertificateValidationService service) {
+		this.service = service;
+	}
+	
+	/**
+	 * Valida un certificado. Si ya hay una validacin en curso del mismo certificado
+	 * con los mismos parmetros, espera a que termine y devuelve su resultado.
+	 * 
+	 * @param certificate Certificado a validar
+	 * @param extraParams Parmetros extra por si fueran necesarios para 
+	 * 	realizar la validacin
+	 * @return Resultado de la validacin
+	 * @throws ServiceNotFoundException El servicio no se encuentra disponible
+	 * @throws ServiceException La llamada al servicio devuelve un error
+	 */
+	public CertificateValidationServiceResult validate(Certificate certificate, Map<String, Object> extraParams) 
+			throws ServiceNotFoundException, ServiceException {
+		
+		requestCount.incrementAndGet();
+		
+		RequestKey key;
+		try {
+			key = new RequestKey(CertificateCache.fingerprint(certificate.toDER()), extraParams);
+		} catch (NormalizeCertificateException e) {
+			//-- El certificado ya se normaliz al entrar, no se dar el error
+			logger.info ("[CoalescingCertificateValidationService.validate]", e);
+			return service.validate(certificate, extraParams);
+		}
+		
+		Call call = new Call();
+		Call current = hmCalls.putIfAbsent(key, call);
+		if (current != null) {
+			//-- Ya hay una llamada en curso: esperar su resultado
+			duplicateCount.incrementAndGet();
+			return current.await();
+		}
+		
+		try {
+			call.result = service.validate(certificate, extraParams);
+		} catch (Exception e) {
+			call.exception = e;
+		} finally {
+			if (call.result == null && call.exception == null) {
+				//-- Error grave en la llamada: los que esperan no pueden quedarse sin respuesta
+				call.exception = new ServiceException("La validacin ha terminado de forma inesperada");
+			}
+			hmCalls.remove(key, call);
+			call.latch.countDown();
+		}
+		return call.getResult();
+	}
+	
+	/**
+	 * @return Nmero de validaciones pedidas
+	 */
+	public long getRequestCount () {
+		return requestCount.get();
+	}
+	
+	/**
+	 * @return Nmero de validaciones que no han llamado al servicio porque haba
+	 * 	otra igual en curso
+	 */
+	public long getDuplicateCount () {
+		return duplicateCount.get();
+	}
+	
+	/**
+	 * @return Nmero de llamadas al servicio en curso
+	 */
+	public int getInFlightCount () {
+		return hmCalls.size();
+	}
+	
+	/**
+	 * Pone a cero las estadsticas
+	 */
+	public void resetStatistics () {
+		requestCount.set(0);
+		duplicateCount.set(0);
+	}
+	
+	public String toString () {
+		return "CoalescingCertificateValidationService [requests=" + requestCount.get() + ", duplicates=" + duplicateCount.get() + 
+			", inFlight=" + hmCalls.size() + "]";
+	}
+	
+	//-- Clases privadas
+	
+	/*
+	 * Identificador de una peticin: certificado y parmetros
+	 */
+	private static class RequestKey {
+		String fingerprint;
+		Map<String, Object> params;
+		
+		RequestKey (String fingerprint, Map<String, Object> params) {
+			this.fingerprint = fingerprint;
+			this.params = params == null || params.isEmpty() ? null : new HashMap<String, Object>(params);
+		}
+		
+		public int hashCode() {
+			return fingerprint.hashCode() * 31 + (params == null ? 0 : params.hashCode());
+		}
+		
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RequestKey)) {
+				return false;
+			}
+			RequestKey other = (RequestKey) obj;
+			return fingerprint.equals(other.fingerprint) && (params == null ? other.params == null : params.equals(other.params));
+		}
+	}
+	
+	/*
+	 * Llamada en curso
+	 */
+	private static class Call {
+		CountDownLatch latch = new CountDownLatch(1);
+		volatile CertificateValidationServiceResult result;
+		volatile Exception exception;
+		
+		/*
+		 * Espera a que termine la llamada y devuelve su resultado
+		 */
+		CertificateValidationServiceResult await () throws ServiceNotFoundException, ServiceException {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceNotFoundException("Se ha interrumpido la espera del resultado de la validacin", e);
+			}
+			return getResult();
+		}
+		
+		/*
+		 * Devuelve el resultado o lanza el error de la llamada
+		 */
+		CertificateValidationServiceResult getResult () throws ServiceNotFoundException, ServiceException {
+			if (exception instanceof ServiceNotFoundException) {
+				throw (ServiceNotFoundException) exception;
+			}
+			if (exception instanceof ServiceException) {
+				throw (ServiceException) exception;
+			}
+			if (exception instanceof RuntimeException) {
+				throw (RuntimeException) exception;
+			}
+			return result;
+		}
+	}
+}
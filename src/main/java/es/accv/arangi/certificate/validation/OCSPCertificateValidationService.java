@@ -0,0 +1,668 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.validation;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.certificate.validation.CAList;
+import es.accv.arangi.base.certificate.validation.CertificateOCSPResponse;
+import es.accv.arangi.base.certificate.validation.CertificateValidationService;
+import es.accv.arangi.base.certificate.validation.CertificateValidationServiceResult;
+import es.accv.arangi.base.certificate.validation.OCSPClient;
+import es.accv.arangi.base.certificate.validation.OCSPResponse;
+import es.accv.arangi.base.certificate.validation.ValidationXML;
+import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
+import es.accv.arangi.base.exception.certificate.validation.ServiceException;
+import es.accv.arangi.base.exception.certificate.validation.ServiceNotFoundException;
+import es.accv.arangi.base.util.validation.ValidationResult;
+import es.accv.arangi.certificate.CertificateCache;
+import es.accv.arangi.util.ArangiUtil;
+import es.accv.arangi.util.BBDDCerts;
+
+/**
+ * Servicio de validacin que consulta directamente a los OCSP de las CAs, sin pasar
+ * por &#64;Firma.<br><br>
+ * 
+ * <ul>
+ * 	<li><b>Cadena</b>: se construye y se comprueba en local con la lista de CAs
+ * 	(por defecto la compartida de Arang, {@link ArangiUtil#getACCVCaList()}, cuyos
+ * 	emisores se buscan en los ndices de {@link BBDDCerts BBDDCerts}): firma de
+ * 	cada certificado y periodo de validez de las CAs.</li>
+ * 	<li><b>OCSP</b>: se consultan los OCSP que el fichero de validacin de la lista
+ * 	(validation_data_accv.xml en la lista compartida) indica para la CA emisora, en
+ * 	el orden del fichero. Si la CA no aparece en el fichero se usan los de la
+ * 	extensin AIA del certificado. Si un OCSP no responde, o su respuesta no es 
+ * 	vlida, se pasa al siguiente, y durante {@link #setResponderRetryTime(long) 
+ * 	un tiempo} se deja para el final.</li>
+ * 	<li><b>Respuesta</b>: ha de estar firmada por la CA emisora o por un certificado
+ * 	de respuesta OCSP (id-kp-OCSPSigning) emitido por ella, y ha de estar vigente: 
+ * 	su thisUpdate no puede ser futuro ni, si no hay nextUpdate, anterior al 
+ * 	{@link #setMaxTimeToLive(long) tiempo mximo}; si hay nextUpdate no puede haber
+ * 	pasado. Se admite un margen de {@link #CLOCK_SKEW} por diferencias de reloj.</li>
+ * 	<li><b>Cach</b>: cada respuesta OCSP se guarda hasta su nextUpdate (como mucho
+ * 	{@link #setMaxTimeToLive(long) el tiempo mximo}); las de revocacin durante el
+ * 	tiempo mximo, salvo las suspensiones (certificateHold), que se pueden levantar y
+ * 	se guardan como las de certificado vlido. La cadena se sigue comprobando en cada
+ * 	validacin.</li>
+ * </ul>
+ * 
+ * Slo se consulta el estado del certificado, no el de sus CAs, igual que en la 
+ * validacin de &#64;Firma. El resultado no lleva campos del certificado.
+ */
+public class OCSPCertificateValidationService implements CertificateValidationService {
+
+	/**
+	 * Nmero mximo por defecto de respuestas en la cach
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	
+	/**
+	 * Tiempo mximo por defecto que se guarda una respuesta (milisegundos)
+	 */
+	public static final long DEFAULT_MAX_TIME_TO_LIVE = 3600000;
+	
+	/**
+	 * Tiempo por defecto que un OCSP que ha fallado pasa al final de la lista 
+	 * (milisegundos)
+	 */
+	public static final long DEFAULT_RESPONDER_RETRY_TIME = 60000;
+	
+	/**
+	 * Diferencia de reloj admitida con los OCSP al comprobar la vigencia de sus
+	 * respuestas (milisegundos)
+	 */
+	public static final long CLOCK_SKEW = 5 * 60 * 1000;
+	
+	/*
+	 * Longitud mxima de una cadena de certificacin
+	 */
+	private static final int MAX_CHAIN_LENGTH = 10;
+	
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(OCSPCertificateValidationService.class);
+	
+	/*
+	 * CAs de confianza y fichero de validacin
+	 */
+	private CAList caList;
+	
+	/*
+	 * Versin del almacn de CAs de Arang de la que sale la lista, o nulo si la 
+	 * lista se ha pasado en el constructor
+	 */
+	private BBDDCerts.Snapshot trustStore;
+	
+	/*
+	 * Cach de respuestas (ordenada por uso)
+	 */
+	private LinkedHashMap<String, CacheEntry> hmEntries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private volatile long maxTimeToLive = DEFAULT_MAX_TIME_TO_LIVE;
+	
+	/*
+	 * OCSP que han fallado y momento hasta el que se dejan para el final
+	 */
+	private ConcurrentHashMap<String, Long> hmFailedResponders = new ConcurrentHashMap<String, Long>();
+	private volatile long responderRetryTime = DEFAULT_RESPONDER_RETRY_TIME;
+	
+	/*
+	 * Contadores para las estadsticas
+	 */
+	private long hitCount;
+	private long missCount;
+	
+	/**
+	 * Constructor que usa la lista de CAs compartida de Arang, con los OCSP de
+	 * validation_data_accv.xml
+	 * 
+	 * @throws IllegalStateException No se puede cargar la lista de CAs
+	 */
+	public OCSPCertificateValidationService () {
+		this(ArangiUtil.getACCVCaList());
+		
+		//-- La lista compartida es la de la versin actual del almacn: sus
+		//-- emisores se obtienen de los ndices del almacn
+		BBDDCerts.Snapshot snapshot = BBDDCerts.getInstance().getSnapshot();
+		try {
+			if (snapshot.getCAList() == caList) {
+				trustStore = snapshot;
+			}
+		} catch (Exception e) {
+			//-- No se dar: la lista ya se ha construido
+			logger.info ("[OCSPCertificateValidationService]::No se puede obtener la lista del almacn de CAs", e);
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param caList CAs de confianza. Si tiene fichero de validacin, los OCSP de 
+	 * 	cada CA se obtienen de l.
+	 */
+	public OCSPCertificateValidationService (CAList caList) {
+		if (caList == null) {
+			throw new IllegalStateException ("No se puede cargar la lista de CAs");
+		}
+		this.caList = caList;
+	}
+	
+	/**
+	 * Valida un certificado: comprueba su cadena con la lista de CAs y su estado
+	 * con los OCSP de la CA emisora.
+	 * 
+	 * @param certificate Certificado a validar
+	 * @param extraParams No se usa
+	 * @return Resultado de la validacin con la respuesta OCSP
+	 * @throws ServiceNotFoundException Ningn OCSP ha respondido
+	 * @throws ServiceException No hay ningn OCSP para la CA emisora
+	 */
+	public CertificateValidationServiceResult validate(Certificate certificate, Map<String, Object> extraParams) 
+			throws ServiceNotFoundException, ServiceException {
+		
+		logger.debug("[OCSPCertificateValidationService.validate]::Entrada::" + Arrays.asList(new Object[] { certificate, extraParams }));
+		
+		X509Certificate x509 = certificate.toX509Certificate();
+		
+		//-- Periodo de validez
+		try {
+			x509.checkValidity();
+		} catch (CertificateExpiredException e) {
+			return new CertificateValidationServiceResult(ValidationResult.RESULT_CERTIFICATE_NOT_ACTIVE, new HashMap<String, Object>());
+		} catch (CertificateNotYetValidException e) {
+			return new CertificateValidationServiceResult(ValidationResult.RESULT_CERTIFICATE_NOT_ACTIVE, new HashMap<String, Object>());
+		}
+		
+		//-- Cadena
+		X509Certificate issuer = getCACertificate(x509);
+		if (issuer == null) {
+			logger.debug("[OCSPCertificateValidationService.validate]::La CA emisora no est en la lista::" + certificate.getIssuerDN());
+			return new CertificateValidationServiceResult(ValidationResult.RESULT_CERTIFICATE_NOT_BELONGS_TRUSTED_CAS, new HashMap<String, Object>());
+		}
+		int chainResult = checkChain(x509, issuer);
+		if (chainResult != ValidationResult.RESULT_VALID) {
+			return new CertificateValidationServiceResult(chainResult, new HashMap<String, Object>());
+		}
+		
+		//-- Estado
+		String fingerprint;
+		try {
+			fingerprint = CertificateCache.fingerprint(certificate.toDER());
+		} catch (NormalizeCertificateException e) {
+			//-- El certificado ya se normaliz al entrar, no se dar el error
+			logger.info ("[OCSPCertificateValidationService.validate]", e);
+			fingerprint = null;
+		}
+		CacheEntry entry = fingerprint == null ? null : get(fingerprint);
+		if (entry == null) {
+			entry = query(certificate, issuer);
+			if (fingerprint != null && entry.expiration > System.currentTimeMillis()) {
+				put(fingerprint, entry);
+			}
+		}
+		
+		CertificateValidationServiceResult result = new CertificateValidationServiceResult(entry.status, new HashMap<String, Object>());
+		result.setOcspResponse(entry.response);
+		if (entry.status == ValidationResult.RESULT_CERTIFICATE_REVOKED) {
+			result.setRevocationDate(entry.revocationTime);
+			result.setRevocationReason(entry.revocationReason);
+		}
+		return result;
+	}
+	
+	/**
+	 * Obtiene el nmero mximo de respuestas en la cach
+	 * 
+	 * @return Nmero mximo de respuestas
+	 */
+	public synchronized int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Establece el nmero mximo de respuestas en la cach. Cuando se supera se 
+	 * eliminan las usadas hace ms tiempo. Por defecto {@link #DEFAULT_MAX_ENTRIES}.
+	 * 
+	 * @param maxEntries Nmero mximo de respuestas
+	 */
+	public synchronized void setMaxEntries(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException ("El nmero mximo de respuestas ha de ser mayor que cero");
+		}
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Obtiene el tiempo mximo que se guarda una respuesta
+	 * 
+	 * @return Tiempo mximo (milisegundos)
+	 */
+	public long getMaxTimeToLive() {
+		return maxTimeToLive;
+	}
+
+	/**
+	 * Establece el tiempo mximo que se guarda una respuesta, aunque su nextUpdate 
+	 * sea posterior. Por defecto {@link #DEFAULT_MAX_TIME_TO_LIVE}.
+	 * 
+	 * @param maxTimeToLive Tiempo mximo (milisegundos)
+	 */
+	public void setMaxTimeToLive(long maxTimeToLive) {
+		if (maxTimeToLive <= 0) {
+			throw new IllegalArgumentException ("El tiempo mximo ha de ser mayor que cero");
+		}
+		this.maxTimeToLive = maxTimeToLive;
+	}
+
+	/**
+	 * Obtiene el tiempo que un OCSP que ha fallado pasa al final de la lista
+	 * 
+	 * @return Tiempo (milisegundos)
+	 */
+	public long getResponderRetryTime() {
+		return responderRetryTime;
+	}
+
+	/**
+	 * Establece el tiempo que un OCSP que ha fallado pasa al final de la lista. 
+	 * Por defecto {@link #DEFAULT_RESPONDER_RETRY_TIME}.
+	 * 
+	 * @param responderRetryTime Tiempo (milisegundos)
+	 */
+	public void setResponderRetryTime(long responderRetryTime) {
+		if (responderRetryTime <= 0) {
+			throw new IllegalArgumentException ("El tiempo ha de ser mayor que cero");
+		}
+		this.responderRetryTime = responderRetryTime;
+	}
+	
+	/**
+	 * Vaca la cach
+	 */
+	public synchronized void clear () {
+		hmEntries.clear();
+	}
+	
+	/**
+	 * @return Nmero de respuestas en la cach
+	 */
+	public synchronized int size () {
+		return hmEntries.size();
+	}
+	
+	/**
+	 * @return Nmero de validaciones que han usado una respuesta de la cach
+	 */
+	public synchronized long getHitCount () {
+		return hitCount;
+	}
+	
+	/**
+	 * @return Nmero de validaciones que han consultado a un OCSP
+	 */
+	public synchronized long getMissCount () {
+		return missCount;
+	}
+	
+	/**
+	 * Pone a cero las estadsticas
+	 */
+	public synchronized void resetStatistics () {
+		hitCount = 0;
+		missCount = 0;
+	}
+	
+	public synchronized String toString () {
+		return "OCSPCertificateValidationService [entries=" + hmEntries.size() + "/" + maxEntries + ", hits=" + hitCount + 
+			", misses=" + missCount + ", failedResponders=" + hmFailedResponders.keySet() + "]";
+	}
+	
+	//-- Mtodos privados
+	
+	/*
+	 * Comprueba la cadena desde el emisor del certificado hasta una raz de la lista:
+	 * la firma de cada certificado y el periodo de validez de las CAs
+	 */
+	private int checkChain (X509Certificate certificate, X509Certificate issuer) {
+		X509Certificate current = certificate;
+		X509Certificate ca = issuer;
+		for (int i = 0; i < MAX_CHAIN_LENGTH; i++) {
+			try {
+				current.verify(ca.getPublicKey());
+			} catch (GeneralSecurityException e) {
+				logger.info("[OCSPCertificateValidationService.checkChain]::La firma de '" + current.getSubjectX500Principal() + 
+						"' no corresponde a '" + ca.getSubjectX500Principal() + "'", e);
+				return ValidationResult.RESULT_CERTIFICATE_CHAIN_VALIDATION_INVALID;
+			}
+			try {
+				ca.checkValidity();
+			} catch (GeneralSecurityException e) {
+				logger.info("[OCSPCertificateValidationService.checkChain]::La CA '" + ca.getSubjectX500Principal() + "' no est en su periodo de validez");
+				return ValidationResult.RESULT_CERTIFICATE_CHAIN_VALIDATION_INVALID;
+			}
+			
+			if (ca.getSubjectX500Principal().equals(ca.getIssuerX500Principal())) {
+				//-- Raz: basta con que se firme a s misma
+				try {
+					ca.verify(ca.getPublicKey());
+					return ValidationResult.RESULT_VALID;
+				} catch (GeneralSecurityException e) {
+					logger.info("[OCSPCertificateValidationService.checkChain]::La raz '" + ca.getSubjectX500Principal() + "' no est autofirmada", e);
+					return ValidationResult.RESULT_CERTIFICATE_CHAIN_VALIDATION_INVALID;
+				}
+			}
+			
+			current = ca;
+			ca = getCACertificate(current);
+			if (ca == null) {
+				logger.debug("[OCSPCertificateValidationService.checkChain]::La CA emisora de '" + current.getSubjectX500Principal() + "' no est en la lista");
+				return ValidationResult.RESULT_CERTIFICATE_NOT_BELONGS_TRUSTED_CAS;
+			}
+		}
+		
+		logger.info("[OCSPCertificateValidationService.checkChain]::La cadena de '" + certificate.getSubjectX500Principal() + "' es demasiado larga");
+		return ValidationResult.RESULT_CERTIFICATE_CHAIN_VALIDATION_INVALID;
+	}
+	
+	/*
+	 * Obtiene la CA emisora de un certificado: de los ndices del almacn si la lista
+	 * es la compartida y, si no, de la lista
+	 */
+	private X509Certificate getCACertificate (X509Certificate certificate) {
+		if (trustStore != null) {
+			return trustStore.getIssuer(certificate);
+		}
+		return caList.getCACertificate(certificate);
+	}
+	
+	/*
+	 * Consulta el estado del certificado a los OCSP de la CA emisora, pasando al 
+	 * siguiente si uno no responde o su respuesta no es vlida. Una respuesta de
+	 * estado desconocido se devuelve si ningn otro OCSP da una mejor.
+	 */
+	private CacheEntry query (Certificate certificate, X509Certificate issuer) throws ServiceNotFoundException, ServiceException {
+		List<OCSPClient> responders = getResponders(certificate);
+		if (responders.isEmpty()) {
+			throw new ServiceException("No hay ningn OCSP para la CA '" + certificate.getIssuerDN() + "'");
+		}
+		
+		Certificate issuerCertificate;
+		try {
+			issuerCertificate = new Certificate(issuer);
+		} catch (NormalizeCertificateException e) {
+			throw new ServiceException("No se puede normalizar el certificado de la CA '" + certificate.getIssuerDN() + "'", e);
+		}
+		
+		synchronized (this) {
+			missCount++;
+		}
+		
+		CacheEntry unknown = null;
+		Exception lastError = null;
+		for (OCSPClient responder : responders) {
+			String url = String.valueOf(responder.getURL());
+			try {
+				OCSPResponse response = responder.getOCSPResponse(certificate, issuerCertificate);
+				if (!isSignedByIssuer(response, issuer)) {
+					throw new ServiceException("La firma de la respuesta del OCSP " + url + " no es vlida");
+				}
+				CertificateOCSPResponse singleResponse = null;
+				for (CertificateOCSPResponse candidate : response.getSingleResponses()) {
+					if (matches(candidate, certificate.toX509Certificate(), issuer)) {
+						singleResponse = candidate;
+						break;
+					}
+				}
+				if (singleResponse == null) {
+					throw new ServiceException("La respuesta del OCSP " + url + " no contiene el estado del certificado");
+				}
+				if (!isCurrent(singleResponse)) {
+					throw new ServiceException("La respuesta del OCSP " + url + " no est vigente (thisUpdate=" + 
+							singleResponse.getValidityPeriodBeginning() + ", nextUpdate=" + singleResponse.getValidityPeriodEnd() + ")");
+				}
+				
+				hmFailedResponders.remove(url);
+				CacheEntry entry = new CacheEntry(response, singleResponse, maxTimeToLive);
+				if (entry.status != ValidationResult.RESULT_CERTIFICATE_UNKNOWN) {
+					return entry;
+				}
+				logger.debug("[OCSPCertificateValidationService.query]::El OCSP " + url + " no conoce el certificado");
+				if (unknown == null) {
+					unknown = entry;
+				}
+			} catch (Exception e) {
+				logger.info("[OCSPCertificateValidationService.query]::El OCSP " + url + " no ha respondido correctamente", e);
+				hmFailedResponders.put(url, System.currentTimeMillis() + responderRetryTime);
+				lastError = e;
+			}
+		}
+		
+		if (unknown != null) {
+			return unknown;
+		}
+		throw new ServiceNotFoundException("Ningn OCSP de la CA '" + certificate.getIssuerDN() + "' ha respondido", lastError);
+	}
+	
+	/*
+	 * Indica si la respuesta est firmada por la CA emisora o por un certificado de
+	 * respuesta OCSP que ella ha emitido y que se encuentra en la respuesta
+	 */
+	private static boolean isSignedByIssuer (OCSPResponse response, X509Certificate issuer) throws Exception {
+		BasicOCSPResp basicResponse = response.getBasicOCSPResponse();
+		if (basicResponse == null) {
+			return false;
+		}
+		if (basicResponse.isSignatureValid(new JcaContentVerifierProviderBuilder().build(issuer.getPublicKey()))) {
+			return true;
+		}
+		
+		X509CertificateHolder[] certificates = basicResponse.getCerts();
+		if (certificates == null) {
+			return false;
+		}
+		for (X509CertificateHolder holder : certificates) {
+			X509Certificate signer = new JcaX509CertificateConverter().getCertificate(holder);
+			if (!signer.getIssuerX500Principal().equals(issuer.getSubjectX500Principal())) {
+				continue;
+			}
+			try {
+				signer.verify(issuer.getPublicKey());
+				signer.checkValidity();
+			} catch (GeneralSecurityException e) {
+				logger.info("[OCSPCertificateValidationService.isSignedByIssuer]::El certificado '" + signer.getSubjectX500Principal() + 
+						"' de la respuesta no es vlido o no lo ha emitido '" + issuer.getSubjectX500Principal() + "'", e);
+				continue;
+			}
+			List<String> extendedKeyUsage = signer.getExtendedKeyUsage();
+			if (extendedKeyUsage == null || !extendedKeyUsage.contains(KeyPurposeId.id_kp_OCSPSigning.getId())) {
+				logger.info("[OCSPCertificateValidationService.isSignedByIssuer]::El certificado '" + signer.getSubjectX500Principal() + 
+						"' de la respuesta no es de respuesta OCSP");
+				continue;
+			}
+			if (basicResponse.isSignatureValid(new JcaContentVerifierProviderBuilder().build(holder))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/*
+	 * Indica si la respuesta est vigente: su thisUpdate no es futuro y no ha pasado
+	 * su nextUpdate o, si no tiene, el tiempo mximo desde su thisUpdate
+	 */
+	private boolean isCurrent (CertificateOCSPResponse singleResponse) {
+		long now = System.currentTimeMillis();
+		Date thisUpdate = singleResponse.getValidityPeriodBeginning();
+		if (thisUpdate == null || thisUpdate.getTime() > now + CLOCK_SKEW) {
+			return false;
+		}
+		Date nextUpdate = singleResponse.getValidityPeriodEnd();
+		if (nextUpdate != null) {
+			return nextUpdate.getTime() + CLOCK_SKEW >= now;
+		}
+		return thisUpdate.getTime() + maxTimeToLive + CLOCK_SKEW >= now;
+	}
+	
+	/*
+	 * Indica si una respuesta es la del certificado: mismo nmero de serie y mismo
+	 * emisor (hash de su nombre y de su clave, con el algoritmo de la respuesta)
+	 */
+	private static boolean matches (CertificateOCSPResponse singleResponse, X509Certificate certificate, X509Certificate issuer) {
+		CertificateID id = singleResponse.getCertificateID();
+		if (!certificate.getSerialNumber().equals(id.getSerialNumber())) {
+			return false;
+		}
+		try {
+			return id.matchesIssuer(new JcaX509CertificateHolder(issuer), new JcaDigestCalculatorProviderBuilder().build());
+		} catch (Exception e) {
+			logger.info("[OCSPCertificateValidationService.matches]::No se puede comparar el emisor de la respuesta OCSP", e);
+			return false;
+		}
+	}
+	
+	/*
+	 * Obtiene los OCSP de la CA emisora: los del fichero de validacin o, si no 
+	 * aparece en l, los del certificado. Los que han fallado hace poco van al final.
+	 */
+	private List<OCSPClient> getResponders (Certificate certificate) {
+		List<OCSPClient> responders = new ArrayList<OCSPClient>();
+		ValidationXML validationXML = caList.getValidationXML();
+		if (validationXML != null) {
+			String issuerName = certificate.getIssuerCommonName();
+			List<?> list = validationXML.getOCSPList(issuerName != null ? issuerName : certificate.getIssuerDN());
+			if (list != null) {
+				for (Object responder : list) {
+					responders.add((OCSPClient) responder);
+				}
+			}
+		}
+		if (responders.isEmpty()) {
+			OCSPClient[] certificateResponders = certificate.getOCSPClients();
+			if (certificateResponders != null) {
+				responders.addAll(Arrays.asList(certificateResponders));
+			}
+		}
+		
+		long now = System.currentTimeMillis();
+		List<OCSPClient> failed = new ArrayList<OCSPClient>();
+		for (Iterator<OCSPClient> iterator = responders.iterator(); iterator.hasNext();) {
+			OCSPClient responder = iterator.next();
+			Long failedUntil = hmFailedResponders.get(String.valueOf(responder.getURL()));
+			if (failedUntil != null && failedUntil > now) {
+				iterator.remove();
+				failed.add(responder);
+			}
+		}
+		responders.addAll(failed);
+		return responders;
+	}
+	
+	/*
+	 * Obtiene una respuesta de la cach o nulo si no est o ha caducado
+	 */
+	private synchronized CacheEntry get (String fingerprint) {
+		CacheEntry entry = hmEntries.get(fingerprint);
+		if (entry != null && entry.expiration <= System.currentTimeMillis()) {
+			hmEntries.remove(fingerprint);
+			entry = null;
+		}
+		if (entry != null) {
+			hitCount++;
+		}
+		return entry;
+	}
+	
+	/*
+	 * Guarda una respuesta en la cach, eliminando las usadas hace ms tiempo si se
+	 * supera el mximo
+	 */
+	private synchronized void put (String fingerprint, CacheEntry entry) {
+		hmEntries.put(fingerprint, entry);
+		for (Iterator<String> iterator = hmEntries.keySet().iterator(); 
+				iterator.hasNext() && hmEntries.size() > maxEntries;) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+	
+	//-- Clases privadas
+	
+	/*
+	 * Respuesta OCSP de un certificado y momento hasta el que se puede usar
+	 */
+	private static class CacheEntry {
+		OCSPResponse response;
+		int status;
+		Date revocationTime;
+		int revocationReason;
+		long expiration;
+		
+		CacheEntry (OCSPResponse response, CertificateOCSPResponse singleResponse, long maxTimeToLive) {
+			this.response = response;
+			this.status = singleResponse.getStatus();
+			
+			long now = System.currentTimeMillis();
+			boolean onHold = false;
+			if (status == ValidationResult.RESULT_CERTIFICATE_REVOKED) {
+				this.revocationTime = singleResponse.getRevocationTime();
+				this.revocationReason = singleResponse.getRevocationReason();
+				onHold = revocationReason == CRLReason.certificateHold;
+			}
+			
+			if (status == ValidationResult.RESULT_CERTIFICATE_REVOKED && !onHold) {
+				//-- Una revocacin definitiva no tiene vuelta atrs
+				this.expiration = now + maxTimeToLive;
+			} else if ((status == ValidationResult.RESULT_VALID || onHold) && singleResponse.getValidityPeriodEnd() != null) {
+				//-- Un certificado vlido se puede revocar y una suspensin se puede levantar:
+				//-- slo se guardan hasta el nextUpdate
+				this.expiration = Math.min(now + maxTimeToLive, singleResponse.getValidityPeriodEnd().getTime());
+			} else {
+				//-- Sin nextUpdate o estado desconocido: no se guarda
+				this.expiration = now;
+			}
+		}
+	}
+}
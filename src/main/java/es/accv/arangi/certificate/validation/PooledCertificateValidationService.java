@@ -0,0 +1,744 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.certificate.validation;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.certificate.validation.CertificateValidationService;
+import es.accv.arangi.base.certificate.validation.CertificateValidationServiceResult;
+import es.accv.arangi.base.exception.certificate.validation.ServiceException;
+import es.accv.arangi.base.exception.certificate.validation.ServiceNotFoundException;
+
+/**
+ * Servicio de validacin que reparte las validaciones entre varios servidores de
+ * &#64;Firma (o, en general, entre varios servicios de validacin equivalentes), de
+ * modo que un servidor lento o cado no bloquea las validaciones durante todo el
+ * tiempo mximo de espera.<br><br>
+ * 
+ * <ul>
+ * 	<li><b>Seleccin</b>: cada validacin va a un servidor elegido al azar con una
+ * 	probabilidad inversamente proporcional a su latencia media reciente, por lo que
+ * 	los servidores ms rpidos reciben ms peticiones sin dejar de medir los dems.</li>
+ * 	<li><b>Peticiones duplicadas</b>: si un servidor tarda ms que el percentil 
+ * 	{@link #setHedgePercentile(double) configurado} de las latencias recientes, se
+ * 	lanza la misma validacin en otro servidor y se devuelve la primera respuesta.</li>
+ * 	<li><b>Reintento</b>: si un servidor no est disponible (ServiceNotFoundException)
+ * 	se repite la validacin en otro. Una ServiceException es la respuesta del servicio
+ * 	y se devuelve sin reintentar.</li>
+ * 	<li><b>Circuito</b>: tras {@link #setFailureThreshold(int) varios errores seguidos}
+ * 	un servidor deja de recibir peticiones durante {@link #setOpenTime(long) un tiempo}.
+ * 	Pasado ese tiempo recibe una nica peticin de prueba: si responde vuelve a 
+ * 	usarse y si no se vuelve a apartar. Las respuestas de las peticiones lanzadas 
+ * 	antes de apartarlo no cambian su estado.</li>
+ * </ul>
+ * 
+ * Las validaciones se realizan en un ejecutor propio, de como mucho {@link #DEFAULT_MAX_THREADS}
+ * hilos (ver {@link #setExecutor(ExecutorService)}). Si no quedan hilos libres la 
+ * validacin falla con una ServiceNotFoundException en lugar de crear ms.
+ * Las peticiones que pierden frente a otra no se cancelan: terminan en segundo plano
+ * y su resultado slo se usa para las estadsticas del servidor.
+ */
+public class PooledCertificateValidationService implements CertificateValidationService {
+
+	/**
+	 * Percentil por defecto de las latencias a partir del cual se duplica una peticin
+	 */
+	public static final double DEFAULT_HEDGE_PERCENTILE = 95;
+	
+	/**
+	 * Nmero por defecto de errores seguidos que apartan a un servidor
+	 */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	
+	/**
+	 * Tiempo por defecto que un servidor queda apartado (milisegundos)
+	 */
+	public static final long DEFAULT_OPEN_TIME = 30000;
+	
+	/**
+	 * Nmero mximo de hilos del ejecutor que crea el servicio
+	 */
+	public static final int DEFAULT_MAX_THREADS = 64;
+	
+	/*
+	 * Nmero de latencias recientes que se guardan y nmero mnimo para calcular
+	 * el percentil
+	 */
+	private static final int LATENCY_WINDOW = 256;
+	private static final int MIN_LATENCY_SAMPLES = 20;
+	
+	/*
+	 * Peso de cada nueva latencia en la media de un servidor
+	 */
+	private static final double LATENCY_WEIGHT = 0.2;
+	
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(PooledCertificateValidationService.class);
+	
+	/*
+	 * Servidores
+	 */
+	private Endpoint[] endpoints;
+	
+	/*
+	 * Latencias recientes de todos los servidores
+	 */
+	private LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW);
+	
+	/*
+	 * Configuracin
+	 */
+	private volatile double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+	private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	private volatile long openTime = DEFAULT_OPEN_TIME;
+	
+	/*
+	 * Ejecutor de las peticiones. Se crea la primera vez que se necesita si no se 
+	 * ha establecido uno.
+	 */
+	private ExecutorService executor;
+	private boolean ownExecutor;
+	
+	/*
+	 * Contadores para las estadsticas
+	 */
+	private AtomicLong requestCount = new AtomicLong();
+	private AtomicLong hedgeCount = new AtomicLong();
+	private AtomicLong retryCount = new AtomicLong();
+	
+	private Random random = new Random();
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param services Servicios que realizan las validaciones, uno por servidor
+	 */
+	public PooledCertificateValidationService (List<? extends CertificateValidationService> services) {
+		if (services == null || services.isEmpty()) {
+			throw new IllegalArgumentException ("Es necesario al menos un servicio de validacin");
+		}
+		endpoints = new Endpoint[services.size()];
+		for (int i = 0; i < endpoints.length; i++) {
+			endpoints[i] = new Endpoint(services.get(i));
+		}
+	}
+	
+	/**
+	 * Obtiene un servicio que reparte las validaciones entre varios servidores de
+	 * &#64;Firma6. Todos comparten la aplicacin y la autenticacin.
+	 * 
+	 * @param urls URLs de los servidores de &#64;Firma
+	 * @param idAplicacion ID de la aplicacin en &#64;Firma
+	 * @param user Nombre de usuario para el caso en que se deba realizar la
+	 * 	llamada securizada mediante usuario y contrasea.
+	 * @param password Contrasea para el caso en que se deba realizar la
+	 * 	llamada securizada mediante usuario y contrasea.
+	 * @param configuracionWSS4J Fichero que contiene la informacin de acceso al
+	 * 	certificado que firmar las peticiones que se envan a &#64;Firma
+	 * @return Servicio de validacin
+	 */
+	public static PooledCertificateValidationService forAFirma6 (String[] urls, String idAplicacion, String user, 
+			String password, String configuracionWSS4J) {
+		List<AFirma6CertificateValidationService> services = new ArrayList<AFirma6CertificateValidationService>();
+		for (String url : urls) {
+			services.add(new AFirma6CertificateValidationService(url, idAplicacion, user, password, configuracionWSS4J));
+		}
+		return new PooledCertificateValidationService(services);
+	}
+	
+	/**
+	 * Obtiene un servicio que reparte las validaciones entre varios servidores de
+	 * &#64;Firma (servicio ValidarCertificado). Todos comparten la aplicacin y la
+	 * autenticacin.
+	 * 
+	 * @param urls URLs del servicio en cada servidor
+	 * @param idAplicacion ID de la aplicacin en &#64;Firma
+	 * @param user Nombre de usuario para el caso en que se deba realizar la
+	 * 	llamada securizada mediante usuario y contrasea.
+	 * @param password Contrasea para el caso en que se deba realizar la
+	 * 	llamada securizada mediante usuario y contrasea.
+	 * @return Servicio de validacin
+	 */
+	public static PooledCertificateValidationService forAFirma (URL[] urls, String idAplicacion, String user, String password) {
+		List<AFirmaCertificateValidationService> services = new ArrayList<AFirmaCertificateValidationService>();
+		for (URL url : urls) {
+			services.add(new AFirmaCertificateValidationService(url, idAplicacion, user, password));
+		}
+		return new PooledCertificateValidationService(services);
+	}
+	
+	/**
+	 * Valida un certificado en uno de los servidores, duplicando la peticin si tarda
+	 * demasiado y repitindola en otro servidor si el elegido no est disponible.
+	 * 
+	 * @param certificate Certificado a validar
+	 * @param extraParams Parmetros extra por si fueran necesarios para 
+	 * 	realizar la validacin
+	 * @return Resultado de la validacin
+	 * @throws ServiceNotFoundException Ningn servidor est disponible
+	 * @throws ServiceException La llamada al servicio devuelve un error
+	 */
+	public CertificateValidationServiceResult validate(Certificate certificate, Map<String, Object> extraParams) 
+			throws ServiceNotFoundException, ServiceException {
+		
+		logger.debug("[PooledCertificateValidationService.validate]::Entrada::" + Arrays.asList(new Object[] { certificate, extraParams }));
+		
+		requestCount.incrementAndGet();
+		
+		ExecutorCompletionService<Attempt> completionService = new ExecutorCompletionService<Attempt>(getExecutor());
+		Set<Endpoint> tried = new HashSet<Endpoint>();
+		long hedgeDelay = getHedgeDelay();
+		
+		ServiceNotFoundException lastError = null;
+		int running = 0;
+		if (submit(completionService, certificate, extraParams, tried)) {
+			running++;
+		}
+		while (running > 0) {
+			Future<Attempt> future;
+			try {
+				if (hedgeDelay > 0) {
+					future = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+				} else {
+					future = completionService.take();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceNotFoundException("Se ha interrumpido la espera del resultado de la validacin", e);
+			}
+			
+			if (future == null) {
+				//-- Tarda demasiado: duplicar la peticin en otro servidor (slo una vez)
+				hedgeDelay = 0;
+				if (submit(completionService, certificate, extraParams, tried)) {
+					running++;
+					hedgeCount.incrementAndGet();
+				}
+				continue;
+			}
+			
+			running--;
+			Attempt attempt;
+			try {
+				attempt = future.get();
+			} catch (ExecutionException e) {
+				//-- No se dar: los intentos guardan su error
+				attempt = new Attempt(null, new ServiceNotFoundException("Error en la validacin", e.getCause()));
+			} catch (InterruptedException e) {
+				//-- No se dar: el intento ya ha terminado
+				Thread.currentThread().interrupt();
+				throw new ServiceNotFoundException("Se ha interrumpido la espera del resultado de la validacin", e);
+			}
+			
+			if (attempt.exception == null) {
+				return attempt.result;
+			}
+			if (attempt.exception instanceof ServiceException) {
+				throw (ServiceException) attempt.exception;
+			}
+			lastError = attempt.exception instanceof ServiceNotFoundException ? (ServiceNotFoundException) attempt.exception :
+				new ServiceNotFoundException("Error en la validacin", attempt.exception);
+			
+			//-- Servidor no disponible: si no hay otra peticin en curso, probar en otro
+			if (running == 0 && submit(completionService, certificate, extraParams, tried)) {
+				running++;
+				retryCount.incrementAndGet();
+			}
+		}
+		
+		if (lastError != null) {
+			throw lastError;
+		}
+		throw new ServiceNotFoundException("No hay ningn servidor disponible");
+	}
+	
+	/**
+	 * Obtiene el percentil de las latencias a partir del cual se duplica una peticin
+	 * 
+	 * @return Percentil (0 si no se duplican las peticiones)
+	 */
+	public double getHedgePercentile() {
+		return hedgePercentile;
+	}
+
+	/**
+	 * Establece el percentil de las latencias recientes a partir del cual se duplica
+	 * una peticin en otro servidor. Por defecto {@link #DEFAULT_HEDGE_PERCENTILE}.
+	 * Mientras no hay suficientes latencias medidas no se duplica ninguna peticin.
+	 * 
+	 * @param hedgePercentile Percentil (entre 0 y 100) o 0 para no duplicar nunca
+	 */
+	public void setHedgePercentile(double hedgePercentile) {
+		if (hedgePercentile < 0 || hedgePercentile > 100) {
+			throw new IllegalArgumentException ("El percentil ha de estar entre 0 y 100");
+		}
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	/**
+	 * Obtiene el nmero de errores seguidos que apartan a un servidor
+	 * 
+	 * @return Nmero de errores
+	 */
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	/**
+	 * Establece el nmero de errores seguidos que apartan a un servidor. Por defecto
+	 * {@link #DEFAULT_FAILURE_THRESHOLD}.
+	 * 
+	 * @param failureThreshold Nmero de errores
+	 */
+	public void setFailureThreshold(int failureThreshold) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException ("El nmero de errores ha de ser mayor que cero");
+		}
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * Obtiene el tiempo que un servidor queda apartado antes de la peticin de prueba
+	 * 
+	 * @return Tiempo (milisegundos)
+	 */
+	public long getOpenTime() {
+		return openTime;
+	}
+
+	/**
+	 * Establece el tiempo que un servidor queda apartado antes de la peticin de 
+	 * prueba. Por defecto {@link #DEFAULT_OPEN_TIME}.
+	 * 
+	 * @param openTime Tiempo (milisegundos)
+	 */
+	public void setOpenTime(long openTime) {
+		if (openTime <= 0) {
+			throw new IllegalArgumentException ("El tiempo ha de ser mayor que cero");
+		}
+		this.openTime = openTime;
+	}
+	
+	/**
+	 * Establece el ejecutor de las peticiones. Ha de admitir tantas tareas simultneas
+	 * como peticiones puedan estar en curso (hasta dos por validacin). El ejecutor
+	 * no se cierra en {@link #shutdown()}.
+	 * 
+	 * @param executor Ejecutor o nulo para usar el que crea el servicio
+	 */
+	public synchronized void setExecutor(ExecutorService executor) {
+		if (ownExecutor && this.executor != null) {
+			this.executor.shutdown();
+		}
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+	
+	/**
+	 * Cierra el ejecutor de las peticiones creado por el servicio. Las peticiones en
+	 * curso terminan normalmente.
+	 */
+	public synchronized void shutdown() {
+		if (ownExecutor && executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * @return Nmero de servidores que pueden recibir peticiones (no apartados)
+	 */
+	public int getAvailableCount () {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (Endpoint endpoint : endpoints) {
+			if (endpoint.isAvailable(now)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return Nmero de validaciones pedidas
+	 */
+	public long getRequestCount () {
+		return requestCount.get();
+	}
+	
+	/**
+	 * @return Nmero de peticiones duplicadas por tardar demasiado
+	 */
+	public long getHedgeCount () {
+		return hedgeCount.get();
+	}
+	
+	/**
+	 * @return Nmero de peticiones repetidas en otro servidor por no estar disponible
+	 * 	el elegido
+	 */
+	public long getRetryCount () {
+		return retryCount.get();
+	}
+	
+	/**
+	 * Pone a cero las estadsticas
+	 */
+	public void resetStatistics () {
+		requestCount.set(0);
+		hedgeCount.set(0);
+		retryCount.set(0);
+	}
+	
+	public String toString () {
+		return "PooledCertificateValidationService [requests=" + requestCount.get() + ", hedges=" + hedgeCount.get() + 
+			", retries=" + retryCount.get() + ", endpoints=" + Arrays.asList(endpoints) + "]";
+	}
+	
+	//-- Mtodos privados
+	
+	/*
+	 * Lanza la validacin en un servidor que an no se ha probado. Devuelve falso si
+	 * no queda ninguno disponible.
+	 */
+	private boolean submit (ExecutorCompletionService<Attempt> completionService, final Certificate certificate, 
+			final Map<String, Object> extraParams, Set<Endpoint> tried) {
+		final Reservation reservation = select(tried);
+		if (reservation == null) {
+			return false;
+		}
+		tried.add(reservation.endpoint);
+		try {
+			completionService.submit(new Callable<Attempt>() {
+				public Attempt call() {
+					return reservation.endpoint.validate(certificate, extraParams, reservation.generation);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.info("[PooledCertificateValidationService.validate]::El ejecutor no admite ms peticiones", e);
+			reservation.endpoint.release(reservation.generation);
+			return false;
+		}
+		return true;
+	}
+	
+	/*
+	 * Elige un servidor entre los disponibles que no se han probado, con probabilidad
+	 * inversamente proporcional a su latencia media. Los servidores sin latencias
+	 * medidas tienen la probabilidad del ms rpido, para que empiecen a medirse.
+	 */
+	private Reservation select (Set<Endpoint> tried) {
+		long now = System.currentTimeMillis();
+		List<Endpoint> candidates = new ArrayList<Endpoint>(endpoints.length);
+		for (Endpoint endpoint : endpoints) {
+			if (!tried.contains(endpoint) && endpoint.isAvailable(now)) {
+				candidates.add(endpoint);
+			}
+		}
+		
+		while (!candidates.isEmpty()) {
+			double[] weights = new double[candidates.size()];
+			double maxWeight = 0;
+			for (int i = 0; i < weights.length; i++) {
+				double latency = candidates.get(i).getLatency();
+				weights[i] = latency > 0 ? 1 / latency : -1;
+				maxWeight = Math.max(maxWeight, weights[i]);
+			}
+			double total = 0;
+			for (int i = 0; i < weights.length; i++) {
+				if (weights[i] < 0) {
+					weights[i] = maxWeight > 0 ? maxWeight : 1;
+				}
+				total += weights[i];
+			}
+			
+			double value;
+			synchronized (random) {
+				value = random.nextDouble() * total;
+			}
+			int chosen = weights.length - 1;
+			for (int i = 0; i < weights.length - 1; i++) {
+				value -= weights[i];
+				if (value < 0) {
+					chosen = i;
+					break;
+				}
+			}
+			
+			//-- Puede que otra peticin se haya adelantado (peticin de prueba)
+			Endpoint endpoint = candidates.remove(chosen);
+			int generation = endpoint.acquire(now);
+			if (generation >= 0) {
+				return new Reservation(endpoint, generation);
+			}
+		}
+		return null;
+	}
+	
+	/*
+	 * Tiempo tras el que se duplica una peticin o 0 si no se duplica
+	 */
+	private long getHedgeDelay () {
+		if (hedgePercentile <= 0 || endpoints.length < 2) {
+			return 0;
+		}
+		long delay = latencies.getPercentile(hedgePercentile, MIN_LATENCY_SAMPLES);
+		return delay < 0 ? 0 : Math.max(delay, 1);
+	}
+	
+	/*
+	 * Obtiene el ejecutor de las peticiones, crendolo si es necesario
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(0, DEFAULT_MAX_THREADS, 60, TimeUnit.SECONDS, 
+					new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "arangi-pool-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			ownExecutor = true;
+		}
+		return executor;
+	}
+	
+	//-- Clases privadas
+	
+	/*
+	 * Resultado de una peticin a un servidor
+	 */
+	private static class Attempt {
+		CertificateValidationServiceResult result;
+		Exception exception;
+		
+		Attempt (CertificateValidationServiceResult result, Exception exception) {
+			this.result = result;
+			this.exception = exception;
+		}
+	}
+	
+	/*
+	 * Servidor reservado para una peticin y generacin de su circuito al reservarlo
+	 */
+	private static class Reservation {
+		Endpoint endpoint;
+		int generation;
+		
+		Reservation (Endpoint endpoint, int generation) {
+			this.endpoint = endpoint;
+			this.generation = generation;
+		}
+	}
+	
+	/*
+	 * Servidor: servicio, latencia media y estado del circuito
+	 */
+	private class Endpoint {
+		
+		CertificateValidationService service;
+		
+		//-- Estado del circuito: cerrado (se usa), abierto (apartado hasta openUntil)
+		//-- o semiabierto (pendiente de la peticin de prueba)
+		static final int CLOSED = 0;
+		static final int OPEN = 1;
+		static final int HALF_OPEN = 2;
+		
+		int state = CLOSED;
+		long openUntil;
+		
+		//-- Aumenta cada vez que se abre el circuito: los resultados de las peticiones
+		//-- reservadas en una generacin anterior no cambian el estado
+		int generation;
+		boolean probing;
+		int consecutiveFailures;
+		double latency;
+		
+		Endpoint (CertificateValidationService service) {
+			this.service = service;
+		}
+		
+		/*
+		 * Realiza la validacin y actualiza el estado del servidor
+		 */
+		Attempt validate (Certificate certificate, Map<String, Object> extraParams, int generation) {
+			long start = System.currentTimeMillis();
+			try {
+				CertificateValidationServiceResult result = service.validate(certificate, extraParams);
+				success(System.currentTimeMillis() - start, generation);
+				return new Attempt(result, null);
+			} catch (ServiceException e) {
+				//-- El servidor ha respondido
+				success(System.currentTimeMillis() - start, generation);
+				return new Attempt(null, e);
+			} catch (Exception e) {
+				failure(generation);
+				return new Attempt(null, e);
+			} finally {
+				//-- Aunque se produzca un Error la peticin de prueba deja de estar en curso
+				release(generation);
+			}
+		}
+		
+		/*
+		 * Indica si el servidor puede recibir peticiones
+		 */
+		synchronized boolean isAvailable (long now) {
+			switch (state) {
+				case OPEN:
+					return now >= openUntil;
+				case HALF_OPEN:
+					return !probing;
+				default:
+					return true;
+			}
+		}
+		
+		/*
+		 * Reserva el servidor para una peticin y devuelve la generacin del circuito,
+		 * o -1 si no est disponible. Si est pendiente de la peticin de prueba slo
+		 * la primera lo consigue.
+		 */
+		synchronized int acquire (long now) {
+			if (!isAvailable(now)) {
+				return -1;
+			}
+			if (state != CLOSED) {
+				state = HALF_OPEN;
+				probing = true;
+			}
+			return generation;
+		}
+		
+		/*
+		 * Libera una reserva. Slo la peticin de prueba de la generacin actual
+		 * puede estar en curso.
+		 */
+		synchronized void release (int generation) {
+			if (generation == this.generation) {
+				probing = false;
+			}
+		}
+		
+		synchronized double getLatency () {
+			return latency;
+		}
+		
+		private void success (long elapsed, int generation) {
+			latencies.add(elapsed);
+			synchronized (this) {
+				latency = latency == 0 ? Math.max(elapsed, 1) : latency + LATENCY_WEIGHT * (elapsed - latency);
+				if (generation != this.generation) {
+					//-- Peticin anterior a la apertura del circuito: no lo cierra
+					return;
+				}
+				consecutiveFailures = 0;
+				if (state != CLOSED) {
+					logger.info("[PooledCertificateValidationService]::Se vuelve a usar el servidor " + service);
+				}
+				state = CLOSED;
+				probing = false;
+			}
+		}
+		
+		private synchronized void failure (int generation) {
+			if (generation != this.generation) {
+				return;
+			}
+			consecutiveFailures++;
+			if (state == HALF_OPEN || (state == CLOSED && consecutiveFailures >= failureThreshold)) {
+				logger.info("[PooledCertificateValidationService]::Se aparta el servidor " + service + " durante " + openTime + " ms");
+				state = OPEN;
+				openUntil = System.currentTimeMillis() + openTime;
+				probing = false;
+				this.generation++;
+			}
+		}
+		
+		public synchronized String toString() {
+			return service + " [state=" + (state == CLOSED ? "closed" : state == OPEN ? "open" : "half-open") + 
+				", latency=" + Math.round(latency) + "]";
+		}
+	}
+	
+	/*
+	 * ltimas latencias medidas
+	 */
+	private static class LatencyWindow {
+		
+		long[] samples;
+		int count;
+		int next;
+		
+		LatencyWindow (int size) {
+			samples = new long[size];
+		}
+		
+		synchronized void add (long latency) {
+			samples[next] = latency;
+			next = (next + 1) % samples.length;
+			count = Math.min(count + 1, samples.length);
+		}
+		
+		/*
+		 * Obtiene el percentil indicado o -1 si no hay suficientes latencias
+		 */
+		long getPercentile (double percentile, int minSamples) {
+			long[] sorted;
+			synchronized (this) {
+				if (count < minSamples) {
+					return -1;
+				}
+				sorted = new long[count];
+				System.arraycopy(samples, 0, sorted, 0, count);
+			}
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+		}
+	}
+}
@@ -22,11 +22,19 @@ package es.accv.arangi.util;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.text.SimpleDateFormat;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.log4j.Logger;
 
@@ -59,23 +67,58 @@ public class ArangiUtil {
 	 * Primer lugar donde se buscar�n los ficheros. Este lugar no existe en la librer�a
 	 * y est� hecho para que los usuarios puedan desplegar sus propios ficheros.
 	 */
-	private static final String PRIMARY_FILES_REPOSITORY_PACKAGE	= "es/accv/arangi/resource/user";
+	static final String PRIMARY_FILES_REPOSITORY_PACKAGE	= "es/accv/arangi/resource/user";
 	
 	/*
 	 * Segundo lugar donde se buscar�n los ficheros. Pertenece a la librer�a y ser�a el
 	 * lugar por defecto.
 	 */
-	private static final String SECONDARY_FILES_REPOSITORY_PACKAGE	= "es/accv/arangi/resource/arangi";
+	static final String SECONDARY_FILES_REPOSITORY_PACKAGE	= "es/accv/arangi/resource/arangi";
 	
 	/*
-	 * Tabla que contiene los certificados descargados
+	 * Certificados de CA que se distribuyen con la librera
 	 */
-	private static HashMap<String, X509Certificate> hmCACertificates = new HashMap<String, X509Certificate>();
+	static final String[] BUNDLED_CA_CERTIFICATES = new String[] {
+		"certificate/ACCV-CA1", "certificate/ACCV-CA2", "certificate/ACCV-CA110-SHA1", "certificate/ACCV-CA110-SHA256", 
+		"certificate/ACCV-CA120-SHA1", "certificate/ACCV-CA120-SHA256", "certificate/ACCV-CA130-SHA1", "certificate/ACCV-CA130-SHA256", 
+		"certificate/ACCVCATEST110", "certificate/ACCVCATEST120", "certificate/ACCVCATEST130", "certificate/ACCVRAIZ1", 
+		"certificate/ACDNIE001-SHA2", "certificate/ACDNIE002-SHA2", "certificate/ACDNIE003-SHA2", "certificate/ACDNIE004-SHA2", 
+		"certificate/ACDNIE005-SHA2", "certificate/ACDNIE006-SHA2", "certificate/ACRAIZ-SHA2", "certificate/CAGVA", 
+		"certificate/ROOTEJB4TEST", "certificate/ROOT_CA", "certificate/TEST_CATEST", "certificate/TEST_ROOT_EJBCA", 
+		"certificate/TEST_SUBCA_WINDOWS3"
+	};
+	
+	/*
+	 * Ficheros de validacin que se distribuyen con la librera
+	 */
+	static final String[] BUNDLED_FILES = new String[] {
+		"file/validation_data_accv.xml", "file/validation_data_accv_test.xml", "file/validation_data_dnie.xml"
+	};
+	
+	/*
+	 * Tabla que contiene los certificados descargados. Cada recurso se carga una sola
+	 * vez: si varios hilos lo piden a la vez, uno lo carga y el resto esperan a que
+	 * termine.
+	 */
+	private static ConcurrentHashMap<String, FutureTask<X509Certificate>> hmCACertificates = new ConcurrentHashMap<String, FutureTask<X509Certificate>>();
 	
 	/*
 	 * Tabla que contiene los ficheros descargados
 	 */
-	private static HashMap<String, byte[]> hmFiles = new HashMap<String, byte[]>();
+	private static ConcurrentHashMap<String, FutureTask<byte[]>> hmFiles = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+	
+	/*
+	 * Almacn binario de certificados y ficheros (ver {@link TrustBundle}). Slo se usa
+	 * si se ha indicado su ruta en la propiedad de sistema {@link TrustBundle#TRUST_BUNDLE_PROPERTY}
+	 * o se ha establecido mediante {@link #setTrustBundle(TrustBundle)}.
+	 */
+	private static volatile TrustBundle trustBundle;
+	private static volatile boolean trustBundleInitialized;
+	
+	/*
+	 * Indica que el almacn binario de la propiedad de sistema se ha de volver a generar
+	 */
+	private static boolean trustBundleStale;
 	
 	/**
 	 * Obtiene uno de los certificados de la CA que se encuentran dentro del classpath.
@@ -84,33 +127,37 @@ public class ArangiUtil {
 	 * @return Certificado
 	 * @throws Exception 
 	 */
-	public static X509Certificate loadCertificate (String name) throws CertificateCANotFoundException {
+	public static X509Certificate loadCertificate (final String name) throws CertificateCANotFoundException {
 		
 		logger.debug ("[ArangiUtil.loadCertificate]::Obteniendo el certificado para '" + name + "'");
 		
-		if (hmCACertificates.containsKey(name)) {
-			return hmCACertificates.get(name);
-		}
-		
-	    try {
-	    	//-- Probamos en el primer lugar
-	    	String file = PRIMARY_FILES_REPOSITORY_PACKAGE + "/" + name + ".cer";
-	    	InputStream is = new ArangiUtil().getClass().getClassLoader().getResourceAsStream(file);
-			X509Certificate certificate = Util.getCertificate(is);
-			hmCACertificates.put(name, certificate);
-			return certificate;
+		final TrustBundle bundle = getTrustBundle();
+		try {
+			return load(hmCACertificates, name, new Callable<X509Certificate>() {
+				public X509Certificate call() throws Exception {
+				    try {
+				    	//-- Probamos en el primer lugar
+				    	return getCertificateFromClasspath(PRIMARY_FILES_REPOSITORY_PACKAGE + "/" + name + ".cer");
+					} catch (Exception e) {
+						//-- Si est en el almacn binario no hace falta ir al segundo lugar
+						if (bundle != null && bundle.containsCertificate(name)) {
+							return bundle.getCertificate(name);
+						}
+						
+						//-- Probamos en el segundo lugar
+						try {
+							return getCertificateFromClasspath(SECONDARY_FILES_REPOSITORY_PACKAGE + "/" + name + ".cer");
+						} catch (Exception e2) {
+							logger.info ("[ArangiUtil.loadCertificate]::No se encuentra el certificado '" + name + "'", e2);
+							throw new CertificateCANotFoundException ("No se encuentra el certificado '" + name + "'", e2);
+						}
+					}
+				}
+			});
+		} catch (CertificateCANotFoundException e) {
+			throw e;
 		} catch (Exception e) {
-			//-- Probamos en el segundo lugar
-			try {
-		    	String file = SECONDARY_FILES_REPOSITORY_PACKAGE + "/" + name + ".cer";
-		    	InputStream is = new ArangiUtil().getClass().getClassLoader().getResourceAsStream(file);
-				X509Certificate certificate = Util.getCertificate(is);
-				hmCACertificates.put(name, certificate);
-				return certificate;
-			} catch (Exception e2) {
-				logger.info ("[ArangiUtil.loadCertificate]::No se encuentra el certificado '" + name + "'", e2);
-				throw new CertificateCANotFoundException ("No se encuentra el certificado '" + name + "'", e2);
-			}
+			throw new CertificateCANotFoundException ("No se encuentra el certificado '" + name + "'", e);
 		}
 
 	}
@@ -122,24 +169,30 @@ public class ArangiUtil {
 	 * @return Certificado
 	 * @throws Exception 
 	 */
-	public static X509Certificate loadCertificate (String name, String folderPath) throws CertificateCANotFoundException {
+	public static X509Certificate loadCertificate (final String name, final String folderPath) throws CertificateCANotFoundException {
 		
 		logger.debug ("[ArangiUtil.loadCertificate]::Obteniendo el certificado para '" + name + "'");
 		
-		if (hmCACertificates.containsKey(name)) {
-			return hmCACertificates.get(name);
-		}
-		
-		//-- Probamos en el segundo lugar
 		try {
-	    	String file = folderPath + "/" + name + ".cer";
-	    	InputStream is = new FileInputStream(new File(file));
-			X509Certificate certificate = Util.getCertificate(is);
-			hmCACertificates.put(name, certificate);
-			return certificate;
-		} catch (Exception e2) {
-			logger.info ("[ArangiUtil.loadCertificate]::No se encuentra el certificado '" + name + "'", e2);
-			throw new CertificateCANotFoundException ("No se encuentra el certificado '" + name + "'", e2);
+			return load(hmCACertificates, name, new Callable<X509Certificate>() {
+				public X509Certificate call() throws Exception {
+					InputStream is = null;
+					try {
+				    	String file = folderPath + "/" + name + ".cer";
+				    	is = new FileInputStream(new File(file));
+						return Util.getCertificate(is);
+					} catch (Exception e2) {
+						logger.info ("[ArangiUtil.loadCertificate]::No se encuentra el certificado '" + name + "'", e2);
+						throw new CertificateCANotFoundException ("No se encuentra el certificado '" + name + "'", e2);
+					} finally {
+						close(is);
+					}
+				}
+			});
+		} catch (CertificateCANotFoundException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new CertificateCANotFoundException ("No se encuentra el certificado '" + name + "'", e);
 		}
 
 	}
@@ -152,40 +205,125 @@ public class ArangiUtil {
 	 * @return File Fichero
 	 * @throws ResourceNotLoadedException No se encuentra el fichero o no se puede cargar
 	 */
-	public static byte[] loadFile(String fileName) throws ResourceNotLoadedException {
+	public static byte[] loadFile(final String fileName) throws ResourceNotLoadedException {
 		logger.debug ("[ArangiUtil.loadFile]::Obteniendo el fichero '" + fileName + "'");
 		
-		if (hmFiles.containsKey(fileName)) {
-			return hmFiles.get(fileName);
+		final TrustBundle bundle = getTrustBundle();
+		try {
+			return load(hmFiles, fileName, new Callable<byte[]>() {
+				public byte[] call() throws Exception {
+				    try {
+				    	//-- Probamos en el primer lugar
+				    	return readFromClasspath(PRIMARY_FILES_REPOSITORY_PACKAGE + "/" + fileName);
+					} catch (Exception e) {
+						//-- Si est en el almacn binario no hace falta ir al segundo lugar
+						if (bundle != null && bundle.containsFile(fileName)) {
+							return bundle.getFile(fileName);
+						}
+						
+						//-- Probamos en el segundo lugar
+						try {
+							return readFromClasspath(SECONDARY_FILES_REPOSITORY_PACKAGE + "/" + fileName);
+						} catch (Exception e2) {
+							logger.info ("[ArangiUtil.loadFile]::No se encuentra el fichero '" + fileName + "'", e2);
+							throw new ResourceNotLoadedException ("No se encuentra el fichero '" + fileName + "'", e2);
+						}
+					}
+				}
+			});
+		} catch (ResourceNotLoadedException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ResourceNotLoadedException ("No se encuentra el fichero '" + fileName + "'", e);
+		}
+	}
+	
+	/**
+	 * Carga en paralelo todos los certificados de CA y ficheros de validacin que se
+	 * distribuyen con la librera. Llamando a este mtodo durante el arranque de la
+	 * aplicacin se evita que las primeras peticiones tengan que esperar a que se carguen.
+	 * Los recursos que no se puedan cargar slo se registran en el log.
+	 */
+	public static void preload () {
+		logger.debug ("[ArangiUtil.preload]::Entrada");
+		
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (final String name : BUNDLED_CA_CERTIFICATES) {
+			tasks.add(new Callable<Object>() {
+				public Object call() throws Exception {
+					return loadCertificate(name);
+				}
+			});
+		}
+		for (final String fileName : BUNDLED_FILES) {
+			tasks.add(new Callable<Object>() {
+				public Object call() throws Exception {
+					return loadFile(fileName);
+				}
+			});
 		}
 		
-	    try {
-	    	//-- Probamos en el primer lugar
-	    	String file = PRIMARY_FILES_REPOSITORY_PACKAGE + "/" + fileName;
-	    	InputStream is = new ArangiUtil().getClass().getClassLoader().getResourceAsStream(file);
-	    	byte[] contenido = Util.readStream(is);
-			hmFiles.put(fileName, contenido);
-			return contenido;
-		} catch (Exception e) {
-			//-- Probamos en el segundo lugar
-			try {
-		    	String file = SECONDARY_FILES_REPOSITORY_PACKAGE + "/" + fileName;
-		    	InputStream is = new ArangiUtil().getClass().getClassLoader().getResourceAsStream(file);
-		    	byte[] contenido = Util.readStream(is);
-				hmFiles.put(fileName, contenido);
-				return contenido;
-			} catch (Exception e2) {
-				logger.info ("[ArangiUtil.loadFile]::No se encuentra el fichero '" + fileName + "'", e2);
-				throw new ResourceNotLoadedException ("No se encuentra el fichero '" + fileName + "'", e2);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			for (Future<Object> future : executor.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					logger.info ("[ArangiUtil.preload]::No ha sido posible precargar un recurso", e.getCause());
+				}
 			}
+		} catch (InterruptedException e) {
+			logger.info ("[ArangiUtil.preload]::Se ha interrumpido la precarga de recursos");
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Vaca la cach de certificados y ficheros ledos, de forma que las siguientes
+	 * llamadas a {@link #loadCertificate(String)} y {@link #loadFile(String)} los
+	 * vuelvan a leer. Si el almacn binario se indic en la propiedad de sistema 
+	 * {@link TrustBundle#TRUST_BUNDLE_PROPERTY}, se vuelve a generar en la siguiente
+	 * lectura.
+	 */
+	public static void clearCache () {
+		logger.debug ("[ArangiUtil.clearCache]::Entrada");
+		synchronized (ArangiUtil.class) {
+			trustBundle = null;
+			trustBundleInitialized = false;
+			trustBundleStale = true;
+		}
+		hmCACertificates.clear();
+		hmFiles.clear();
+	}
+
+	/**
+	 * Establece el almacn binario de certificados y ficheros de validacin que se
+	 * consultar antes de buscar los recursos en el classpath. Con valor nulo se
+	 * vuelve a leer siempre del classpath.
+	 * 
+	 * @param bundle Almacn abierto mediante {@link TrustBundle#open(File)}
+	 */
+	public static void setTrustBundle (TrustBundle bundle) {
+		logger.debug ("[ArangiUtil.setTrustBundle]::Entrada");
+		synchronized (ArangiUtil.class) {
+			trustBundle = bundle;
+			trustBundleInitialized = true;
 		}
+		hmCACertificates.clear();
+		hmFiles.clear();
 	}
 
 	/**
 	 * Obtiene la lista de certificados de CA que contiene todos los certificados
 	 * de las CAs de la ACCV, tanto las de explotaci�n como las de test. Adem�s
 	 * incluye un fichero de validaci�n XML que incluye las URLs del OCSP de test
-	 * que no se encuentran dentro de los certificados de test.
+	 * que no se encuentran dentro de los certificados de test.<br><br>
+	 * 
+	 * La lista se construye una sola vez por cada versin de {@link BBDDCerts BBDDCerts}
+	 * y se comparte, por lo que es de slo lectura: aadirle certificados o cambiar su
+	 * fichero de validacin lanza una UnsupportedOperationException.
 	 * 
 	 * @return CAList de la ACCV
 	 */
@@ -193,12 +331,8 @@ public class ArangiUtil {
 		
 		logger.debug ("[ArangiUtil.getACCVCaList]::Entrada");
 		
-		List<X509Certificate> lCACertificates = BBDDCerts.getInstance().getCertificatesCA();
-
 		try {
-			CAList caList = new CAList (lCACertificates);
-			caList.setValidationXML(ArangiUtil.loadFile("file/validation_data_accv.xml"));
-			return caList;
+			return BBDDCerts.getInstance().getCAList();
 		} catch (NormalizeCertificateException e) {
 			logger.info("[ArangiUtil.getACCVCaList]::Alguno de los certificados de la ACCV no est� normalizado", e);
 			return null;
@@ -210,4 +344,120 @@ public class ArangiUtil {
 			return null;
 		}
 	}
+	
+	//-- Mtodos privados
+	
+	/*
+	 * Obtiene un recurso de la tabla o lo carga si no est. Slo un hilo carga cada
+	 * recurso; si la carga falla el recurso se elimina de la tabla para que se pueda
+	 * volver a intentar.
+	 */
+	private static <T> T load (ConcurrentHashMap<String, FutureTask<T>> table, String key, Callable<T> loader) throws Exception {
+		FutureTask<T> task = table.get(key);
+		if (task == null) {
+			FutureTask<T> newTask = new FutureTask<T>(loader);
+			task = table.putIfAbsent(key, newTask);
+			if (task == null) {
+				task = newTask;
+				newTask.run();
+			}
+		}
+		
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			table.remove(key, task);
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+	}
+	
+	/*
+	 * Obtiene el almacn binario. La primera vez lo abre si se ha indicado su ruta en
+	 * la propiedad de sistema. Si el fichero no existe, o no se gener a partir de los
+	 * recursos que hay ahora en el classpath, lo genera.
+	 */
+	private static TrustBundle getTrustBundle () {
+		if (!trustBundleInitialized) {
+			synchronized (ArangiUtil.class) {
+				if (!trustBundleInitialized) {
+					//-- Se marca antes de generarlo: la generacin lee los recursos del classpath
+					trustBundleInitialized = true;
+					trustBundle = null;
+					String path = System.getProperty(TrustBundle.TRUST_BUNDLE_PROPERTY);
+					if (path != null && path.trim().length() > 0) {
+						File file = new File(path.trim());
+						try {
+							TrustBundle bundle = null;
+							if (file.exists() && !trustBundleStale) {
+								bundle = TrustBundle.open(file);
+								if (!bundle.isUpToDate()) {
+									logger.info ("[ArangiUtil.getTrustBundle]::El almacn binario " + file + " no corresponde a los recursos del classpath");
+									bundle = null;
+								}
+							}
+							if (bundle == null) {
+								logger.info ("[ArangiUtil.getTrustBundle]::Generando el almacn binario en " + file);
+								TrustBundle.generate(file);
+								bundle = TrustBundle.open(file);
+							}
+							trustBundleStale = false;
+							trustBundle = bundle;
+						} catch (Exception e) {
+							logger.info ("[ArangiUtil.getTrustBundle]::No se puede usar el almacn binario " + file + ", se leer del classpath", e);
+						}
+					}
+				}
+			}
+		}
+		return trustBundle;
+	}
+	
+	/*
+	 * Lee un certificado del classpath
+	 */
+	private static X509Certificate getCertificateFromClasspath (String path) throws NormalizeCertificateException {
+		InputStream is = ArangiUtil.class.getClassLoader().getResourceAsStream(path);
+		if (is == null) {
+			throw new NormalizeCertificateException ("No existe el recurso '" + path + "'");
+		}
+		try {
+			return Util.getCertificate(is);
+		} finally {
+			close(is);
+		}
+	}
+	
+	/*
+	 * Lee un fichero del classpath
+	 */
+	private static byte[] readFromClasspath (String path) throws IOException {
+		InputStream is = ArangiUtil.class.getClassLoader().getResourceAsStream(path);
+		if (is == null) {
+			throw new IOException ("No existe el recurso '" + path + "'");
+		}
+		try {
+			return Util.readStream(is);
+		} finally {
+			close(is);
+		}
+	}
+	
+	/*
+	 * Cierra un stream sin lanzar excepciones
+	 */
+	private static void close (InputStream is) {
+		if (is != null) {
+			try {
+				is.close();
+			} catch (IOException e) {
+				logger.debug ("[ArangiUtil.close]::No se ha podido cerrar el stream", e);
+			}
+		}
+	}
 }
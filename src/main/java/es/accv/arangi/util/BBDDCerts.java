@@ -4,46 +4,63 @@
  */
 package es.accv.arangi.util;
 
+import java.io.File;
+import java.security.GeneralSecurityException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
 
 import org.apache.log4j.Logger;
 
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.certificate.validation.CAList;
 import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
+import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
+import es.accv.arangi.base.exception.certificate.ValidationXMLException;
+import es.accv.arangi.exception.ResourceNotLoadedException;
 
 /**
  * The Class BBDDCerts.
+ * 
+ * Almacn con los certificados de las CAs de la ACCV y del DNIe. Los certificados se
+ * guardan en una {@link Snapshot versin} inmutable, indexada por SKI y por DN del
+ * sujeto, que obtiene el emisor de un certificado sin recorrer la lista. Cada cambio
+ * crea una versin nueva, por lo que las lecturas no se bloquean y siempre ven un
+ * conjunto coherente de certificados.
  */
 public class BBDDCerts {
 
 	/** The logger. */
 	static Logger logger = Logger.getLogger(BBDDCerts.class);
 
-	/** The instance. */
-	private static BBDDCerts instance;
-
-	/** The certificates CA. */
-	private List<X509Certificate> certificatesCA = new ArrayList<X509Certificate>();
+	/** Versin actual del almacn. */
+	private volatile Snapshot snapshot;
 
 	/**
 	 * Instantiates a new BBDD certs.
 	 */
 	private BBDDCerts() {
 		logger.debug("[BBDDCerts.newInstsance]::Entrada");
+		List<X509Certificate> certificatesCA = new ArrayList<X509Certificate>();
 		try {
 
-			addCaBaltimore();
+			addCaBaltimore(certificatesCA);
 
-			addCaAntigua();
+			addCaAntigua(certificatesCA);
 
-			addCaNueva();
+			addCaNueva(certificatesCA);
 			
-			addCaDNIe();
+			addCaDNIe(certificatesCA);
 
 		} catch (CertificateCANotFoundException e) {
 			logger.info("[BBDDCerts.newInstsance]::No se encuentra alguno de los certificados de la ACCV", e);
 		}
+		snapshot = new Snapshot(1, certificatesCA);
 	}
 
 	/**
@@ -52,19 +69,50 @@ public class BBDDCerts {
 	 * @return single instance of BBDDCerts
 	 */
 	public static BBDDCerts getInstance() {
-		if (instance == null) {
-			instance = new BBDDCerts();
-		}
-		return instance;
+		return Holder.INSTANCE;
 	}
 
 	/**
 	 * Gets the certificates CA.
 	 *
-	 * @return the certificates CA
+	 * @return the certificates CA (lista no modificable)
 	 */
 	public List<X509Certificate> getCertificatesCA() {
-		return certificatesCA;
+		return snapshot.getCertificates();
+	}
+
+	/**
+	 * Obtiene la versin actual del almacn.
+	 *
+	 * @return Versin actual
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Obtiene el nmero de versin del almacn. Cambia cada vez que se aade una CA.
+	 *
+	 * @return Nmero de versin
+	 */
+	public long getVersion() {
+		return snapshot.getVersion();
+	}
+
+	/**
+	 * Obtiene la lista de CAs con todos los certificados del almacn y el fichero de
+	 * validacin de la ACCV. Se construye una vez por versin y se comparte, por lo
+	 * que es de slo lectura: aadirle certificados o cambiar su fichero de validacin
+	 * lanza una UnsupportedOperationException. Para modificarla hay que crear otra con
+	 * sus certificados.
+	 *
+	 * @return Lista de CAs (de slo lectura)
+	 * @throws NormalizeCertificateException Alguno de los certificados no se puede normalizar
+	 * @throws ValidationXMLException El fichero de validacin no es vlido
+	 * @throws ResourceNotLoadedException No se puede cargar el fichero de validacin
+	 */
+	public CAList getCAList() throws NormalizeCertificateException, ValidationXMLException, ResourceNotLoadedException {
+		return snapshot.getCAList();
 	}
 
 	/**
@@ -75,15 +123,21 @@ public class BBDDCerts {
 	 * @throws CertificateCANotFoundException the certificate CA not found exception
 	 */
 	public void putCA(String name, String folderPath) throws CertificateCANotFoundException {
-		certificatesCA.add(ArangiUtil.loadCertificate(name, folderPath));
+		X509Certificate certificate = ArangiUtil.loadCertificate(name, folderPath);
+		synchronized (this) {
+			List<X509Certificate> certificatesCA = new ArrayList<X509Certificate>(snapshot.getCertificates());
+			certificatesCA.add(certificate);
+			snapshot = new Snapshot(snapshot.getVersion() + 1, certificatesCA);
+		}
 	}
 
 	/**
 	 * Adds the ca baltimore.
 	 *
+	 * @param certificatesCA lista a la que se aaden los certificados
 	 * @throws CertificateCANotFoundException the certificate CA not found exception
 	 */
-	private void addCaBaltimore() throws CertificateCANotFoundException {
+	private void addCaBaltimore(List<X509Certificate> certificatesCA) throws CertificateCANotFoundException {
 		// -- CA Baltimore
 		certificatesCA.add(ArangiUtil.loadCertificate("certificate/CAGVA"));
 		certificatesCA.add(ArangiUtil.loadCertificate("certificate/TEST_CATEST"));
@@ -92,9 +146,10 @@ public class BBDDCerts {
 	/**
 	 * Adds the ca antigua.
 	 *
+	 * @param certificatesCA lista a la que se aaden los certificados
 	 * @throws CertificateCANotFoundException the certificate CA not found exception
 	 */
-	private void addCaAntigua() throws CertificateCANotFoundException {
+	private void addCaAntigua(List<X509Certificate> certificatesCA) throws CertificateCANotFoundException {
 		// -- CA Antigua
 		certificatesCA.add(ArangiUtil.loadCertificate("certificate/ROOT_CA"));
 		certificatesCA.add(ArangiUtil.loadCertificate("certificate/ACCV-CA1"));
@@ -106,9 +161,10 @@ public class BBDDCerts {
 	/**
 	 * Adds the ca nueva.
 	 *
+	 * @param certificatesCA lista a la que se aaden los certificados
 	 * @throws CertificateCANotFoundException the certificate CA not found exception
 	 */
-	private void addCaNueva() throws CertificateCANotFoundException {
+	private void addCaNueva(List<X509Certificate> certificatesCA) throws CertificateCANotFoundException {
 		// -- CA Nueva
 		certificatesCA.add(ArangiUtil.loadCertificate("certificate/ACCVRAIZ1"));
 		certificatesCA.add(ArangiUtil.loadCertificate("certificate/ACCV-CA110-SHA1"));
@@ -126,9 +182,10 @@ public class BBDDCerts {
 	/**
 	 * Adds the ca DN ie.
 	 *
+	 * @param certificatesCA lista a la que se aaden los certificados
 	 * @throws CertificateCANotFoundException the certificate CA not found exception
 	 */
-	private void addCaDNIe() throws CertificateCANotFoundException {
+	private void addCaDNIe(List<X509Certificate> certificatesCA) throws CertificateCANotFoundException {
 		// -- DNIe
 		certificatesCA.add(ArangiUtil.loadCertificate("certificate/ACRAIZ-SHA2"));
 		certificatesCA.add(ArangiUtil.loadCertificate("certificate/ACDNIE001-SHA2"));
@@ -139,4 +196,179 @@ public class BBDDCerts {
 		certificatesCA.add(ArangiUtil.loadCertificate("certificate/ACDNIE006-SHA2"));
 	}
 	
+	/**
+	 * Contenedor de la instancia nica, que se crea la primera vez que se usa.
+	 */
+	private static class Holder {
+		
+		/** Instancia nica. */
+		static final BBDDCerts INSTANCE = new BBDDCerts();
+	}
+
+	/**
+	 * Versin inmutable del almacn.
+	 */
+	public static class Snapshot {
+
+		/** Nmero de versin. */
+		private final long version;
+
+		/** Certificados. */
+		private final List<X509Certificate> certificates;
+
+		/** Certificados por SKI. */
+		private final Map<String, X509Certificate> bySubjectKeyIdentifier = new HashMap<String, X509Certificate>();
+
+		/** Certificados por DN del sujeto. */
+		private final Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<X500Principal, List<X509Certificate>>();
+
+		/** Lista de CAs de slo lectura, que se crea la primera vez que se pide. */
+		private volatile CAList caList;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param version Nmero de versin
+		 * @param certificates Certificados
+		 */
+		Snapshot(long version, List<X509Certificate> certificates) {
+			this.version = version;
+			this.certificates = Collections.unmodifiableList(new ArrayList<X509Certificate>(certificates));
+			for (X509Certificate certificate : this.certificates) {
+				String ski = Certificate.getSubjectKeyIdentifier(certificate);
+				if (ski != null) {
+					bySubjectKeyIdentifier.put(ski, certificate);
+				}
+				List<X509Certificate> sameSubject = bySubject.get(certificate.getSubjectX500Principal());
+				if (sameSubject == null) {
+					sameSubject = new ArrayList<X509Certificate>(1);
+					bySubject.put(certificate.getSubjectX500Principal(), sameSubject);
+				}
+				sameSubject.add(certificate);
+			}
+		}
+
+		/**
+		 * Obtiene el nmero de versin.
+		 *
+		 * @return Nmero de versin
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Obtiene los certificados.
+		 *
+		 * @return Certificados (lista no modificable)
+		 */
+		public List<X509Certificate> getCertificates() {
+			return certificates;
+		}
+
+		/**
+		 * Obtiene el emisor de un certificado: primero por su AKI y, si no se encuentra,
+		 * por el DN del emisor. Si varias CAs comparten el DN se devuelve aquella cuya
+		 * clave verifica la firma del certificado.
+		 *
+		 * @param certificate Certificado
+		 * @return Emisor o nulo si no est en el almacn
+		 */
+		public X509Certificate getIssuer(X509Certificate certificate) {
+			String aki = Certificate.getIssuerKeyIdentifier(certificate);
+			if (aki != null) {
+				X509Certificate issuer = bySubjectKeyIdentifier.get(aki);
+				if (issuer != null) {
+					return issuer;
+				}
+			}
+			List<X509Certificate> candidates = bySubject.get(certificate.getIssuerX500Principal());
+			if (candidates == null) {
+				return null;
+			}
+			if (candidates.size() > 1) {
+				for (X509Certificate candidate : candidates) {
+					try {
+						certificate.verify(candidate.getPublicKey());
+						return candidate;
+					} catch (GeneralSecurityException e) {
+						// -- No lo ha firmado esta CA, se prueba la siguiente
+					}
+				}
+			}
+			return candidates.get(0);
+		}
+
+		/**
+		 * Obtiene la lista de CAs con los certificados de esta versin y el fichero de
+		 * validacin de la ACCV. Se crea la primera vez que se pide y es de slo lectura,
+		 * ya que la comparten todos los que la piden.
+		 *
+		 * @return Lista de CAs (de slo lectura)
+		 * @throws NormalizeCertificateException Alguno de los certificados no se puede normalizar
+		 * @throws ValidationXMLException El fichero de validacin no es vlido
+		 * @throws ResourceNotLoadedException No se puede cargar el fichero de validacin
+		 */
+		public CAList getCAList() throws NormalizeCertificateException, ValidationXMLException, ResourceNotLoadedException {
+			CAList result = caList;
+			if (result == null) {
+				synchronized (this) {
+					result = caList;
+					if (result == null) {
+						result = new ReadOnlyCAList(certificates, ArangiUtil.loadFile("file/validation_data_accv.xml"));
+						caList = result;
+					}
+				}
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Lista de CAs que no se puede modificar una vez construida.
+	 */
+	private static class ReadOnlyCAList extends CAList {
+		
+		/** Indica si la lista ya est construida. */
+		private boolean sealed;
+		
+		/**
+		 * Constructor.
+		 *
+		 * @param certificates Certificados
+		 * @param validationXML Contenido del fichero de validacin
+		 * @throws NormalizeCertificateException Alguno de los certificados no se puede normalizar
+		 * @throws ValidationXMLException El fichero de validacin no es vlido
+		 */
+		ReadOnlyCAList(List<X509Certificate> certificates, byte[] validationXML) throws NormalizeCertificateException, ValidationXMLException {
+			super(certificates);
+			super.setValidationXML(validationXML);
+			sealed = true;
+		}
+		
+		public void addCACertificate(X509Certificate certificate) {
+			checkNotSealed();
+			super.addCACertificate(certificate);
+		}
+		
+		public void setValidationXML(byte[] validationXML) throws ValidationXMLException {
+			checkNotSealed();
+			super.setValidationXML(validationXML);
+		}
+		
+		public void setValidationXML(File validationXML) throws Exception {
+			checkNotSealed();
+			super.setValidationXML(validationXML);
+		}
+		
+		/**
+		 * Lanza una excepcin si la lista ya est construida.
+		 */
+		private void checkNotSealed() {
+			if (sealed) {
+				throw new UnsupportedOperationException("La lista de CAs de Arang es compartida y no se puede modificar");
+			}
+		}
+	}
+	
 }
@@ -0,0 +1,594 @@
+/**
+ * LICENCIA LGPL:
+ *
+ * Esta librera es Software Libre; Usted puede redistribuirla y/o modificarla
+ * bajo los trminos de la GNU Lesser General Public License (LGPL) tal y como
+ * ha sido publicada por la Free Software Foundation; o bien la versin 2.1 de
+ * la Licencia, o (a su eleccin) cualquier versin posterior.
+ *
+ * Esta librera se distribuye con la esperanza de que sea til, pero SIN
+ * NINGUNA GARANTA; tampoco las implcitas garantas de MERCANTILIDAD o
+ * ADECUACIN A UN PROPSITO PARTICULAR. Consulte la GNU Lesser General Public
+ * License (LGPL) para ms detalles
+ *
+ * Usted debe recibir una copia de la GNU Lesser General Public License (LGPL)
+ * junto con esta librera; si no es as, escriba a la Free Software Foundation
+ * Inc. 51 Franklin Street, 5 Piso, Boston, MA 02110-1301, USA o consulte
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2011 Agencia de Tecnologa y Certificacin Electrnica
+ */
+package es.accv.arangi.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+import es.accv.arangi.base.certificate.Certificate;
+import es.accv.arangi.base.exception.certificate.CertificateCANotFoundException;
+import es.accv.arangi.base.exception.certificate.NormalizeCertificateException;
+import es.accv.arangi.base.util.Util;
+import es.accv.arangi.exception.ResourceNotLoadedException;
+
+/**
+ * Fichero binario que agrupa los certificados de CA y los ficheros de validacin
+ * que se distribuyen con Arang, junto con un ndice de sus SKI, sujetos y URLs de
+ * OCSP y CRL. El fichero se lee mediante memoria mapeada y los certificados slo se
+ * decodifican la primera vez que se piden, por lo que abrirlo es mucho ms rpido que
+ * cargar cada recurso desde el classpath.<br><br>
+ *
+ * Se puede generar en tiempo de construccin:<br><br>
+ *
+ * <code>
+ * 	TrustBundle.generate(new File("/ruta/arangi-trust.bundle"));
+ * </code><br><br>
+ *
+ * o dejar que {@link ArangiUtil ArangiUtil} lo genere la primera vez que se ejecuta,
+ * indicando su ruta en la propiedad de sistema {@link #TRUST_BUNDLE_PROPERTY}. En este
+ * caso, si los recursos del classpath cambian (otra versin de la librera o recursos
+ * de usuario nuevos) el fichero se vuelve a generar: al generarlo se guarda una huella
+ * de los jar y directorios que contienen los recursos, que se compara sin leerlos 
+ * (ver {@link #isUpToDate()}).<br><br>
+ *
+ * Formato: nmero mgico, versin, huella de los recursos de origen, ndice de certificados
+ * (nombre, SKI, sujeto, URLs de OCSP, URLs de CRL, posicin y tamao), ndice de ficheros
+ * (nombre, posicin y tamao) y, a continuacin, los contenidos en DER o tal cual.
+ */
+public class TrustBundle {
+
+	/**
+	 * Propiedad de sistema con la ruta del fichero. Si el fichero no existe se genera.
+	 */
+	public static final String TRUST_BUNDLE_PROPERTY = "es.accv.arangi.trustbundle";
+
+	/*
+	 * Nmero mgico ("ARTB") y versin del formato
+	 */
+	private static final int MAGIC = 0x41525442;
+	private static final int FORMAT_VERSION = 2;
+
+	/*
+	 * Logger de la clase
+	 */
+	static Logger logger = Logger.getLogger(TrustBundle.class);
+
+	/*
+	 * Contenido del fichero
+	 */
+	private ByteBuffer buffer;
+
+	/*
+	 * Huella de los recursos a partir de los que se gener
+	 */
+	private String sourceStamp;
+
+	/*
+	 * Entradas de certificados, por nombre y por SKI
+	 */
+	private Map<String, Integer> hmCertificatesByName = new HashMap<String, Integer>();
+	private Map<String, Integer> hmCertificatesBySKI = new HashMap<String, Integer>();
+	private List<Entry> lCertificates = new ArrayList<Entry>();
+
+	/*
+	 * Certificados ya decodificados
+	 */
+	private AtomicReferenceArray<X509Certificate> decoded;
+
+	/*
+	 * Entradas de ficheros, por nombre
+	 */
+	private Map<String, Entry> hmFiles = new HashMap<String, Entry>();
+
+	/**
+	 * Abre un fichero generado con {@link #generate(File)} mapendolo en memoria.
+	 *
+	 * @param file Fichero
+	 * @return Contenido del fichero
+	 * @throws IOException No se puede leer el fichero o no tiene el formato correcto
+	 */
+	public static TrustBundle open (File file) throws IOException {
+		logger.debug ("[TrustBundle.open]::Abriendo " + file);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new TrustBundle(buffer);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Genera un fichero con todos los certificados de CA y ficheros de validacin que
+	 * se distribuyen con Arang, leyndolos mediante {@link ArangiUtil ArangiUtil}.
+	 *
+	 * @param file Fichero a generar
+	 * @throws IOException No se puede escribir el fichero
+	 * @throws CertificateCANotFoundException No se encuentra alguno de los certificados
+	 * @throws ResourceNotLoadedException No se encuentra alguno de los ficheros
+	 */
+	public static void generate (File file) throws IOException, CertificateCANotFoundException, ResourceNotLoadedException {
+		logger.debug ("[TrustBundle.generate]::Generando " + file);
+
+		//-- Huella de los recursos de origen (antes de leerlos: si cambian mientras
+		//-- tanto el fichero se volver a generar)
+		String sourceStamp = getSourceStamp();
+
+		//-- Obtener los contenidos
+		List<byte[]> lContents = new ArrayList<byte[]>();
+		List<X509Certificate> lCertificates = new ArrayList<X509Certificate>();
+		for (String name : ArangiUtil.BUNDLED_CA_CERTIFICATES) {
+			X509Certificate certificate = ArangiUtil.loadCertificate(name);
+			lCertificates.add(certificate);
+			try {
+				lContents.add(certificate.getEncoded());
+			} catch (java.security.cert.CertificateEncodingException e) {
+				throw new IOException ("No se puede codificar el certificado " + name, e);
+			}
+		}
+		for (String fileName : ArangiUtil.BUNDLED_FILES) {
+			lContents.add(ArangiUtil.loadFile(fileName));
+		}
+
+		//-- Escribir la cabecera
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(baos);
+		header.writeInt(MAGIC);
+		header.writeInt(FORMAT_VERSION);
+		header.writeUTF(sourceStamp);
+		header.writeInt(lCertificates.size());
+		int offset = 0;
+		for (int i = 0; i < lCertificates.size(); i++) {
+			X509Certificate certificate = lCertificates.get(i);
+			header.writeUTF(ArangiUtil.BUNDLED_CA_CERTIFICATES[i]);
+			String ski = Certificate.getSubjectKeyIdentifier(certificate);
+			header.writeUTF(ski == null ? "" : ski);
+			header.writeUTF(certificate.getSubjectX500Principal().getName());
+			String[] ocspUrls = new String[0];
+			String[] crlUrls = new String[0];
+			try {
+				Certificate arangiCertificate = new Certificate(certificate);
+				ocspUrls = nonNull(arangiCertificate.getOcspUrls());
+				crlUrls = nonNull(arangiCertificate.getCrlUrls());
+			} catch (Exception e) {
+				logger.debug ("[TrustBundle.generate]::No se han podido obtener las URLs de " + ArangiUtil.BUNDLED_CA_CERTIFICATES[i], e);
+			}
+			writeStrings(header, ocspUrls);
+			writeStrings(header, crlUrls);
+			header.writeInt(offset);
+			header.writeInt(lContents.get(i).length);
+			offset += lContents.get(i).length;
+		}
+		header.writeInt(ArangiUtil.BUNDLED_FILES.length);
+		for (int i = 0; i < ArangiUtil.BUNDLED_FILES.length; i++) {
+			byte[] content = lContents.get(lCertificates.size() + i);
+			header.writeUTF(ArangiUtil.BUNDLED_FILES[i]);
+			header.writeInt(offset);
+			header.writeInt(content.length);
+			offset += content.length;
+		}
+		header.flush();
+
+		//-- Escribir en un fichero temporal propio y moverlo de forma atmica, para que 
+		//-- nadie lea un fichero a medias aunque se genere a la vez desde varios procesos
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean moved = false;
+		try {
+			FileOutputStream fos = new FileOutputStream(tmp);
+			try {
+				DataOutputStream out = new DataOutputStream(fos);
+				out.writeInt(baos.size());
+				baos.writeTo(out);
+				for (byte[] content : lContents) {
+					out.write(content);
+				}
+				out.flush();
+			} finally {
+				fos.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		} finally {
+			if (!moved && !tmp.delete()) {
+				logger.debug ("[TrustBundle.generate]::No se ha podido borrar " + tmp);
+			}
+		}
+	}
+
+	/**
+	 * Calcula la huella de los jar y directorios del classpath que contienen el paquete
+	 * de usuario y el de la librera (ver {@link ArangiUtil ArangiUtil}): ruta, fecha de
+	 * modificacin y tamao de cada jar y de cada fichero de los directorios. No se
+	 * lee ningn recurso, por lo que se puede comprobar cada vez que se abre el fichero.
+	 *
+	 * @return Huella de los recursos
+	 * @throws IOException No se puede acceder al classpath
+	 */
+	public static String getSourceStamp () throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//-- No se dar: todas las JVM implementan SHA-256
+			throw new IOException ("SHA-256 no est disponible", e);
+		}
+
+		ClassLoader classLoader = ArangiUtil.class.getClassLoader();
+		Set<String> stamps = new TreeSet<String>();
+		for (String packageName : new String[] { ArangiUtil.PRIMARY_FILES_REPOSITORY_PACKAGE, ArangiUtil.SECONDARY_FILES_REPOSITORY_PACKAGE }) {
+			for (Enumeration<URL> urls = classLoader.getResources(packageName); urls.hasMoreElements();) {
+				stamps.add(packageName + "=" + getContainerStamp(urls.nextElement()));
+			}
+		}
+		//-- Un jar sin entradas de directorio no devuelve el paquete: la librera se
+		//-- localiza tambin por uno de sus ficheros
+		URL libraryFile = classLoader.getResource(ArangiUtil.SECONDARY_FILES_REPOSITORY_PACKAGE + "/" + ArangiUtil.BUNDLED_FILES[0]);
+		if (libraryFile != null) {
+			stamps.add("library=" + getContainerStamp(libraryFile));
+		}
+		
+		for (String stamp : stamps) {
+			digest.update((stamp + "\n").getBytes("UTF-8"));
+		}
+		return Util.toHexadecimal(digest.digest());
+	}
+
+	/**
+	 * Indica si el fichero se gener a partir de los recursos que hay ahora en el
+	 * classpath (ver {@link #getSourceStamp()}).
+	 *
+	 * @return Cierto si los recursos no han cambiado desde que se gener
+	 * @throws IOException No se puede acceder a alguno de los recursos
+	 */
+	public boolean isUpToDate () throws IOException {
+		return sourceStamp.equals(getSourceStamp());
+	}
+
+	/**
+	 * Indica si el fichero contiene un certificado
+	 *
+	 * @param name Nombre del certificado (como en {@link ArangiUtil#loadCertificate(String)})
+	 * @return Cierto si el fichero contiene el certificado
+	 */
+	public boolean containsCertificate (String name) {
+		return hmCertificatesByName.containsKey(name);
+	}
+
+	/**
+	 * Obtiene un certificado. Se decodifica la primera vez que se pide.
+	 *
+	 * @param name Nombre del certificado (como en {@link ArangiUtil#loadCertificate(String)})
+	 * @return Certificado o nulo si el fichero no lo contiene
+	 * @throws NormalizeCertificateException El contenido no es un certificado vlido
+	 */
+	public X509Certificate getCertificate (String name) throws NormalizeCertificateException {
+		Integer index = hmCertificatesByName.get(name);
+		return index == null ? null : getCertificate(index.intValue());
+	}
+
+	/**
+	 * Obtiene un certificado por su SKI
+	 *
+	 * @param subjectKeyIdentifier SKI del certificado
+	 * @return Certificado o nulo si el fichero no lo contiene
+	 * @throws NormalizeCertificateException El contenido no es un certificado vlido
+	 */
+	public X509Certificate getCertificateBySubjectKeyIdentifier (String subjectKeyIdentifier) throws NormalizeCertificateException {
+		Integer index = hmCertificatesBySKI.get(subjectKeyIdentifier);
+		return index == null ? null : getCertificate(index.intValue());
+	}
+
+	/**
+	 * Obtiene el sujeto de un certificado sin decodificarlo
+	 *
+	 * @param name Nombre del certificado
+	 * @return Sujeto (RFC 2253) o nulo si el fichero no contiene el certificado
+	 */
+	public String getSubject (String name) {
+		Integer index = hmCertificatesByName.get(name);
+		return index == null ? null : lCertificates.get(index.intValue()).subject;
+	}
+
+	/**
+	 * Obtiene las URLs de OCSP de un certificado sin decodificarlo
+	 *
+	 * @param name Nombre del certificado
+	 * @return URLs (lista vaca si no tiene o el fichero no contiene el certificado)
+	 */
+	public List<String> getOcspUrls (String name) {
+		Integer index = hmCertificatesByName.get(name);
+		return index == null ? Collections.<String>emptyList() : lCertificates.get(index.intValue()).ocspUrls;
+	}
+
+	/**
+	 * Obtiene las URLs de CRL de un certificado sin decodificarlo
+	 *
+	 * @param name Nombre del certificado
+	 * @return URLs (lista vaca si no tiene o el fichero no contiene el certificado)
+	 */
+	public List<String> getCrlUrls (String name) {
+		Integer index = hmCertificatesByName.get(name);
+		return index == null ? Collections.<String>emptyList() : lCertificates.get(index.intValue()).crlUrls;
+	}
+
+	/**
+	 * Obtiene los nombres de los certificados del fichero
+	 *
+	 * @return Nombres
+	 */
+	public List<String> getCertificateNames () {
+		List<String> result = new ArrayList<String>();
+		for (Entry entry : lCertificates) {
+			result.add(entry.name);
+		}
+		return result;
+	}
+
+	/**
+	 * Indica si el fichero contiene un fichero de validacin
+	 *
+	 * @param fileName Nombre del fichero (como en {@link ArangiUtil#loadFile(String)})
+	 * @return Cierto si lo contiene
+	 */
+	public boolean containsFile (String fileName) {
+		return hmFiles.containsKey(fileName);
+	}
+
+	/**
+	 * Obtiene el contenido de un fichero de validacin
+	 *
+	 * @param fileName Nombre del fichero (como en {@link ArangiUtil#loadFile(String)})
+	 * @return Contenido o nulo si no lo contiene
+	 */
+	public byte[] getFile (String fileName) {
+		Entry entry = hmFiles.get(fileName);
+		return entry == null ? null : read(entry);
+	}
+
+	//-- Mtodos privados
+
+	/*
+	 * Constructor: lee los ndices y comprueba que todas las posiciones y tamaos
+	 * estn dentro del fichero
+	 */
+	private TrustBundle (ByteBuffer buffer) throws IOException {
+		int size = buffer.capacity();
+		if (size < 4) {
+			throw new IOException ("El fichero est truncado");
+		}
+		int headerLength = buffer.getInt(0);
+		checkBounds(4, headerLength, size);
+		DataInputStream header = new DataInputStream(new ByteBufferInputStream(buffer, 4, headerLength));
+		if (header.readInt() != MAGIC) {
+			throw new IOException ("El fichero no es un almacn de certificados de Arang");
+		}
+		int version = header.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException ("Versin del fichero no soportada: " + version);
+		}
+		sourceStamp = header.readUTF();
+
+		int dataStart = 4 + headerLength;
+		int count = header.readInt();
+		for (int i = 0; i < count; i++) {
+			Entry entry = new Entry();
+			entry.name = header.readUTF();
+			String ski = header.readUTF();
+			entry.subject = header.readUTF();
+			entry.ocspUrls = readStrings(header);
+			entry.crlUrls = readStrings(header);
+			readPosition(header, entry, dataStart, size);
+			hmCertificatesByName.put(entry.name, Integer.valueOf(i));
+			if (ski.length() > 0) {
+				hmCertificatesBySKI.put(ski, Integer.valueOf(i));
+			}
+			lCertificates.add(entry);
+		}
+		count = header.readInt();
+		for (int i = 0; i < count; i++) {
+			Entry entry = new Entry();
+			entry.name = header.readUTF();
+			readPosition(header, entry, dataStart, size);
+			hmFiles.put(entry.name, entry);
+		}
+
+		this.buffer = buffer;
+		this.decoded = new AtomicReferenceArray<X509Certificate>(lCertificates.size());
+	}
+
+	/*
+	 * Obtiene un certificado, decodificndolo si es la primera vez
+	 */
+	private X509Certificate getCertificate (int index) throws NormalizeCertificateException {
+		X509Certificate certificate = decoded.get(index);
+		if (certificate == null) {
+			certificate = Util.getCertificate(read(lCertificates.get(index)));
+			decoded.compareAndSet(index, null, certificate);
+			certificate = decoded.get(index);
+		}
+		return certificate;
+	}
+
+	/*
+	 * Lee el contenido de una entrada
+	 */
+	private byte[] read (Entry entry) {
+		byte[] result = new byte[entry.length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(entry.offset);
+		view.get(result);
+		return result;
+	}
+
+	/*
+	 * Lee la posicin y el tamao de una entrada, comprobando que est dentro del fichero
+	 */
+	private static void readPosition (DataInputStream header, Entry entry, int dataStart, int size) throws IOException {
+		int offset = header.readInt();
+		entry.length = header.readInt();
+		checkBounds((long) dataStart + offset, entry.length, size);
+		entry.offset = dataStart + offset;
+	}
+	
+	/*
+	 * Comprueba que una parte del fichero est dentro de l
+	 */
+	private static void checkBounds (long offset, int length, int size) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > size) {
+			throw new IOException ("El fichero est truncado o daado: posicin " + offset + " y tamao " + length + 
+					" fuera de sus " + size + " bytes");
+		}
+	}
+	
+	/*
+	 * Obtiene la huella del jar o directorio que contiene un recurso: ruta, fecha de
+	 * modificacin y tamao del jar o de cada fichero del directorio
+	 */
+	private static String getContainerStamp (URL url) throws IOException {
+		if ("jar".equals(url.getProtocol())) {
+			URL jarURL = ((JarURLConnection) url.openConnection()).getJarFileURL();
+			if (!"file".equals(jarURL.getProtocol())) {
+				return jarURL.toString();
+			}
+			File jar = toFile(jarURL);
+			return jarURL + "/" + jar.lastModified() + "/" + jar.length();
+		}
+		if ("file".equals(url.getProtocol())) {
+			StringBuilder stamp = new StringBuilder(url.toString());
+			appendFileStamps(toFile(url), stamp);
+			return stamp.toString();
+		}
+		return url.toString();
+	}
+	
+	private static void appendFileStamps (File file, StringBuilder stamp) {
+		File[] children = file.listFiles();
+		if (children == null) {
+			stamp.append('|').append(file.getName()).append('/').append(file.lastModified()).append('/').append(file.length());
+			return;
+		}
+		Arrays.sort(children);
+		for (File child : children) {
+			appendFileStamps(child, stamp);
+		}
+	}
+	
+	private static File toFile (URL url) throws IOException {
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException ("La URL " + url + " no es un fichero", e);
+		} catch (IllegalArgumentException e) {
+			throw new IOException ("La URL " + url + " no es un fichero", e);
+		}
+	}
+
+	private static String[] nonNull (String[] values) {
+		return values == null ? new String[0] : values;
+	}
+
+	private static void writeStrings (DataOutputStream out, String[] values) throws IOException {
+		out.writeShort(values.length);
+		for (String value : values) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static List<String> readStrings (DataInputStream in) throws IOException {
+		int count = in.readUnsignedShort();
+		List<String> result = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			result.add(in.readUTF());
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/*
+	 * Entrada del ndice
+	 */
+	private static class Entry {
+		String name;
+		String subject;
+		List<String> ocspUrls;
+		List<String> crlUrls;
+		int offset;
+		int length;
+	}
+
+	/*
+	 * Stream de lectura sobre una parte de un ByteBuffer
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private ByteBuffer view;
+
+		ByteBufferInputStream (ByteBuffer buffer, int offset, int length) {
+			view = buffer.duplicate();
+			view.position(offset);
+			view.limit(offset + length);
+		}
+
+		public int read() {
+			return view.hasRemaining() ? view.get() & 0xFF : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (!view.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, view.remaining());
+			view.get(b, off, len);
+			return len;
+		}
+	}
+
+}